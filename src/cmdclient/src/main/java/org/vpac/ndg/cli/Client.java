@@ -109,12 +109,13 @@ public class Client {
 			"rsa timeslice update <TIMESLICE_ID> [--xmax|xmin|ymax|ymin] [--abstract] [--acquisitiontime] \n" +
 			"rsa timeslice delete <TIMESLICE_ID/DATASET_ID> [--time-extents]\n" +
 			//"rsa data upload [options] [UPLOAD ID] [SEQUENCE NUM] <FILE...>\n" +
-			"rsa data import [options] [-r] [--srcnodata] [--async] <TIMESLICE_ID> <BAND_ID> <PRIMARY FILE> [FILE...]\n" +
+			"rsa data import [options] [-r] [--srcnodata] [--warper] [--threads] [--upload-id] [--async] <TIMESLICE_ID> <BAND_ID> <PRIMARY FILE> [FILE...]\n" +
 			"rsa data export [options] [-r] [-obet] [--async] <DATASET_ID>\n" +
 			"rsa data query [options] [-obet] [--of] [--async] <QUERY_DEF_FILE>\n" +
 			"rsa data download [options] [o] <TASK_ID>\n" +
 			"rsa data task [options] [--monitor] [TASK_ID]\n" +
 			"rsa data cleanup [options] [--purge]\n" +
+			"rsa data reindex [options] [DATASET_ID]\n" +
 			"rsa filter list [options]";
 //			"rsa help <CATEGORY>\n";
 
@@ -952,12 +953,17 @@ public class Client {
 		}
 
 		Boolean bilinear = getUseBilinear();
+		Boolean inProcessWarp = getUseInProcessWarp();
 
 		files = remainingArgs.subList(2, remainingArgs.size());
 
 		// First, upload to the staging area.
 		DataUpload uploader = sm.getDataUploader();
 		uploader.setTimeSlice(timeSliceId);
+		if (cmd.hasOption("threads"))
+			uploader.setThreads(cmd.getOptionValue("threads"));
+		if (cmd.hasOption("upload-id"))
+			uploader.setUploadId(cmd.getOptionValue("upload-id"));
 
 		for (String f : files) {
 			if (f.trim().isEmpty())
@@ -982,6 +988,7 @@ public class Client {
 		importer.setUploadId(uploadId);
 		importer.setBand(bandId);
 		importer.setUseBilinearInterpolation(bilinear);
+		importer.setUseInProcessWarp(inProcessWarp);
 		if (srcnodata != null && !srcnodata.isEmpty()) {
 			importer.setSrcnodata(srcnodata);
 		}
@@ -1048,6 +1055,20 @@ public class Client {
 		return bilinear;
 	}
 
+	private Boolean getUseInProcessWarp() {
+		Boolean inProcess = null;
+		if (cmd.hasOption("warper")) {
+			String value = cmd.getOptionValue("warper");
+			if (value.equals("gdalwarp"))
+				inProcess = false;
+			else if (value.equals("java"))
+				inProcess = true;
+			else
+				throw new IllegalArgumentException(String.format("Unrecognised warper %s", value));
+		}
+		return inProcess;
+	}
+
 	/**
 	 * Export a section of data from the storage pool.
 	 * @param remainingArgs dataset ID
@@ -1266,6 +1287,25 @@ public class Client {
 				numCleaned);
 	}
 
+	/**
+	 * Rebuild the tile manifests, e.g. after tiles have been copied into the
+	 * storage pool by hand.
+	 * @param remainingArgs dataset ID; if omitted, all datasets are indexed.
+	 * @throws IOException If a manifest could not be written.
+	 */
+	public void reindex(List<String> remainingArgs) throws IOException {
+		log.info("Rebuilding tile manifests.");
+
+		String datasetId = null;
+		if (remainingArgs.size() > 0)
+			datasetId = remainingArgs.get(0);
+
+		DataCleanup dc = sm.getDataCleanup();
+		int numIndexed = dc.rebuildTileManifests(datasetId);
+		System.out.format("Indexed the tiles of %d time slices.\n",
+				numIndexed);
+	}
+
 	public void listTasks(List<String> remainingArgs)
 			throws TaskInitialisationException, TaskException {
 		log.info("Listing tasks.");
@@ -1371,7 +1411,8 @@ public class Client {
 				+ " not specified, a file will be created in the current"
 				+ " directory. It will be named after the input.");
 		options.addOption(null, "threads", true,
-				"The number of threads to use (default: 1).");
+				"The number of threads to use (default: 1, or 4 when uploading"
+				+ " to a remote server).");
 		options.addOption("y", "task-type", true,
 				"The task type to filter by (default: no filter).");
 		options.addOption("s", "status", true,
@@ -1391,6 +1432,13 @@ public class Client {
 				+ " Use with `data task` command.");
 		options.addOption(null, "srcnodata", true,
 				"The input file nodata value.");
+		options.addOption(null, "upload-id", true,
+				"Continue an interrupted upload. The ID is printed when an"
+				+ " upload fails. Use with `data import`.");
+		options.addOption(null, "warper", true,
+				"How to cut imported data into tiles: gdalwarp or java"
+				+ " (in-process). If not specified, the inProcessWarp"
+				+ " setting of the server is used.");
 		options.addOption(null, "name", true,
 				"The new name of the object. Use with the `update` action.");
 		options.addOption(null, "cdl", false,
@@ -1533,6 +1581,8 @@ public class Client {
 					listTasks(remainingArgs);
 				} else if (action.equals("cleanup")) {
 					cleanup(remainingArgs);
+				} else if (action.equals("reindex")) {
+					reindex(remainingArgs);
 				} else {
 					throw new IllegalArgumentException(String.format("%s is not a recognised action.", action));
 				}
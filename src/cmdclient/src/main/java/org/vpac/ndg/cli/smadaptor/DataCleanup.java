@@ -19,8 +19,18 @@
 
 package org.vpac.ndg.cli.smadaptor;
 
+import java.io.IOException;
+
 public interface DataCleanup {
 
 	int cleanLocks(boolean force);
 
+	/**
+	 * Rebuild the tile manifests of a dataset from the storage pool.
+	 *
+	 * @param datasetId The dataset to index, or null for all datasets.
+	 * @return The number of time slices that were indexed.
+	 */
+	int rebuildTileManifests(String datasetId) throws IOException;
+
 }
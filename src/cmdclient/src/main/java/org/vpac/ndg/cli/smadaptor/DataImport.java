@@ -43,4 +43,10 @@ public interface DataImport extends HasDescription {
 	 */
 	public void setUseBilinearInterpolation(Boolean value);
 
+	/**
+	 * @param value Whether to cut the tiles in-process rather than with
+	 *        gdalwarp. If null, the storage manager's configuration decides.
+	 */
+	public void setUseInProcessWarp(Boolean value);
+
 }
@@ -30,4 +30,9 @@ public interface DataUpload {
 	public void setTimeSlice(String timeSliceId);
 
 	public void setUploadId(String uploadId);
+
+	/**
+	 * @param threads The number of files or chunks to send at once.
+	 */
+	public void setThreads(String threads);
 }
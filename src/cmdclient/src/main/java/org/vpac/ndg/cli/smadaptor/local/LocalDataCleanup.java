@@ -19,15 +19,24 @@
 
 package org.vpac.ndg.cli.smadaptor.local;
 
+import java.io.IOException;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.vpac.ndg.cli.smadaptor.DataCleanup;
 import org.vpac.ndg.lock.ProcessUpdateTimer;
+import org.vpac.ndg.storage.dao.DatasetDao;
+import org.vpac.ndg.storage.model.Dataset;
+import org.vpac.ndg.storage.util.TileManifest;
 import org.vpac.ndg.storage.util.TimeSliceUtil;
 
 public class LocalDataCleanup implements DataCleanup {
 
 	@Autowired
 	TimeSliceUtil timeSliceUtil;
+	@Autowired
+	DatasetDao datasetDao;
+	@Autowired
+	TileManifest tileManifest;
 
 	@Override
 	public int cleanLocks(boolean force) {
@@ -40,4 +49,21 @@ public class LocalDataCleanup implements DataCleanup {
 		}
 	}
 
+	@Override
+	public int rebuildTileManifests(String datasetId) throws IOException {
+		if (datasetId != null) {
+			Dataset ds = datasetDao.retrieve(datasetId);
+			if (ds == null) {
+				throw new IllegalArgumentException(String.format(
+						"Dataset with ID = \"%s\" not found.", datasetId));
+			}
+			return tileManifest.rebuild(ds);
+		}
+
+		int count = 0;
+		for (Dataset ds : datasetDao.getAll())
+			count += tileManifest.rebuild(ds);
+		return count;
+	}
+
 }
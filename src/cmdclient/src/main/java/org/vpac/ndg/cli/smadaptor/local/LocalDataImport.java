@@ -33,6 +33,7 @@ public class LocalDataImport implements DataImport {
 	protected String bandId;
 	protected String srcnodata;
 	private Boolean useBilinearInterpolation;
+	private Boolean useInProcessWarp;
 	private List<String> remainingArgs;
 
 	public LocalDataImport() {
@@ -47,6 +48,8 @@ public class LocalDataImport implements DataImport {
 		importer.setSrcnodata(this.srcnodata);
 		if (useBilinearInterpolation != null)
 			importer.setUseBilinearInterpolation(useBilinearInterpolation);
+		if (useInProcessWarp != null)
+			importer.setUseInProcessWarp(useInProcessWarp);
 
 		importer.configure();
 		String taskId = importer.getTaskId();
@@ -76,6 +79,11 @@ public class LocalDataImport implements DataImport {
 		this.useBilinearInterpolation = value;
 	}
 
+	@Override
+	public void setUseInProcessWarp(Boolean value) {
+		this.useInProcessWarp = value;
+	}
+
 	/**
 	 * Get the command description of this import.
 	 */
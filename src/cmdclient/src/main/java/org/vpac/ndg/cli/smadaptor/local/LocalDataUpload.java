@@ -75,4 +75,9 @@ public class LocalDataUpload implements DataUpload {
 	public void setUploadId(String uploadId) {
 		this.uploadId = uploadId;
 	}
+
+	@Override
+	public void setThreads(String threads) {
+		// Files are copied directly, so there is nothing to parallelise.
+	}
 }
@@ -29,7 +29,6 @@ import org.vpac.ndg.Utils;
 import org.vpac.ndg.cli.smadaptor.DatasetConnector;
 import org.vpac.ndg.common.datamodel.CellSize;
 import org.vpac.ndg.datamodel.AggregationDefinition;
-import org.vpac.ndg.datamodel.AggregationOpener;
 import org.vpac.ndg.datamodel.RsaAggregationFactory;
 import org.vpac.ndg.geometry.Box;
 import org.vpac.ndg.storage.dao.DatasetDao;
@@ -110,14 +109,11 @@ public class LocalDatasetConnector implements DatasetConnector {
 	public String getCdl(String identifier, Box extents, Date startDate,
 			Date endDate) throws IOException {
 		RsaAggregationFactory factory = new RsaAggregationFactory();
-		AggregationOpener opener = new AggregationOpener();
 
 		Dataset ds = getDataset(identifier);
-		AggregationDefinition aggregation = factory.create(ds, extents,
-				startDate, endDate, null);
 		NetcdfDataset ncfile = null;
 		try {
-			ncfile = opener.open(aggregation, identifier);
+			ncfile = factory.open(ds, extents, startDate, endDate, null);
 			return ncfile.toString();
 		} finally {
 			if (ncfile != null)
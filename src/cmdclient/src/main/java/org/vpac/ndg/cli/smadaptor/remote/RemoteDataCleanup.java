@@ -26,6 +26,7 @@ import org.vpac.web.model.response.CleanUpResponse;
 
 public class RemoteDataCleanup implements DataCleanup {
 	public static String CLEAN_UP_LOCKS_URL = "/Data/CleanUp.xml?force={force}";
+	public static String REINDEX_URL = "/Data/ReIndex.xml?datasetId={datasetId}";
 	private String baseUri;
 	
 	@Autowired
@@ -40,6 +41,12 @@ public class RemoteDataCleanup implements DataCleanup {
 		return timeSliceUtil.cleanOthers(process.getId(), force);
 */	}
 
+	@Override
+	public int rebuildTileManifests(String datasetId) {
+		CleanUpResponse response = restTemplate.postForObject(baseUri + REINDEX_URL, null, CleanUpResponse.class, datasetId);
+		return response.getCount();
+	}
+
 	public String getBaseUri() {
 		return baseUri;
 	}
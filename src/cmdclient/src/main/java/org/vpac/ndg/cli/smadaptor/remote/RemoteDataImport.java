@@ -30,7 +30,7 @@ import org.vpac.ndg.exceptions.TaskInitialisationException;
 import org.vpac.web.model.response.ImportResponse;
 
 public class RemoteDataImport implements DataImport {
-	public static String GET_IMPORT_URL = "/Data/Import.xml?taskId={taskId}&bandId={bandId}&srcnodata={srcnodata}&useBilinearInterpolation={useBilinearInterpolation}";
+	public static String GET_IMPORT_URL = "/Data/Import.xml?taskId={taskId}&bandId={bandId}&srcnodata={srcnodata}&useBilinearInterpolation={useBilinearInterpolation}&useInProcessWarp={useInProcessWarp}";
 
 	private String baseUri;
 	@Autowired
@@ -40,6 +40,7 @@ public class RemoteDataImport implements DataImport {
 	protected String bandId;
 	protected String srcnodata;
 	private Boolean useBilinearInterpolation;
+	private Boolean useInProcessWarp;
 	private List<String> remainingArgs;
 
 	public RemoteDataImport(String baseUri) {
@@ -49,7 +50,7 @@ public class RemoteDataImport implements DataImport {
 
 	@Override
 	public String start() throws TaskInitialisationException, TaskException {
-		ImportResponse response = restTemplate.postForObject(baseUri + GET_IMPORT_URL, null, ImportResponse.class, this.uploadId, this.bandId, this.srcnodata, this.useBilinearInterpolation);
+		ImportResponse response = restTemplate.postForObject(baseUri + GET_IMPORT_URL, null, ImportResponse.class, this.uploadId, this.bandId, this.srcnodata, this.useBilinearInterpolation, this.useInProcessWarp);
 		return response.getTaskId();
 	}
 
@@ -72,6 +73,11 @@ public class RemoteDataImport implements DataImport {
 	public void setUseBilinearInterpolation(Boolean value) {
 		useBilinearInterpolation = value;
 	}
+
+	@Override
+	public void setUseInProcessWarp(Boolean value) {
+		useInProcessWarp = value;
+	}
 	
 	public String getBaseUri() {
 		return baseUri;
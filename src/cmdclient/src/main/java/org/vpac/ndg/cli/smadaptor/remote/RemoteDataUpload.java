@@ -19,22 +19,54 @@
 
 package org.vpac.ndg.cli.smadaptor.remote;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.vpac.ndg.cli.smadaptor.DataUpload;
+import org.vpac.ndg.storage.util.ChunkStore;
+import org.vpac.web.model.response.ChunkListResponse;
 import org.vpac.web.model.response.FileInfoResponse;
 
+/**
+ * Sends files to the server in chunks. Chunks are named after the digest of
+ * their contents, so the server can report which ones it already has: an
+ * upload that was interrupted can be resumed by passing its ID to
+ * {@link #setUploadId(String)}, and only the missing chunks will be sent.
+ */
 public class RemoteDataUpload implements DataUpload {
 	public static String UPLOAD_FILE_URL = "/Data/Upload.xml";
+	public static String LIST_CHUNKS_URL = "/Data/Upload/{taskId}/Chunks.xml";
+	public static String UPLOAD_CHUNK_URL = "/Data/Upload/{taskId}/Chunks/{chunkId}.xml";
+	public static String ASSEMBLE_URL = "/Data/Upload/{taskId}/Assemble.xml";
+
+	/** The size of the pieces that files are sent in. */
+	public static final int CHUNK_SIZE = 8 * 1024 * 1024;
+	static final int MAX_ATTEMPTS = 3;
+
+	static final Logger log = LoggerFactory.getLogger(RemoteDataUpload.class);
 
 	private String baseUri;
 	@Autowired
@@ -43,29 +75,172 @@ public class RemoteDataUpload implements DataUpload {
 	protected List<Path> sourceFiles;
 	protected String timeSliceId;
 	protected String uploadId;
+	protected int threads = 4;
 
 	public RemoteDataUpload() {
 		sourceFiles = new ArrayList<Path>();
 	}
 
+	/**
+	 * A piece of a source file.
+	 */
+	static class Chunk {
+		Path file;
+		long offset;
+		int length;
+
+		Chunk(Path file, long offset, int length) {
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		byte[] read() throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(length);
+			try (FileChannel channel = FileChannel.open(file,
+					StandardOpenOption.READ)) {
+				while (buf.hasRemaining()) {
+					if (channel.read(buf, offset + buf.position()) < 0)
+						throw new EOFException(String.format(
+								"%s changed during upload", file));
+				}
+			}
+			return buf.array();
+		}
+	}
+
 	@Override
 	public String upload() throws IOException, IllegalArgumentException {
 		if(sourceFiles.size() == 0) {
 			throw new IllegalArgumentException("No source file to upload.");
 		}
-		
+
+		if (uploadId == null || uploadId.isEmpty())
+			uploadId = createUpload();
+		else
+			log.info("Resuming upload {}", uploadId);
+
+		// Work out which chunks make up each file. A chunk that appears more
+		// than once only needs to be sent once.
+		Map<String, Chunk> chunks = new LinkedHashMap<String, Chunk>();
+		List<String> chunkLists = new ArrayList<String>();
+		for (Path file : sourceFiles)
+			chunkLists.add(split(file, chunks));
+
+		ChunkListResponse present = restTemplate.getForObject(
+				baseUri + LIST_CHUNKS_URL, ChunkListResponse.class, uploadId);
+		if (present.getItems() != null)
+			chunks.keySet().removeAll(present.getItems());
+		log.info("Sending {} chunks", chunks.size());
+		sendChunks(chunks);
+
+		MultiValueMap<String, String> form = new LinkedMultiValueMap<String, String>();
+		for (int i = 0; i < sourceFiles.size(); i++) {
+			form.add("name", sourceFiles.get(i).getFileName().toString());
+			form.add("chunks", chunkLists.get(i));
+		}
+		try {
+			restTemplate.postForObject(baseUri + ASSEMBLE_URL, form,
+					FileInfoResponse.class, uploadId);
+		} catch (RestClientException e) {
+			throw new IOException(String.format(
+					"Could not assemble files of upload %s: %s", uploadId,
+					e.getMessage()), e);
+		}
+		return uploadId;
+	}
+
+	String createUpload() {
 		MultiValueMap<String, Object> mvm = new LinkedMultiValueMap<String, Object>();
-	    mvm.add("timesliceId", "");
-	    mvm.add("taskId", this.uploadId);
-	    for(Path file : sourceFiles) {
-		    Resource resource = new FileSystemResource(file.toFile());
-		    mvm.add("files", resource);
-	    }
-
-	    FileInfoResponse response = restTemplate.postForObject(baseUri + UPLOAD_FILE_URL, mvm, FileInfoResponse.class);
+		mvm.add("timeSliceId", timeSliceId == null ? "" : timeSliceId);
+		FileInfoResponse response = restTemplate.postForObject(baseUri + UPLOAD_FILE_URL, mvm, FileInfoResponse.class);
+		log.info("Created upload {}", response.getId());
 		return response.getId();
 	}
 
+	/**
+	 * Find the chunks of a file.
+	 * @param chunks Chunks are added to this map, keyed by their IDs.
+	 * @return The IDs of the file's chunks, in order, separated by spaces.
+	 */
+	String split(Path file, Map<String, Chunk> chunks) throws IOException {
+		StringBuilder ids = new StringBuilder();
+		byte[] buf = new byte[CHUNK_SIZE];
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			long offset = 0;
+			while (true) {
+				ByteBuffer bb = ByteBuffer.wrap(buf);
+				while (bb.hasRemaining() && channel.read(bb) >= 0)
+					;
+				int length = bb.position();
+				if (length == 0)
+					break;
+				String id = ChunkStore.getId(buf, 0, length);
+				if (!chunks.containsKey(id))
+					chunks.put(id, new Chunk(file, offset, length));
+				if (ids.length() > 0)
+					ids.append(' ');
+				ids.append(id);
+				offset += length;
+			}
+		}
+		return ids.toString();
+	}
+
+	void sendChunks(Map<String, Chunk> chunks) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> results = new ArrayList<Future<Void>>();
+			for (Map.Entry<String, Chunk> entry : chunks.entrySet()) {
+				final String id = entry.getKey();
+				final Chunk chunk = entry.getValue();
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						sendChunk(id, chunk);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results)
+				result.get();
+		} catch (ExecutionException e) {
+			throw new IOException(String.format(
+					"%s. Chunks that were sent have been kept; run the"
+					+ " command again with --upload-id %s to resume.",
+					e.getCause().getMessage(), uploadId), e.getCause());
+		} catch (InterruptedException e) {
+			throw new IOException(String.format(
+					"Upload interrupted. Run the command again with"
+					+ " --upload-id %s to resume.", uploadId), e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	void sendChunk(String id, Chunk chunk) throws IOException {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+		HttpEntity<byte[]> entity = new HttpEntity<byte[]>(chunk.read(), headers);
+		for (int attempt = 1; ; attempt++) {
+			try {
+				restTemplate.postForObject(baseUri + UPLOAD_CHUNK_URL, entity,
+						FileInfoResponse.class, uploadId, id);
+				log.debug("Sent chunk {} of {}", id, chunk.file);
+				return;
+			} catch (RestClientException e) {
+				if (attempt >= MAX_ATTEMPTS) {
+					throw new IOException(String.format(
+							"Could not send chunk of %s at byte %d: %s",
+							chunk.file, chunk.offset, e.getMessage()), e);
+				}
+				log.warn("Failed to send chunk {}; retrying: {}", id,
+						e.getMessage());
+			}
+		}
+	}
+
 	@Override
 	public void addInput(Path sourceFile) {
 		sourceFiles.add(sourceFile);
@@ -80,6 +255,11 @@ public class RemoteDataUpload implements DataUpload {
 	public void setUploadId(String uploadId) {
 		this.uploadId = uploadId;
 	}
+
+	@Override
+	public void setThreads(String threads) {
+		this.threads = Integer.parseInt(threads);
+	}
 	
 	public String getBaseUri() {
 		return baseUri;
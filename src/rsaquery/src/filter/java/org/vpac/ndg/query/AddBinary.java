@@ -21,9 +21,11 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.filter.Rank;
 import org.vpac.ndg.query.math.BoxReal;
@@ -38,7 +40,7 @@ import org.vpac.ndg.query.sampling.PixelSource;
  */
 @Description(name = "Add", description = "Add two pixels together")
 @InheritDimensions(from = "in")
-public class AddBinary implements Filter {
+public class AddBinary implements BlockFilter {
 
 	@Rank(group="in", promote=true)
 	public PixelSource inputA;
@@ -49,12 +51,42 @@ public class AddBinary implements Filter {
 	@CellType("inputA")
 	public Cell output;
 
+	BlockBuffer convertedB;
+
 	@Override
 	public void initialise(BoxReal bounds) throws QueryException {
+		convertedB = null;
 	}
 
 	@Override
 	public void kernel(VectorReal coords) throws IOException {
 		output.set(inputA.getPixel(coords).add(inputB.getPixel(coords)));
 	}
+
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer a = block.read(inputA);
+		BlockBuffer b = block.read(inputB);
+		BlockBuffer out = block.getOutput(output);
+
+		// Like Element arithmetic, operate in the type of the first operand.
+		if (convertedB == null)
+			convertedB = block.createBuffer();
+		b = b.convert(a.prototype, n, convertedB);
+		out.prototype = a.prototype;
+
+		double[] av = a.values;
+		double[] bv = b.values;
+		double[] ov = out.values;
+		for (int i = 0; i < n; i++) {
+			ov[i] = av[i] + bv[i];
+			out.valid[i] = a.valid[i] && b.valid[i];
+		}
+	}
 }
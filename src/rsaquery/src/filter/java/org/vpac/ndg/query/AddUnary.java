@@ -21,9 +21,11 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.Element;
@@ -38,7 +40,7 @@ import org.vpac.ndg.query.sampling.PixelSource;
  */
 @Description(name = "Add Unary", description = "Add a constant value to each pixel")
 @InheritDimensions(from = "input")
-public class AddUnary implements Filter {
+public class AddUnary implements BlockFilter {
 
 	public int value;
 
@@ -47,15 +49,41 @@ public class AddUnary implements Filter {
 	@CellType("input")
 	public Cell output;
 
+	Element<?> sum;
+
 	@Override
 	public void initialise(BoxReal bounds) throws QueryException {
+		sum = input.getPrototype().getElement().copy();
 	}
 
 	@Override
 	public void kernel(VectorReal coords) throws IOException {
-		Element<?> currentCell = input.getPixel(coords);
-		currentCell.add(value);
-		output.set(currentCell);
+		// Don't modify the pixel in place: it may belong to another filter
+		// that has other readers.
+		sum.set(input.getPixel(coords));
+		sum.add(value);
+		output.set(sum);
+	}
+
+	@Override
+	public boolean supportsBlocks() {
+		return true;
 	}
 
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer in = block.read(input);
+		BlockBuffer out = block.getOutput(output);
+		out.prototype = in.prototype;
+
+		// Like Element arithmetic, convert the constant to the pixel type.
+		double c = in.prototype.copy().set((long) value).doubleValue();
+		double[] iv = in.values;
+		double[] ov = out.values;
+		for (int i = 0; i < n; i++) {
+			ov[i] = iv[i] + c;
+			out.valid[i] = in.valid[i];
+		}
+	}
 }
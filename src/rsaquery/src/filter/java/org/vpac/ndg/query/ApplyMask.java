@@ -21,9 +21,11 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.filter.Rank;
 import org.vpac.ndg.query.math.BoxReal;
@@ -35,7 +37,7 @@ import org.vpac.ndg.query.sampling.PixelSourceScalar;
 
 @Description(name = "Apply Mask", description = "Returns input (pass-through) for non-zero mask pixels, or nodata for zero mask pixels.")
 @InheritDimensions(from = "in")
-public class ApplyMask implements Filter {
+public class ApplyMask implements BlockFilter {
 
 	// Input fields.
 	@Rank(promote = true, group = "in")
@@ -59,4 +61,24 @@ public class ApplyMask implements Filter {
 		else
 			output.unset();
 	}
+
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer in = block.read(input);
+		BlockBuffer m = block.read(mask);
+		BlockBuffer out = block.getOutput(output);
+		out.prototype = in.prototype;
+		for (int i = 0; i < n; i++) {
+			// Same truncation as ScalarElement.byteValue().
+			boolean pass = m.valid[i] && (byte) (int) m.values[i] != 0;
+			out.values[i] = in.values[i];
+			out.valid[i] = pass && in.valid[i];
+		}
+	}
 }
@@ -23,8 +23,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.math.ElementByte;
 import org.vpac.ndg.query.math.ScalarElement;
@@ -37,7 +39,7 @@ import org.vpac.ndg.query.sampling.PixelSourceScalar;
  * @author Alex Fraser
  */
 @InheritDimensions(from = "input")
-public abstract class In implements Filter {
+public abstract class In implements BlockFilter {
 
 	public PixelSourceScalar input;
 	public double EPSILON = 0.00001;
@@ -47,6 +49,11 @@ public abstract class In implements Filter {
 
 	private List<Double> lowerBounds;
 	private List<Double> upperBounds;
+
+	// Copies of the bounds, for block processing.
+	private double[] lowerLimits;
+	private double[] upperLimits;
+
 	private ScalarElement match = new ElementByte((byte) 1);
 	private ScalarElement fail = new ElementByte((byte) 0);
 
@@ -87,6 +94,13 @@ public abstract class In implements Filter {
 		} catch (NumberFormatException e) {
 			throw new QueryBindingException("Failed to parse bounds.", e);
 		}
+
+		lowerLimits = new double[lowerBounds.size()];
+		upperLimits = new double[upperBounds.size()];
+		for (int i = 0; i < lowerLimits.length; i++) {
+			lowerLimits[i] = lowerBounds.get(i);
+			upperLimits[i] = upperBounds.get(i);
+		}
 	}
 
 	@Override
@@ -106,4 +120,27 @@ public abstract class In implements Filter {
 		}
 		output.set(fail);
 	}
+
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer in = block.read(input);
+		BlockBuffer out = block.getOutput(output);
+		for (int i = 0; i < n; i++) {
+			out.valid[i] = in.valid[i];
+			double v = in.values[i];
+			out.values[i] = 0;
+			for (int j = 0; j < lowerLimits.length; j++) {
+				if (v >= lowerLimits[j] && !(v > upperLimits[j])) {
+					out.values[i] = 1;
+					break;
+				}
+			}
+		}
+	}
 }
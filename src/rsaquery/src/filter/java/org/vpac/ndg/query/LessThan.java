@@ -21,9 +21,11 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.ElementByte;
@@ -34,7 +36,7 @@ import org.vpac.ndg.query.sampling.PixelSourceScalar;
 
 @Description(name = "Less Than", description = "Generates a mask\nmask = input < value")
 @InheritDimensions(from = "input")
-public class LessThan implements Filter {
+public class LessThan implements BlockFilter {
 
 	// Parameters.
 	public float value = 1.0f;
@@ -67,4 +69,21 @@ public class LessThan implements Filter {
 		else
 			mask.set(fail);
 	}
+
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer in = block.read(input);
+		BlockBuffer out = block.getOutput(mask);
+		for (int i = 0; i < n; i++) {
+			// Written to match ScalarElement.compareTo, e.g. for NaN.
+			out.values[i] = !(in.values[i] >= value) ? 1 : 0;
+			out.valid[i] = in.valid[i];
+		}
+	}
 }
@@ -20,15 +20,19 @@
 package org.vpac.ndg.query;
 
 import java.io.IOException;
+import java.util.Arrays;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.filter.Rank;
 import org.vpac.ndg.query.iteration.Reduction;
 import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.Element;
+import org.vpac.ndg.query.math.ScalarElement;
 import org.vpac.ndg.query.math.VectorReal;
 import org.vpac.ndg.query.sampling.Cell;
 import org.vpac.ndg.query.sampling.PixelSource;
@@ -40,7 +44,7 @@ import org.vpac.ndg.query.sampling.PixelSource;
  */
 @Description(name = "Mean", description = "Find the mean over time")
 @InheritDimensions(from = "input", reduceBy = 1)
-public class MeanOverTime implements Filter {
+public class MeanOverTime implements BlockFilter {
 
 	// Input fields.
 	@Rank(lowerBound = 2)
@@ -59,6 +63,11 @@ public class MeanOverTime implements Filter {
 
 	Reduction reduction;
 
+	// Storage for block processing.
+	private BlockBuffer slice;
+	private float[] means;
+	private int[] counts;
+
 	@Override
 	public void initialise(BoxReal bounds) throws QueryException {
 		// Don't just create an ElementFloat here. Using asFloat() allows the
@@ -104,4 +113,40 @@ public class MeanOverTime implements Filter {
 		output.set(mean);
 	}
 
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		if (slice == null) {
+			slice = block.createBuffer();
+			means = new float[slice.values.length];
+			counts = new int[slice.values.length];
+		}
+		Arrays.fill(means, 0, n, 0.0f);
+		Arrays.fill(counts, 0, n, 0);
+
+		// Same algorithm as the kernel, in single precision to give the same
+		// results.
+		for (VectorReal co : reduction.getIterator(block.getOrigin())) {
+			block.read(input, co, slice);
+			for (int i = 0; i < n; i++) {
+				if (!slice.valid[i])
+					continue;
+				counts[i]++;
+				float d = (float) slice.values[i] - means[i];
+				means[i] += d / counts[i];
+			}
+		}
+
+		BlockBuffer out = block.getOutput(output);
+		out.prototype = (ScalarElement) mean;
+		for (int i = 0; i < n; i++) {
+			out.values[i] = means[i];
+			out.valid[i] = counts[i] > 0;
+		}
+	}
 }
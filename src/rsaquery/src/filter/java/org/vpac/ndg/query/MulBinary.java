@@ -21,12 +21,15 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.filter.Rank;
 import org.vpac.ndg.query.math.BoxReal;
+import org.vpac.ndg.query.math.ElementInt;
 import org.vpac.ndg.query.math.VectorReal;
 import org.vpac.ndg.query.sampling.Cell;
 import org.vpac.ndg.query.sampling.PixelSource;
@@ -38,7 +41,7 @@ import org.vpac.ndg.query.sampling.PixelSource;
  */
 @Description(name = "Multiply", description = "Multiply two pixels together")
 @InheritDimensions(from = "in")
-public class MulBinary implements Filter {
+public class MulBinary implements BlockFilter {
 
 	@Rank(group = "in", promote = true)
 	public PixelSource inputA;
@@ -49,8 +52,11 @@ public class MulBinary implements Filter {
 	@CellType("inputA")
 	public Cell output;
 
+	BlockBuffer convertedB;
+
 	@Override
 	public void initialise(BoxReal bounds) throws QueryException {
+		convertedB = null;
 	}
 
 	@Override
@@ -58,4 +64,32 @@ public class MulBinary implements Filter {
 		output.set(inputA.getPixel(coords).mul(inputB.getPixel(coords)));
 	}
 
+	@Override
+	public boolean supportsBlocks() {
+		// Products of 32-bit integers may not be exact as doubles, so they
+		// wouldn't wrap around in the same way.
+		return !(BlockBuffer.typeOf(inputA) instanceof ElementInt);
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer a = block.read(inputA);
+		BlockBuffer b = block.read(inputB);
+		BlockBuffer out = block.getOutput(output);
+
+		// Like Element arithmetic, operate in the type of the first operand.
+		if (convertedB == null)
+			convertedB = block.createBuffer();
+		b = b.convert(a.prototype, n, convertedB);
+		out.prototype = a.prototype;
+
+		double[] av = a.values;
+		double[] bv = b.values;
+		double[] ov = out.values;
+		for (int i = 0; i < n; i++) {
+			ov[i] = av[i] * bv[i];
+			out.valid[i] = a.valid[i] && b.valid[i];
+		}
+	}
 }
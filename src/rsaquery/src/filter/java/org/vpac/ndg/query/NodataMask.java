@@ -21,9 +21,11 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.Element;
@@ -38,7 +40,7 @@ import org.vpac.ndg.query.sampling.PixelSource;
  */
 @Description(name = "Nodata Mask", description = "Return 1 for data, and 0 for nodata")
 @InheritDimensions(from = "input")
-public class NodataMask implements Filter {
+public class NodataMask implements BlockFilter {
 
 	public PixelSource input;
 
@@ -65,4 +67,19 @@ public class NodataMask implements Filter {
 			output.set(zero);
 	}
 
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer in = block.read(input);
+		BlockBuffer out = block.getOutput(output);
+		for (int i = 0; i < n; i++) {
+			out.values[i] = in.valid[i] ? 1 : 0;
+			out.valid[i] = true;
+		}
+	}
 }
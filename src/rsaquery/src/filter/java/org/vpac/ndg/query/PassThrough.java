@@ -21,9 +21,11 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.VectorReal;
@@ -32,7 +34,7 @@ import org.vpac.ndg.query.sampling.PixelSource;
 
 @Description(name = "Pass Through", description = "Copy pixel from input to output")
 @InheritDimensions(from = "input")
-public class PassThrough implements Filter {
+public class PassThrough implements BlockFilter {
 
 	public PixelSource input;
 
@@ -48,4 +50,18 @@ public class PassThrough implements Filter {
 		output.set(input.getPixel(outputCoords));
 	}
 
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer in = block.read(input);
+		BlockBuffer out = block.getOutput(output);
+		out.prototype = in.prototype;
+		System.arraycopy(in.values, 0, out.values, 0, n);
+		System.arraycopy(in.valid, 0, out.valid, 0, n);
+	}
 }
@@ -21,9 +21,11 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Description;
-import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
 import org.vpac.ndg.query.filter.Rank;
 import org.vpac.ndg.query.math.BoxReal;
@@ -38,7 +40,7 @@ import org.vpac.ndg.query.sampling.PixelSource;
  */
 @Description(name = "Subtract", description = "Subtract two pixels together")
 @InheritDimensions(from = "in")
-public class SubBinary implements Filter {
+public class SubBinary implements BlockFilter {
 
 	@Rank(group = "in", promote = true)
 	public PixelSource inputA;
@@ -49,8 +51,11 @@ public class SubBinary implements Filter {
 	@CellType("inputA")
 	public Cell output;
 
+	BlockBuffer convertedB;
+
 	@Override
 	public void initialise(BoxReal bounds) throws QueryException {
+		convertedB = null;
 	}
 
 	@Override
@@ -58,4 +63,30 @@ public class SubBinary implements Filter {
 		output.set(inputA.getPixel(coords).sub(inputB.getPixel(coords)));
 	}
 
+	@Override
+	public boolean supportsBlocks() {
+		return true;
+	}
+
+	@Override
+	public void kernelBlock(Block block) throws IOException {
+		int n = block.getLength();
+		BlockBuffer a = block.read(inputA);
+		BlockBuffer b = block.read(inputB);
+		BlockBuffer out = block.getOutput(output);
+
+		// Like Element arithmetic, operate in the type of the first operand.
+		if (convertedB == null)
+			convertedB = block.createBuffer();
+		b = b.convert(a.prototype, n, convertedB);
+		out.prototype = a.prototype;
+
+		double[] av = a.values;
+		double[] bv = b.values;
+		double[] ov = out.values;
+		for (int i = 0; i < n; i++) {
+			ov[i] = av[i] - bv[i];
+			out.valid[i] = a.valid[i] && b.valid[i];
+		}
+	}
 }
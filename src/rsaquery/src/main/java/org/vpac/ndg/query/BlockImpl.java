@@ -0,0 +1,210 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vpac.ndg.query.filter.Block;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.math.ScalarElement;
+import org.vpac.ndg.query.math.VectorReal;
+import org.vpac.ndg.query.sampling.Cell;
+import org.vpac.ndg.query.sampling.CellScalar;
+import org.vpac.ndg.query.sampling.PixelSource;
+
+/**
+ * Engine-side implementation of {@link Block}: reads inputs for a run of
+ * pixels, and hands the results back to the filter's output cells one pixel
+ * at a time.
+ */
+public class BlockImpl implements Block {
+
+	/**
+	 * The maximum number of pixels in a block.
+	 */
+	static final int MAX_LENGTH = 64;
+
+	private VectorReal origin;
+	private VectorReal co;
+	private int length;
+	/**
+	 * Incremented for each new block, to invalidate cached input values.
+	 */
+	private int generation;
+
+	private Map<PixelSource, Input> inputs;
+	private Map<Cell, Output> outputs;
+	private List<Output> outputList;
+	private BlockBuffer discard;
+
+	private static class Input {
+		BlockBuffer buffer;
+		int generation;
+	}
+
+	private static class Output {
+		CellScalar cell;
+		BlockBuffer buffer;
+		ScalarElement scratch;
+	}
+
+	/**
+	 * @param rank The number of dimensions of the filter.
+	 * @param cells The bound output cells of the filter; all must be scalar.
+	 */
+	public BlockImpl(int rank, List<CellScalar> cells) {
+		origin = VectorReal.createEmpty(rank);
+		co = VectorReal.createEmpty(rank);
+		length = 0;
+		generation = 0;
+		inputs = new IdentityHashMap<PixelSource, Input>();
+		outputs = new IdentityHashMap<Cell, Output>();
+		outputList = new ArrayList<Output>();
+		for (CellScalar cell : cells) {
+			Output output = new Output();
+			output.cell = cell;
+			output.buffer = new BlockBuffer(MAX_LENGTH, typeOf(cell));
+			output.scratch = output.buffer.prototype.copy();
+			outputs.put(cell, output);
+			outputList.add(output);
+		}
+		discard = createBuffer();
+	}
+
+	private static ScalarElement typeOf(Cell cell) {
+		return (ScalarElement) cell.getPrototype().getElement();
+	}
+
+	/**
+	 * Start a new block. Output buffers are reset to their cells' types, and
+	 * all values are marked as invalid.
+	 */
+	void reset(VectorReal origin, int length) {
+		this.origin.set(origin);
+		this.length = length;
+		generation++;
+		for (Output output : outputList) {
+			output.buffer.prototype = typeOf(output.cell);
+			Arrays.fill(output.buffer.valid, 0, length, false);
+		}
+	}
+
+	/**
+	 * @return The offset of the given coordinates within the current block,
+	 *         or -1 if they are not part of it.
+	 */
+	int indexOf(VectorReal co) {
+		if (length == 0)
+			return -1;
+		int xi = co.size() - 1;
+		for (int i = 0; i < xi; i++) {
+			if (co.get(i) != origin.get(i))
+				return -1;
+		}
+		double dx = co.get(xi) - origin.get(xi);
+		if (dx < 0 || dx >= length || dx != Math.floor(dx))
+			return -1;
+		return (int) dx;
+	}
+
+	/**
+	 * Write the values of one pixel to the output cells.
+	 */
+	void store(int offset) {
+		for (Output output : outputList) {
+			BlockBuffer buffer = output.buffer;
+			ScalarElement value = output.scratch;
+			if (value.getClass() != buffer.prototype.getClass()) {
+				value = buffer.prototype.copy();
+				output.scratch = value;
+			}
+			if (!buffer.valid[offset]) {
+				value.setValid(false);
+			} else if (BlockBuffer.isIntegral(value)) {
+				value.set((long) buffer.values[offset]);
+			} else {
+				value.set(buffer.values[offset]);
+			}
+			output.cell.setScalar(value);
+		}
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public VectorReal getOrigin() {
+		return origin;
+	}
+
+	@Override
+	public BlockBuffer read(PixelSource source) throws IOException {
+		Input input = inputs.get(source);
+		if (input == null) {
+			input = new Input();
+			input.buffer = createBuffer();
+			input.generation = generation - 1;
+			inputs.put(source, input);
+		}
+		if (input.generation != generation) {
+			read(source, origin, input.buffer);
+			input.generation = generation;
+		}
+		return input.buffer;
+	}
+
+	@Override
+	public void read(PixelSource source, VectorReal start, BlockBuffer into)
+			throws IOException {
+		// Reductions may read from sources of higher rank than the block.
+		if (co.size() != start.size())
+			co = VectorReal.createEmpty(start.size());
+		co.set(start);
+		double x = start.getX();
+		for (int i = 0; i < length; i++) {
+			co.setX(x + i);
+			ScalarElement value = (ScalarElement) source.getPixel(co);
+			into.values[i] = value.doubleValue();
+			into.valid[i] = value.isValid();
+		}
+		into.prototype = BlockBuffer.typeOf(source);
+	}
+
+	@Override
+	public BlockBuffer getOutput(Cell cell) {
+		Output output = outputs.get(cell);
+		if (output == null)
+			return discard;
+		return output.buffer;
+	}
+
+	@Override
+	public BlockBuffer createBuffer() {
+		return new BlockBuffer(MAX_LENGTH, null);
+	}
+}
@@ -21,6 +21,7 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -211,4 +212,12 @@ public class DatasetInput implements DatasetMeta, HasCoordinateSystem {
 		adapters.put(name, adapter);
 		return adapter;
 	}
+
+	/**
+	 * @return The variables that have been wrapped so far, i.e. those that are
+	 *         used by the query.
+	 */
+	public Collection<VariableAdapter> getVariableAdapters() {
+		return adapters.values();
+	}
 }
@@ -22,8 +22,10 @@ package org.vpac.ndg.query;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -31,6 +33,8 @@ import org.slf4j.LoggerFactory;
 import org.vpac.ndg.query.QueryDefinition.AttributeDefinition;
 import org.vpac.ndg.query.coordinates.HasBounds;
 import org.vpac.ndg.query.coordinates.HasRank;
+import org.vpac.ndg.query.filter.BlockBuffer;
+import org.vpac.ndg.query.filter.BlockFilter;
 import org.vpac.ndg.query.filter.CellType;
 import org.vpac.ndg.query.filter.Filter;
 import org.vpac.ndg.query.filter.InheritDimensions;
@@ -42,6 +46,7 @@ import org.vpac.ndg.query.math.Type;
 import org.vpac.ndg.query.math.VectorReal;
 import org.vpac.ndg.query.sampling.Cell;
 import org.vpac.ndg.query.sampling.CellFactory;
+import org.vpac.ndg.query.sampling.CellScalar;
 import org.vpac.ndg.query.sampling.HasDimensions;
 import org.vpac.ndg.query.sampling.HasPrototype;
 import org.vpac.ndg.query.sampling.NodataNullStrategy;
@@ -70,6 +75,14 @@ public class FilterAdapter implements HasBounds, HasRank, Diagnostics {
 	Map<String, GroupImpl> inputGroups;
 	private Map<String, PixelSource> outputSockets;
 
+	// Block processing; see BlockFilter. The block is null if the filter
+	// doesn't support it.
+	private boolean blocksEnabled;
+	private BlockImpl block;
+	private VectorReal nextCo;
+	private int runLength;
+	private long nblocks;
+
 	CellFactory cellFactory;
 	PixelSourceFactory pixelSourceFactory;
 
@@ -83,6 +96,8 @@ public class FilterAdapter implements HasBounds, HasRank, Diagnostics {
 		outputSockets = new HashMap<String, PixelSource>();
 		cellFactory = new CellFactory();
 		pixelSourceFactory = new PixelSourceFactory();
+		blocksEnabled = true;
+		block = null;
 
 		// Sanity check for fields before we try assigning anything to them.
 		Map<String, Field> fields = new HashMap<String, Field>();
@@ -109,6 +124,74 @@ public class FilterAdapter implements HasBounds, HasRank, Diagnostics {
 	 */
 	public void initialise() throws QueryException {
 		innerFilter.initialise(bounds);
+		block = null;
+		if (blocksEnabled && innerFilter instanceof BlockFilter)
+			block = createBlock();
+	}
+
+	/**
+	 * @param blocksEnabled Whether to use {@link BlockFilter#kernelBlock} if
+	 *        the filter supports it. Must be called before
+	 *        {@link #initialise()}.
+	 */
+	public void setBlocksEnabled(boolean blocksEnabled) {
+		this.blocksEnabled = blocksEnabled;
+	}
+
+	/**
+	 * @return True if the filter will be run on blocks of pixels.
+	 */
+	public boolean isBlockMode() {
+		return block != null;
+	}
+
+	/**
+	 * @return Storage for block processing, or null if the inputs and outputs
+	 *         can't be represented as blocks.
+	 */
+	private BlockImpl createBlock() throws QueryException {
+		List<CellScalar> cells = new ArrayList<CellScalar>();
+		for (Field field : innerFilter.getClass().getFields()) {
+			Object value;
+			try {
+				value = field.get(innerFilter);
+			} catch (IllegalAccessException e) {
+				throw new FilterDefinitionException(String.format(
+						"Could not access field %s.",
+						d.memberStr(field.getName())));
+			}
+			if (value == null)
+				continue;
+
+			if (value instanceof PixelSource) {
+				// Block buffers hold doubles, which can represent any value of
+				// 32 bits or less - and the sum or difference of two of them -
+				// exactly. 64-bit integers are rejected here, so filters only
+				// need to veto types for operations that grow faster, like
+				// multiplication.
+				if (!BlockBuffer.canHold((PixelSource) value)) {
+					log.debug("Not using blocks for {}: input {} is not a "
+							+ "simple scalar.", name, field.getName());
+					return null;
+				}
+			} else if (value instanceof Cell) {
+				if (!(value instanceof CellScalar)) {
+					log.debug("Not using blocks for {}: output {} is not "
+							+ "scalar.", name, field.getName());
+					return null;
+				}
+				cells.add((CellScalar) value);
+			}
+		}
+
+		if (!((BlockFilter) innerFilter).supportsBlocks()) {
+			log.debug("Not using blocks for {}: not supported for these "
+					+ "input types.", name);
+			return null;
+		}
+
+		log.debug("Using blocks for {}", name);
+		return new BlockImpl(bounds.getRank(), cells);
 	}
 
 	Cell createCell(String name) throws QueryException {
@@ -278,10 +361,43 @@ public class FilterAdapter implements HasBounds, HasRank, Diagnostics {
 							+ "dimensionality. Class is %s", name,
 							innerFilter.getClass().getSimpleName()), e);
 		}
-		innerFilter.kernel(internalCo);
+		if (block == null)
+			innerFilter.kernel(internalCo);
+		else
+			invokeBlock();
 		lastCo.set(co);
 	}
 
+	private void invokeBlock() throws IOException {
+		int offset = block.indexOf(internalCo);
+		if (offset < 0) {
+			// Grow the block while pixels are being requested in order. For
+			// other access patterns (e.g. a blur kernel reading this filter),
+			// reading ahead would be wasted; use the plain kernel instead.
+			if (internalCo.equals(nextCo))
+				runLength = Math.min(runLength * 2, BlockImpl.MAX_LENGTH);
+			else
+				runLength = 1;
+			int remaining = (int) Math.ceil(
+					bounds.getMax().getX() - internalCo.getX());
+			int length = Math.min(runLength, remaining);
+
+			nextCo.set(internalCo);
+			nextCo.setX(internalCo.getX() + Math.max(length, 1));
+
+			if (length <= 1) {
+				innerFilter.kernel(internalCo);
+				return;
+			}
+
+			block.reset(internalCo, length);
+			((BlockFilter) innerFilter).kernelBlock(block);
+			nblocks++;
+			offset = 0;
+		}
+		block.store(offset);
+	}
+
 	@Override
 	public BoxReal getBounds() {
 		return bounds;
@@ -397,6 +513,8 @@ public class FilterAdapter implements HasBounds, HasRank, Diagnostics {
 		this.bounds = bounds;
 		internalCo = VectorReal.createEmpty(bounds.getRank());
 		lastCo = VectorReal.createEmpty(bounds.getRank(), Double.NaN);
+		nextCo = VectorReal.createEmpty(bounds.getRank(), Double.NaN);
+		runLength = 1;
 	}
 
 	public String getName() {
@@ -552,6 +670,9 @@ public class FilterAdapter implements HasBounds, HasRank, Diagnostics {
 		if (!log.isInfoEnabled())
 			return;
 
+		if (block != null)
+			log.info("Filter {} processed {} block(s).", name, nblocks);
+
 		try {
 			for (Field f : innerFilter.getClass().getFields()) {
 				Object ob = f.get(innerFilter);
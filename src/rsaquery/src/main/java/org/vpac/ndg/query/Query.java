@@ -50,6 +50,7 @@ import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.VectorInt;
 import org.vpac.ndg.query.sampling.Binding;
 import org.vpac.ndg.query.sampling.PageCache;
+import org.vpac.ndg.query.sampling.PagePrefetcher;
 import org.vpac.ndg.query.sampling.TileGenerator;
 import org.vpac.ndg.query.sampling.TilingStrategy;
 import org.vpac.ndg.query.sampling.TilingStrategyStride;
@@ -86,8 +87,29 @@ public class Query implements Closeable {
 	protected Progress progress;
 	protected int numThreads = 2;
 
+	protected QueryCoordinateSystem csys;
+
+	/**
+	 * Reads input pages ahead of the output tiles that need them.
+	 */
+	protected PagePrefetcher prefetcher;
+	protected int prefetchTiles;
+	protected long prefetchBudget;
+
+	/**
+	 * Writes finished tiles while the next one is being generated.
+	 */
+	protected TileWriter tileWriter;
+	protected int writeBehind;
+
+	protected boolean blockProcessing;
+
 	static final int TILE_SIZE = 256;
 	static final int DEFAULT_WORKER_THREADS = 1;
+	static final int DEFAULT_PREFETCH_TILES = 2;
+	static final long DEFAULT_PREFETCH_BUDGET = 2000000;
+	static final int PREFETCH_THREADS = 1;
+	static final int DEFAULT_WRITE_BEHIND = 1;
 
 	static {
 		// The query engine has its own handling of nodata values; no need to
@@ -105,6 +127,10 @@ public class Query implements Closeable {
 		this.output = output;
 		filters = new ArrayList<List<FilterAdapter>>();
 		numThreads = DEFAULT_WORKER_THREADS;
+		prefetchTiles = DEFAULT_PREFETCH_TILES;
+		prefetchBudget = DEFAULT_PREFETCH_BUDGET;
+		writeBehind = DEFAULT_WRITE_BEHIND;
+		blockProcessing = true;
 		progress = new ProgressNull();
 
 		//tilingStrategy = new TilingStrategyCube(TILE_SIZE);
@@ -119,6 +145,54 @@ public class Query implements Closeable {
 		this.numThreads = numThreads;
 	}
 
+	/**
+	 * @param prefetchTiles The number of output tiles to read input data ahead
+	 *        for. Set to zero to disable read-ahead.
+	 */
+	public void setPrefetchTiles(int prefetchTiles) throws QueryException {
+		if (prefetchTiles < 0) {
+			throw new QueryException(
+					"Number of tiles to prefetch can not be negative.");
+		}
+		this.prefetchTiles = prefetchTiles;
+	}
+
+	/**
+	 * @param prefetchBudget The maximum number of input pixels that may be
+	 *        read ahead of time. This limits the memory used by read-ahead.
+	 */
+	public void setPrefetchBudget(long prefetchBudget) throws QueryException {
+		if (prefetchBudget < 0) {
+			throw new QueryException(
+					"Prefetch budget can not be negative.");
+		}
+		this.prefetchBudget = prefetchBudget;
+	}
+
+	/**
+	 * @param writeBehind The number of finished tiles that may be waiting to
+	 *        be written while the next tile is generated. Each one needs an
+	 *        extra set of output buffers. Set to zero to write each tile
+	 *        before starting the next.
+	 */
+	public void setWriteBehind(int writeBehind) throws QueryException {
+		if (writeBehind < 0) {
+			throw new QueryException(
+					"Number of tiles to write behind can not be negative.");
+		}
+		this.writeBehind = writeBehind;
+	}
+
+	/**
+	 * @param blockProcessing Whether to run filters that implement
+	 *        {@link org.vpac.ndg.query.filter.BlockFilter} on runs of pixels.
+	 *        This is on by default; turning it off is mostly useful for
+	 *        testing.
+	 */
+	public void setBlockProcessing(boolean blockProcessing) {
+		this.blockProcessing = blockProcessing;
+	}
+
 	/**
 	 * Constructs this query from a {@link QueryDefinition}.
 	 * @param qd The query, in serialised form.
@@ -170,7 +244,10 @@ public class Query implements Closeable {
 
 		// Now that the datasets are open, finish constructing the coordinate
 		// system.
-		QueryCoordinateSystem csys = constructCoordinateSystem(outputGrid);
+		csys = constructCoordinateSystem(outputGrid);
+		Double warpError = qdp.getQueryDefinition().output.grid.warpError;
+		if (warpError != null)
+			csys.setMaxWarpError(warpError);
 
 		// Create one factory per thread. This ensures each filter is only
 		// connected to others that were created for the same thread context.
@@ -283,6 +360,7 @@ public class Query implements Closeable {
 
 		log.info("Initialising filters");
 		for (FilterAdapter f : new Flatten<FilterAdapter>(filters)) {
+			f.setBlocksEnabled(blockProcessing);
 			f.initialise();
 		}
 
@@ -294,10 +372,23 @@ public class Query implements Closeable {
 		progress.setTotalQuanta(totalPixels);
 		log.info("Total output volume: {} pixels", totalPixels);
 
-		if (numThreads == 1)
-			tileProcessor = new TileProcessorSingle();
-		else
-			tileProcessor = new TileProcessorMultiple(numThreads);
+		tileProcessor = createTileProcessor();
+
+		if (prefetchTiles > 0 && prefetchBudget > 0) {
+			prefetcher = new PagePrefetcher(PREFETCH_THREADS, prefetchBudget);
+			for (DatasetInput di : datasetStore.getInputDatasets()) {
+				for (VariableAdapter va : di.getVariableAdapters())
+					prefetcher.addSource(va, csys);
+			}
+		}
+
+		if (writeBehind > 0) {
+			tileWriter = new TileWriter(output);
+			for (VectorInt shape : bindings.keys()) {
+				for (Binding b : bindings.get(shape))
+					b.setSpareBuffers(writeBehind);
+			}
+		}
 
 		log.info("Processing");
 		int step = 0;
@@ -311,6 +402,11 @@ public class Query implements Closeable {
 			}
 		} finally {
 			tileProcessor.shutDown();
+			// Cancel outstanding reads, in case the query was aborted.
+			if (prefetcher != null)
+				prefetcher.shutDown();
+			if (tileWriter != null)
+				tileWriter.shutDown();
 		}
 
 		log.info("Finished");
@@ -318,6 +414,17 @@ public class Query implements Closeable {
 		progress.finished();
 	}
 
+	/**
+	 * @return A processor that generates tiles using the configured number of
+	 *         threads.
+	 */
+	protected TileProcessor createTileProcessor() {
+		if (numThreads == 1)
+			return new TileProcessorSingle();
+		else
+			return new TileProcessorMultiple(numThreads);
+	}
+
 	protected void process(VectorInt imageShape,
 			Collection<Binding> localBindings)
 			throws QueryException, IOException {
@@ -331,14 +438,30 @@ public class Query implements Closeable {
 
 		tileProcessor.setBindings(localBindings);
 
-		// Iterate over the output tiles. Note that the input is tiled too, but
-		// that is taken care of in PageCache.
+		// Rasterise the tile bounds up front, so the prefetcher can look
+		// ahead.
+		List<BoxInt> tiles = new ArrayList<BoxInt>();
 		for (VectorInt tile : new TileGenerator(tileGridShape)) {
 			VectorInt offset = tile.mulNew(tileShape);
 			VectorInt end = offset.addNew(tileShape).min(imageShape);
-			BoxInt bounds = new BoxInt(offset, end);
+			tiles.add(new BoxInt(offset, end));
+		}
 
-			log.trace("Processing tile {} with bounds {}", tile, bounds);
+		// Iterate over the output tiles. Note that the input is tiled too, but
+		// that is taken care of in PageCache.
+		int prefetched = 1;
+		for (int i = 0; i < tiles.size(); i++) {
+			BoxInt bounds = tiles.get(i);
+
+			// 0. Start reading input for upcoming tiles. The current tile is
+			// left to the samplers, which will fault the pages in.
+			if (prefetcher != null) {
+				int horizon = Math.min(i + prefetchTiles, tiles.size() - 1);
+				for (; prefetched <= horizon; prefetched++)
+					prefetcher.prefetch(tiles.get(prefetched));
+			}
+
+			log.trace("Processing tile {} with bounds {}", i, bounds);
 
 			// 1. Create arrays.
 			for (Binding b : localBindings)
@@ -348,14 +471,25 @@ public class Query implements Closeable {
 			tileProcessor.setBounds(bounds);
 			tileProcessor.processTile();
 
-			// 3. Write data.
-			for (Binding b : localBindings)
-				b.commit(output);
+			// 3. Write data. With write-behind, the buffers are handed to the
+			// writer thread; this blocks if too many tiles are waiting.
+			if (tileWriter != null) {
+				List<Binding.PendingCommit> commits =
+						new ArrayList<Binding.PendingCommit>();
+				for (Binding b : localBindings)
+					commits.add(b.detach());
+				tileWriter.write(commits);
+			} else {
+				for (Binding b : localBindings)
+					b.commit(output);
+			}
 
 			long npixels = bounds.getSize().volume() * localBindings.size();
 			progress.addProcessedQuanta(npixels);
 		}
 
+		if (tileWriter != null)
+			tileWriter.flush();
 		progress.finishedStep();
 	}
 
@@ -412,6 +546,10 @@ public class Query implements Closeable {
 		datasetStore.closeAll();
 		for (FilterAdapter f : new Flatten<FilterAdapter>(filters))
 			f.diagnostics();
+		if (prefetcher != null)
+			prefetcher.diagnostics();
+		if (tileWriter != null)
+			tileWriter.diagnostics();
 	}
 
 	public Progress getProgress() {
@@ -38,6 +38,7 @@ import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 import com.thoughtworks.xstream.annotations.XStreamConverter;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
 import com.thoughtworks.xstream.annotations.XStreamOmitField;
+import com.thoughtworks.xstream.converters.basic.DoubleConverter;
 import com.thoughtworks.xstream.converters.basic.IntConverter;
 import com.thoughtworks.xstream.io.xml.DomDriver;
 
@@ -320,6 +321,17 @@ public class QueryDefinition {
 		@XStreamAsAttribute
 		public String autobounds;
 
+		/**
+		 * When input data must be reprojected, allow coordinates to be
+		 * interpolated from a coarse grid of exact transforms, with at most
+		 * this much error (in input cells). This is much faster than
+		 * reprojecting every pixel. If null or zero, every pixel is
+		 * reprojected exactly.
+		 */
+		@XStreamAsAttribute
+		@XStreamConverter(DoubleConverter.class)
+		public Double warpError;
+
 		public GridDefinition copy() {
 			GridDefinition gd = new GridDefinition();
 			gd.ref = ref;
@@ -327,6 +339,7 @@ public class QueryDefinition {
 			gd.autobounds = autobounds;
 			gd.timeMax = timeMax;
 			gd.timeMin = timeMin;
+			gd.warpError = warpError;
 			return gd;
 		}
 
@@ -359,6 +372,11 @@ public class QueryDefinition {
 			this.autobounds = value;
 			return this;
 		}
+
+		public GridDefinition warpError(Double value) {
+			this.warpError = value;
+			return this;
+		}
 	}
 
 	@XStreamAlias("variable")
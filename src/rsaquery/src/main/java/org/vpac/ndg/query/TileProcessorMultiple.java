@@ -21,6 +21,7 @@ package org.vpac.ndg.query;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -29,127 +30,161 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vpac.ndg.query.iteration.CoordinatePair;
-import org.vpac.ndg.query.iteration.RectangleStrider;
+import org.vpac.ndg.query.iteration.RectangleSpan;
 import org.vpac.ndg.query.math.BoxInt;
 import org.vpac.ndg.query.math.VectorInt;
 import org.vpac.ndg.query.math.VectorReal;
 import org.vpac.ndg.query.sampling.Binding;
 
+/**
+ * Generates each tile using several threads.
+ *
+ * <p>
+ * The tile is divided into blocks of whole rows. Workers claim blocks one at a
+ * time from a shared counter until there are none left, so a thread that
+ * finishes early takes on work that would otherwise have waited for a slower
+ * one. Each block is contiguous, so neighbouring pixels - which usually share
+ * input pages - are generated by the same thread.
+ * </p>
+ */
 public class TileProcessorMultiple implements TileProcessor {
 
 	final Logger log = LoggerFactory.getLogger(TileProcessorMultiple.class);
 
+	/**
+	 * The number of blocks to divide each tile into, per thread. More blocks
+	 * balance the load better; fewer blocks have better locality.
+	 */
+	static final int BLOCKS_PER_THREAD = 8;
+
 	BoxInt bounds;
 	Collection<Binding> bindings;
 
 	ExecutorService executor;
 	int numThreads;
 	volatile boolean running;
-	AtomicInteger numRunning;
-	IOException abortIOException;
-	RuntimeException abortRtException;
 
 	public TileProcessorMultiple(int numThreads) {
 		this.numThreads = numThreads;
-
-		numRunning = new AtomicInteger(0);
 		running = true;
-		abortIOException = null;
-		abortRtException = null;
 
 		log.info("Starting {} threads.", numThreads);
 		executor = Executors.newFixedThreadPool(numThreads);
 	}
 
+	/**
+	 * The work required to generate one tile.
+	 */
+	class TileJob {
+		VectorInt shape;
+		VectorReal origin;
+		long volume;
+		long blockVolume;
+		int nblocks;
+		AtomicInteger nextBlock;
+		CountDownLatch remaining;
+		volatile IOException abortIOException;
+		volatile RuntimeException abortRtException;
+
+		TileJob(BoxInt bounds) {
+			shape = bounds.getSize();
+			origin = bounds.getMin().toReal().add(0.5);
+			volume = shape.volume();
+
+			long rowLength = shape.getX();
+			long nrows = volume / rowLength;
+			long rowsPerBlock = Math.max(1,
+					(nrows + numThreads * BLOCKS_PER_THREAD - 1)
+					/ (numThreads * BLOCKS_PER_THREAD));
+			blockVolume = rowsPerBlock * rowLength;
+			nblocks = (int) ((volume + blockVolume - 1) / blockVolume);
+
+			nextBlock = new AtomicInteger(0);
+			remaining = new CountDownLatch(nblocks);
+			abortIOException = null;
+			abortRtException = null;
+		}
+
+		boolean isAborted() {
+			return !running || abortIOException != null
+					|| abortRtException != null;
+		}
+	}
+
 	class TileProcWorker implements Runnable {
 
 		final Logger log = LoggerFactory.getLogger(TileProcWorker.class);
 
 		int id;
+		TileJob job;
 
-		public TileProcWorker(int id) {
+		public TileProcWorker(int id, TileJob job) {
 			this.id = id;
+			this.job = job;
 		}
 
 		@Override
 		public void run() {
 			log.trace("Worker thread {} starting.", id);
-			try {
-				process();
-			} finally {
-				synchronized (numRunning) {
-					numRunning.decrementAndGet();
-					numRunning.notify();
-				}
-			}
-			log.info("Worker {} finished.", id);
-		}
-
-		private void process() {
-			VectorInt currentTileShape = bounds.getSize();
-
-			RectangleStrider rect = new RectangleStrider(currentTileShape, numThreads, id);
-			VectorReal offset = bounds.getMin().toReal().add(0.5);
-			rect.setOrigin(offset);
-
-			for (CoordinatePair coords : rect) {
-				if (!running) {
-					log.trace("Worker {} exiting early.", id);
-					return;
-				}
-
-				log.trace("Thread {} applying filter for pixel {}.", id, coords.coordinates);
+			RectangleSpan span = new RectangleSpan(job.shape);
+			span.setOrigin(job.origin);
 
+			int nprocessed = 0;
+			int block;
+			while ((block = job.nextBlock.getAndIncrement()) < job.nblocks) {
 				try {
-					for (Binding b : bindings)
-						b.transfer(coords.coordinates, coords.imageIndex, id);
+					// Keep claiming blocks after a failure, so that the
+					// tile's latch is released.
+					if (job.isAborted())
+						continue;
+					long start = block * job.blockVolume;
+					long end = Math.min(start + job.blockVolume, job.volume);
+					process(span.setRange(start, end));
+					nprocessed++;
 				} catch (RuntimeException e) {
 					log.error("Worker {} encountered an exception.", id);
 					log.error("Details:", e);
-					abortRtException = e;
-					running = false;
-					return;
+					job.abortRtException = e;
 				} catch (IOException e) {
 					log.error("Worker {} encountered an exception.", id);
 					log.error("Details:", e);
-					abortIOException = e;
-					running = false;
-					return;
+					job.abortIOException = e;
+				} finally {
+					job.remaining.countDown();
 				}
 			}
+			log.trace("Worker {} finished after {} block(s).", id, nprocessed);
+		}
+
+		private void process(RectangleSpan span) throws IOException {
+			for (CoordinatePair coords : span) {
+				log.trace("Thread {} applying filter for pixel {}.", id, coords.coordinates);
+				for (Binding b : bindings)
+					b.transfer(coords.coordinates, coords.imageIndex, id);
+			}
 		}
 	}
 
 	public void processTile() throws IOException {
+		TileJob job = new TileJob(bounds);
 
-		for (int i = 0; i < numThreads; i++) {
-			TileProcWorker worker = new TileProcWorker(i);
-			numRunning.incrementAndGet();
-			try {
-				executor.execute(worker);
-			} catch (RuntimeException e) {
-				numRunning.decrementAndGet();
-				throw e;
-			}
-		}
+		// Each worker has its own filter instances (identified by the worker
+		// ID), so only one worker with a given ID may run per tile.
+		int nworkers = Math.min(numThreads, job.nblocks);
+		for (int i = 0; i < nworkers; i++)
+			executor.execute(new TileProcWorker(i, job));
 
-		log.trace("Waiting for threads to finish processing.");
-		synchronized (numRunning) {
-			try {
-				while (numRunning.get() > 0) {
-					log.trace("numRunnning = {}", numRunning);
-					numRunning.wait();
-				}
-				log.trace("numRunnning = {}", numRunning);
-			} catch (InterruptedException e) {
-				throw new IOException("Interrupted while waiting for pixels " +
-						"to be generated.", e);
-			}
+		log.trace("Waiting for {} block(s) to be processed.", job.nblocks);
+		try {
+			job.remaining.await();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while waiting for pixels " +
+					"to be generated.", e);
 		}
-		if (abortIOException != null)
-			throw abortIOException;
-		if (abortRtException != null)
-			throw abortRtException;
+		if (job.abortIOException != null)
+			throw job.abortIOException;
+		if (job.abortRtException != null)
+			throw job.abortRtException;
 		log.trace("Finished processing tile.");
 	}
 
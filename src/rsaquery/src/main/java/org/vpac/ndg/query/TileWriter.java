@@ -0,0 +1,171 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.query;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.sampling.Binding.PendingCommit;
+
+import ucar.nc2.NetcdfFileWriter;
+
+/**
+ * Writes finished tiles to the output file on a dedicated thread, so that the
+ * next tile can be generated while the last one is being written.
+ *
+ * <p>
+ * The NetCDF writer is not thread-safe, so all writes happen on a single
+ * thread, in the order that the tiles were submitted. The number of tiles that
+ * can be waiting at once is limited by the spare buffers of the bindings (see
+ * {@link org.vpac.ndg.query.sampling.Binding#detach()}), not by this class.
+ * </p>
+ */
+public class TileWriter implements Diagnostics {
+
+	final Logger log = LoggerFactory.getLogger(TileWriter.class);
+
+	private NetcdfFileWriter output;
+	private ExecutorService executor;
+	private volatile Throwable error;
+
+	private volatile long tilesWritten;
+	private volatile long writeNanos;
+
+	public TileWriter(NetcdfFileWriter output) {
+		this.output = output;
+		error = null;
+		tilesWritten = 0;
+		writeNanos = 0;
+
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "tile-writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queue a finished tile for writing. This returns immediately. The buffers
+	 * will be released once they have been written, even if writing fails.
+	 *
+	 * @param commits The detached buffers of each binding of the tile.
+	 * @throws IOException If an earlier tile could not be written.
+	 */
+	public void write(final List<PendingCommit> commits) throws IOException {
+		try {
+			checkError();
+		} catch (IOException | RuntimeException e) {
+			release(commits);
+			throw e;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				try {
+					// Don't bother writing anything after a failure; the
+					// output is already incomplete.
+					if (error != null)
+						return;
+					for (PendingCommit commit : commits)
+						commit.commit(output);
+					tilesWritten++;
+				} catch (Throwable e) {
+					log.error("Failed to write tile", e);
+					error = e;
+				} finally {
+					release(commits);
+					writeNanos += System.nanoTime() - start;
+				}
+			}
+		});
+	}
+
+	private void release(List<PendingCommit> commits) {
+		for (PendingCommit commit : commits)
+			commit.release();
+	}
+
+	/**
+	 * Wait for all queued tiles to be written.
+	 *
+	 * @throws IOException If any tile could not be written.
+	 */
+	public void flush() throws IOException {
+		Future<?> marker = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				// Tasks run in order, so all previous writes are done.
+			}
+		});
+		try {
+			marker.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for output to " +
+					"be written.", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Failed to wait for output.", e.getCause());
+		}
+		checkError();
+	}
+
+	private void checkError() throws IOException {
+		Throwable e = error;
+		if (e == null)
+			return;
+		if (e instanceof IOException)
+			throw (IOException) e;
+		if (e instanceof RuntimeException)
+			throw (RuntimeException) e;
+		throw new IOException("Failed to write tile.", e);
+	}
+
+	/**
+	 * Stop the writer thread. Tiles that have already been queued will still
+	 * be written; call {@link #flush()} first to wait for them.
+	 */
+	public void shutDown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			log.warn("Interrupted while waiting for writer to finish.", e);
+		}
+	}
+
+	@Override
+	public void diagnostics() {
+		log.info("Wrote {} tile(s) in the background, taking {} ms.",
+				tilesWritten, TimeUnit.NANOSECONDS.toMillis(writeNanos));
+	}
+}
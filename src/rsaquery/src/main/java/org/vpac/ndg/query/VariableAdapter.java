@@ -34,6 +34,7 @@ import org.vpac.ndg.query.coordinates.Warp;
 import org.vpac.ndg.query.coordinates.WarpDual;
 import org.vpac.ndg.query.coordinates.WarpFactory;
 import org.vpac.ndg.query.coordinates.WarpIdentity;
+import org.vpac.ndg.query.io.SparseReader;
 import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.Type;
 import org.vpac.ndg.query.math.VectorInt;
@@ -53,6 +54,7 @@ import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Section;
 import ucar.nc2.Attribute;
 import ucar.nc2.Variable;
+import ucar.nc2.dataset.VariableDS;
 
 /**
  * An Adapter for {@link Variable}, to make it look like an IVariable. This type
@@ -71,6 +73,7 @@ public class VariableAdapter implements HasShape, HasRank, HasPrototype {
 	private PageCache cache;
 	private Type type;
 	private Prototype prototype;
+	private SparseReader sparseReader;
 
 	WarpFactory warpFactory;
 
@@ -99,9 +102,26 @@ public class VariableAdapter implements HasShape, HasRank, HasPrototype {
 				new NodataStrategy[] { nodataStrategy },
 				new AttributeDefinition[][] { adArray }, dims);
 		log.debug("Prototype is {}", prototype);
+		sparseReader = findSparseReader(variable);
 		cache = new PageCache(this);
 	}
 
+	/**
+	 * Find the reader that backs a variable, if it knows where the variable
+	 * has no data. Enhanced datasets wrap the variables of the original
+	 * dataset, so the wrappers are searched too.
+	 */
+	private static SparseReader findSparseReader(Variable variable) {
+		while (variable != null) {
+			if (variable.getProxyReader() instanceof SparseReader)
+				return (SparseReader) variable.getProxyReader();
+			if (!(variable instanceof VariableDS))
+				break;
+			variable = ((VariableDS) variable).getOriginalVariable();
+		}
+		return null;
+	}
+
 	public static Type resolveType(Variable variable) {
 		String dataType = variable.getDataType().toString();
 		if (variable.isUnsigned())
@@ -194,12 +214,13 @@ public class VariableAdapter implements HasShape, HasRank, HasPrototype {
 
 		// Create spatial warp for variables that have spatial dimensions.
 		Warp spatialWarp = null;
+		double maxError = context.getMaxWarpError();
 		if (dimensions.contains("x") && dimensions.contains("y")) {
 			spatialWarp = warpFactory.createGridWarp(from.getGrid(),
-					to.getGrid(), dimensions.size());
+					to.getGrid(), dimensions.size(), maxError);
 		} else if (dimensions.contains("lat") && dimensions.contains("lon")) {
 			spatialWarp = warpFactory.createGridWarp(from.getGrid(),
-					to.getGrid(), dimensions.size());
+					to.getGrid(), dimensions.size(), maxError);
 		}
 
 		// Create temporal warp for variables that have a time dimension.
@@ -237,6 +258,15 @@ public class VariableAdapter implements HasShape, HasRank, HasPrototype {
 		}
 	}
 
+	/**
+	 * @return true if the section is known to contain no data, in which case
+	 *         it does not need to be read. False if the section may contain
+	 *         data, or if the variable can't tell.
+	 */
+	public boolean isBlank(Section section) {
+		return sparseReader != null && sparseReader.isBlank(section);
+	}
+
 	public VariableAdapter slice(int dim, int value)
 			throws InvalidRangeException, QueryException {
 		return new VariableAdapter(variable.slice(dim, value), name, owner);
@@ -28,10 +28,12 @@ public class QueryCoordinateSystem implements HasShape, HasGridProjected {
 	private GridProjected grid;
 	private TimeAxis timeAxis;
 	private VectorInt shape;
+	private double maxWarpError;
 
 	public QueryCoordinateSystem(GridProjected grid, TimeAxis timeAxis) {
 		this.grid = grid;
 		this.timeAxis = timeAxis;
+		maxWarpError = 0;
 
 		// Expand shape to include time dimension if appropriate.
 		if (timeAxis == null) {
@@ -64,4 +66,17 @@ public class QueryCoordinateSystem implements HasShape, HasGridProjected {
 		return timeAxis;
 	}
 
+	/**
+	 * @return The maximum error allowed when approximating reprojections of
+	 *         input data into this coordinate system, in input cells. Zero
+	 *         means reprojections are exact.
+	 */
+	public double getMaxWarpError() {
+		return maxWarpError;
+	}
+
+	public void setMaxWarpError(double maxWarpError) {
+		this.maxWarpError = maxWarpError;
+	}
+
 }
@@ -0,0 +1,256 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query.coordinates;
+
+import org.vpac.ndg.query.math.BoxReal;
+import org.vpac.ndg.query.math.VectorReal;
+
+/**
+ * Approximates an expensive warp (e.g. a reprojection) by interpolating
+ * between exact transforms on a coarse grid.
+ *
+ * <p>
+ * The source space is divided into square cells. The first time a point in a
+ * cell is warped, the corners of the cell are transformed exactly. The error of
+ * bilinear interpolation is then measured at the centre and the midpoints of
+ * the edges. If it is within the limit, all points in the cell are
+ * interpolated. Otherwise the cell is divided into four, and so on down to a
+ * minimum size; below that, points are transformed exactly. This is similar to
+ * the error threshold of GDAL's approximate transformer.
+ * </p>
+ *
+ * <p>
+ * Only the x and y components are interpolated, and they must not depend on
+ * the other components. Cells are remembered in a small direct-mapped cache,
+ * which suits the raster order in which tiles are processed. Instances must
+ * not be shared between threads.
+ * </p>
+ */
+public class WarpApproximate implements Warp {
+
+	/**
+	 * The width of the largest cells, in source units (usually pixels).
+	 */
+	public static final int MAX_STEP = 32;
+	/**
+	 * The width of the smallest cells. Points in smaller regions are
+	 * transformed exactly.
+	 */
+	public static final int MIN_STEP = 4;
+
+	private static final int CACHE_SIZE = 1024;
+
+	/**
+	 * Where the error of interpolation is measured, relative to the cell:
+	 * where it is least likely to be right, in the middle of the cell and of
+	 * each edge.
+	 */
+	private static final double[][] TEST_POINTS = new double[][] {
+		{0.5, 0.5}, {0.5, 0.0}, {0.5, 1.0}, {0.0, 0.5}, {1.0, 0.5} };
+
+	private Warp exact;
+	private double maxError;
+	private int levels;
+
+	// Cache of cells, indexed by hash. Corners are stored as x,y pairs in the
+	// order (x0,y0), (x1,y0), (x0,y1), (x1,y1).
+	private boolean[] used;
+	private int[] cellLevel;
+	private int[] cellX;
+	private int[] cellY;
+	private boolean[] accurate;
+	private double[] corners;
+
+	private VectorReal scratch;
+	private double[] test;
+
+	private long cellsComputed;
+	private long pointsInterpolated;
+	private long pointsExact;
+
+	/**
+	 * @param exact The warp to approximate.
+	 * @param maxError The maximum difference between the approximate and exact
+	 *        results, in target units (usually pixels).
+	 */
+	public WarpApproximate(Warp exact, double maxError) {
+		this.exact = exact;
+		this.maxError = maxError;
+
+		levels = 0;
+		for (int step = MAX_STEP; step >= MIN_STEP; step /= 2)
+			levels++;
+
+		used = new boolean[CACHE_SIZE];
+		cellLevel = new int[CACHE_SIZE];
+		cellX = new int[CACHE_SIZE];
+		cellY = new int[CACHE_SIZE];
+		accurate = new boolean[CACHE_SIZE];
+		corners = new double[CACHE_SIZE * 8];
+		scratch = null;
+		test = new double[2];
+	}
+
+	@Override
+	public void warp(VectorReal co) {
+		double x = co.getX();
+		double y = co.getY();
+		if (Double.isNaN(x) || Double.isNaN(y)) {
+			exact.warp(co);
+			pointsExact++;
+			return;
+		}
+
+		for (int level = 0; level < levels; level++) {
+			int step = MAX_STEP >> level;
+			int cx = (int) Math.floor(x / step);
+			int cy = (int) Math.floor(y / step);
+			int slot = findCell(co, level, cx, cy);
+			if (!accurate[slot])
+				continue;
+
+			double fx = (x - (double) cx * step) / step;
+			double fy = (y - (double) cy * step) / step;
+			int base = slot * 8;
+			co.setX(interpolate(base, 0, fx, fy));
+			co.setY(interpolate(base, 1, fx, fy));
+			pointsInterpolated++;
+			return;
+		}
+
+		exact.warp(co);
+		pointsExact++;
+	}
+
+	private double interpolate(int base, int component, double fx,
+			double fy) {
+		double c00 = corners[base + component];
+		double c10 = corners[base + 2 + component];
+		double c01 = corners[base + 4 + component];
+		double c11 = corners[base + 6 + component];
+		double bottom = c00 + (c10 - c00) * fx;
+		double top = c01 + (c11 - c01) * fx;
+		return bottom + (top - bottom) * fy;
+	}
+
+	/**
+	 * @return The slot of the cache that holds the cell, computing it if
+	 *         necessary.
+	 */
+	private int findCell(VectorReal co, int level, int cx, int cy) {
+		int h = cx * 0x9E3779B1 + cy * 0x85EBCA6B + level;
+		h ^= h >>> 16;
+		int slot = h & (CACHE_SIZE - 1);
+		if (used[slot] && cellLevel[slot] == level && cellX[slot] == cx
+				&& cellY[slot] == cy) {
+			return slot;
+		}
+
+		used[slot] = true;
+		cellLevel[slot] = level;
+		cellX[slot] = cx;
+		cellY[slot] = cy;
+		computeCell(co, slot, MAX_STEP >> level);
+		cellsComputed++;
+		return slot;
+	}
+
+	private void computeCell(VectorReal co, int slot, int step) {
+		if (scratch == null || scratch.size() != co.size())
+			scratch = VectorReal.createEmpty(co.size());
+		scratch.set(co);
+
+		double x0 = (double) cellX[slot] * step;
+		double y0 = (double) cellY[slot] * step;
+		int base = slot * 8;
+		boolean valid = true;
+		valid &= warpExact(x0, y0, corners, base);
+		valid &= warpExact(x0 + step, y0, corners, base + 2);
+		valid &= warpExact(x0, y0 + step, corners, base + 4);
+		valid &= warpExact(x0 + step, y0 + step, corners, base + 6);
+		if (!valid) {
+			accurate[slot] = false;
+			return;
+		}
+
+		for (double[] p : TEST_POINTS) {
+			if (!warpExact(x0 + p[0] * step, y0 + p[1] * step, test, 0)) {
+				accurate[slot] = false;
+				return;
+			}
+			double dx = Math.abs(interpolate(base, 0, p[0], p[1]) - test[0]);
+			double dy = Math.abs(interpolate(base, 1, p[0], p[1]) - test[1]);
+			if (dx > maxError || dy > maxError) {
+				accurate[slot] = false;
+				return;
+			}
+		}
+		accurate[slot] = true;
+	}
+
+	/**
+	 * Transform a point exactly, using the scratch vector for the other
+	 * components.
+	 * @return false if the point could not be transformed.
+	 */
+	private boolean warpExact(double x, double y, double[] out, int offset) {
+		scratch.setX(x);
+		scratch.setY(y);
+		exact.warp(scratch);
+		out[offset] = scratch.getX();
+		out[offset + 1] = scratch.getY();
+		return !Double.isNaN(out[offset]) && !Double.isNaN(out[offset + 1])
+				&& !Double.isInfinite(out[offset])
+				&& !Double.isInfinite(out[offset + 1]);
+	}
+
+	@Override
+	public void warp(BoxReal box) {
+		exact.warp(box);
+	}
+
+	/**
+	 * @return The number of grid cells that have been transformed exactly.
+	 */
+	public long getCellsComputed() {
+		return cellsComputed;
+	}
+
+	/**
+	 * @return The number of points that were interpolated.
+	 */
+	public long getPointsInterpolated() {
+		return pointsInterpolated;
+	}
+
+	/**
+	 * @return The number of points that had to be transformed exactly, because
+	 *         interpolation was not accurate enough.
+	 */
+	public long getPointsExact() {
+		return pointsExact;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Approx(%s, error %g)", exact, maxError);
+	}
+}
@@ -70,6 +70,24 @@ public class WarpFactory {
 	 */
 	public Warp createGridWarp(GridProjected from, GridProjected to,
 			int ndimensions) throws QueryException {
+		return createGridWarp(from, to, ndimensions, 0);
+	}
+
+	/**
+	 * Find a warp that can convert between coordinates in two grids.
+	 *
+	 * @param from The grid to convert from.
+	 * @param to The grid to convert to.
+	 * @param ndimensions The size of the vectors to support. Note that only the
+	 *        X and Y coordinates will be transformed; the others will pass
+	 *        through unmodified.
+	 * @param maxError If the grids have different projections and this is
+	 *        greater than zero, the reprojection will be approximated by
+	 *        interpolation (see {@link WarpApproximate}). This is the maximum
+	 *        error, in cells of the target grid.
+	 */
+	public Warp createGridWarp(GridProjected from, GridProjected to,
+			int ndimensions, double maxError) throws QueryException {
 
 		if (from.getSrs() == null || to.getSrs() == null) {
 			// No projection - just translate
@@ -89,7 +107,10 @@ public class WarpFactory {
 
 		} else {
 			Warp projWarp = createSpatialWarp(projFrom, projTo);
-			return findTranslation(from, to, ndimensions, projWarp);
+			Warp warp = findTranslation(from, to, ndimensions, projWarp);
+			if (maxError > 0)
+				warp = new WarpApproximate(warp, maxError);
+			return warp;
 		}
 
 	}
@@ -90,9 +90,16 @@ public class WarpOffsetWithScaleAndProjection implements Warp {
 
 	@Override
 	public void warp(BoxReal box) {
-		// No need to warp all four corners: offset remains axis-aligned.
-		warp(box.getMin());
-		warp(box.getMax());
+		// The projection may not keep the box axis-aligned, so the box as a
+		// whole is passed to the projection warp rather than just two
+		// corners.
+		box.getMin().mul(scaleIn).add(offsetIn);
+		box.getMax().mul(scaleIn).add(offsetIn);
+
+		projectionWarp.warp(box);
+
+		box.getMin().sub(offsetOut).mul(scaleOutInv);
+		box.getMax().sub(offsetOut).mul(scaleOutInv);
 	}
 
 	@Override
@@ -22,62 +22,101 @@ package org.vpac.ndg.query.coordinates;
 import org.vpac.ndg.query.math.BoxReal;
 import org.vpac.ndg.query.math.VectorReal;
 
+import ucar.unidata.geoloc.LatLonPoint;
 import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.geoloc.ProjectionImpl;
+import ucar.unidata.geoloc.ProjectionPoint;
 import ucar.unidata.geoloc.ProjectionPointImpl;
 
 /**
  * Converts between projected coordinate systems. Note that this does not handle
  * grid resolutions.
  *
+ * <p>
+ * Instances reuse their scratch points, so they must not be shared between
+ * threads.
+ * </p>
+ *
  * @author Alex Fraser
  */
 public abstract class WarpSpatial implements Warp {
 
+	/**
+	 * The number of segments that each edge of a box is divided into when
+	 * warping it.
+	 */
+	static final int BOX_SEGMENTS = 16;
+
 	@Override
 	public void warp(BoxReal box) {
-		// TODO: This does not account for non-linear warps. The edges of the
-		// box should be subdivided.
-		VectorReal ll = box.getMin().copy();
-		VectorReal ur = box.getMax().copy();
-		VectorReal ul = ll.copy();
-		ul.setY(ur.getY());
-		VectorReal lr = ur.copy();
-		lr.setY(ll.getY());
-
-		warp(ll);
-		warp(ur);
-		warp(ul);
-		warp(lr);
-
-		box.setMin(ll);
-		box.setMax(ll);
-		box.union(ur);
-		box.union(ul);
-		box.union(lr);
+		// The warp is not linear, so the corners aren't enough: points along
+		// the edges of the box may be warped beyond them. Sample the edges,
+		// and expand the box to contain all of the samples. Only x and y are
+		// changed.
+		VectorReal min = box.getMin();
+		VectorReal max = box.getMax();
+		VectorReal co = min.copy();
+		double[] extents = new double[] {
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+		for (int i = 0; i <= BOX_SEGMENTS; i++) {
+			double f = (double) i / BOX_SEGMENTS;
+			double x = min.getX() + (max.getX() - min.getX()) * f;
+			double y = min.getY() + (max.getY() - min.getY()) * f;
+			extend(co, x, min.getY(), extents);
+			extend(co, x, max.getY(), extents);
+			extend(co, min.getX(), y, extents);
+			extend(co, max.getX(), y, extents);
+		}
+
+		if (extents[0] > extents[2]) {
+			// None of the points could be projected.
+			extents[0] = extents[1] = extents[2] = extents[3] = Double.NaN;
+		}
+		min.setX(extents[0]);
+		min.setY(extents[1]);
+		max.setX(extents[2]);
+		max.setY(extents[3]);
+	}
+
+	private void extend(VectorReal co, double x, double y, double[] extents) {
+		co.setX(x);
+		co.setY(y);
+		warp(co);
+		x = co.getX();
+		y = co.getY();
+		if (Double.isNaN(x) || Double.isNaN(y))
+			return;
+		extents[0] = Math.min(extents[0], x);
+		extents[1] = Math.min(extents[1], y);
+		extents[2] = Math.max(extents[2], x);
+		extents[3] = Math.max(extents[3], y);
 	}
 
 	static class WarpSpatialGeoxyToGeoxy extends WarpSpatial {
 
 		private ProjectionImpl sourceProj;
 		private ProjectionImpl targetProj;
+		private ProjectionPointImpl pp;
+		private LatLonPointImpl ll;
 
 		public WarpSpatialGeoxyToGeoxy(ProjectionImpl sourceProj,
 				ProjectionImpl targetProj) {
 
 			this.sourceProj = sourceProj;
 			this.targetProj = targetProj;
+			pp = new ProjectionPointImpl();
+			ll = new LatLonPointImpl();
 		}
 
 		@Override
 		public void warp(VectorReal co) {
-			ProjectionPointImpl pp = new ProjectionPointImpl(
-					co.getX() / 1000.0, co.getY() / 1000.0);
-			LatLonPointImpl ll = new LatLonPointImpl();
-			sourceProj.projToLatLon(pp, ll);
-			targetProj.latLonToProj(ll, pp);
-			co.setX(pp.getX() * 1000.0);
-			co.setY(pp.getY() * 1000.0);
+			pp.setLocation(co.getX() / 1000.0, co.getY() / 1000.0);
+			LatLonPoint latlon = sourceProj.projToLatLon(pp, ll);
+			ProjectionPoint res = targetProj.latLonToProj(latlon, pp);
+			co.setX(res.getX() * 1000.0);
+			co.setY(res.getY() * 1000.0);
 		}
 
 	}
@@ -85,18 +124,21 @@ public abstract class WarpSpatial implements Warp {
 	static class WarpSpatialLatlonToGeoxy extends WarpSpatial {
 
 		private ProjectionImpl targetProj;
+		private ProjectionPointImpl pp;
+		private LatLonPointImpl ll;
 
 		public WarpSpatialLatlonToGeoxy(ProjectionImpl targetProj) {
 			this.targetProj = targetProj;
+			pp = new ProjectionPointImpl();
+			ll = new LatLonPointImpl();
 		}
 
 		@Override
 		public void warp(VectorReal co) {
-			LatLonPointImpl ll = new LatLonPointImpl(co.getY(), co.getX());
-			ProjectionPointImpl pp = new ProjectionPointImpl();
-			targetProj.latLonToProj(ll, pp);
-			co.setX(pp.getX());
-			co.setY(pp.getY());
+			ll.set(co.getY(), co.getX());
+			ProjectionPoint res = targetProj.latLonToProj(ll, pp);
+			co.setX(res.getX());
+			co.setY(res.getY());
 		}
 
 	}
@@ -104,19 +146,21 @@ public abstract class WarpSpatial implements Warp {
 	static class WarpSpatialGeoxyToLatlon extends WarpSpatial {
 
 		private ProjectionImpl sourceProj;
+		private ProjectionPointImpl pp;
+		private LatLonPointImpl ll;
 
 		public WarpSpatialGeoxyToLatlon(ProjectionImpl sourceProj) {
 			this.sourceProj = sourceProj;
+			pp = new ProjectionPointImpl();
+			ll = new LatLonPointImpl();
 		}
 
 		@Override
 		public void warp(VectorReal co) {
-			ProjectionPointImpl pp = new ProjectionPointImpl(
-					co.getX(), co.getY());
-			LatLonPointImpl ll = new LatLonPointImpl();
-			sourceProj.projToLatLon(pp, ll);
-			co.setY(ll.getLatitude());
-			co.setX(ll.getLongitude());
+			pp.setLocation(co.getX(), co.getY());
+			LatLonPoint res = sourceProj.projToLatLon(pp, ll);
+			co.setY(res.getLatitude());
+			co.setX(res.getLongitude());
 		}
 
 	}
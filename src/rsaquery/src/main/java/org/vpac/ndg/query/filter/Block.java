@@ -0,0 +1,84 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query.filter;
+
+import java.io.IOException;
+
+import org.vpac.ndg.query.math.VectorReal;
+import org.vpac.ndg.query.sampling.Cell;
+import org.vpac.ndg.query.sampling.PixelSource;
+
+/**
+ * A run of consecutive pixels along the X axis, for processing by a
+ * {@link BlockFilter}. Element <em>i</em> of each buffer corresponds to the
+ * pixel at {@link #getOrigin()} + <em>i</em> along X.
+ */
+public interface Block {
+
+	/**
+	 * @return The number of pixels in the run.
+	 */
+	int getLength();
+
+	/**
+	 * @return The coordinates of the first pixel in the run.
+	 */
+	VectorReal getOrigin();
+
+	/**
+	 * Read the pixels of a scalar input that correspond to this block. The
+	 * values are only read once per block, so this may be called several
+	 * times for the same source.
+	 *
+	 * @param source The input to read from.
+	 * @return The values. The buffer belongs to the block, and must not be
+	 *         modified.
+	 * @throws IOException If the input could not be read.
+	 */
+	BlockBuffer read(PixelSource source) throws IOException;
+
+	/**
+	 * Read a run of pixels of a scalar input, starting somewhere other than
+	 * the origin. This is useful for reductions, e.g. to read each time slice
+	 * under the block.
+	 *
+	 * @param source The input to read from.
+	 * @param start The coordinates of the first pixel to read.
+	 * @param into The buffer to write the values to; see
+	 *        {@link #createBuffer()}.
+	 * @throws IOException If the input could not be read.
+	 */
+	void read(PixelSource source, VectorReal start, BlockBuffer into)
+			throws IOException;
+
+	/**
+	 * @param cell An output field of the filter.
+	 * @return The buffer to write values for the cell to. If the cell is not
+	 *         bound, the values will be discarded.
+	 */
+	BlockBuffer getOutput(Cell cell);
+
+	/**
+	 * @return A new buffer that is large enough to hold a run of pixels, for
+	 *         use as temporary storage.
+	 */
+	BlockBuffer createBuffer();
+}
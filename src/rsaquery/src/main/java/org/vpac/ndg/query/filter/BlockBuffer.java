@@ -0,0 +1,111 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query.filter;
+
+import org.vpac.ndg.query.math.ElementDouble;
+import org.vpac.ndg.query.math.ElementFloat;
+import org.vpac.ndg.query.math.ElementLong;
+import org.vpac.ndg.query.math.ScalarElement;
+import org.vpac.ndg.query.sampling.HasPrototype;
+
+/**
+ * Stores the values of a run of scalar pixels as primitive arrays.
+ *
+ * @see Block
+ */
+public class BlockBuffer {
+
+	/**
+	 * The value of each pixel. Only meaningful where {@link #valid} is true.
+	 */
+	public double[] values;
+
+	/**
+	 * Whether each pixel has a value, i.e. is not <em>NODATA</em>.
+	 */
+	public boolean[] valid;
+
+	/**
+	 * The type of the values. When this buffer is written to a cell, each
+	 * value is converted to this type in the same way as {@link ScalarElement}
+	 * arithmetic would, i.e. integers wrap around rather than saturate. For
+	 * output buffers, this defaults to the type of the cell.
+	 */
+	public ScalarElement prototype;
+
+	public BlockBuffer(int capacity, ScalarElement prototype) {
+		values = new double[capacity];
+		valid = new boolean[capacity];
+		this.prototype = prototype;
+	}
+
+	/**
+	 * Convert the values to another type, in the same way that
+	 * {@link ScalarElement} arithmetic converts its operands. E.g. adding a
+	 * float pixel to a byte element truncates the float first.
+	 *
+	 * @param type The type to convert to.
+	 * @param length The number of values to convert.
+	 * @param into Storage for the result.
+	 * @return This buffer if it is already of the right type; otherwise
+	 *         <em>into</em>.
+	 */
+	public BlockBuffer convert(ScalarElement type, int length,
+			BlockBuffer into) {
+		if (type.getClass() == prototype.getClass())
+			return this;
+		ScalarElement temp = type.copy();
+		for (int i = 0; i < length; i++) {
+			into.values[i] = temp.set(values[i]).doubleValue();
+			into.valid[i] = valid[i];
+		}
+		into.prototype = type;
+		return into;
+	}
+
+	/**
+	 * @return True if values of this type are stored as integers.
+	 */
+	public static boolean isIntegral(ScalarElement type) {
+		return !(type instanceof ElementFloat || type instanceof ElementDouble);
+	}
+
+	/**
+	 * @return True if the values of a source can be stored in a buffer without
+	 *         loss of precision, i.e. if it is scalar and not a 64-bit
+	 *         integer.
+	 */
+	public static boolean canHold(HasPrototype source) {
+		if (source == null)
+			return false;
+		Object element = source.getPrototype().getElement();
+		if (!(element instanceof ScalarElement))
+			return false;
+		return !(element instanceof ElementLong);
+	}
+
+	/**
+	 * @return The element type of a scalar source.
+	 */
+	public static ScalarElement typeOf(HasPrototype source) {
+		return (ScalarElement) source.getPrototype().getElement();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query.filter;
+
+import java.io.IOException;
+
+import org.vpac.ndg.query.math.VectorReal;
+
+/**
+ * A filter that can process a run of pixels in one call, as well as one pixel
+ * at a time.
+ *
+ * <p>
+ * The query engine usually asks for pixels one at a time, in raster order.
+ * When it notices that a block filter's output is being read sequentially, it
+ * calls {@link #kernelBlock(Block)} with a run of pixels along the X axis
+ * instead of calling {@link #kernel(VectorReal)} for each one. The inputs and
+ * outputs of the block are plain arrays, so simple arithmetic can run as a
+ * tight loop. When the access pattern is not sequential, the ordinary kernel
+ * is used.
+ * </p>
+ *
+ * <p>
+ * Blocks are only used when all of the filter's inputs and outputs are scalar,
+ * and when {@link #supportsBlocks()} returns true.
+ * </p>
+ *
+ * @see Block
+ */
+public interface BlockFilter extends Filter {
+
+	/**
+	 * Called after {@link #initialise(org.vpac.ndg.query.math.BoxReal)}.
+	 *
+	 * @return True if {@link #kernelBlock(Block)} will produce exactly the
+	 *         same output as {@link #kernel(VectorReal)} for the bound inputs.
+	 *         This usually depends on their types: the block arrays hold
+	 *         values as doubles, so e.g. 64-bit integers can't be represented
+	 *         exactly.
+	 */
+	boolean supportsBlocks();
+
+	/**
+	 * Process a run of pixels. The filter should read its inputs using
+	 * {@link Block#read(org.vpac.ndg.query.sampling.PixelSource)}, and write
+	 * every element of the buffers returned by
+	 * {@link Block#getOutput(org.vpac.ndg.query.sampling.Cell)}.
+	 *
+	 * @param block The pixels to generate values for.
+	 * @throws IOException If the inputs can not be read from.
+	 */
+	void kernelBlock(Block block) throws IOException;
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.query.io;
+
+import ucar.ma2.Section;
+import ucar.nc2.ProxyReader;
+
+/**
+ * A {@link ProxyReader} that knows where its variable has no data. Dataset
+ * providers can attach one to a variable (with
+ * {@link ucar.nc2.Variable#setProxyReader(ProxyReader)}) so that regions that
+ * are entirely blank are not read at all.
+ *
+ * @see org.vpac.ndg.query.sampling.PageCache
+ */
+public interface SparseReader extends ProxyReader {
+
+	/**
+	 * Check whether a region contains any data. This should be cheap, i.e. it
+	 * should not read the data.
+	 *
+	 * @param section The region to check, in the cell space of the variable.
+	 * @return true if every cell in the section is known to be the fill value
+	 *         of the variable. False if the section may contain data.
+	 */
+	boolean isBlank(Section section);
+
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.query.iteration;
+
+import java.util.Iterator;
+
+import org.vpac.ndg.query.math.VectorInt;
+import org.vpac.ndg.query.math.VectorReal;
+
+/**
+ * Iterates over a contiguous run of pixels within a rectangular window, in
+ * raster order. The run is specified as a range of pixel offsets, e.g. a set of
+ * whole rows. Unlike {@link RectangleStrider}, neighbouring pixels are visited
+ * together.
+ */
+public class RectangleSpan implements Iterable<CoordinatePair> {
+
+	VectorInt current;
+	VectorReal origin;
+	VectorInt shape;
+	long i;
+	long start;
+	long end;
+	SelfIterator iter;
+	CoordinatePair coords;
+
+	public RectangleSpan(VectorInt shape) {
+		this.shape = shape;
+		start = 0;
+		end = shape.volume();
+		iter = new SelfIterator();
+		current = VectorInt.createEmpty(shape.size());
+		origin = VectorReal.createEmpty(shape.size());
+		coords = new CoordinatePair(shape.size());
+	}
+
+	public RectangleSpan setOrigin(VectorReal coordinates) {
+		origin.set(coordinates);
+		return this;
+	}
+
+	/**
+	 * @param start The offset of the first pixel to visit.
+	 * @param end The offset of the pixel after the last one to visit.
+	 */
+	public RectangleSpan setRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+		return this;
+	}
+
+	@Override
+	public Iterator<CoordinatePair> iterator() {
+		i = start;
+		current.set(0);
+		current.setX(start);
+		current.wrapInPlace(shape);
+		return iter;
+	}
+
+	private final class SelfIterator implements Iterator<CoordinatePair> {
+
+		@Override
+		public boolean hasNext() {
+			return i < end;
+		}
+
+		@Override
+		public CoordinatePair next() {
+			coords.imageIndex.set(current);
+			coords.coordinates.addOf(origin, current);
+			current.incr(shape);
+			i++;
+			return coords;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException(
+					"Can't remove value from a rectangle.");
+		}
+	}
+
+}
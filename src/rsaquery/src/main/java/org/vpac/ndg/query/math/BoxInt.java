@@ -122,6 +122,22 @@ public class BoxInt implements Serializable {
 		return getMax().subNew(getMin());
 	}
 
+	/**
+	 * @param point The point to test.
+	 * @return True if the point lies within this box. The minimum bound is
+	 *         inclusive, and the maximum is exclusive.
+	 */
+	public boolean contains(VectorInt point) {
+		long[] lower = min.components;
+		long[] upper = max.components;
+		long[] p = point.components;
+		for (int i = 0; i < p.length; i++) {
+			if (p[i] < lower[i] || p[i] >= upper[i])
+				return false;
+		}
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return String.format("Box(%s - %s)", min, max);
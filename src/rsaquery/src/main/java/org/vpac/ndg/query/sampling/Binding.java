@@ -43,4 +43,40 @@ public interface Binding {
 	 * @param bounds The bounds of the current tile.
 	 */
 	void setBounds(BoxInt bounds);
+
+	/**
+	 * Allocate extra buffers, so that finished tiles can be written while the
+	 * next tile is being generated. See {@link #detach()}.
+	 *
+	 * @param n The number of finished tiles that may be waiting to be written
+	 *        at once.
+	 */
+	void setSpareBuffers(int n);
+
+	/**
+	 * Hand over the buffer of the current tile so that it can be written
+	 * later, and switch to a spare buffer for the next tile. If no spare
+	 * buffer is free, this blocks until one is released; this limits the
+	 * amount of memory used by tiles that are waiting to be written.
+	 *
+	 * @return The finished tile.
+	 * @throws IOException If interrupted while waiting for a free buffer.
+	 */
+	PendingCommit detach() throws IOException;
+
+	/**
+	 * A finished tile that has been detached from its binding.
+	 */
+	interface PendingCommit {
+		/**
+		 * Write the tile to the target variable.
+		 */
+		void commit(NetcdfFileWriter output) throws IOException;
+
+		/**
+		 * Return the buffer to the binding. This must be called exactly once,
+		 * whether or not the tile was written.
+		 */
+		void release();
+	}
 }
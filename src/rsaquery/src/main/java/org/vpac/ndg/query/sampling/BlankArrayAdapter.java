@@ -0,0 +1,100 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.query.sampling;
+
+import org.vpac.ndg.query.math.ScalarElement;
+import org.vpac.ndg.query.math.VectorInt;
+
+import ucar.ma2.Array;
+import ucar.ma2.Index;
+
+/**
+ * A read-only array in which every element is nodata. It has no backing
+ * storage, so one instance can be shared by any number of blank pages.
+ *
+ * @see PageCache
+ */
+class BlankArrayAdapter implements ArrayAdapter {
+
+	private ScalarElement nodata;
+	private VectorInt shape;
+
+	/**
+	 * @param nodata The value to return for every element. It should be
+	 *        marked as invalid.
+	 * @param shape The largest shape that the array will be accessed with.
+	 */
+	public BlankArrayAdapter(ScalarElement nodata, VectorInt shape) {
+		this.nodata = nodata;
+		this.shape = shape;
+	}
+
+	@Override
+	public VectorInt getShape() {
+		return shape;
+	}
+
+	@Override
+	public int getRank() {
+		return shape.size();
+	}
+
+	@Override
+	public ScalarElement get(Index ima) {
+		return nodata.copy();
+	}
+
+	@Override
+	public ScalarElement get(int i) {
+		return nodata.copy();
+	}
+
+	@Override
+	public void set(Index ima, ScalarElement value) {
+		throw new UnsupportedOperationException("Blank arrays are read-only.");
+	}
+
+	@Override
+	public void set(int i, ScalarElement value) {
+		throw new UnsupportedOperationException("Blank arrays are read-only.");
+	}
+
+	@Override
+	public void unset(Index ima) {
+		// Already nodata.
+	}
+
+	@Override
+	public void unset(int i) {
+		// Already nodata.
+	}
+
+	@Override
+	public Array getArray() {
+		throw new UnsupportedOperationException(
+				"Blank arrays have no backing array.");
+	}
+
+	@Override
+	public void resize(VectorInt shape) {
+		throw new UnsupportedOperationException("Blank arrays are read-only.");
+	}
+
+}
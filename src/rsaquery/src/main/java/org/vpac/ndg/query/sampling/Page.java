@@ -72,6 +72,14 @@ public class Page implements HasShape {
 		public ScalarElement getPixel(final VectorInt co) {
 			return parent.getPixel(co, cellCoords, ima);
 		}
+
+		/**
+		 * @param co The coordinates of a pixel in global cell-space.
+		 * @return True if the pixel is stored in this page.
+		 */
+		public boolean contains(final VectorInt co) {
+			return parent.bounds.contains(co);
+		}
 	}
 
 	/**
@@ -91,6 +99,19 @@ public class Page implements HasShape {
 		this(new BoxInt(min, max), band);
 	}
 
+	/**
+	 * Create a page that has already been loaded, e.g. a blank page that
+	 * shares its data with other pages. {@link #read()} does not need to be
+	 * called.
+	 *
+	 * @param data The contents of the page. It must be at least as large as
+	 *        the bounds.
+	 */
+	public Page(BoxInt bounds, VariableAdapter band, ArrayAdapter data) {
+		this(bounds, band);
+		this.data = data;
+	}
+
 	/**
 	 * @return A thread-safe interface to this page.
 	 */
@@ -20,7 +20,24 @@
 package org.vpac.ndg.query.sampling;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,14 +45,42 @@ import org.vpac.ndg.query.Diagnostics;
 import org.vpac.ndg.query.QueryException;
 import org.vpac.ndg.query.QueryDefinition.CacheDefinition;
 import org.vpac.ndg.query.VariableAdapter;
+import org.vpac.ndg.query.math.BoxInt;
+import org.vpac.ndg.query.math.ScalarElement;
 import org.vpac.ndg.query.math.VectorInt;
 
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+
 
 /**
  * Caches chunks of image data. This is similar to virtual memory paging. Note
  * that this doesn't implement PixelSource on purpose: a pixel source is
  * expected to be used frequently, while this should be used infrequently:
  * fetching objects from the cache is still relatively expensive.
+ *
+ * <p>
+ * The cache may be shared by many threads. Lookups don't take any global lock,
+ * and pages are read from disk by the thread that first requests them. If
+ * other threads request the same page while it is being read, they wait for
+ * that read to finish instead of starting their own.
+ * </p>
+ *
+ * <p>
+ * Pages can also be read ahead of time with
+ * {@link #prefetch(BoxInt, Executor, AtomicLong)}; see {@link PagePrefetcher}.
+ * If a page is requested before its prefetch has started, the requesting
+ * thread reads it instead of waiting for the prefetch queue.
+ * </p>
+ *
+ * <p>
+ * If the variable knows where it has no data (see
+ * {@link VariableAdapter#isBlank(Section)}), pages that fall entirely in those
+ * regions are not read at all. They all share one read-only array that
+ * returns nodata for every pixel.
+ * </p>
+ *
  * @author Alex Fraser
  */
 public class PageCache implements Diagnostics {
@@ -49,20 +94,168 @@ public class PageCache implements Diagnostics {
 	private static final long DEFAULT_VOLUME = 200000;
 
 	private VariableAdapter band;
-	private VectorInt pageShape;
-	private VectorInt index;
+	private volatile VectorInt pageShape;
 	private VectorInt margin;
 
 	/**
-	 * This is a least-recently-used, limited size map. The key is a page (tile)
-	 * index, and pages are positioned on a grid; therefore, this is a so-called
-	 * spatial hash.
+	 * This is a limited size map that evicts the least-recently-used page when
+	 * it grows too large. The key is a page (tile) index, and pages are
+	 * positioned on a grid; therefore, this is a so-called spatial hash.
+	 */
+	private volatile ConcurrentMap<VectorInt, PageSlot> pages;
+	private int capacity;
+
+	/**
+	 * Logical clock for tracking page use. This is cheaper than the system
+	 * clock, and has no ties.
+	 */
+	private AtomicLong clock;
+	private ReentrantLock evictionLock;
+
+	/**
+	 * Page uses, oldest first. A slot is appended each time it is used, so it
+	 * may appear many times; only the entry that matches its
+	 * {@link PageSlot#lastUsed} counts. The others are skipped when evicting,
+	 * and removed when there are too many of them.
 	 */
-	private CacheLru<VectorInt, Page> pages;
+	private ConcurrentLinkedDeque<Use> uses;
+	private AtomicInteger useCount;
 
-	long hardFaults;
-	long softFaults;
+	private static class Use {
+		final PageSlot slot;
+		final long time;
 
+		Use(PageSlot slot, long time) {
+			this.slot = slot;
+			this.time = time;
+		}
+
+		boolean isCurrent(ConcurrentMap<VectorInt, PageSlot> pages) {
+			return slot.lastUsed == time && pages.get(slot.index) == slot;
+		}
+	}
+
+	/**
+	 * Shared by all blank pages; created when the first one is needed.
+	 */
+	private volatile ArrayAdapter blankData;
+
+	AtomicLong hardFaults;
+	AtomicLong blankPages;
+	AtomicLong softFaults;
+	AtomicLong hits;
+	AtomicLong evictions;
+
+	// Read-ahead statistics.
+	AtomicInteger unclaimedPrefetches;
+	AtomicLong prefetches;
+	AtomicLong prefetchHits;
+	AtomicLong prefetchesWasted;
+	AtomicLong ioWaitNanos;
+	AtomicLong ioSavedNanos;
+
+	/**
+	 * An entry in the cache. The page is loaded at most once, either by
+	 * whichever thread inserts the slot into the map, or by a prefetcher.
+	 */
+	private class PageSlot extends FutureTask<Page> {
+		final VectorInt index;
+		volatile long lastUsed;
+		volatile long readNanos;
+		private long startNanos;
+		private AtomicBoolean started;
+
+		/**
+		 * Pixels reserved from a prefetch budget. They are given back when the
+		 * page is first used, or when it is discarded without being used.
+		 */
+		private AtomicLong budget;
+		private long reserved;
+		private AtomicBoolean unclaimed;
+
+		public PageSlot(final VectorInt index) {
+			super(new Callable<Page>() {
+				@Override
+				public Page call() throws IOException {
+					return newPage(index);
+				}
+			});
+			this.index = index;
+			started = new AtomicBoolean(false);
+			unclaimed = new AtomicBoolean(false);
+		}
+
+		public PageSlot(VectorInt index, AtomicLong budget, long reserved) {
+			this(index);
+			this.budget = budget;
+			this.reserved = reserved;
+			unclaimed.set(true);
+			unclaimedPrefetches.incrementAndGet();
+		}
+
+		/**
+		 * Record a use of the page. This must only be called once the slot is
+		 * in the map, or the use could be discarded as stale.
+		 */
+		void touch() {
+			long time = clock.incrementAndGet();
+			lastUsed = time;
+			uses.add(new Use(this, time));
+			if (useCount.incrementAndGet() > capacity * 4 + 16)
+				compactUses();
+		}
+
+		@Override
+		public void run() {
+			runIfIdle();
+		}
+
+		/**
+		 * Read the page on this thread, unless another thread has already
+		 * started to.
+		 * @return true if this thread read the page.
+		 */
+		boolean runIfIdle() {
+			if (!started.compareAndSet(false, true))
+				return false;
+			startNanos = System.nanoTime();
+			super.run();
+			return true;
+		}
+
+		@Override
+		protected void set(Page v) {
+			// Record the time before waking any waiting threads.
+			readNanos = System.nanoTime() - startNanos;
+			super.set(v);
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled())
+				discard();
+		}
+
+		/**
+		 * Return reserved memory to the prefetch budget.
+		 * @return true if this slot was prefetched and had not been used yet.
+		 */
+		boolean claim() {
+			if (!unclaimed.compareAndSet(true, false))
+				return false;
+			budget.addAndGet(reserved);
+			unclaimedPrefetches.decrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Release this slot without using it.
+		 */
+		void discard() {
+			if (claim())
+				prefetchesWasted.incrementAndGet();
+		}
+	}
 
 
 	/**
@@ -72,7 +265,21 @@ public class PageCache implements Diagnostics {
 	public PageCache(VariableAdapter band) {
 
 		this.band = band;
-		index = VectorInt.createEmpty(band.getRank());
+		clock = new AtomicLong(0);
+		evictionLock = new ReentrantLock();
+		uses = new ConcurrentLinkedDeque<Use>();
+		useCount = new AtomicInteger(0);
+		hardFaults = new AtomicLong(0);
+		blankPages = new AtomicLong(0);
+		softFaults = new AtomicLong(0);
+		hits = new AtomicLong(0);
+		evictions = new AtomicLong(0);
+		unclaimedPrefetches = new AtomicInteger(0);
+		prefetches = new AtomicLong(0);
+		prefetchHits = new AtomicLong(0);
+		prefetchesWasted = new AtomicLong(0);
+		ioWaitNanos = new AtomicLong(0);
+		ioSavedNanos = new AtomicLong(0);
 	}
 
 	public synchronized void configure(CacheDefinition cd)
@@ -98,7 +305,8 @@ public class PageCache implements Diagnostics {
 		} else {
 			npages = DEFAULT_CAPACITY;
 		}
-		pages = new CacheLru<VectorInt, Page>(npages);
+		capacity = npages;
+		pages = new ConcurrentHashMap<VectorInt, PageSlot>(npages * 2);
 
 		// Find minimum sampling window; unspecified axes default to 1. Set the
 		// page margin to half the sampling window.
@@ -117,22 +325,28 @@ public class PageCache implements Diagnostics {
 		ts.setPrecedence(dimensionPrecedence);
 		ts.setWindow(window);
 
+		// The page shape is assigned last: other threads use it to check
+		// whether the cache has been configured.
 		pageShape = ts.getTileShape(band.getShape());
 
-		log.debug("Pages: {}", pages.getCapacity());
+		log.debug("Pages: {}", capacity);
 		log.debug("Page shape: {}", pageShape);
 		log.debug("Margin: {}", margin);
 	}
 
 	private synchronized void configure() {
+		if (pageShape != null)
+			return;
+
 		log.debug("Configuring page cache for {}", band);
 
-		pages = new CacheLru<VectorInt, Page>(DEFAULT_CAPACITY);
+		capacity = DEFAULT_CAPACITY;
+		pages = new ConcurrentHashMap<VectorInt, PageSlot>(capacity * 2);
 		TilingStrategy ts = new TilingStrategyStride(DEFAULT_VOLUME);
-		pageShape = ts.getTileShape(band.getShape());
 		margin = VectorInt.createEmpty(band.getRank(), DEFAULT_MARGIN);
+		pageShape = ts.getTileShape(band.getShape());
 
-		log.debug("Pages: {}", pages.getCapacity());
+		log.debug("Pages: {}", capacity);
 		log.debug("Page shape: {}", pageShape);
 		log.debug("Margin: {}", margin);
 	}
@@ -219,29 +433,204 @@ public class PageCache implements Diagnostics {
 	 * @throws IOException If the coordinates are out of bounds, or if the file
 	 *         can not be read.
 	 */
-	public synchronized Page getPage(VectorInt co) throws IOException {
+	public Page getPage(VectorInt co) throws IOException {
 		if (pageShape == null)
 			configure();
 
-		softFaults++;
+		softFaults.incrementAndGet();
+
+		// The index is used as a key, so it must not be shared.
+		VectorInt index = co.divNew(pageShape);
+
+		while (true) {
+			long start = System.nanoTime();
+			ConcurrentMap<VectorInt, PageSlot> pages = this.pages;
+			PageSlot slot = pages.get(index);
+			if (slot == null) {
+				PageSlot newSlot = new PageSlot(index);
+				slot = pages.putIfAbsent(index, newSlot);
+				if (slot == null) {
+					// This thread won: read the page. No locks are held, so
+					// other threads can continue to use other pages in the
+					// meantime.
+					slot = newSlot;
+					slot.runIfIdle();
+					evict(pages);
+				} else {
+					hits.incrementAndGet();
+				}
+			} else {
+				hits.incrementAndGet();
+			}
+			slot.touch();
+			boolean prefetched = slot.claim();
+			// If the page is still waiting in the prefetch queue, read it now
+			// rather than waiting behind other prefetches.
+			if (slot.runIfIdle())
+				prefetched = false;
 
-		index.divOf(co, pageShape);
+			try {
+				Page page = slot.get();
+				long waited = System.nanoTime() - start;
+				ioWaitNanos.addAndGet(waited);
+				if (prefetched) {
+					prefetchHits.incrementAndGet();
+					ioSavedNanos.addAndGet(Math.max(0, slot.readNanos - waited));
+				}
+				return page;
+			} catch (CancellationException e) {
+				// A prefetch was abandoned before it started; read it now.
+				pages.remove(index, slot);
+			} catch (ExecutionException e) {
+				// Allow the read to be attempted again later.
+				pages.remove(index, slot);
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				else if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				else if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IOException("Failed to read page.", cause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for page.", e);
+			}
+		}
+	}
 
-		Page res = pages.get(index);
-		if (res == null) {
-			res = newPage(index);
-			// The index must be copied here, or all pages will have the same
-			// key.
-			pages.put(index.copy(), res);
+	/**
+	 * Start reading pages in the background, so that they are ready by the time
+	 * they are needed. This method is thread-safe.
+	 *
+	 * <p>
+	 * Pages that are already cached are skipped. At most half of the cache
+	 * will be filled with pages that have been prefetched but not yet used, so
+	 * read-ahead can't push out pages that are still being sampled.
+	 * </p>
+	 *
+	 * @param region The cells to read, in the cell space of the variable. The
+	 *        maximum is inclusive.
+	 * @param executor The executor to read pages on.
+	 * @param budget The number of pixels that may still be prefetched. The
+	 *        volume of each page is taken from this, and given back when the
+	 *        page is first used or when it is discarded.
+	 * @return false if some pages were not requested because a limit was
+	 *         reached.
+	 */
+	public boolean prefetch(BoxInt region, Executor executor,
+			AtomicLong budget) {
+		if (pageShape == null)
+			configure();
+
+		VectorInt first = region.getMin().divNew(pageShape);
+		VectorInt last = region.getMax().divNew(pageShape);
+		VectorInt count = last.subNew(first).add(1);
+		for (VectorInt offset : new TileGenerator(count)) {
+			if (!prefetchPage(offset.addNew(first), executor, budget))
+				return false;
 		}
-		return res;
+		return true;
 	}
 
-	protected Page newPage(VectorInt index) throws IOException {
-		hardFaults++;
+	private boolean prefetchPage(VectorInt index, Executor executor,
+			AtomicLong budget) {
+		ConcurrentMap<VectorInt, PageSlot> pages = this.pages;
+		if (pages.containsKey(index))
+			return true;
+		if (unclaimedPrefetches.get() >= capacity / 2)
+			return false;
+
+		long volume = pageShape.volume();
+		long remaining;
+		do {
+			remaining = budget.get();
+			if (remaining < volume)
+				return false;
+		} while (!budget.compareAndSet(remaining, remaining - volume));
+
+		PageSlot slot = new PageSlot(index, budget, volume);
+		if (pages.putIfAbsent(index, slot) != null) {
+			// Another thread got there first.
+			slot.claim();
+			return true;
+		}
 
-		log.trace("Hard fault: loading page {} for band {}", index, band);
+		slot.touch();
+		log.trace("Prefetching page {} for band {}", index, band);
+		prefetches.incrementAndGet();
+		try {
+			executor.execute(slot);
+		} catch (RejectedExecutionException e) {
+			pages.remove(index, slot);
+			slot.cancel(false);
+			return false;
+		}
+		evict(pages);
+		return true;
+	}
+
+	/**
+	 * Remove the least-recently-used pages until the cache is within its
+	 * capacity. Pages that are still being read are never evicted.
+	 */
+	private void evict(ConcurrentMap<VectorInt, PageSlot> pages) {
+		if (pages.size() <= capacity)
+			return;
+
+		// Only one thread needs to do this at a time; the others can carry on.
+		evictionLock.lock();
+		try {
+			List<Use> busy = new ArrayList<Use>();
+			while (pages.size() > capacity) {
+				Use eldest = uses.pollFirst();
+				if (eldest == null)
+					break;
+				useCount.decrementAndGet();
+				if (!eldest.isCurrent(pages))
+					continue;
+				if (!eldest.slot.isDone()) {
+					busy.add(eldest);
+					continue;
+				}
+				log.trace("Releasing {}", eldest.slot.index);
+				if (pages.remove(eldest.slot.index, eldest.slot)) {
+					evictions.incrementAndGet();
+					eldest.slot.discard();
+				}
+			}
+			// Put pages that are being read back where they were.
+			for (int i = busy.size() - 1; i >= 0; i--) {
+				uses.addFirst(busy.get(i));
+				useCount.incrementAndGet();
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Forget uses that have been superseded by later ones. If another thread
+	 * is evicting pages, this is left for later rather than waiting.
+	 */
+	private void compactUses() {
+		if (!evictionLock.tryLock())
+			return;
+		try {
+			ConcurrentMap<VectorInt, PageSlot> pages = this.pages;
+			Iterator<Use> it = uses.iterator();
+			while (it.hasNext()) {
+				if (!it.next().isCurrent(pages)) {
+					it.remove();
+					useCount.decrementAndGet();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
 
+	protected Page newPage(VectorInt index) throws IOException {
 		VectorInt origin = index.mulNew(pageShape);
 		VectorInt end = origin.addNew(pageShape);
 
@@ -251,21 +640,169 @@ public class PageCache implements Diagnostics {
 		end.add(margin);
 		end.min(band.getShape());
 
-		Page page = new Page(origin, end, band);
+		BoxInt bounds = new BoxInt(origin, end);
+		if (isBlank(bounds)) {
+			blankPages.incrementAndGet();
+			log.trace("Blank page {} for band {}", index, band);
+			return new Page(bounds, band, getBlankData());
+		}
+
+		hardFaults.incrementAndGet();
+
+		log.trace("Hard fault: loading page {} for band {}", index, band);
+
+		Page page = new Page(bounds, band);
 		page.read();
 		return page;
 	}
 
+	/**
+	 * @return true if the page doesn't need to be read because it contains
+	 *         only nodata.
+	 */
+	private boolean isBlank(BoxInt bounds) throws IOException {
+		// Without a nodata value, blank pixels would look like valid zeros.
+		if (band.getNodataStrategy() instanceof NodataNullStrategy)
+			return false;
+		try {
+			return band.isBlank(new Section(bounds.getMin().asIntArray(),
+					bounds.getSize().asIntArray()));
+		} catch (InvalidRangeException e) {
+			throw new IOException("Could not check page: Invalid section.", e);
+		}
+	}
+
+	private ArrayAdapter getBlankData() throws IOException {
+		ArrayAdapter data = blankData;
+		if (data != null)
+			return data;
+
+		// Let the usual adapter decide how nodata is represented, so that
+		// blank pixels are the same as ones that were read.
+		Array array = Array.factory(band.getDataType(), new int[] {1});
+		array.setUnsigned(band.getVariable().isUnsigned());
+		ScalarElement nodata;
+		try {
+			ArrayAdapter prototype = ArrayAdapterImpl.createAndPromote(array,
+					band.getDataType(), band.getNodataStrategy());
+			prototype.unset(0);
+			nodata = prototype.get(0);
+		} catch (QueryException e) {
+			throw new IOException(
+					"Could not create blank page: configuration error.", e);
+		}
+		data = new BlankArrayAdapter(nodata, pageShape.addNew(margin.mulNew(2)));
+		blankData = data;
+		return data;
+	}
+
+	/**
+	 * @return The number of pages that have been read from the underlying
+	 *         variable.
+	 */
+	public long getHardFaults() {
+		return hardFaults.get();
+	}
+
+	/**
+	 * @return The number of pages that were known to be blank, and so were
+	 *         not read.
+	 */
+	public long getBlankPages() {
+		return blankPages.get();
+	}
+
+	/**
+	 * @return The number of times a page has been requested.
+	 */
+	public long getSoftFaults() {
+		return softFaults.get();
+	}
+
+	/**
+	 * @return The number of requests that were satisfied by a page that was
+	 *         already in the cache (or that was being read by another thread).
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of pages that have been released to make room for
+	 *         others.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The number of pages that have been scheduled for read-ahead.
+	 */
+	public long getPrefetches() {
+		return prefetches.get();
+	}
+
+	/**
+	 * @return The number of prefetched pages that were later requested.
+	 */
+	public long getPrefetchHits() {
+		return prefetchHits.get();
+	}
+
+	/**
+	 * @return The number of prefetched pages that were released or cancelled
+	 *         before they were used.
+	 */
+	public long getPrefetchesWasted() {
+		return prefetchesWasted.get();
+	}
+
+	/**
+	 * @return The total time that callers of {@link #getPage(VectorInt)} spent
+	 *         waiting for pages to be read, in nanoseconds.
+	 */
+	public long getIoWaitNanos() {
+		return ioWaitNanos.get();
+	}
+
+	/**
+	 * @return The time that callers of {@link #getPage(VectorInt)} would have
+	 *         spent waiting for pages if they had not been prefetched, in
+	 *         nanoseconds.
+	 */
+	public long getIoSavedNanos() {
+		return ioSavedNanos.get();
+	}
+
+	public VectorInt getPageShape() {
+		if (pageShape == null)
+			configure();
+		return pageShape;
+	}
+
 	@Override
 	public String toString() {
-		return String.format("PageCache(%s, %d/%d)", band, hardFaults, softFaults);
+		return String.format("PageCache(%s, %d/%d)", band, hardFaults.get(),
+				softFaults.get());
 	}
 
 	@Override
 	public void diagnostics() {
 		String diagnostics = String.format(
-				"PageCache(%s): %d hard fault(s), %d soft fault(s).", band,
-				hardFaults, softFaults);
+				"PageCache(%s): %d hard fault(s), %d blank page(s), " +
+				"%d soft fault(s), %d hit(s), %d eviction(s).", band,
+				hardFaults.get(), blankPages.get(), softFaults.get(),
+				hits.get(), evictions.get());
 		log.debug(diagnostics);
+		if (prefetches.get() > 0) {
+			diagnostics = String.format(
+					"PageCache(%s): %d prefetch(es), %d used, %d wasted; " +
+					"waited %d ms for I/O, saved %d ms.", band,
+					prefetches.get(), prefetchHits.get(),
+					prefetchesWasted.get(),
+					TimeUnit.NANOSECONDS.toMillis(ioWaitNanos.get()),
+					TimeUnit.NANOSECONDS.toMillis(ioSavedNanos.get()));
+			log.debug(diagnostics);
+		}
 	}
 }
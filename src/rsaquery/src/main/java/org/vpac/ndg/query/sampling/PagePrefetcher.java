@@ -0,0 +1,234 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.query.sampling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.Diagnostics;
+import org.vpac.ndg.query.QueryException;
+import org.vpac.ndg.query.VariableAdapter;
+import org.vpac.ndg.query.coordinates.QueryCoordinateSystem;
+import org.vpac.ndg.query.coordinates.Warp;
+import org.vpac.ndg.query.math.BoxInt;
+import org.vpac.ndg.query.math.BoxReal;
+import org.vpac.ndg.query.math.VectorReal;
+
+/**
+ * Reads input pages in the background, ahead of the output tiles that will
+ * need them. Without this, pages are only read when a sampler faults, so
+ * filters stall on I/O each time they move on to a new page.
+ *
+ * <p>
+ * The prefetcher is given the bounds of upcoming output tiles. These are warped
+ * into the cell space of each input variable, and the pages that cover them are
+ * requested from the variable's {@link PageCache}. The total volume of pages
+ * that have been prefetched but not yet used is limited by a budget.
+ * </p>
+ */
+public class PagePrefetcher implements Diagnostics {
+
+	final Logger log = LoggerFactory.getLogger(PagePrefetcher.class);
+
+	private List<Source> sources;
+	private ExecutorService executor;
+	private AtomicLong budget;
+	private volatile boolean running;
+
+	long tilesRequested;
+	long budgetExhausted;
+
+	/**
+	 * An input variable that can be prefetched.
+	 */
+	private static class Source {
+		PageCache cache;
+		/**
+		 * Transforms from the query coordinate system to the cell space of the
+		 * variable. This is not shared with any sampler.
+		 */
+		Warp warp;
+		/**
+		 * The extents of the variable in the query coordinate system.
+		 */
+		BoxReal bounds;
+		VectorReal maxCell;
+	}
+
+	/**
+	 * @param numThreads The number of threads to read pages on.
+	 * @param budget The maximum number of pixels that may be prefetched ahead
+	 *        of time.
+	 */
+	public PagePrefetcher(int numThreads, long budget) {
+		sources = new ArrayList<Source>();
+		this.budget = new AtomicLong(budget);
+		running = true;
+		tilesRequested = 0;
+		budgetExhausted = 0;
+
+		executor = Executors.newFixedThreadPool(numThreads,
+				new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "page-prefetcher");
+				// Don't keep the JVM alive if the query is abandoned.
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Register a variable to prefetch pages for.
+	 * @param band The variable.
+	 * @param context The coordinate system that tile bounds will be specified
+	 *        in.
+	 */
+	public void addSource(VariableAdapter band, QueryCoordinateSystem context)
+			throws QueryException {
+		Source source = new Source();
+		source.cache = band.getPageCache();
+		source.warp = band.createWarpFrom(context);
+		source.bounds = band.calculateBounds(context);
+		source.maxCell = band.getShape().toReal().subNew(1);
+		sources.add(source);
+		log.debug("Prefetching pages of {}", band);
+	}
+
+	/**
+	 * Start reading the input pages that will be needed to generate an output
+	 * tile. This returns immediately.
+	 *
+	 * @param tile The bounds of the output tile, in the query coordinate
+	 *        system.
+	 */
+	public void prefetch(BoxInt tile) {
+		if (!running)
+			return;
+		tilesRequested++;
+
+		for (Source source : sources) {
+			BoxInt region = findRegion(source, tile);
+			if (region == null)
+				continue;
+			if (!source.cache.prefetch(region, executor, budget))
+				budgetExhausted++;
+		}
+	}
+
+	/**
+	 * @return The cells of the source variable that the tile covers, or null
+	 *         if the tile doesn't overlap the variable.
+	 */
+	private BoxInt findRegion(Source source, BoxInt tile) {
+		// Start with the full extent of the input. Then shrink the trailing
+		// axes (x is last) to the tile. Leading axes that the output lacks,
+		// e.g. time in a temporal reduction, keep their full extent.
+		BoxReal box = source.bounds.copy();
+		int rank = box.getRank();
+		int tileRank = tile.getMin().size();
+		for (int i = 1; i <= Math.min(rank, tileRank); i++) {
+			box.getMin().set(rank - i, tile.getMin().get(tileRank - i));
+			box.getMax().set(rank - i, tile.getMax().get(tileRank - i));
+		}
+		box.intersect(source.bounds);
+		VectorReal size = box.getSize();
+		for (int i = 0; i < size.size(); i++) {
+			if (size.get(i) <= 0)
+				return null;
+		}
+
+		source.warp.warp(box);
+
+		// The warp may flip axes, so sort the corners before converting to
+		// cell indices.
+		VectorReal min = box.getMin().minNew(box.getMax());
+		VectorReal max = box.getMin().maxNew(box.getMax());
+		min.clamp(VectorReal.createEmpty(rank), source.maxCell);
+		max.clamp(VectorReal.createEmpty(rank), source.maxCell);
+		return new BoxInt(min.toInt(), max.toInt());
+	}
+
+	/**
+	 * Stop prefetching. Reads that have not started yet are cancelled; the
+	 * pages will be read on demand if they are needed after all.
+	 */
+	public void shutDown() {
+		running = false;
+		for (Runnable task : executor.shutdownNow()) {
+			if (task instanceof Future<?>)
+				((Future<?>) task).cancel(false);
+		}
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			log.warn("Interrupted while waiting for prefetch to finish.", e);
+		}
+	}
+
+	/**
+	 * @return The total time that filters spent waiting for input pages, in
+	 *         nanoseconds.
+	 */
+	public long getIoWaitNanos() {
+		long total = 0;
+		for (Source source : sources)
+			total += source.cache.getIoWaitNanos();
+		return total;
+	}
+
+	/**
+	 * @return The time that filters would have spent waiting for input pages
+	 *         without read-ahead, in nanoseconds.
+	 */
+	public long getIoSavedNanos() {
+		long total = 0;
+		for (Source source : sources)
+			total += source.cache.getIoSavedNanos();
+		return total;
+	}
+
+	@Override
+	public void diagnostics() {
+		long prefetches = 0;
+		long used = 0;
+		long wasted = 0;
+		for (Source source : sources) {
+			prefetches += source.cache.getPrefetches();
+			used += source.cache.getPrefetchHits();
+			wasted += source.cache.getPrefetchesWasted();
+		}
+		log.info("Prefetched {} page(s) for {} tile(s); {} used, {} wasted, " +
+				"budget exhausted {} time(s).", prefetches, tilesRequested,
+				used, wasted, budgetExhausted);
+		log.info("Waited {} ms for input; read-ahead saved {} ms.",
+				TimeUnit.NANOSECONDS.toMillis(getIoWaitNanos()),
+				TimeUnit.NANOSECONDS.toMillis(getIoSavedNanos()));
+	}
+}
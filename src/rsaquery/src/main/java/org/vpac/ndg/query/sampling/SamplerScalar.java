@@ -60,6 +60,11 @@ public class SamplerScalar implements PixelSourceScalar, Diagnostics {
 	private VectorReal internalCoords;
 	private VectorInt cellCoords;
 
+	/**
+	 * The number of times this sampler has had to switch pages.
+	 */
+	private long pageSwitches;
+
 
 	public SamplerScalar(VariableAdapter band, QueryCoordinateSystem context)
 			throws QueryException {
@@ -75,6 +80,7 @@ public class SamplerScalar implements PixelSourceScalar, Diagnostics {
 		page = null;
 		internalCoords = VectorReal.createEmpty(band.getRank());
 		cellCoords = VectorInt.createEmpty(band.getRank());
+		pageSwitches = 0;
 	}
 
 	@Override
@@ -100,13 +106,17 @@ public class SamplerScalar implements PixelSourceScalar, Diagnostics {
 	 */
 	public ScalarElement reallyGet(VectorReal coordinates) throws IOException {
 		cellCoords.set(coordinates);
-		try {
+		if (page != null && page.contains(cellCoords))
 			return page.getPixel(cellCoords);
-		} catch (IndexOutOfBoundsException e) {
-			// page fault
-		} catch (NullPointerException e) {
-			// page fault
-		}
+		return switchPage();
+	}
+
+	/**
+	 * Slow path of {@link #reallyGet(VectorReal)}: fetch the page that
+	 * contains the current coordinates from the cache.
+	 */
+	private ScalarElement switchPage() throws IOException {
+		pageSwitches++;
 		page = pageCache.getPage(cellCoords).getLocalPage();
 		try {
 			return page.getPixel(cellCoords);
@@ -157,8 +167,16 @@ public class SamplerScalar implements PixelSourceScalar, Diagnostics {
 		return String.format("Sampler(%s)", name);
 	}
 
+	/**
+	 * @return The number of times this sampler has moved to a different page.
+	 */
+	public long getPageSwitches() {
+		return pageSwitches;
+	}
+
 	@Override
 	public void diagnostics() {
+		log.debug("{} switched pages {} time(s).", this, pageSwitches);
 		pageCache.diagnostics();
 	}
 }
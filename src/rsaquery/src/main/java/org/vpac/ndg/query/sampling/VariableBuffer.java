@@ -22,6 +22,8 @@ package org.vpac.ndg.query.sampling;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +49,12 @@ public abstract class VariableBuffer implements HasRank, Binding {
 	private BoxInt bounds;
 	private int dimensions;
 
+	/**
+	 * Buffers that are free to be used for the next tile; null if tiles are
+	 * always committed in place.
+	 */
+	private BlockingQueue<List<ArrayAdapter>> spares;
+
 	public VariableBuffer(List<VariableAdapter> variables)
 			throws QueryException {
 
@@ -55,12 +63,8 @@ public abstract class VariableBuffer implements HasRank, Binding {
 		dimensions = -1;
 
 		// Note: internal buffers are null until setBounds is called.
-		buffers = new ArrayList<ArrayAdapter>();
+		buffers = createBuffers();
 		for (VariableAdapter variable : variables) {
-			ArrayAdapter buffer = ArrayAdapterImpl.create(variable.getDataType(),
-					variable.getNodataStrategy());
-			buffers.add(buffer);
-
 			if (dimensions == -1) {
 				dimensions = variable.getRank();
 			} else if (dimensions != variable.getRank()) {
@@ -71,8 +75,66 @@ public abstract class VariableBuffer implements HasRank, Binding {
 		}
 	}
 
+	private List<ArrayAdapter> createBuffers() {
+		List<ArrayAdapter> buffers = new ArrayList<ArrayAdapter>();
+		for (VariableAdapter variable : variables) {
+			ArrayAdapter buffer = ArrayAdapterImpl.create(variable.getDataType(),
+					variable.getNodataStrategy());
+			buffers.add(buffer);
+		}
+		return buffers;
+	}
+
+	@Override
+	public void setSpareBuffers(int n) {
+		if (n <= 0) {
+			spares = null;
+			return;
+		}
+		spares = new ArrayBlockingQueue<List<ArrayAdapter>>(n);
+		for (int i = 0; i < n; i++)
+			spares.add(createBuffers());
+	}
+
+	@Override
+	public PendingCommit detach() throws IOException {
+		if (spares == null) {
+			throw new IllegalStateException(
+					"Can't detach tile: no spare buffers have been allocated.");
+		}
+
+		final List<ArrayAdapter> finishedBuffers = buffers;
+		final BoxInt finishedBounds = bounds;
+		try {
+			buffers = spares.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a free " +
+					"buffer.", e);
+		}
+		// The spare may have a different shape; force a resize.
+		bounds = null;
+
+		return new PendingCommit() {
+			@Override
+			public void commit(NetcdfFileWriter output) throws IOException {
+				write(output, finishedBounds, finishedBuffers);
+			}
+
+			@Override
+			public void release() {
+				spares.add(finishedBuffers);
+			}
+		};
+	}
+
 	@Override
 	public void commit(NetcdfFileWriter output) throws IOException {
+		write(output, bounds, buffers);
+	}
+
+	private void write(NetcdfFileWriter output, BoxInt bounds,
+			List<ArrayAdapter> buffers) throws IOException {
 		for (int i = 0; i < variables.size(); i++) {
 			int[] origin = bounds.getMin().asIntArray();
 			Variable var = variables.get(i).getVariable();
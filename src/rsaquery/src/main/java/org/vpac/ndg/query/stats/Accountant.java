@@ -19,9 +19,7 @@
 package org.vpac.ndg.query.stats;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import org.vpac.ndg.query.QueryBindingException;
 import org.vpac.ndg.query.QueryException;
@@ -71,17 +69,15 @@ public class Accountant implements Filter, Accumulator<Ledger> {
 	@Override
 	public void kernel(VectorReal coords) throws IOException {
 		Element<?> pixel = input.getPixel(coords);
-		List<Double> components = new ArrayList<>();
-		int nValid = 0;
-		for (ScalarElement c : pixel.getComponents()) {
+		ScalarElement[] components = pixel.getComponents();
+		boolean anyValid = false;
+		for (ScalarElement c : components) {
 			if (c.isValid()) {
-				components.add(c.doubleValue());
-				nValid++;
-			} else {
-				components.add(null);
+				anyValid = true;
+				break;
 			}
 		}
-		if (nValid > 0)
+		if (anyValid)
 			ledger.add(components);
 		output.set(pixel);
 	}
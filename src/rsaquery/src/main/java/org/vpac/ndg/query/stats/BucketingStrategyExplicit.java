@@ -56,19 +56,30 @@ public class BucketingStrategyExplicit implements BucketingStrategy, Serializabl
 
     @Override
     public double[] computeBucketBounds(double value) {
-        double secondLastBucketValue = Double.NEGATIVE_INFINITY;
-        double lastBucketValue = Double.NEGATIVE_INFINITY;
-        for (double bucketValue : this.buckets) {
-            if (lastBucketValue <= value &&
-                value < bucketValue) {
-                return new double[] {lastBucketValue, bucketValue};
-            }
-            secondLastBucketValue = lastBucketValue;
-            lastBucketValue = bucketValue;
+        // Find the first bound that is greater than the value. The bounds
+        // are strictly increasing (see checkConfiguration).
+        int lo = 0;
+        int hi = buckets.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buckets[mid] > value)
+                hi = mid;
+            else
+                lo = mid + 1;
         }
 
+        if (buckets.length == 0)
+            return new double[] {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY};
+        if (lo == 0)
+            return new double[] {Double.NEGATIVE_INFINITY, buckets[0]};
+        if (lo < buckets.length)
+            return new double[] {buckets[lo - 1], buckets[lo]};
+
+        double lastBucketValue = buckets[lo - 1];
         // Special case whereby value is equal to the last buckets upper bound
         if (!Double.isInfinite(lastBucketValue) && value == lastBucketValue) {
+            double secondLastBucketValue = lo > 1 ?
+                buckets[lo - 2] : Double.NEGATIVE_INFINITY;
             return new double[] {secondLastBucketValue, lastBucketValue};
         }
 
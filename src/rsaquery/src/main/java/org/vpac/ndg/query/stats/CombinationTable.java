@@ -0,0 +1,245 @@
+package org.vpac.ndg.query.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts occurrences of fixed-width tuples of numbers. The tuples are packed
+ * into a flat array of longs (the raw bits of each double) and stored in an
+ * open-addressing hash table, so counting doesn't allocate any objects.
+ *
+ * <p>
+ * Components may be null; these are stored as a reserved NaN bit pattern that
+ * {@link Double#doubleToLongBits(double)} never produces. Two tuples are equal
+ * if and only if their boxed {@link List} representations would be equal.
+ * </p>
+ *
+ * @see Ledger
+ */
+class CombinationTable {
+
+	/**
+	 * Stands in for a null component. doubleToLongBits collapses all NaNs to
+	 * 0x7ff8000000000000L, so this can't collide with a real value.
+	 */
+	static final long NULL_BITS = 0x7ff0000000000badL;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private int width;
+	private int size;
+	private int capacity;
+	private long[] keys;
+	private long[] counts;
+	private boolean[] used;
+
+	CombinationTable(int width) {
+		this(width, MIN_CAPACITY);
+	}
+
+	private CombinationTable(int width, int capacity) {
+		this.width = width;
+		this.capacity = capacity;
+		size = 0;
+		keys = new long[capacity * width];
+		counts = new long[capacity];
+		used = new boolean[capacity];
+	}
+
+	public CombinationTable copy() {
+		CombinationTable res = new CombinationTable(width, capacity);
+		res.size = size;
+		System.arraycopy(keys, 0, res.keys, 0, keys.length);
+		System.arraycopy(counts, 0, res.counts, 0, counts.length);
+		System.arraycopy(used, 0, res.used, 0, used.length);
+		return res;
+	}
+
+	static long pack(Double component) {
+		if (component == null)
+			return NULL_BITS;
+		return Double.doubleToLongBits(component);
+	}
+
+	static Double unpack(long bits) {
+		if (bits == NULL_BITS)
+			return null;
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * Pack a list into a key, for use with the other methods of this class.
+	 * @param combination The values. Must be the same width as the table.
+	 * @param key The array to write to.
+	 */
+	static void pack(List<Double> combination, long[] key) {
+		for (int i = 0; i < key.length; i++)
+			key[i] = pack(combination.get(i));
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of slots in the table, some of which may be empty.
+	 *         Use with {@link #isUsed(int)}.
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+
+	public long getCount(int slot) {
+		return counts[slot];
+	}
+
+	public void addCount(int slot, long count) {
+		counts[slot] += count;
+	}
+
+	/**
+	 * @return The bits of one component of the key in the slot.
+	 */
+	public long getBits(int slot, int column) {
+		return keys[slot * width + column];
+	}
+
+	/**
+	 * @return The key in the slot, unpacked into a new list.
+	 */
+	public List<Double> getKey(int slot) {
+		List<Double> key = new ArrayList<Double>(width);
+		for (int i = 0; i < width; i++)
+			key.add(unpack(keys[slot * width + i]));
+		return key;
+	}
+
+	/**
+	 * Copy the key in a slot into an array.
+	 */
+	public void getKey(int slot, long[] key) {
+		System.arraycopy(keys, slot * width, key, 0, width);
+	}
+
+	/**
+	 * @return True if the slot holds the given key.
+	 */
+	public boolean matches(int slot, long[] key) {
+		if (!used[slot])
+			return false;
+		int base = slot * width;
+		for (int i = 0; i < width; i++) {
+			if (keys[base + i] != key[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return The slot that holds the key, or -1 if it is not present.
+	 */
+	public int find(long[] key) {
+		int slot = hash(key, 0) & (capacity - 1);
+		while (used[slot]) {
+			if (matches(slot, key))
+				return slot;
+			slot = (slot + 1) & (capacity - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The slot that holds the key. If the key is not present, it will
+	 *         be inserted with a count of zero.
+	 */
+	public int findOrInsert(long[] key) {
+		int slot = hash(key, 0) & (capacity - 1);
+		while (used[slot]) {
+			if (matches(slot, key))
+				return slot;
+			slot = (slot + 1) & (capacity - 1);
+		}
+
+		if ((size + 1) * 4 > capacity * 3) {
+			grow();
+			return findOrInsert(key);
+		}
+
+		System.arraycopy(key, 0, keys, slot * width, width);
+		used[slot] = true;
+		counts[slot] = 0;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Add the counts of another table to this one. This takes time
+	 * proportional to the size of the other table.
+	 */
+	public void addAll(CombinationTable other) {
+		if (other.width != width) {
+			throw new IllegalArgumentException(String.format(
+					"Can't combine tables of width %d and %d.", width,
+					other.width));
+		}
+		long[] key = new long[width];
+		for (int i = 0; i < other.capacity; i++) {
+			if (!other.used[i])
+				continue;
+			other.getKey(i, key);
+			// Insert first: it may reallocate the arrays.
+			int slot = findOrInsert(key);
+			counts[slot] += other.counts[i];
+		}
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldCounts = counts;
+		boolean[] oldUsed = used;
+		int oldCapacity = capacity;
+
+		capacity *= 2;
+		keys = new long[capacity * width];
+		counts = new long[capacity];
+		used = new boolean[capacity];
+
+		for (int i = 0; i < oldCapacity; i++) {
+			if (!oldUsed[i])
+				continue;
+			int slot = hash(oldKeys, i * width) & (capacity - 1);
+			while (used[slot])
+				slot = (slot + 1) & (capacity - 1);
+			System.arraycopy(oldKeys, i * width, keys, slot * width, width);
+			counts[slot] = oldCounts[i];
+			used[slot] = true;
+		}
+	}
+
+	private int hash(long[] key, int offset) {
+		long h = 0;
+		for (int i = 0; i < width; i++)
+			h = h * 31 + key[offset + i];
+		// Finalisation step from MurmurHash3, to spread the bits. Without
+		// this, whole numbers would only differ in their high bits.
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CombinationTable(%dx%d)", width, size);
+	}
+}
@@ -2,6 +2,7 @@ package org.vpac.ndg.query.stats;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -26,6 +27,14 @@ public class Hist implements Foldable<Hist>, Serializable {
 	// The most-recently-used bucket.
 	private Bucket mruBucket;
 
+	// The lower bounds of the buckets, in the same order, for binary search.
+	// Only the first nIndexed elements are used; the rest is room to grow.
+	// The index is dropped when the list is replaced by setBuckets. The list
+	// may also be changed from outside (e.g. by Hibernate), so the index is
+	// rebuilt whenever its size doesn't match.
+	private transient double[] lowers;
+	private transient int nIndexed;
+
 	public Hist() {
 		bucketingStrategy = new BucketingStrategyCategorical();
 		buckets = new ArrayList<Bucket>();
@@ -56,15 +65,7 @@ public class Hist implements Foldable<Hist>, Serializable {
 		if (mruBucket != null && mruBucket.canContain(value))
 			return mruBucket;
 
-		int i = -1;
-		for (int j = 0; j < buckets.size(); j++) {
-			Bucket b = buckets.get(j);
-			if (b.getLower() <= value)
-				i = j;
-			else
-				break;
-		}
-
+		int i = floor(value);
 		Bucket b = null;
 		if (i < 0 || !buckets.get(i).canContain(value)) {
 			b = null;
@@ -86,15 +87,7 @@ public class Hist implements Foldable<Hist>, Serializable {
 		if (mruBucket != null && mruBucket.canContain(value))
 			return mruBucket;
 
-		int i = -1;
-		for (int j = 0; j < buckets.size(); j++) {
-			Bucket b = buckets.get(j);
-			if (b.getLower() <= value)
-				i = j;
-			else
-				break;
-		}
-
+		int i = floor(value);
 		Bucket b = null;
 		if (i < 0 || !buckets.get(i).canContain(value)) {
 			// No bucket can contain this value yet. Create one that can.
@@ -102,7 +95,7 @@ public class Hist implements Foldable<Hist>, Serializable {
 			// the new bucket (discovered above).
 			double[] bounds = bucketingStrategy.computeBucketBounds(value);
 			b = new Bucket(bounds[0], bounds[1], new Stats());
-			buckets.add(i + 1, b);
+			insert(i + 1, b);
 		} else {
 			b = buckets.get(i);
 		}
@@ -111,6 +104,47 @@ public class Hist implements Foldable<Hist>, Serializable {
 		return mruBucket;
 	}
 
+	/**
+	 * @return The index of the last bucket whose lower bound is less than or
+	 *         equal to the value, or -1 if there is no such bucket.
+	 */
+	private int floor(double value) {
+		updateIndex();
+		int lo = 0;
+		int hi = nIndexed - 1;
+		int res = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			// Double.compare rather than <=, to agree with the sort order of
+			// fold() if NaN creeps in.
+			if (Double.compare(lowers[mid], value) <= 0) {
+				res = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return res;
+	}
+
+	private void insert(int i, Bucket b) {
+		buckets.add(i, b);
+		if (nIndexed == lowers.length)
+			lowers = Arrays.copyOf(lowers, Math.max(nIndexed * 2, 16));
+		System.arraycopy(lowers, i, lowers, i + 1, nIndexed - i);
+		lowers[i] = b.getLower();
+		nIndexed++;
+	}
+
+	private void updateIndex() {
+		if (lowers != null && nIndexed == buckets.size())
+			return;
+		nIndexed = buckets.size();
+		lowers = new double[Math.max(nIndexed, 16)];
+		for (int i = 0; i < nIndexed; i++)
+			lowers[i] = buckets.get(i).getLower();
+	}
+
 	/**
 	 * Combine this histogram with another to create a new object that contains
 	 * the information from both.
@@ -125,15 +159,10 @@ public class Hist implements Foldable<Hist>, Serializable {
 	@Override
 	public Hist fold(Hist other) {
 
-		List<Bucket> sourceBuckets = new ArrayList<Bucket>();
-		sourceBuckets.addAll(this.buckets);
-		sourceBuckets.addAll(other.buckets);
-		Collections.sort(sourceBuckets, new Comparator<Bucket>() {
-			@Override
-			public int compare(Bucket o1, Bucket o2) {
-				return Double.compare(o1.getLower(), o2.getLower());
-			}
-		});
+		// Both lists are normally sorted already, so they can be merged in
+		// linear time.
+		List<Bucket> sourceBuckets = merge(sorted(buckets),
+				sorted(other.buckets));
 
 		Bucket currentBucket = null;
 		List<Bucket> targetBuckets = new ArrayList<Bucket>();
@@ -158,6 +187,46 @@ public class Hist implements Foldable<Hist>, Serializable {
 		return res;
 	}
 
+	private static final Comparator<Bucket> BY_LOWER = new Comparator<Bucket>() {
+		@Override
+		public int compare(Bucket o1, Bucket o2) {
+			return Double.compare(o1.getLower(), o2.getLower());
+		}
+	};
+
+	/**
+	 * @return The buckets in order of their lower bounds. This is the same
+	 *         list if it is already in order.
+	 */
+	private static List<Bucket> sorted(List<Bucket> buckets) {
+		for (int i = 1; i < buckets.size(); i++) {
+			if (BY_LOWER.compare(buckets.get(i - 1), buckets.get(i)) > 0) {
+				List<Bucket> res = new ArrayList<Bucket>(buckets);
+				Collections.sort(res, BY_LOWER);
+				return res;
+			}
+		}
+		return buckets;
+	}
+
+	private static List<Bucket> merge(List<Bucket> a, List<Bucket> b) {
+		List<Bucket> res = new ArrayList<Bucket>(a.size() + b.size());
+		int i = 0;
+		int j = 0;
+		while (i < a.size() && j < b.size()) {
+			// Take from a first on ties, like a stable sort would.
+			if (BY_LOWER.compare(a.get(i), b.get(j)) <= 0)
+				res.add(a.get(i++));
+			else
+				res.add(b.get(j++));
+		}
+		while (i < a.size())
+			res.add(a.get(i++));
+		while (j < b.size())
+			res.add(b.get(j++));
+		return res;
+	}
+
 	public Hist optimise() {
 		Hist res = new Hist();
 		res.setBucketingStrategy(bucketingStrategy);
@@ -305,6 +374,11 @@ public class Hist implements Foldable<Hist>, Serializable {
 
 	public void setBuckets(List<Bucket> buckets) {
 		this.buckets = buckets;
+		// The new list may have the same size as the old one, so the index
+		// can't be validated by size alone.
+		lowers = null;
+		nIndexed = 0;
+		mruBucket = null;
 	}
 
 	public BucketingStrategy getBucketingStrategy() {
@@ -1,11 +1,13 @@
 package org.vpac.ndg.query.stats;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Map;
@@ -18,134 +20,273 @@ import org.vpac.ndg.query.stats.BucketingStrategyFactory;
 
 /**
  * Counts occurrences of combinations of numbers.
+ *
+ * <p>
+ * Combinations are bucketed and packed into a {@link CombinationTable}, so
+ * adding a pixel doesn't allocate. The map view returned by
+ * {@link #getEntries()} is only built on request; it is used for persistence
+ * and reporting.
+ * </p>
+ *
  * @author Alex Fraser
  */
 public class Ledger implements Foldable<Ledger>, Serializable {
 
 	private static final long serialVersionUID = 1L;
 
-	private String id;
-	private Map<List<Double>, Long> entries;
-	private List<Double> bucketedCombination;
-	private List<Double> currentCombination;
-	private Long currentCount;
-	private List<BucketingStrategy> bss;
+	/**
+	 * The serialised form is the same as when the entries were stored in a
+	 * map, so results can be exchanged with older workers.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("id", String.class),
+		new ObjectStreamField("entries", Map.class),
+		new ObjectStreamField("bucketedCombination", List.class),
+		new ObjectStreamField("currentCombination", List.class),
+		new ObjectStreamField("currentCount", Long.class),
+		new ObjectStreamField("bss", List.class),
+	};
+
+	private transient String id;
+	private transient List<BucketingStrategy> bss;
+
+	// Null until the first combination is added, because the width isn't
+	// known until then.
+	private transient CombinationTable table;
+	// The bucketed combination being counted, and the slot it was found in
+	// last time. Consecutive pixels often fall in the same bucket.
+	private transient long[] probe;
+	private transient int currentSlot;
+
+	// A map view of the table. If entriesPending is set, the map is
+	// authoritative and the table needs to be rebuilt from it: Hibernate sets
+	// the map before it is populated.
+	private transient Map<List<Double>, Long> entries;
+	private transient boolean entriesPending;
 
 	public Ledger() {
-		entries = new HashMap<>();
-		currentCombination = new ArrayList<>();
-		bucketedCombination = new ArrayList<>();
-		currentCount = 0L;
 		bss = new ArrayList<>();
+		clear();
+	}
+
+	private void clear() {
+		table = null;
+		probe = null;
+		currentSlot = -1;
+		entries = null;
+		entriesPending = false;
+	}
+
+	/**
+	 * @return The table of counts, or null if nothing has been counted yet.
+	 */
+	private CombinationTable table() {
+		if (entriesPending) {
+			Map<List<Double>, Long> source = entries;
+			clear();
+			for (Entry<List<Double>, Long> entry : source.entrySet()) {
+				long[] key = new long[entry.getKey().size()];
+				CombinationTable.pack(entry.getKey(), key);
+				CombinationTable t = table(key.length);
+				t.addCount(t.findOrInsert(key), entry.getValue());
+			}
+			entries = source;
+		}
+		return table;
+	}
+
+	/**
+	 * @return The table of counts, created if necessary.
+	 * @throws IllegalArgumentException if the table has a different width.
+	 */
+	private CombinationTable table(int width) {
+		table();
+		if (table == null) {
+			table = new CombinationTable(width);
+			probe = new long[width];
+		} else if (table.getWidth() != width) {
+			throw new IllegalArgumentException(String.format(
+				"Combination has %d components, but ledger has %d.",
+				width, table.getWidth()));
+		}
+		return table;
+	}
+
+	/**
+	 * Direct access to the table, for {@link StatsCodec}.
+	 */
+	CombinationTable getTable() {
+		return table();
+	}
+
+	/**
+	 * Replace the contents of this ledger with a table, e.g. one that has
+	 * just been decoded. The table is used as-is, not copied.
+	 */
+	void setTable(CombinationTable table) {
+		clear();
+		this.table = table;
+		if (table != null)
+			probe = new long[table.getWidth()];
+	}
+
+	/**
+	 * Invalidate the map view after the table has been modified.
+	 */
+	private void modified() {
+		entries = null;
 	}
 
 	public void add(List<Double> combination) {
-		bucketedCombination.clear();
-		for (int i = 0; i < combination.size(); i++) {
+		table(combination.size());
+		for (int i = 0; i < probe.length; i++) {
 			Double component = combination.get(i);
-			Double bucketedValue;
-			if (component != null)
-				bucketedValue = bss.get(i).computeBucketBounds(component)[0];
-			else
-				bucketedValue = null;
-			bucketedCombination.add(bucketedValue);
+			if (component != null) {
+				double bucketedValue = bss.get(i).computeBucketBounds(
+					component)[0];
+				probe[i] = Double.doubleToLongBits(bucketedValue);
+			} else {
+				probe[i] = CombinationTable.NULL_BITS;
+			}
 		}
-		if (!bucketedCombination.equals(currentCombination)) {
-			currentCount = entries.get(bucketedCombination);
-			if (currentCount == null)
-				currentCount = 0L;
-			currentCombination = new ArrayList<>(bucketedCombination);
+		increment();
+	}
+
+	/**
+	 * Count a combination of pixel components. Invalid components are counted
+	 * as null, like {@link #add(List)}.
+	 */
+	public void add(ScalarElement[] combination) {
+		table(combination.length);
+		for (int i = 0; i < probe.length; i++) {
+			ScalarElement component = combination[i];
+			if (component.isValid()) {
+				double bucketedValue = bss.get(i).computeBucketBounds(
+					component.doubleValue())[0];
+				probe[i] = Double.doubleToLongBits(bucketedValue);
+			} else {
+				probe[i] = CombinationTable.NULL_BITS;
+			}
 		}
-		currentCount++;
-		entries.put(currentCombination, currentCount);
+		increment();
+	}
+
+	private void increment() {
+		if (currentSlot < 0 || !table.matches(currentSlot, probe))
+			currentSlot = table.findOrInsert(probe);
+		table.addCount(currentSlot, 1);
+		modified();
 	}
 
 	public long get(List<Double> combination) {
-		Long count = entries.get(combination);
-		if (count == null)
+		CombinationTable t = table();
+		if (t == null || t.getWidth() != combination.size())
 			return 0;
-		else
-			return count;
+		long[] key = new long[combination.size()];
+		CombinationTable.pack(combination, key);
+		int slot = t.find(key);
+		if (slot < 0)
+			return 0;
+		return t.getCount(slot);
 	}
 
 	public Double maxValue() {
-		Collection<Long> values = entries.values();
-		Long maxVal = Long.MIN_VALUE;
-
-		for (Long currentVal : values) {
-			if (currentVal != null && currentVal > maxVal) {
-				maxVal = currentVal;
+		long maxVal = Long.MIN_VALUE;
+		CombinationTable t = table();
+		if (t != null) {
+			for (int i = 0; i < t.capacity(); i++) {
+				if (t.isUsed(i) && t.getCount(i) > maxVal)
+					maxVal = t.getCount(i);
 			}
 		}
-		return maxVal.doubleValue();
+		return (double) maxVal;
 	}
 
 	public Double minValue() {
-		Collection<Long> values = entries.values();
-		Long minVal = Long.MAX_VALUE;
-
-		for (Long currentVal : values) {
-			if (currentVal != null && currentVal < minVal) {
-				minVal = currentVal;
+		long minVal = Long.MAX_VALUE;
+		CombinationTable t = table();
+		if (t != null) {
+			for (int i = 0; i < t.capacity(); i++) {
+				if (t.isUsed(i) && t.getCount(i) < minVal)
+					minVal = t.getCount(i);
 			}
 		}
-		return minVal.doubleValue();
+		return (double) minVal;
 	}
 
 	public Double maxKey(int column) {
-		Set<List<Double>> keys = entries.keySet();
-		Double maxKey = Double.MIN_VALUE;
-		Double currentKey;
-
-		for (List<Double> key : keys) {
-			currentKey = key.get(column);
-			if (currentKey != null && currentKey > maxKey) {
-				maxKey = currentKey;
+		double maxKey = Double.MIN_VALUE;
+		CombinationTable t = table();
+		if (t != null) {
+			for (int i = 0; i < t.capacity(); i++) {
+				if (!t.isUsed(i))
+					continue;
+				long bits = t.getBits(i, column);
+				if (bits == CombinationTable.NULL_BITS)
+					continue;
+				double currentKey = Double.longBitsToDouble(bits);
+				if (currentKey > maxKey)
+					maxKey = currentKey;
 			}
 		}
 		return maxKey;
 	}
 
 	public Double minKey(int column) {
-		Set<List<Double>> keys = entries.keySet();
-		Double minKey = Double.MAX_VALUE;
-		Double currentKey;
-
-		for (List<Double> key : keys) {
-			currentKey = key.get(column);
-			if (currentKey != null && currentKey < minKey) {
-				minKey = currentKey;
+		double minKey = Double.MAX_VALUE;
+		CombinationTable t = table();
+		if (t != null) {
+			for (int i = 0; i < t.capacity(); i++) {
+				if (!t.isUsed(i))
+					continue;
+				long bits = t.getBits(i, column);
+				if (bits == CombinationTable.NULL_BITS)
+					continue;
+				double currentKey = Double.longBitsToDouble(bits);
+				if (currentKey < minKey)
+					minKey = currentKey;
 			}
 		}
 		return minKey;
 	}
 
 	public int size() {
-		return entries.size();
+		CombinationTable t = table();
+		if (t == null)
+			return 0;
+		return t.size();
 	}
 
 	public Set<List<Double>> keySet() {
-		return entries.keySet();
+		return getEntries().keySet();
 	}
 
 	public Set<Entry<List<Double>, Long>> entrySet() {
-		return entries.entrySet();
+		return getEntries().entrySet();
 	}
 
 	public Collection<Long> values() {
-		return entries.values();
+		return getEntries().values();
 	}
 
 	public Ledger copy() {
 		Ledger res = new Ledger();
-		res.entries.putAll(entries);
+		CombinationTable t = table();
+		if (t != null) {
+			res.table = t.copy();
+			res.probe = new long[t.getWidth()];
+		}
 		res.bss = new ArrayList<>(bss);
 		return res;
 	}
 
+	/**
+	 * Combine the counts of two ledgers. This takes time proportional to the
+	 * number of combinations in the other ledger.
+	 */
 	@Override
 	public Ledger fold(Ledger other) {
-		if (bss.size() == 0 && entries.size() == 0) {
+		if (bss.size() == 0 && size() == 0) {
 			bss.addAll(other.bss);
 		} else if (!bss.equals(other.bss)) {
 			// With additional metadata, it might be possible to splice
@@ -155,13 +296,9 @@ public class Ledger implements Foldable<Ledger>, Serializable {
 				bss, other.bss));
 		}
 		Ledger res = copy();
-		for (List<Double> key : other.entries.keySet()) {
-			Long count = entries.get(key);
-			if (count == null)
-				count = 0L;
-			count += other.entries.get(key);
-			res.entries.put(key, count);
-		}
+		CombinationTable ot = other.table();
+		if (ot != null)
+			res.table(ot.getWidth()).addAll(ot);
 		return res;
 	}
 
@@ -179,16 +316,17 @@ public class Ledger implements Foldable<Ledger>, Serializable {
 			res.bss.add(bf.create(this.bss.get(i).getDef()));
 		}
 
-		for (Entry<List<Double>, Long> entry : entries.entrySet()) {
-			List<Double> key = new ArrayList<>(columns.size());
-			for (Integer i : columns) {
-				key.add(entry.getKey().get(i));
-			}
-			Long count = res.entries.get(key);
-			if (count == null)
-				count = 0L;
-			count += entry.getValue();
-			res.entries.put(key, count);
+		CombinationTable t = table();
+		if (t == null)
+			return res;
+		CombinationTable rt = res.table(columns.size());
+		long[] key = new long[columns.size()];
+		for (int i = 0; i < t.capacity(); i++) {
+			if (!t.isUsed(i))
+				continue;
+			for (int j = 0; j < key.length; j++)
+				key[j] = t.getBits(i, columns.get(j));
+			rt.addCount(rt.findOrInsert(key), t.getCount(i));
 		}
 
 		return res;
@@ -206,12 +344,18 @@ public class Ledger implements Foldable<Ledger>, Serializable {
 			res.bss.add(bf.create(bs.getDef()));
 		}
 
-		for (Entry<List<Double>, Long> entry : entries.entrySet()) {
-			if (!ids.contains(entry.getKey().get(column)))
+		CombinationTable t = table();
+		if (t == null)
+			return res;
+		CombinationTable rt = res.table(t.getWidth());
+		long[] key = new long[t.getWidth()];
+		for (int i = 0; i < t.capacity(); i++) {
+			if (!t.isUsed(i))
+				continue;
+			if (!ids.contains(CombinationTable.unpack(t.getBits(i, column))))
 				continue;
-			List<Double> key = new ArrayList<>(entry.getKey().size());
-			key.addAll(entry.getKey());
-			res.entries.put(key, entry.getValue());
+			t.getKey(i, key);
+			rt.addCount(rt.findOrInsert(key), t.getCount(i));
 		}
 
 		return res;
@@ -258,19 +402,26 @@ public class Ledger implements Foldable<Ledger>, Serializable {
 			res.bss.add(bf.create(bs.getDef()));
 		}
 
+		CombinationTable t = table();
+		if (t == null)
+			return res;
+		CombinationTable rt = res.table(t.getWidth());
 		BucketingStrategy bs = res.bss.get(column);
-		for (Entry<List<Double>, Long> entry : entries.entrySet()) {
-			Double component = entry.getKey().get(column);
-			if (component == null) {
+		long[] key = new long[t.getWidth()];
+		for (int i = 0; i < t.capacity(); i++) {
+			if (!t.isUsed(i))
+				continue;
+			long bits = t.getBits(i, column);
+			if (bits == CombinationTable.NULL_BITS) {
 				// No way to request null rows.
 				continue;
 			}
-			double[] bounds = bs.computeBucketBounds(component);
+			double[] bounds = bs.computeBucketBounds(
+				Double.longBitsToDouble(bits));
 			if (!intersects(bounds, lower, upper))
 				continue;
-			List<Double> key = new ArrayList<>(entry.getKey().size());
-			key.addAll(entry.getKey());
-			res.entries.put(key, entry.getValue());
+			t.getKey(i, key);
+			rt.addCount(rt.findOrInsert(key), t.getCount(i));
 		}
 
 		return res;
@@ -278,12 +429,11 @@ public class Ledger implements Foldable<Ledger>, Serializable {
 
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
+		CombinationTable t = table();
 		int width = 0;
-		for (List<Double> key : entries.keySet()) {
-			width = key.size();
-			break;
-		}
-		sb.append(String.format("Ledger(%dx%d)", width, entries.size()));
+		if (t != null && t.size() > 0)
+			width = t.getWidth();
+		sb.append(String.format("Ledger(%dx%d)", width, size()));
 		return sb.toString();
 	}
 
@@ -316,12 +466,34 @@ public class Ledger implements Foldable<Ledger>, Serializable {
 		return bss;
 	}
 
+	/**
+	 * @return A map from combinations to counts. This is a snapshot: changes
+	 *         to the ledger are not reflected in it, and changes to it are
+	 *         not reflected in the ledger (except via
+	 *         {@link #setEntries(Map)}).
+	 */
 	public Map<List<Double>, Long> getEntries() {
+		CombinationTable t = table();
+		if (entries == null) {
+			entries = new HashMap<>();
+			if (t != null) {
+				for (int i = 0; i < t.capacity(); i++) {
+					if (t.isUsed(i))
+						entries.put(t.getKey(i), t.getCount(i));
+				}
+			}
+		}
 		return entries;
 	}
 
+	/**
+	 * Replace the contents of this ledger. The map is not read until the
+	 * ledger is next used, because Hibernate populates it after calling this.
+	 */
 	public void setEntries(Map<List<Double>, Long> entries) {
+		clear();
 		this.entries = entries;
+		entriesPending = entries != null;
 	}
 
 	/**
@@ -331,10 +503,36 @@ public class Ledger implements Foldable<Ledger>, Serializable {
 	 */
 	public long totalCount() {
 		long volume = 0L;
-		for (Long count : entries.values()) {
-			volume += count;
+		CombinationTable t = table();
+		if (t == null)
+			return volume;
+		for (int i = 0; i < t.capacity(); i++) {
+			if (t.isUsed(i))
+				volume += t.getCount(i);
 		}
 		return volume;
 	}
 
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("id", id);
+		fields.put("entries", new HashMap<>(getEntries()));
+		fields.put("bucketedCombination", new ArrayList<Double>());
+		fields.put("currentCombination", new ArrayList<Double>());
+		fields.put("currentCount", Long.valueOf(0));
+		fields.put("bss", bss);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		id = (String) fields.get("id", null);
+		bss = (List<BucketingStrategy>) fields.get("bss", null);
+		if (bss == null)
+			bss = new ArrayList<>();
+		setEntries((Map<List<Double>, Long>) fields.get("entries", null));
+	}
+
 }
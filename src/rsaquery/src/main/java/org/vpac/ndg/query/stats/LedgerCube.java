@@ -0,0 +1,295 @@
+package org.vpac.ndg.query.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A read-only, indexed view of a {@link Ledger} for interactive filtering.
+ *
+ * <p>
+ * Each combination in the ledger becomes a row. Each column has a sorted
+ * dictionary of its distinct values, and an inverted index from each value to
+ * the rows that contain it. Filters produce a {@link BitSet} of matching rows
+ * by visiting the dictionary rather than every row, so several filters can be
+ * combined with {@link BitSet#and(BitSet)} without building intermediate
+ * ledgers. {@link #aggregate(BitSet, List)} then sums the selected rows by a
+ * subset of columns in a single pass.
+ * </p>
+ *
+ * <p>
+ * The filters behave the same as {@link Ledger#filterRows(int, Set)} and
+ * {@link Ledger#filterRows(int, List, List)}.
+ * </p>
+ */
+public class LedgerCube {
+
+	private List<String> bucketingStrategies;
+	private List<BucketingStrategy> bss;
+	private int nRows;
+	private long[] counts;
+	private Column[] columns;
+
+	/**
+	 * The values of one column of the ledger.
+	 */
+	private static class Column {
+		// Sorted distinct values, excluding null.
+		double[] values;
+		// Dictionary code of each row. Null is coded as values.length.
+		int[] codes;
+		// The rows that contain each code, in ascending order. The rows of
+		// code i are rows[offsets[i]] to rows[offsets[i + 1] - 1].
+		int[] offsets;
+		int[] rows;
+
+		int nullCode() {
+			return values.length;
+		}
+
+		long bits(int row) {
+			int code = codes[row];
+			if (code == nullCode())
+				return CombinationTable.NULL_BITS;
+			return Double.doubleToLongBits(values[code]);
+		}
+
+		void select(int code, BitSet res) {
+			for (int i = offsets[code]; i < offsets[code + 1]; i++)
+				res.set(rows[i]);
+		}
+	}
+
+	public LedgerCube(Ledger ledger) {
+		bucketingStrategies = ledger.getBucketingStrategies();
+		bss = new ArrayList<BucketingStrategy>(
+				ledger._getBucketingStrategies());
+
+		CombinationTable t = ledger.getTable();
+		int width;
+		if (t == null) {
+			nRows = 0;
+			width = bss.size();
+		} else {
+			nRows = t.size();
+			width = t.getWidth();
+		}
+
+		// Number the rows.
+		int[] slots = new int[nRows];
+		counts = new long[nRows];
+		int row = 0;
+		if (t != null) {
+			for (int i = 0; i < t.capacity(); i++) {
+				if (!t.isUsed(i))
+					continue;
+				slots[row] = i;
+				counts[row] = t.getCount(i);
+				row++;
+			}
+		}
+
+		columns = new Column[width];
+		long[] bits = new long[nRows];
+		for (int c = 0; c < width; c++) {
+			for (int r = 0; r < nRows; r++)
+				bits[r] = t.getBits(slots[r], c);
+			columns[c] = index(bits);
+		}
+	}
+
+	private static Column index(long[] bits) {
+		Column col = new Column();
+		int nRows = bits.length;
+
+		// Build the dictionary.
+		double[] values = new double[nRows];
+		int n = 0;
+		for (int r = 0; r < nRows; r++) {
+			if (bits[r] != CombinationTable.NULL_BITS)
+				values[n++] = Double.longBitsToDouble(bits[r]);
+		}
+		Arrays.sort(values, 0, n);
+		int nDistinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (nDistinct == 0 ||
+					Double.compare(values[i], values[nDistinct - 1]) != 0)
+				values[nDistinct++] = values[i];
+		}
+		col.values = Arrays.copyOf(values, nDistinct);
+
+		// Encode the rows, and count the rows of each value.
+		col.codes = new int[nRows];
+		col.offsets = new int[nDistinct + 2];
+		for (int r = 0; r < nRows; r++) {
+			int code;
+			if (bits[r] == CombinationTable.NULL_BITS) {
+				code = nDistinct;
+			} else {
+				code = Arrays.binarySearch(col.values,
+						Double.longBitsToDouble(bits[r]));
+			}
+			col.codes[r] = code;
+			col.offsets[code + 1]++;
+		}
+
+		// Counting sort to group the rows by value.
+		for (int i = 0; i < nDistinct + 1; i++)
+			col.offsets[i + 1] += col.offsets[i];
+		col.rows = new int[nRows];
+		int[] next = Arrays.copyOf(col.offsets, nDistinct + 1);
+		for (int r = 0; r < nRows; r++)
+			col.rows[next[col.codes[r]]++] = r;
+
+		return col;
+	}
+
+	/**
+	 * @return The number of distinct combinations in the ledger.
+	 */
+	public int size() {
+		return nRows;
+	}
+
+	public int getWidth() {
+		return columns.length;
+	}
+
+	public List<String> getBucketingStrategies() {
+		return bucketingStrategies;
+	}
+
+	/**
+	 * @return A selection of all rows.
+	 */
+	public BitSet all() {
+		BitSet res = new BitSet(nRows);
+		res.set(0, nRows);
+		return res;
+	}
+
+	/**
+	 * Select the rows whose value in a column is one of the given values.
+	 * @param ids The values to select. May contain null.
+	 * @return A new selection.
+	 */
+	public BitSet select(int column, Set<Double> ids) {
+		Column col = columns[column];
+		BitSet res = new BitSet(nRows);
+		for (Double id : ids) {
+			int code;
+			if (id == null) {
+				code = col.nullCode();
+			} else {
+				code = Arrays.binarySearch(col.values, id);
+				if (code < 0)
+					continue;
+			}
+			col.select(code, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Select the rows whose bucket in a column intersects any of the given
+	 * ranges. Null values never match.
+	 * @return A new selection.
+	 */
+	public BitSet select(int column, List<Double> lower, List<Double> upper) {
+		if (lower == null && upper != null)
+			throw new IndexOutOfBoundsException("Lower and upper bounds don't match");
+
+		if (lower == null)
+			return all();
+
+		if (lower.size() != upper.size())
+			throw new IndexOutOfBoundsException("Lower and upper bounds don't match");
+
+		Column col = columns[column];
+		BucketingStrategy bs = bss.get(column);
+		BitSet res = new BitSet(nRows);
+		for (int code = 0; code < col.values.length; code++) {
+			double[] bounds = bs.computeBucketBounds(col.values[code]);
+			if (intersects(bounds, lower, upper))
+				col.select(code, res);
+		}
+		return res;
+	}
+
+	private static boolean intersects(double[] bounds, double lower,
+			double upper) {
+		if (bounds[0] == lower)
+			return true;
+		else if (bounds[0] >= upper)
+			return false;
+		else if (bounds[1] <= lower)
+			return false;
+		return true;
+	}
+
+	private static boolean intersects(double[] bounds, List<Double> lower,
+			List<Double> upper) {
+		for (int i = 0; i < lower.size(); i++) {
+			if (intersects(bounds, lower.get(i), upper.get(i)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return The total count of the selected rows.
+	 */
+	public long totalCount(BitSet rows) {
+		long total = 0;
+		for (int r = rows.nextSetBit(0); r >= 0; r = rows.nextSetBit(r + 1))
+			total += counts[r];
+		return total;
+	}
+
+	/**
+	 * Sum the selected rows, grouped by some of the columns. This is
+	 * equivalent to filtering the ledger by rows and then calling
+	 * {@link Ledger#filterColumns(List)}.
+	 *
+	 * @param rows The rows to include.
+	 * @param columns The column indices to keep.
+	 * @return A new ledger.
+	 */
+	public Ledger aggregate(BitSet rows, List<Integer> columns) {
+		BucketingStrategyFactory bf = new BucketingStrategyFactory();
+		List<BucketingStrategy> resBss = new ArrayList<BucketingStrategy>();
+		for (Integer i : columns)
+			resBss.add(bf.create(bucketingStrategies.get(i)));
+		Ledger res = new Ledger();
+		res._setBucketingStrategies(resBss);
+
+		if (nRows == 0)
+			return res;
+
+		Column[] cols = new Column[columns.size()];
+		for (int j = 0; j < cols.length; j++)
+			cols[j] = this.columns[columns.get(j)];
+
+		CombinationTable rt = new CombinationTable(cols.length);
+		long[] key = new long[cols.length];
+		int slot = -1;
+		for (int r = rows.nextSetBit(0); r >= 0; r = rows.nextSetBit(r + 1)) {
+			for (int j = 0; j < key.length; j++)
+				key[j] = cols[j].bits(r);
+			// Projections onto few columns produce long runs of the same
+			// key, so try the last slot first.
+			if (slot < 0 || !rt.matches(slot, key))
+				slot = rt.findOrInsert(key);
+			rt.addCount(slot, counts[r]);
+		}
+		res.setTable(rt);
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LedgerCube(%dx%d)", columns.length, nRows);
+	}
+}
@@ -0,0 +1,508 @@
+package org.vpac.ndg.query.stats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes statistics ({@link Hist}, {@link Cats}, {@link VectorCats} and
+ * {@link Ledger}) as compact binary blobs, so that a whole result can be stored
+ * in a single column instead of one row per bucket. A map from names to
+ * statistics (e.g. the accumulated output of a query) can be encoded too.
+ *
+ * <p>
+ * The format starts with a fixed header: a magic number, a format version, the
+ * kind of object, some flags and the length of the body. The body may be
+ * deflated. Decoding reads the stream sequentially, but never past the end of
+ * the body, so several blobs can be read from one stream in turn.
+ * </p>
+ *
+ * <p>
+ * Object IDs are not encoded: the blob is owned by the row that contains it.
+ * </p>
+ */
+public class StatsCodec {
+
+	static final int MAGIC = 0x52534153; // "RSAS"
+	static final byte VERSION = 2;
+
+	static final byte KIND_HIST = 1;
+	static final byte KIND_CATS = 2;
+	static final byte KIND_LEDGER = 3;
+	static final byte KIND_VECTOR_CATS = 4;
+	static final byte KIND_MAP = 5;
+
+	static final byte FLAG_DEFLATE = 0x01;
+
+	private boolean compress;
+
+	/**
+	 * Create a codec that compresses its output.
+	 */
+	public StatsCodec() {
+		this(true);
+	}
+
+	/**
+	 * @param compress Whether to deflate the body of encoded objects. Either
+	 *            kind of blob can be decoded regardless of this setting.
+	 */
+	public StatsCodec(boolean compress) {
+		this.compress = compress;
+	}
+
+	public boolean isCompress() {
+		return compress;
+	}
+
+	/**
+	 * @return true if the value can be encoded: a {@link Hist}, {@link Cats},
+	 *         {@link VectorCats}, {@link Ledger}, or a map from strings to any
+	 *         of those.
+	 */
+	public static boolean canEncode(Object value) {
+		if (value instanceof Map) {
+			for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (!(entry.getKey() instanceof String))
+					return false;
+				if (kindOf(entry.getValue()) < 0
+						|| kindOf(entry.getValue()) == KIND_MAP)
+					return false;
+			}
+			return true;
+		}
+		return kindOf(value) >= 0;
+	}
+
+	private static byte kindOf(Object value) {
+		if (value instanceof Hist)
+			return KIND_HIST;
+		else if (value instanceof Cats)
+			return KIND_CATS;
+		else if (value instanceof VectorCats)
+			return KIND_VECTOR_CATS;
+		else if (value instanceof Ledger)
+			return KIND_LEDGER;
+		else if (value instanceof Map)
+			return KIND_MAP;
+		else
+			return -1;
+	}
+
+	/**
+	 * @param value A value that {@link #canEncode(Object) can be encoded}.
+	 * @return The encoded value.
+	 */
+	public byte[] encode(Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		encode(value, bytes);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write an encoded value to a stream. The stream is not closed. The body is
+	 * buffered in memory until its length is known.
+	 * @param value A value that {@link #canEncode(Object) can be encoded}.
+	 */
+	public void encode(Object value, OutputStream out) throws IOException {
+		if (!canEncode(value)) {
+			throw new IllegalArgumentException(String.format(
+				"Can't encode %s", value == null ? null : value.getClass()));
+		}
+		byte kind = kindOf(value);
+
+		ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+		Deflater deflater = null;
+		DeflaterOutputStream deflated = null;
+		OutputStream bodyStream;
+		if (compress) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			deflated = new DeflaterOutputStream(bodyBytes, deflater);
+			bodyStream = deflated;
+		} else {
+			bodyStream = bodyBytes;
+		}
+
+		try {
+			DataOutputStream body = new DataOutputStream(
+				new BufferedOutputStream(bodyStream));
+			writeValue(body, kind, value);
+			body.flush();
+			if (deflated != null)
+				deflated.finish();
+		} finally {
+			if (deflater != null)
+				deflater.end();
+		}
+
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeByte(VERSION);
+		header.writeByte(kind);
+		header.writeByte(compress ? FLAG_DEFLATE : 0);
+		header.writeInt(bodyBytes.size());
+		header.flush();
+		bodyBytes.writeTo(out);
+	}
+
+	/**
+	 * @return The decoded value.
+	 */
+	public Object decode(byte[] data) throws IOException {
+		return decode(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * @return The decoded value, which must be of the given type.
+	 */
+	public <T> T decode(InputStream in, Class<T> type) throws IOException {
+		Object value = decode(in);
+		if (!type.isInstance(value)) {
+			throw new IOException(String.format(
+				"Expected encoded %s, but found %s", type.getSimpleName(),
+				value.getClass().getSimpleName()));
+		}
+		return type.cast(value);
+	}
+
+	/**
+	 * Read a value from a stream. The stream is not closed, and is left
+	 * positioned at the end of the blob.
+	 * @return The decoded value: a {@link Hist}, {@link Cats},
+	 *         {@link VectorCats}, {@link Ledger} or a map of those.
+	 */
+	public Object decode(InputStream in) throws IOException {
+		DataInputStream header = new DataInputStream(in);
+		int magic = header.readInt();
+		if (magic != MAGIC)
+			throw new IOException("Data is not encoded statistics.");
+		byte version = header.readByte();
+		if (version > VERSION) {
+			throw new IOException(String.format(
+				"Unsupported statistics format version %d", version));
+		}
+		byte kind = header.readByte();
+		byte flags = header.readByte();
+
+		// Version 1 blobs have no length, so they must be alone in the stream.
+		BoundedInputStream bounded = null;
+		InputStream blob;
+		if (version >= 2) {
+			bounded = new BoundedInputStream(in, header.readInt());
+			blob = bounded;
+		} else {
+			blob = in;
+		}
+
+		Inflater inflater = null;
+		InputStream bodyStream;
+		if ((flags & FLAG_DEFLATE) != 0) {
+			inflater = new Inflater();
+			bodyStream = new InflaterInputStream(blob, inflater);
+		} else {
+			bodyStream = blob;
+		}
+
+		try {
+			DataInputStream body = new DataInputStream(
+				new BufferedInputStream(bodyStream));
+			Object value = readValue(body, kind);
+			if (bounded != null)
+				bounded.skipRemaining();
+			return value;
+		} finally {
+			if (inflater != null)
+				inflater.end();
+		}
+	}
+
+	/**
+	 * Stops reading at the end of a blob's body, so that buffering decoders
+	 * can't consume whatever follows it in the underlying stream.
+	 */
+	private static class BoundedInputStream extends FilterInputStream {
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long length) throws IOException {
+			super(in);
+			if (length < 0)
+				throw new IOException("Negative length in statistics header.");
+			remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0)
+				return -1;
+			int b = in.read();
+			if (b >= 0)
+				remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+			int n = in.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0)
+				remaining -= n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(in.available(), remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// The underlying stream belongs to the caller.
+		}
+
+		/**
+		 * Move the underlying stream to the end of the body, e.g. past the
+		 * trailer of a deflated body that the decoder didn't need to read.
+		 */
+		void skipRemaining() throws IOException {
+			while (remaining > 0) {
+				if (skip(remaining) <= 0 && read() < 0)
+					throw new IOException("Statistics blob is truncated.");
+			}
+		}
+	}
+
+	private void writeValue(DataOutputStream out, byte kind, Object value)
+			throws IOException {
+		switch (kind) {
+		case KIND_HIST:
+			writeHist(out, (Hist) value);
+			break;
+		case KIND_CATS:
+			writeCats(out, (Cats) value);
+			break;
+		case KIND_VECTOR_CATS:
+			writeVectorCats(out, (VectorCats) value);
+			break;
+		case KIND_LEDGER:
+			writeLedger(out, (Ledger) value);
+			break;
+		default:
+			writeMap(out, (Map<?, ?>) value);
+			break;
+		}
+	}
+
+	private Object readValue(DataInputStream in, byte kind)
+			throws IOException {
+		switch (kind) {
+		case KIND_HIST:
+			return readHist(in);
+		case KIND_CATS:
+			return readCats(in);
+		case KIND_VECTOR_CATS:
+			return readVectorCats(in);
+		case KIND_LEDGER:
+			return readLedger(in);
+		case KIND_MAP:
+			return readMap(in);
+		default:
+			throw new IOException(String.format(
+				"Unknown kind of statistics %d", kind));
+		}
+	}
+
+	private void writeMap(DataOutputStream out, Map<?, ?> map)
+			throws IOException {
+		out.writeInt(map.size());
+		for (Entry<?, ?> entry : map.entrySet()) {
+			byte kind = kindOf(entry.getValue());
+			out.writeUTF((String) entry.getKey());
+			out.writeByte(kind);
+			writeValue(out, kind, entry.getValue());
+		}
+	}
+
+	private Map<String, Object> readMap(DataInputStream in)
+			throws IOException {
+		int n = in.readInt();
+		Map<String, Object> map = new HashMap<String, Object>();
+		for (int i = 0; i < n; i++) {
+			String key = in.readUTF();
+			byte kind = in.readByte();
+			if (kind == KIND_MAP)
+				throw new IOException("Nested maps are not supported");
+			map.put(key, readValue(in, kind));
+		}
+		return map;
+	}
+
+	private void writeStrategy(DataOutputStream out, BucketingStrategy bs)
+			throws IOException {
+		out.writeBoolean(bs != null);
+		if (bs != null)
+			out.writeUTF(bs.getDef());
+	}
+
+	private BucketingStrategy readStrategy(DataInputStream in)
+			throws IOException {
+		if (!in.readBoolean())
+			return null;
+		return new BucketingStrategyFactory().create(in.readUTF());
+	}
+
+	private void writeHist(DataOutputStream out, Hist hist)
+			throws IOException {
+		writeStrategy(out, hist.getBucketingStrategy());
+		List<Bucket> buckets = hist.getBuckets();
+		out.writeInt(buckets.size());
+		for (Bucket b : buckets) {
+			out.writeDouble(b.getLower());
+			out.writeDouble(b.getUpper());
+			Stats s = b.getStats();
+			out.writeLong(s.getCount());
+			out.writeDouble(s.getMin());
+			out.writeDouble(s.getMax());
+			out.writeDouble(s.getMean());
+			out.writeDouble(s.getM2());
+		}
+	}
+
+	private Hist readHist(DataInputStream in) throws IOException {
+		Hist hist = new Hist();
+		hist.setBucketingStrategy(readStrategy(in));
+		int n = in.readInt();
+		List<Bucket> buckets = new ArrayList<Bucket>(n);
+		for (int i = 0; i < n; i++) {
+			double lower = in.readDouble();
+			double upper = in.readDouble();
+			Stats s = new Stats();
+			s.setCount(in.readLong());
+			s.setMin(in.readDouble());
+			s.setMax(in.readDouble());
+			s.setMean(in.readDouble());
+			s.setM2(in.readDouble());
+			buckets.add(new Bucket(lower, upper, s));
+		}
+		hist.setBuckets(buckets);
+		return hist;
+	}
+
+	private void writeCats(DataOutputStream out, Cats cats)
+			throws IOException {
+		writeStrategy(out, cats.getBucketingStrategy());
+		Map<Integer, Hist> categories = cats.getCategories();
+		out.writeInt(categories.size());
+		for (Entry<Integer, Hist> entry : categories.entrySet()) {
+			out.writeInt(entry.getKey());
+			writeHist(out, entry.getValue());
+		}
+	}
+
+	private Cats readCats(DataInputStream in) throws IOException {
+		Cats cats = new Cats();
+		cats.setBucketingStrategy(readStrategy(in));
+		int n = in.readInt();
+		Map<Integer, Hist> categories = cats.getCategories();
+		for (int i = 0; i < n; i++) {
+			int key = in.readInt();
+			categories.put(key, readHist(in));
+		}
+		return cats;
+	}
+
+	private void writeVectorCats(DataOutputStream out, VectorCats vcats)
+			throws IOException {
+		Cats[] components = vcats.getComponents();
+		out.writeInt(components.length);
+		for (Cats cats : components)
+			writeCats(out, cats);
+	}
+
+	private VectorCats readVectorCats(DataInputStream in) throws IOException {
+		Cats[] components = new Cats[in.readInt()];
+		for (int i = 0; i < components.length; i++)
+			components[i] = readCats(in);
+		return new VectorCats(components);
+	}
+
+	/**
+	 * Ledgers are written row by row straight from the table, so the map view
+	 * is never built.
+	 */
+	private void writeLedger(DataOutputStream out, Ledger ledger)
+			throws IOException {
+		List<String> defs = ledger.getBucketingStrategies();
+		out.writeInt(defs.size());
+		for (String def : defs)
+			out.writeUTF(def);
+
+		CombinationTable t = ledger.getTable();
+		if (t == null) {
+			out.writeInt(0);
+			out.writeInt(0);
+			return;
+		}
+		int width = t.getWidth();
+		out.writeInt(width);
+		out.writeInt(t.size());
+		for (int i = 0; i < t.capacity(); i++) {
+			if (!t.isUsed(i))
+				continue;
+			for (int j = 0; j < width; j++)
+				out.writeLong(t.getBits(i, j));
+			out.writeLong(t.getCount(i));
+		}
+	}
+
+	private Ledger readLedger(DataInputStream in) throws IOException {
+		Ledger ledger = new Ledger();
+		int nbss = in.readInt();
+		List<String> defs = new ArrayList<String>(nbss);
+		for (int i = 0; i < nbss; i++)
+			defs.add(in.readUTF());
+		ledger.setBucketingStrategies(defs);
+
+		int width = in.readInt();
+		int rows = in.readInt();
+		if (width == 0)
+			return ledger;
+		CombinationTable t = new CombinationTable(width);
+		long[] key = new long[width];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < width; j++)
+				key[j] = in.readLong();
+			t.addCount(t.findOrInsert(key), in.readLong());
+		}
+		ledger.setTable(t);
+		return ledger;
+	}
+}
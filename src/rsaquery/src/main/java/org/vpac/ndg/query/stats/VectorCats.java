@@ -25,6 +25,10 @@ public class VectorCats implements Foldable<VectorCats>, Serializable {
 		}
 	}
 
+	VectorCats(Cats[] components) {
+		this.components = components;
+	}
+
 	public void update(ScalarElement category, Element<?> value) {
 		ScalarElement[] es = value.getComponents();
 		for (int i = 0; i < components.length; i++)
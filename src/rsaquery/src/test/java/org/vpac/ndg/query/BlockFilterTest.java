@@ -0,0 +1,120 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.vpac.ndg.query.iteration.Flatten;
+
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+
+/**
+ * Checks that filters give the same output whether they are run on blocks of
+ * pixels or one pixel at a time.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class BlockFilterTest extends TestCase {
+
+	static final String[] VARIABLES = new String[] {
+		"sum", "difference", "product", "plusTen", "low", "high", "masked",
+		"inRange", "valid", "copy", "mean" };
+
+	/**
+	 * @return The number of filters that ran in block mode.
+	 */
+	int runQuery(File config, File outputFile, boolean blocks, int threads)
+			throws Exception {
+		QueryDefinition qd = QueryDefinition.fromXML(config);
+		NetcdfFileWriter output = NetcdfFileWriter.createNew(
+				Version.netcdf4_classic, outputFile.getAbsolutePath());
+		int nblockFilters = 0;
+		try {
+			Query q = new Query(output);
+			q.setNumThreads(threads);
+			q.setBlockProcessing(blocks);
+			q.setMemento(qd, config.getParentFile().getAbsolutePath());
+			try {
+				q.run();
+			} finally {
+				q.close();
+			}
+			for (FilterAdapter f : new Flatten<FilterAdapter>(q.filters)) {
+				if (f.isBlockMode())
+					nblockFilters++;
+			}
+		} finally {
+			if (!output.isDefineMode())
+				output.close();
+		}
+		return nblockFilters;
+	}
+
+	void compare(int threads) throws Exception {
+		File config = new File("data/config/block_filters.xml");
+		File expectedFile = new File("data/output/block_filters_pixels.nc");
+		File outputFile = new File("data/output/block_filters_blocks.nc");
+		expectedFile.delete();
+		outputFile.delete();
+
+		assertEquals(0, runQuery(config, expectedFile, false, threads));
+		assertTrue(runQuery(config, outputFile, true, threads) > 0);
+
+		NetcdfFile expected = NetcdfFile.open(expectedFile.getPath());
+		NetcdfFile actual = NetcdfFile.open(outputFile.getPath());
+		try {
+			for (String name : VARIABLES) {
+				Variable vex = expected.findVariable(name);
+				Variable vac = actual.findVariable(name);
+				assertNotNull(name, vac);
+				assertEquals(name, vex.getDataType(), vac.getDataType());
+				Array ex = vex.read();
+				Array ac = vac.read();
+				assertEquals(name, ex.getSize(), ac.getSize());
+				for (int i = 0; i < ex.getSize(); i++) {
+					assertEquals(name + "[" + i + "]", ex.getDouble(i),
+							ac.getDouble(i), 0.0);
+				}
+			}
+		} finally {
+			expected.close();
+			actual.close();
+		}
+	}
+
+	@Test
+	public void test_singleThread() throws Exception {
+		compare(1);
+	}
+
+	@Test
+	public void test_multipleThreads() throws Exception {
+		compare(4);
+	}
+}
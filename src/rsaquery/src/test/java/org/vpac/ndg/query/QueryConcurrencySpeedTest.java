@@ -0,0 +1,132 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.query;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+
+/**
+ * Compares the ways a distributed query worker can use several cores: running
+ * several queries at once with one thread each, or running one query at a
+ * time with several threads. Logs throughput; no assertions.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class QueryConcurrencySpeedTest extends TestCase {
+
+	final Logger log = LoggerFactory.getLogger(QueryConcurrencySpeedTest.class);
+
+	static final int NTHREADS = 4;
+	static final int NQUERIES = 8;
+
+	void runQuery(File config, File outputFile, int threads) throws Exception {
+		QueryDefinition qd = QueryDefinition.fromXML(config);
+		NetcdfFileWriter output = NetcdfFileWriter.createNew(
+				Version.netcdf4_classic, outputFile.getAbsolutePath());
+		try {
+			Query q = new Query(output);
+			q.setNumThreads(threads);
+			q.setMemento(qd, config.getParentFile().getAbsolutePath());
+			try {
+				q.run();
+			} finally {
+				q.close();
+			}
+		} finally {
+			if (!output.isDefineMode())
+				output.close();
+		}
+	}
+
+	/**
+	 * Run the queries with a number of slots, each running one query at a
+	 * time.
+	 * @return The time taken to run all queries, in nanoseconds.
+	 */
+	long runQueries(final File config, final List<File> outputs, int slots,
+			final int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(slots);
+		try {
+			long start = System.nanoTime();
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final File output : outputs) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						runQuery(config, output, threads);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures)
+				f.get();
+			return System.nanoTime() - start;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	void compare(String name) throws Exception {
+		File config = new File("data/config/" + name + ".xml");
+		List<File> outputs = new ArrayList<File>();
+		for (int i = 0; i < NQUERIES; i++)
+			outputs.add(new File("data/output/" + name + "_slots_" + i + ".nc"));
+
+		// Warm up.
+		runQuery(config, outputs.get(0), 1);
+
+		long serial = runQueries(config, outputs, 1, 1);
+		long slots = runQueries(config, outputs, NTHREADS, 1);
+		long threads = runQueries(config, outputs, 1, NTHREADS);
+		log.info("{}: {} queries; 1 slot x 1 thread {} ms, {} slots x 1 "
+				+ "thread {} ms, 1 slot x {} threads {} ms", name, NQUERIES,
+				TimeUnit.NANOSECONDS.toMillis(serial),
+				NTHREADS, TimeUnit.NANOSECONDS.toMillis(slots),
+				NTHREADS, TimeUnit.NANOSECONDS.toMillis(threads));
+
+		for (File output : outputs)
+			output.delete();
+	}
+
+	@Test
+	public void test_blur() throws Exception {
+		compare("blur");
+	}
+
+	@Test
+	public void test_meanOverTime() throws Exception {
+		compare("mean");
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.iteration.CoordinatePair;
+import org.vpac.ndg.query.iteration.RectangleStrider;
+import org.vpac.ndg.query.math.BoxInt;
+import org.vpac.ndg.query.math.VectorReal;
+import org.vpac.ndg.query.sampling.Binding;
+
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+
+/**
+ * Compares block scheduling in {@link TileProcessorMultiple} with interleaved
+ * pixel scheduling, on filters with different access patterns.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class TileProcessorSpeedTest extends TestCase {
+
+	final Logger log = LoggerFactory.getLogger(TileProcessorSpeedTest.class);
+
+	static final int NTHREADS = 4;
+	static final int ITERATIONS = 5;
+
+	/**
+	 * The previous scheduler: each worker takes every nth pixel of the tile,
+	 * and all workers are joined after each tile.
+	 */
+	static class TileProcessorStrided implements TileProcessor {
+		BoxInt bounds;
+		Collection<Binding> bindings;
+		ExecutorService executor;
+		int numThreads;
+		AtomicInteger numRunning = new AtomicInteger(0);
+		volatile IOException error;
+
+		TileProcessorStrided(int numThreads) {
+			this.numThreads = numThreads;
+			executor = Executors.newFixedThreadPool(numThreads);
+		}
+
+		@Override
+		public void processTile() throws IOException {
+			for (int i = 0; i < numThreads; i++) {
+				final int id = i;
+				numRunning.incrementAndGet();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							RectangleStrider rect = new RectangleStrider(
+									bounds.getSize(), numThreads, id);
+							VectorReal offset = bounds.getMin().toReal().add(0.5);
+							rect.setOrigin(offset);
+							for (CoordinatePair coords : rect) {
+								for (Binding b : bindings)
+									b.transfer(coords.coordinates,
+											coords.imageIndex, id);
+							}
+						} catch (IOException e) {
+							error = e;
+						} finally {
+							synchronized (numRunning) {
+								numRunning.decrementAndGet();
+								numRunning.notify();
+							}
+						}
+					}
+				});
+			}
+			synchronized (numRunning) {
+				try {
+					while (numRunning.get() > 0)
+						numRunning.wait();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+			if (error != null)
+				throw error;
+		}
+
+		@Override
+		public void setBounds(BoxInt bounds) {
+			this.bounds = bounds;
+		}
+
+		@Override
+		public void setBindings(Collection<Binding> bindings) {
+			this.bindings = bindings;
+		}
+
+		@Override
+		public void shutDown() {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The time taken to run the query, in nanoseconds.
+	 */
+	long runQuery(File config, File outputFile, final boolean strided)
+			throws Exception {
+		QueryDefinition qd = QueryDefinition.fromXML(config);
+		NetcdfFileWriter output = NetcdfFileWriter.createNew(
+				Version.netcdf4_classic, outputFile.getAbsolutePath());
+		try {
+			Query q = new Query(output) {
+				@Override
+				protected TileProcessor createTileProcessor() {
+					if (strided)
+						return new TileProcessorStrided(numThreads);
+					return super.createTileProcessor();
+				}
+			};
+			q.setNumThreads(NTHREADS);
+			q.setMemento(qd, config.getParentFile().getAbsolutePath());
+			long start = System.nanoTime();
+			try {
+				q.run();
+			} finally {
+				q.close();
+			}
+			return System.nanoTime() - start;
+		} finally {
+			if (!output.isDefineMode())
+				output.close();
+		}
+	}
+
+	void compare(String name) throws Exception {
+		File config = new File("data/config/" + name + ".xml");
+		File outputFile = new File("data/output/" + name + "_speed.nc");
+
+		// Warm up.
+		runQuery(config, outputFile, true);
+		runQuery(config, outputFile, false);
+
+		long strided = 0;
+		long blocks = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			strided += runQuery(config, outputFile, true);
+			blocks += runQuery(config, outputFile, false);
+		}
+		log.info("{}: strided {} ms, blocks {} ms (mean of {} runs)", name,
+				TimeUnit.NANOSECONDS.toMillis(strided / ITERATIONS),
+				TimeUnit.NANOSECONDS.toMillis(blocks / ITERATIONS),
+				ITERATIONS);
+		outputFile.delete();
+	}
+
+	@Test
+	public void test_blur() throws Exception {
+		compare("blur");
+	}
+
+	@Test
+	public void test_meanOverTime() throws Exception {
+		compare("mean");
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query.coordinates;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.math.BoxReal;
+import org.vpac.ndg.query.math.VectorReal;
+
+import ucar.unidata.geoloc.projection.LambertConformal;
+import ucar.unidata.geoloc.projection.UtmProjection;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class WarpApproximateTest extends TestCase {
+
+	final Logger log = LoggerFactory.getLogger(WarpApproximateTest.class);
+
+	static final int SIZE = 512;
+	static final double MAX_ERROR = 0.125;
+
+	Warp exact;
+
+	/**
+	 * Creates a warp from the cells of a UTM grid to the cells of a Lambert
+	 * conformal grid, like a sampler would use to read reprojected data.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		WarpFactory wf = new WarpFactory();
+		Warp proj = wf.createSpatialWarp(new UtmProjection(55, false),
+				new LambertConformal(-32, 134, -28, -36));
+
+		// Cells of 25m, with a 90m grid in the target. Vectors are (y, x).
+		VectorReal offsetIn = VectorReal.create(6000000, 400000);
+		VectorReal scaleIn = VectorReal.create(25, 25);
+		VectorReal scaleOut = VectorReal.create(90, 90);
+		VectorReal offsetOut = offsetIn.copy();
+		proj.warp(offsetOut);
+		offsetOut.sub(10000);
+
+		exact = new WarpOffsetWithScaleAndProjection(offsetIn, offsetOut,
+				scaleIn, scaleOut, proj);
+	}
+
+	@Test
+	public void test_accuracy() throws Exception {
+		WarpApproximate approx = new WarpApproximate(exact, MAX_ERROR);
+		VectorReal a = VectorReal.createEmpty(2);
+		VectorReal b = VectorReal.createEmpty(2);
+		double maxError = 0;
+		for (int y = 0; y < SIZE; y++) {
+			for (int x = 0; x < SIZE; x++) {
+				a.setX(x + 0.5);
+				a.setY(y + 0.5);
+				b.set(a);
+				exact.warp(a);
+				approx.warp(b);
+				maxError = Math.max(maxError, Math.abs(a.getX() - b.getX()));
+				maxError = Math.max(maxError, Math.abs(a.getY() - b.getY()));
+			}
+		}
+		log.info("Max error {}; computed {} cells, interpolated {} " +
+				"points, transformed {} exactly.", maxError,
+				approx.getCellsComputed(), approx.getPointsInterpolated(),
+				approx.getPointsExact());
+
+		assertTrue("Error " + maxError, maxError <= MAX_ERROR);
+		assertEquals(SIZE * SIZE, approx.getPointsInterpolated()
+				+ approx.getPointsExact());
+		// Each cell costs 9 exact transforms; there should be far fewer of
+		// those than there are pixels.
+		assertTrue(approx.getCellsComputed() * 9 < SIZE * SIZE / 10);
+	}
+
+	/**
+	 * With an unreasonably small error limit, every point must be transformed
+	 * exactly.
+	 */
+	@Test
+	public void test_fallback() throws Exception {
+		WarpApproximate approx = new WarpApproximate(exact, 1e-12);
+		VectorReal a = VectorReal.createEmpty(2);
+		VectorReal b = VectorReal.createEmpty(2);
+		for (int i = 0; i < 100; i++) {
+			a.setX(i * 3.7);
+			a.setY(i * 1.3);
+			b.set(a);
+			exact.warp(a);
+			approx.warp(b);
+			assertEquals(a, b);
+		}
+		assertEquals(100, approx.getPointsExact());
+	}
+
+	/**
+	 * A warped box must contain the warped points along its edges.
+	 */
+	@Test
+	public void test_box() throws Exception {
+		BoxReal box = new BoxReal(VectorReal.create(0, 0),
+				VectorReal.create(SIZE, SIZE));
+		exact.warp(box);
+		VectorReal min = box.getMin().minNew(box.getMax());
+		VectorReal max = box.getMin().maxNew(box.getMax());
+
+		VectorReal co = VectorReal.createEmpty(2);
+		for (int i = 0; i <= SIZE; i++) {
+			double[][] points = new double[][] {
+					{i, 0}, {i, SIZE}, {0, i}, {SIZE, i} };
+			for (double[] p : points) {
+				co.setX(p[0]);
+				co.setY(p[1]);
+				exact.warp(co);
+				// Allow for linear interpolation between the samples.
+				assertTrue(co + " not in " + box,
+						co.getX() >= min.getX() - 1e-3
+						&& co.getX() <= max.getX() + 1e-3
+						&& co.getY() >= min.getY() - 1e-3
+						&& co.getY() <= max.getY() + 1e-3);
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query.sampling;
+
+import java.io.IOException;
+
+import org.vpac.ndg.query.DatasetMeta;
+import org.vpac.ndg.query.QueryException;
+import org.vpac.ndg.query.VariableAdapter;
+import org.vpac.ndg.query.coordinates.GridProjected;
+import org.vpac.ndg.query.coordinates.QueryCoordinateSystem;
+
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Just enough metadata to wrap the variables of a dataset, for testing the
+ * sampling classes without a full query.
+ */
+class DatasetMetaStub implements DatasetMeta {
+
+	NetcdfDataset dataset;
+
+	DatasetMetaStub(NetcdfDataset dataset) {
+		this.dataset = dataset;
+	}
+
+	@Override
+	public GridProjected getGrid() {
+		return null;
+	}
+
+	@Override
+	public QueryCoordinateSystem getCoordinateSystem() {
+		return null;
+	}
+
+	@Override
+	public String getName() {
+		return dataset.getLocation();
+	}
+
+	@Override
+	public void close() throws IOException {
+		dataset.close();
+	}
+
+	@Override
+	public NetcdfDataset getDataset() {
+		return dataset;
+	}
+
+	@Override
+	public Variable findVariable(String name) {
+		return dataset.findVariable(name);
+	}
+
+	@Override
+	public VariableAdapter getVariableAdapter(String name)
+			throws QueryException {
+		return new VariableAdapter(findVariable(name), name, this);
+	}
+}
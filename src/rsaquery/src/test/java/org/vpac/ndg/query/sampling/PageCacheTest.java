@@ -0,0 +1,326 @@
+package org.vpac.ndg.query.sampling;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.vpac.ndg.query.QueryDefinition.CacheDefinition;
+import org.vpac.ndg.query.QueryException;
+import org.vpac.ndg.query.VariableAdapter;
+import org.vpac.ndg.query.io.SparseReader;
+import org.vpac.ndg.query.math.BoxInt;
+import org.vpac.ndg.query.math.ScalarElement;
+import org.vpac.ndg.query.math.VectorInt;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.ProxyReader;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.util.CancelTask;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class PageCacheTest extends TestCase {
+
+	static final int NTHREADS = 8;
+	static final long PAGE_VOLUME = 64 * 64;
+
+	/**
+	 * Runs prefetch tasks immediately, on the calling thread.
+	 */
+	static final Executor SYNCHRONOUS = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	NetcdfDataset dataset;
+	VariableAdapter band;
+
+	@Before
+	public void setUp() throws Exception {
+		dataset = NetcdfDataset.openDataset("data/input/abstract.nc");
+		band = new DatasetMetaStub(dataset).getVariableAdapter("Band1");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		dataset.close();
+	}
+
+	/**
+	 * @return A cache with one page per time step.
+	 */
+	PageCache createCache(int npages) throws QueryException {
+		CacheDefinition cd = new CacheDefinition();
+		cd.pages = npages;
+		// Slightly less than one time step, so each page holds exactly one.
+		cd.volume = 64 * 64 - 1;
+		PageCache cache = new PageCache(band);
+		cache.configure(cd);
+		return cache;
+	}
+
+	@Test
+	public void test_concurrentFaults() throws Exception {
+		final PageCache cache = createCache(2);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(NTHREADS);
+		List<Future<Page>> results = new ArrayList<Future<Page>>();
+		try {
+			for (int i = 0; i < NTHREADS; i++) {
+				results.add(executor.submit(new Callable<Page>() {
+					@Override
+					public Page call() throws Exception {
+						start.await();
+						return cache.getPage(VectorInt.create(1, 10, 20));
+					}
+				}));
+			}
+			start.countDown();
+
+			Page first = results.get(0).get();
+			for (Future<Page> result : results)
+				assertSame(first, result.get());
+		} finally {
+			executor.shutdown();
+		}
+
+		// All threads should have waited on a single read.
+		assertEquals(1, cache.getHardFaults());
+		assertEquals(NTHREADS, cache.getSoftFaults());
+		assertEquals(NTHREADS - 1, cache.getHits());
+	}
+
+	@Test
+	public void test_eviction() throws Exception {
+		PageCache cache = createCache(2);
+
+		Page p0 = cache.getPage(VectorInt.create(0, 0, 0));
+		Page p1 = cache.getPage(VectorInt.create(1, 0, 0));
+		assertSame(p0, cache.getPage(VectorInt.create(0, 63, 63)));
+		assertEquals(2, cache.getHardFaults());
+		assertEquals(0, cache.getEvictions());
+
+		// Page 1 is the least recently used, so it should be released to make
+		// room for page 2.
+		cache.getPage(VectorInt.create(2, 0, 0));
+		assertEquals(3, cache.getHardFaults());
+		assertEquals(1, cache.getEvictions());
+		assertSame(p0, cache.getPage(VectorInt.create(0, 0, 0)));
+		assertNotSame(p1, cache.getPage(VectorInt.create(1, 0, 0)));
+		assertEquals(4, cache.getHardFaults());
+	}
+
+	@Test
+	public void test_evictionAfterManyHits() throws Exception {
+		PageCache cache = createCache(2);
+
+		// Enough uses that old ones have to be discarded.
+		Page p0 = cache.getPage(VectorInt.create(0, 0, 0));
+		Page p1 = cache.getPage(VectorInt.create(1, 0, 0));
+		for (int i = 0; i < 100; i++) {
+			assertSame(p1, cache.getPage(VectorInt.create(1, 0, 0)));
+			assertSame(p0, cache.getPage(VectorInt.create(0, 0, 0)));
+		}
+		assertEquals(2, cache.getHardFaults());
+
+		cache.getPage(VectorInt.create(2, 0, 0));
+		assertEquals(1, cache.getEvictions());
+		assertSame(p0, cache.getPage(VectorInt.create(0, 0, 0)));
+		assertEquals(3, cache.getHardFaults());
+
+		// Page 2 is now the least recently used.
+		assertNotSame(p1, cache.getPage(VectorInt.create(1, 0, 0)));
+		assertEquals(2, cache.getEvictions());
+		assertSame(p0, cache.getPage(VectorInt.create(0, 0, 0)));
+		assertEquals(4, cache.getHardFaults());
+	}
+
+	@Test
+	public void test_failedReadIsRetried() throws Exception {
+		CacheDefinition cd = new CacheDefinition();
+		cd.pages = 2;
+		PageCache cache = new PageCache(band) {
+			boolean failed = false;
+
+			@Override
+			protected Page newPage(VectorInt index) throws IOException {
+				Page page = super.newPage(index);
+				if (!failed) {
+					failed = true;
+					throw new IOException("Simulated read failure");
+				}
+				return page;
+			}
+		};
+		cache.configure(cd);
+
+		try {
+			cache.getPage(VectorInt.create(0, 0, 0));
+			fail("Expected first read to fail.");
+		} catch (IOException e) {
+			// Expected.
+		}
+		// The failed page must not be left in the cache.
+		assertNotNull(cache.getPage(VectorInt.create(0, 0, 0)));
+		assertEquals(2, cache.getHardFaults());
+	}
+
+	@Test
+	public void test_prefetch() throws Exception {
+		PageCache cache = createCache(4);
+		AtomicLong budget = new AtomicLong(PAGE_VOLUME * 10);
+
+		// Cover the first two time steps.
+		BoxInt region = new BoxInt(VectorInt.create(0, 10, 10),
+				VectorInt.create(1, 20, 20));
+		assertTrue(cache.prefetch(region, SYNCHRONOUS, budget));
+		assertEquals(2, cache.getPrefetches());
+		assertEquals(2, cache.getHardFaults());
+		assertEquals(PAGE_VOLUME * 8, budget.get());
+
+		// Prefetching again should not read anything.
+		assertTrue(cache.prefetch(region, SYNCHRONOUS, budget));
+		assertEquals(2, cache.getPrefetches());
+
+		// Using the pages returns their memory to the budget.
+		cache.getPage(VectorInt.create(0, 0, 0));
+		cache.getPage(VectorInt.create(1, 0, 0));
+		assertEquals(2, cache.getHardFaults());
+		assertEquals(2, cache.getPrefetchHits());
+		assertEquals(PAGE_VOLUME * 10, budget.get());
+	}
+
+	@Test
+	public void test_prefetchLimits() throws Exception {
+		PageCache cache = createCache(4);
+		BoxInt region = new BoxInt(VectorInt.create(0, 0, 0),
+				VectorInt.create(2, 63, 63));
+
+		// Not enough budget for even one page.
+		AtomicLong budget = new AtomicLong(PAGE_VOLUME - 1);
+		assertFalse(cache.prefetch(region, SYNCHRONOUS, budget));
+		assertEquals(0, cache.getPrefetches());
+
+		// Plenty of budget, but only half of the cache may be used.
+		budget = new AtomicLong(PAGE_VOLUME * 10);
+		assertFalse(cache.prefetch(region, SYNCHRONOUS, budget));
+		assertEquals(2, cache.getPrefetches());
+	}
+
+	@Test
+	public void test_cancelledPrefetch() throws Exception {
+		PageCache cache = createCache(4);
+		AtomicLong budget = new AtomicLong(PAGE_VOLUME * 10);
+		final List<Runnable> queue = new ArrayList<Runnable>();
+		Executor deferred = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queue.add(command);
+			}
+		};
+
+		BoxInt region = new BoxInt(VectorInt.create(0, 0, 0),
+				VectorInt.create(0, 63, 63));
+		assertTrue(cache.prefetch(region, deferred, budget));
+		assertEquals(1, queue.size());
+		((Future<?>) queue.get(0)).cancel(false);
+		assertEquals(1, cache.getPrefetchesWasted());
+		assertEquals(PAGE_VOLUME * 10, budget.get());
+
+		// The page should be read on demand instead.
+		assertNotNull(cache.getPage(VectorInt.create(0, 0, 0)));
+		assertEquals(1, cache.getHardFaults());
+	}
+
+	@Test(timeout = 10000)
+	public void test_demandBeforePrefetch() throws Exception {
+		PageCache cache = createCache(4);
+		AtomicLong budget = new AtomicLong(PAGE_VOLUME * 10);
+		final List<Runnable> queue = new ArrayList<Runnable>();
+		Executor deferred = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queue.add(command);
+			}
+		};
+
+		// The prefetch is queued but never started, so the page must be read
+		// on demand rather than waiting for the queue.
+		BoxInt region = new BoxInt(VectorInt.create(0, 0, 0),
+				VectorInt.create(0, 63, 63));
+		assertTrue(cache.prefetch(region, deferred, budget));
+		assertEquals(1, queue.size());
+		Page page = cache.getPage(VectorInt.create(0, 0, 0));
+		assertNotNull(page);
+		assertEquals(1, cache.getHardFaults());
+		assertEquals(0, cache.getPrefetchHits());
+		assertEquals(PAGE_VOLUME * 10, budget.get());
+
+		// When the prefetch runs later, it doesn't read the page again.
+		queue.get(0).run();
+		assertEquals(1, cache.getHardFaults());
+		assertSame(page, cache.getPage(VectorInt.create(0, 0, 0)));
+	}
+
+	@Test
+	public void test_blankPages() throws Exception {
+		// Pretend that only the first time step has any data.
+		Variable var = dataset.findVariable("Band1");
+		final ProxyReader original = var.getProxyReader();
+		var.setProxyReader(new SparseReader() {
+			@Override
+			public Array reallyRead(Variable client, CancelTask cancelTask)
+					throws IOException {
+				return original.reallyRead(client, cancelTask);
+			}
+
+			@Override
+			public Array reallyRead(Variable client, Section section,
+					CancelTask cancelTask) throws IOException,
+					InvalidRangeException {
+				return original.reallyRead(client, section, cancelTask);
+			}
+
+			@Override
+			public boolean isBlank(Section section) {
+				return section.getRange(0).first() > 0;
+			}
+		});
+		band = new DatasetMetaStub(dataset).getVariableAdapter("Band1");
+		PageCache cache = createCache(4);
+
+		Page p0 = cache.getPage(VectorInt.create(0, 10, 10));
+		Page p1 = cache.getPage(VectorInt.create(1, 10, 10));
+		Page p2 = cache.getPage(VectorInt.create(2, 10, 10));
+		assertEquals(1, cache.getHardFaults());
+		assertEquals(2, cache.getBlankPages());
+
+		// Blank pixels should look the same as fill values that were read.
+		ScalarElement nodata = band.getNodataStrategy().getNodataValue();
+		ScalarElement px = p1.getLocalPage().getPixel(
+				VectorInt.create(1, 10, 10));
+		assertEquals(nodata.doubleValue(), px.doubleValue());
+		assertEquals(!band.getNodataStrategy().isNoData(px), px.isValid());
+		px = p2.getLocalPage().getPixel(VectorInt.create(2, 63, 0));
+		assertEquals(nodata.doubleValue(), px.doubleValue());
+		assertNotNull(p0.getLocalPage().getPixel(VectorInt.create(0, 10, 10)));
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.query.sampling;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.QueryDefinition.CacheDefinition;
+import org.vpac.ndg.query.VariableAdapter;
+import org.vpac.ndg.query.math.VectorInt;
+import org.vpac.ndg.query.sampling.Page.LocalPage;
+
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Compares ways of detecting that a pixel lies outside the current page. The
+ * access pattern alternates between two pages, as happens when a kernel
+ * straddles a page boundary.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class PageFaultSpeedTest extends TestCase {
+
+	final Logger log = LoggerFactory.getLogger(PageFaultSpeedTest.class);
+
+	static final int ITERATIONS = 200000;
+
+	NetcdfDataset dataset;
+	PageCache cache;
+	VectorInt[] coords;
+
+	@Before
+	public void setUp() throws Exception {
+		dataset = NetcdfDataset.openDataset("data/input/abstract.nc");
+		VariableAdapter band = new DatasetMetaStub(dataset)
+				.getVariableAdapter("Band1");
+
+		CacheDefinition cd = new CacheDefinition();
+		cd.pages = 4;
+		// One page per time step.
+		cd.volume = 64 * 64 - 1;
+		cache = new PageCache(band);
+		cache.configure(cd);
+
+		coords = new VectorInt[] {
+			VectorInt.create(0, 32, 32),
+			VectorInt.create(1, 32, 32),
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		dataset.close();
+	}
+
+	@Test
+	public void test_boundsCheck() throws Exception {
+		LocalPage page = null;
+		long faults = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			VectorInt co = coords[i % 2];
+			if (page == null || !page.contains(co)) {
+				faults++;
+				page = cache.getPage(co).getLocalPage();
+			}
+			page.getPixel(co);
+		}
+		long elapsed = System.nanoTime() - start;
+		assertEquals(ITERATIONS, faults);
+		log.info("Bounds check: {} page switches in {} ms", faults,
+				TimeUnit.NANOSECONDS.toMillis(elapsed));
+	}
+
+	@Test
+	public void test_exceptions() throws Exception {
+		LocalPage page = null;
+		long faults = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			VectorInt co = coords[i % 2];
+			try {
+				page.getPixel(co);
+				continue;
+			} catch (IndexOutOfBoundsException e) {
+				// page fault
+			} catch (NullPointerException e) {
+				// page fault
+			}
+			faults++;
+			page = cache.getPage(co).getLocalPage();
+			page.getPixel(co);
+		}
+		long elapsed = System.nanoTime() - start;
+		assertEquals(ITERATIONS, faults);
+		log.info("Exceptions: {} page switches in {} ms", faults,
+				TimeUnit.NANOSECONDS.toMillis(elapsed));
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.query.sampling;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.vpac.ndg.query.TileWriter;
+import org.vpac.ndg.query.VariableAdapter;
+import org.vpac.ndg.query.math.BoxInt;
+import org.vpac.ndg.query.math.VectorInt;
+import org.vpac.ndg.query.sampling.Binding.PendingCommit;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Writes tiles through detached buffers, as a query does when it writes
+ * behind.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class TileWriterTest extends TestCase {
+
+	static final int TILE_SIZE = 4;
+	static final int NTILES = 3;
+
+	Path path;
+	NetcdfFileWriter output;
+	TileWriter writer;
+	TestBuffer binding;
+
+	/**
+	 * A binding without sources; the tests fill its buffer directly.
+	 */
+	static class TestBuffer extends VariableBufferScalar {
+		TestBuffer(VariableAdapter variable) throws Exception {
+			super(Arrays.asList(variable));
+		}
+
+		void fill(short value) {
+			Array array = buffers.get(0).getArray();
+			for (int i = 0; i < array.getSize(); i++)
+				array.setShort(i, value);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		path = Files.createTempFile("tilewriter", ".nc");
+		output = NetcdfFileWriter.createNew(Version.netcdf3, path.toString());
+		output.addDimension(null, "y", TILE_SIZE);
+		output.addDimension(null, "x", TILE_SIZE * NTILES);
+		Variable var = output.addVariable(null, "Band1", DataType.SHORT,
+				"y x");
+		output.create();
+
+		NetcdfDataset ds = new NetcdfDataset(output.getNetcdfFile(), false);
+		VariableAdapter adapter = new DatasetMetaStub(ds) {
+			@Override
+			public Variable findVariable(String name) {
+				return output.findVariable(name);
+			}
+		}.getVariableAdapter(var.getShortName());
+		binding = new TestBuffer(adapter);
+		binding.setSpareBuffers(1);
+		writer = new TileWriter(output);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		writer.shutDown();
+		Files.deleteIfExists(path);
+	}
+
+	BoxInt tile(int i) {
+		return new BoxInt(VectorInt.create(0, i * TILE_SIZE),
+				VectorInt.create(TILE_SIZE, (i + 1) * TILE_SIZE));
+	}
+
+	@Test
+	public void test_writeBehind() throws Exception {
+		binding.setBounds(tile(0));
+		binding.fill((short) 10);
+		PendingCommit previous = binding.detach();
+
+		for (int i = 1; i < NTILES; i++) {
+			// Generate the next tile before the last one has been written.
+			// The detached buffer must not be affected.
+			binding.setBounds(tile(i));
+			binding.fill((short) (10 * (i + 1)));
+			writer.write(Collections.singletonList(previous));
+			// Only one spare, so this waits for the write to finish.
+			previous = binding.detach();
+		}
+		writer.write(Collections.singletonList(previous));
+		writer.flush();
+		output.close();
+
+		NetcdfFile nc = NetcdfFile.open(path.toString());
+		try {
+			Array data = nc.findVariable("Band1").read();
+			for (int y = 0; y < TILE_SIZE; y++) {
+				for (int x = 0; x < TILE_SIZE * NTILES; x++) {
+					assertEquals(String.format("Pixel %d,%d", y, x),
+							10 * (x / TILE_SIZE + 1),
+							data.getShort(y * TILE_SIZE * NTILES + x));
+				}
+			}
+		} finally {
+			nc.close();
+		}
+	}
+
+	@Test
+	public void test_failedWrite() throws Exception {
+		final AtomicInteger released = new AtomicInteger();
+		PendingCommit failing = new PendingCommit() {
+			@Override
+			public void commit(NetcdfFileWriter output) throws IOException {
+				throw new IOException("Simulated write failure");
+			}
+
+			@Override
+			public void release() {
+				released.incrementAndGet();
+			}
+		};
+
+		writer.write(Collections.singletonList(failing));
+		try {
+			writer.flush();
+			fail("Expected the write to fail.");
+		} catch (IOException e) {
+			// Expected.
+		}
+		assertEquals(1, released.get());
+
+		// Later tiles are refused, but their buffers are still given back.
+		binding.setBounds(tile(0));
+		PendingCommit next = binding.detach();
+		try {
+			writer.write(Collections.singletonList(next));
+			fail("Expected the earlier failure to be reported.");
+		} catch (IOException e) {
+			// Expected.
+		}
+		binding.setBounds(tile(1));
+		assertNotNull(binding.detach());
+		output.close();
+	}
+}
@@ -123,6 +123,77 @@ public class HistogramTest extends TestCase {
 		assertEquals("Elements in first bucket of third component", 1, s.getCount());
 	}
 
+	/**
+	 * Many buckets created out of order, then folded. The buckets must stay
+	 * sorted, and each value must be found in the right bucket.
+	 */
+	@Test
+	public void test_manyBuckets() throws Exception {
+		BucketingStrategy bs = new BucketingStrategyFactory().create(
+				"regular/width/1");
+		Hist serial = new Hist();
+		serial.setBucketingStrategy(bs);
+		Hist[] parts = new Hist[] { new Hist(), new Hist(), new Hist() };
+		for (Hist h : parts)
+			h.setBucketingStrategy(bs);
+
+		// 7919 is coprime with 1000, so this visits every bucket in a
+		// scattered order.
+		for (int i = 0; i < 5000; i++) {
+			ElementInt value = new ElementInt((i * 7919) % 1000 - 500);
+			serial.update(value);
+			parts[i % parts.length].update(value);
+		}
+
+		Hist folded = new Hist();
+		for (Hist h : parts)
+			folded = folded.fold(h);
+
+		for (Hist h : new Hist[] { serial, folded }) {
+			List<Bucket> buckets = h.getBuckets();
+			assertEquals(1000, buckets.size());
+			for (int i = 0; i < buckets.size(); i++) {
+				assertEquals(i - 500.0, buckets.get(i).getLower(), EPSILON);
+				assertSame(buckets.get(i), h.getBucket(i - 500 + 0.5));
+			}
+			assertNull(h.getBucket(600));
+			assertEquals(5000, h.summarise().getCount());
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(serial.getBuckets().get(i).getStats().getCount(),
+					folded.getBuckets().get(i).getStats().getCount());
+		}
+	}
+
+	/**
+	 * Replacing the buckets with a list of the same size must not leave a
+	 * stale lookup index behind.
+	 */
+	@Test
+	public void test_setBuckets() throws Exception {
+		BucketingStrategy bs = new BucketingStrategyFactory().create(
+				"regular?width=10");
+		Hist hist = new Hist();
+		hist.setBucketingStrategy(bs);
+		hist.update(new ElementInt(5));
+		hist.update(new ElementInt(15));
+		assertEquals(0.0, hist.getBucket(5).getLower(), EPSILON);
+
+		List<Bucket> buckets = new ArrayList<Bucket>();
+		buckets.add(new Bucket(100.0, 110.0, new Stats()));
+		buckets.add(new Bucket(110.0, 120.0, new Stats()));
+		hist.setBuckets(buckets);
+
+		assertNull(hist.getBucket(5));
+		assertNull(hist.getBucket(15));
+		assertEquals(100.0, hist.getBucket(105).getLower(), EPSILON);
+		assertEquals(110.0, hist.getBucket(115).getLower(), EPSILON);
+
+		hist.update(new ElementInt(5));
+		assertEquals(3, hist.getBuckets().size());
+		assertEquals(0.0, hist.getBuckets().get(0).getLower(), EPSILON);
+	}
+
 	private VectorHist foldVStatsRecursively(List<VectorElement> inputs,
 			BucketingStrategy bs) {
 		if (inputs.size() <= 20)
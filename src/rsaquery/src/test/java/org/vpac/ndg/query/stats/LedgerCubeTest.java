@@ -0,0 +1,145 @@
+package org.vpac.ndg.query.stats;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.stats.MockData.ParallelRand;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class LedgerCubeTest extends TestCase {
+
+	Logger log = LoggerFactory.getLogger(LedgerCubeTest.class);
+
+	Ledger createLedger(int n) {
+		Ledger ledger = new Ledger();
+		ledger.setBucketingStrategies(Arrays.asList(
+			"categorical",
+			"regular/width/1",
+			"regular/width/10"
+		));
+		ParallelRand generator = new ParallelRand(Arrays.asList(
+			new double[] {0.0, 5.0},
+			new double[] {0.0, 20.0},
+			new double[] {0.0, 100.0}));
+		for (int i = 0; i < n; i++) {
+			List<Double> pixel = generator.nextDoubles();
+			pixel.set(0, Math.floor(pixel.get(0)));
+			if (i % 13 == 0)
+				pixel.set(1, null);
+			ledger.add(pixel);
+		}
+		return ledger;
+	}
+
+	@Test
+	public void test_aggregate() throws Exception {
+		Ledger ledger = createLedger(1000);
+		LedgerCube cube = new LedgerCube(ledger);
+		assertEquals(ledger.size(), cube.size());
+		assertEquals(ledger.totalCount(), cube.totalCount(cube.all()));
+
+		List<List<Integer>> projections = Arrays.asList(
+			Arrays.asList(0, 1, 2),
+			Arrays.asList(0, 2),
+			Arrays.asList(2, 1),
+			Arrays.asList(1));
+		for (List<Integer> columns : projections) {
+			Ledger expected = ledger.filterColumns(columns);
+			Ledger actual = cube.aggregate(cube.all(), columns);
+			assertEquals(expected.getBucketingStrategies(),
+					actual.getBucketingStrategies());
+			assertEquals(expected.getEntries(), actual.getEntries());
+		}
+	}
+
+	@Test
+	public void test_filter() throws Exception {
+		Ledger ledger = createLedger(1000);
+		LedgerCube cube = new LedgerCube(ledger);
+
+		Set<Double> ids = new HashSet<Double>(Arrays.asList(1.0, 3.0, 7.0));
+		Set<Double> nullIds = new HashSet<Double>(Arrays.asList(null, 4.0));
+		List<Double> lower = Arrays.asList(5.0, 42.0);
+		List<Double> upper = Arrays.asList(10.0, 48.0);
+
+		Ledger expected = ledger
+				.filterRows(0, ids)
+				.filterRows(1, nullIds)
+				.filterColumns(Arrays.asList(0, 1));
+		BitSet rows = cube.select(0, ids);
+		rows.and(cube.select(1, nullIds));
+		Ledger actual = cube.aggregate(rows, Arrays.asList(0, 1));
+		assertTrue(actual.size() > 0);
+		assertEquals(expected.getEntries(), actual.getEntries());
+
+		expected = ledger
+				.filterRows(1, lower, upper)
+				.filterRows(2, lower, upper);
+		rows = cube.select(1, lower, upper);
+		rows.and(cube.select(2, lower, upper));
+		actual = cube.aggregate(rows, Arrays.asList(0, 1, 2));
+		assertTrue(actual.size() > 0);
+		assertEquals(expected.getEntries(), actual.getEntries());
+		assertEquals(expected.totalCount(), cube.totalCount(rows));
+
+		// No bounds means no filtering.
+		assertEquals(cube.all(), cube.select(1, null, null));
+	}
+
+	@Test
+	public void test_empty() throws Exception {
+		Ledger ledger = new Ledger();
+		ledger.setBucketingStrategies(Arrays.asList("categorical"));
+		LedgerCube cube = new LedgerCube(ledger);
+		assertEquals(0, cube.size());
+		BitSet rows = cube.select(0, new HashSet<Double>(Arrays.asList(1.0)));
+		assertEquals(0, cube.aggregate(rows, Arrays.asList(0)).size());
+	}
+
+	/**
+	 * Compare repeated filtering of the ledger with the cube. Logs timings; no
+	 * assertions.
+	 */
+	@Test
+	public void test_speed() throws Exception {
+		Ledger ledger = createLedger(200000);
+		Set<Double> ids = new HashSet<Double>(Arrays.asList(1.0, 3.0));
+		List<Double> lower = Arrays.asList(5.0);
+		List<Double> upper = Arrays.asList(10.0);
+		List<Integer> columns = Arrays.asList(0, 2);
+
+		long start = System.nanoTime();
+		ledger.copy()
+				.filterRows(0, ids)
+				.filterRows(1, lower, upper)
+				.filterColumns(columns);
+		long filterTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		LedgerCube cube = new LedgerCube(ledger);
+		long indexTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		BitSet rows = cube.select(0, ids);
+		rows.and(cube.select(1, lower, upper));
+		cube.aggregate(rows, columns);
+		long cubeTime = System.nanoTime() - start;
+
+		log.info("{} rows: ledger filter {} us; cube index {} us, " +
+				"cube filter {} us", cube.size(),
+				TimeUnit.NANOSECONDS.toMicros(filterTime),
+				TimeUnit.NANOSECONDS.toMicros(indexTime),
+				TimeUnit.NANOSECONDS.toMicros(cubeTime));
+	}
+}
@@ -1,8 +1,16 @@
 package org.vpac.ndg.query.stats;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
@@ -207,4 +215,97 @@ public class LedgerTest extends TestCase {
 		assertEquals(1, filtered.get(Arrays.asList(3.0)));
 	}
 
+	/**
+	 * Null components and many distinct combinations, to exercise growth of
+	 * the table.
+	 */
+	@Test
+	public void test_nulls() throws Exception {
+		Ledger ledger = new Ledger();
+		ledger.setBucketingStrategies(Arrays.asList(
+			"categorical",
+			"categorical"
+		));
+
+		for (int i = 0; i < 1000; i++) {
+			ledger.add(Arrays.asList((double) i, null));
+			ledger.add(Arrays.asList((double) i, (double) (i % 3)));
+		}
+		ledger.add(Arrays.asList(null, 1.0));
+
+		assertEquals(2001, ledger.size());
+		assertEquals(2001, ledger.totalCount());
+		assertEquals(1, ledger.get(Arrays.asList(5.0, null)));
+		assertEquals(1, ledger.get(Arrays.asList(5.0, 2.0)));
+		assertEquals(1, ledger.get(Arrays.asList(null, 1.0)));
+		assertEquals(0, ledger.get(Arrays.asList(null, null)));
+		assertEquals(999.0, ledger.maxKey(0), 0);
+		assertEquals(0.0, ledger.minKey(1), 0);
+		assertTrue(ledger.keySet().contains(Arrays.asList(7.0, null)));
+	}
+
+	/**
+	 * The serialised form must stay the same as when the entries were stored
+	 * in a map, so that workers of different versions can exchange results.
+	 */
+	@Test
+	public void test_serialise() throws Exception {
+		Ledger ledger = new Ledger();
+		ledger.setId("abc");
+		ledger.setBucketingStrategies(Arrays.asList(
+			"regular/width/1",
+			"regular/width/1"
+		));
+		ledger.add(Arrays.asList(0.0, 0.5));
+		ledger.add(Arrays.asList(0.0, 0.5));
+		ledger.add(Arrays.asList(1.5, null));
+
+		ObjectStreamClass osc = ObjectStreamClass.lookup(Ledger.class);
+		assertEquals(1L, osc.getSerialVersionUID());
+		List<String> fields = new ArrayList<>();
+		for (ObjectStreamField f : osc.getFields())
+			fields.add(f.getName() + ":" + f.getTypeString());
+		assertEquals(Arrays.asList(
+			"bss:Ljava/util/List;",
+			"bucketedCombination:Ljava/util/List;",
+			"currentCombination:Ljava/util/List;",
+			"currentCount:Ljava/lang/Long;",
+			"entries:Ljava/util/Map;",
+			"id:Ljava/lang/String;"), fields);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(ledger);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(
+			new ByteArrayInputStream(bytes.toByteArray()));
+		Ledger copy = (Ledger) in.readObject();
+
+		assertEquals("abc", copy.getId());
+		assertEquals(ledger.getBucketingStrategies(),
+			copy.getBucketingStrategies());
+		assertEquals(ledger.entrySet(), copy.entrySet());
+		assertEquals(2, copy.get(Arrays.asList(0.0, 0.0)));
+		assertEquals(1, copy.get(Arrays.asList(1.0, null)));
+
+		// Counting must carry on where it left off.
+		copy.add(Arrays.asList(0.0, 0.0));
+		assertEquals(3, copy.get(Arrays.asList(0.0, 0.0)));
+	}
+
+	/**
+	 * Hibernate sets the entry map before populating it.
+	 */
+	@Test
+	public void test_setEntries() throws Exception {
+		Ledger ledger = new Ledger();
+		Map<List<Double>, Long> entries = new HashMap<>();
+		ledger.setEntries(entries);
+		entries.put(Arrays.asList(1.0, 2.0), 5L);
+		entries.put(Arrays.asList(3.0, null), 7L);
+
+		assertSame(entries, ledger.getEntries());
+		assertEquals(12, ledger.totalCount());
+		assertEquals(7, ledger.get(Arrays.asList(3.0, null)));
+	}
 }
@@ -0,0 +1,138 @@
+package org.vpac.ndg.query.stats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.math.ElementInt;
+
+/**
+ * Compares the size and latency of {@link StatsCodec} blobs with Java
+ * serialisation, which is the closest stand-in for the row-per-bucket form
+ * that can be measured without a database.
+ */
+@RunWith(BlockJUnit4ClassRunner.class)
+public class StatsCodecSpeedTest extends TestCase {
+
+	final Logger log = LoggerFactory.getLogger(StatsCodecSpeedTest.class);
+
+	static final int ITERATIONS = 20;
+
+	interface Format {
+		byte[] encode(Object value) throws Exception;
+		Object decode(byte[] data) throws Exception;
+	}
+
+	static class CodecFormat implements Format {
+		StatsCodec codec;
+
+		CodecFormat(boolean compress) {
+			codec = new StatsCodec(compress);
+		}
+
+		@Override
+		public byte[] encode(Object value) throws Exception {
+			return codec.encode(value);
+		}
+
+		@Override
+		public Object decode(byte[] data) throws Exception {
+			return codec.decode(data);
+		}
+	}
+
+	static final Format SERIALISED = new Format() {
+		@Override
+		public byte[] encode(Object value) throws Exception {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+			return bytes.toByteArray();
+		}
+
+		@Override
+		public Object decode(byte[] data) throws Exception {
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(data));
+			try {
+				// Touch the ledger so the table is rebuilt, as it would be
+				// after loading.
+				Object value = in.readObject();
+				if (value instanceof Ledger)
+					((Ledger) value).size();
+				return value;
+			} finally {
+				in.close();
+			}
+		}
+	};
+
+	void measure(String name, Object value, Format format) throws Exception {
+		// Warm up.
+		byte[] data = format.encode(value);
+		format.decode(data);
+
+		long encode = 0;
+		long decode = 0;
+		for (int i = 0; i < ITERATIONS; i++) {
+			long start = System.nanoTime();
+			data = format.encode(value);
+			encode += System.nanoTime() - start;
+			start = System.nanoTime();
+			format.decode(data);
+			decode += System.nanoTime() - start;
+		}
+		log.info("{}: {} bytes, encode {} us, decode {} us (mean of {} runs)",
+				name, data.length,
+				TimeUnit.NANOSECONDS.toMicros(encode / ITERATIONS),
+				TimeUnit.NANOSECONDS.toMicros(decode / ITERATIONS),
+				ITERATIONS);
+	}
+
+	void compare(String name, Object value) throws Exception {
+		measure(name + " (serialised)", value, SERIALISED);
+		measure(name + " (codec)", value, new CodecFormat(false));
+		measure(name + " (codec, deflated)", value, new CodecFormat(true));
+	}
+
+	@Test
+	public void test_cats() throws Exception {
+		ElementInt category = new ElementInt();
+		ElementInt value = new ElementInt();
+		Cats cats = new Cats();
+		cats.setBucketingStrategy(new BucketingStrategyLog());
+		for (int i = 0; i < 200; i++) {
+			for (int j = 1; j < 1000; j++) {
+				category.set(i);
+				value.set(i * j);
+				cats.update(category, value);
+			}
+		}
+		compare("cats", cats);
+	}
+
+	@Test
+	public void test_ledger() throws Exception {
+		Ledger ledger = new Ledger();
+		ledger.setBucketingStrategies(Arrays.asList(
+			"categorical",
+			"categorical",
+			"regular/width/1"
+		));
+		for (int i = 0; i < 200000; i++)
+			ledger.add(Arrays.asList((double) (i % 31), (double) (i % 97),
+					(double) (i % 1009)));
+		compare("ledger", ledger);
+	}
+}
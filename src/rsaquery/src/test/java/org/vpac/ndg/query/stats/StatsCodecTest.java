@@ -0,0 +1,229 @@
+package org.vpac.ndg.query.stats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.vpac.ndg.query.math.ElementInt;
+
+@RunWith(BlockJUnit4ClassRunner.class)
+public class StatsCodecTest extends TestCase {
+
+	final static double EPSILON = 1.0e-9;
+
+	Cats createCats() {
+		ElementInt category = new ElementInt();
+		ElementInt value = new ElementInt();
+		Cats cats = new Cats();
+		cats.setBucketingStrategy(new BucketingStrategyLog());
+		for (int i = 0; i < 10; i++) {
+			for (int j = 1; j < 100; j++) {
+				category.set(i);
+				value.set(i * j);
+				cats.update(category, value);
+			}
+		}
+		return cats;
+	}
+
+	Ledger createLedger() {
+		Ledger ledger = new Ledger();
+		ledger.setBucketingStrategies(Arrays.asList(
+			"regular/width/1",
+			"regular/width/10"
+		));
+		for (int i = 0; i < 100; i++) {
+			ledger.add(Arrays.asList((double) (i % 7), (double) i));
+			ledger.add(Arrays.asList(null, (double) i));
+		}
+		return ledger;
+	}
+
+	void assertHistEquals(Hist expected, Hist actual) {
+		assertEquals(expected.getBucketingStrategy().getDef(),
+				actual.getBucketingStrategy().getDef());
+		List<Bucket> eb = expected.getBuckets();
+		List<Bucket> ab = actual.getBuckets();
+		assertEquals(eb.size(), ab.size());
+		for (int i = 0; i < eb.size(); i++) {
+			assertEquals(eb.get(i).getLower(), ab.get(i).getLower(), EPSILON);
+			assertEquals(eb.get(i).getUpper(), ab.get(i).getUpper(), EPSILON);
+			Stats es = eb.get(i).getStats();
+			Stats as = ab.get(i).getStats();
+			assertEquals(es.getCount(), as.getCount());
+			assertEquals(es.getMin(), as.getMin(), EPSILON);
+			assertEquals(es.getMax(), as.getMax(), EPSILON);
+			assertEquals(es.getMean(), as.getMean(), EPSILON);
+			assertEquals(es.getStdDev(), as.getStdDev(), EPSILON);
+		}
+	}
+
+	void assertCatsEquals(Cats expected, Cats actual) {
+		assertEquals(expected.getBucketingStrategy().getDef(),
+				actual.getBucketingStrategy().getDef());
+		assertEquals(expected.getKeys(), actual.getKeys());
+		for (Integer key : expected.getKeys())
+			assertHistEquals(expected.get(key), actual.get(key));
+	}
+
+	void roundTripCats(StatsCodec codec) throws Exception {
+		Cats cats = createCats();
+		Cats res = (Cats) codec.decode(codec.encode(cats));
+		assertCatsEquals(cats, res);
+
+		// The decoded histograms must still be usable.
+		Hist summary = res.summarise().optimise();
+		assertHistEquals(cats.summarise().optimise(), summary);
+	}
+
+	void roundTripLedger(StatsCodec codec) throws Exception {
+		Ledger ledger = createLedger();
+		Ledger res = codec.decode(
+				new ByteArrayInputStream(codec.encode(ledger)), Ledger.class);
+
+		assertEquals(ledger.getBucketingStrategies(),
+				res.getBucketingStrategies());
+		assertEquals(ledger.size(), res.size());
+		assertEquals(ledger.totalCount(), res.totalCount());
+		assertEquals(ledger.getEntries(), res.getEntries());
+		assertEquals(10, res.get(Arrays.asList(null, 10.0)));
+
+		// Adding to a decoded ledger must work too.
+		res.add(Arrays.asList(0.0, 0.0));
+		assertEquals(ledger.get(Arrays.asList(0.0, 0.0)) + 1,
+				res.get(Arrays.asList(0.0, 0.0)));
+	}
+
+	@Test
+	public void test_cats() throws Exception {
+		roundTripCats(new StatsCodec(false));
+		roundTripCats(new StatsCodec(true));
+	}
+
+	@Test
+	public void test_hist() throws Exception {
+		StatsCodec codec = new StatsCodec();
+		Hist hist = createCats().summarise();
+		Hist res = codec.decode(new ByteArrayInputStream(codec.encode(hist)),
+				Hist.class);
+		assertHistEquals(hist, res);
+	}
+
+	@Test
+	public void test_ledger() throws Exception {
+		roundTripLedger(new StatsCodec(false));
+		roundTripLedger(new StatsCodec(true));
+	}
+
+	@Test
+	public void test_vectorCats() throws Exception {
+		StatsCodec codec = new StatsCodec();
+		Cats[] components = new Cats[] { createCats(), createCats() };
+		VectorCats vcats = new VectorCats(components);
+		VectorCats res = codec.decode(new ByteArrayInputStream(
+				codec.encode(vcats)), VectorCats.class);
+		assertEquals(2, res.getComponents().length);
+		for (int i = 0; i < components.length; i++) {
+			Cats cats = components[i];
+			Cats actual = res.getComponents()[i];
+			assertEquals(cats.getKeys(), actual.getKeys());
+			for (Integer key : cats.getKeys())
+				assertHistEquals(cats.get(key), actual.get(key));
+		}
+	}
+
+	@Test
+	public void test_map() throws Exception {
+		StatsCodec codec = new StatsCodec();
+		Map<String, Object> results = new HashMap<String, Object>();
+		results.put("cats", new VectorCats(new Cats[] { createCats() }));
+		results.put("ledger", createLedger());
+		assertTrue(StatsCodec.canEncode(results));
+
+		Map<?, ?> res = codec.decode(new ByteArrayInputStream(
+				codec.encode(results)), Map.class);
+		assertEquals(results.keySet(), res.keySet());
+		assertTrue(res.get("cats") instanceof VectorCats);
+		Ledger ledger = (Ledger) res.get("ledger");
+		assertEquals(createLedger().getEntries(), ledger.getEntries());
+
+		results.put("other", "not statistics");
+		assertFalse(StatsCodec.canEncode(results));
+	}
+
+	@Test
+	public void test_emptyLedger() throws Exception {
+		StatsCodec codec = new StatsCodec();
+		Ledger res = (Ledger) codec.decode(codec.encode(new Ledger()));
+		assertEquals(0, res.size());
+		assertEquals(0, res.getBucketingStrategies().size());
+	}
+
+	@Test
+	public void test_compression() throws Exception {
+		Cats cats = createCats();
+		byte[] raw = new StatsCodec(false).encode(cats);
+		byte[] deflated = new StatsCodec(true).encode(cats);
+		assertTrue(deflated.length < raw.length);
+	}
+
+	@Test
+	public void test_consecutive() throws Exception {
+		Cats cats = createCats();
+		Ledger ledger = createLedger();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new StatsCodec(true).encode(cats, out);
+		new StatsCodec(false).encode(ledger, out);
+		new StatsCodec(true).encode(ledger, out);
+		out.write(42);
+
+		StatsCodec codec = new StatsCodec();
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		assertCatsEquals(cats, codec.decode(in, Cats.class));
+		assertEquals(ledger.size(), codec.decode(in, Ledger.class).size());
+		assertEquals(ledger.size(), codec.decode(in, Ledger.class).size());
+		assertEquals(42, in.read());
+	}
+
+	@Test
+	public void test_version1() throws Exception {
+		// Version 1 had no body length after the flags.
+		Cats cats = createCats();
+		byte[] data = new StatsCodec().encode(cats);
+		ByteArrayOutputStream old = new ByteArrayOutputStream();
+		old.write(data, 0, 7);
+		old.write(data, 11, data.length - 11);
+		byte[] oldData = old.toByteArray();
+		oldData[4] = 1;
+		assertCatsEquals(cats, new StatsCodec().decode(
+				new ByteArrayInputStream(oldData), Cats.class));
+	}
+
+	@Test
+	public void test_wrongType() throws Exception {
+		StatsCodec codec = new StatsCodec();
+		byte[] data = codec.encode(createLedger());
+		try {
+			codec.decode(new ByteArrayInputStream(data), Cats.class);
+			fail("Decoding a ledger as categories should fail.");
+		} catch (IOException e) {
+			// Expected.
+		}
+		try {
+			codec.decode(new byte[] { 1, 2, 3, 4, 5, 6, 7 });
+			fail("Decoding garbage should fail.");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.vpac.worker;
 
+import akka.actor.ActorRef;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
@@ -14,8 +15,12 @@ import java.nio.file.Paths;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.FileInputStream;
-import java.io.ObjectInputStream;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
@@ -32,8 +37,13 @@ import org.vpac.ndg.storage.model.JobProgress;
 import org.vpac.ndg.storage.model.TaskCats;
 import org.vpac.ndg.storage.model.DatasetCats;
 import org.vpac.ndg.storage.model.TaskLedger;
+import org.vpac.worker.MasterDatabaseProtocol.Accumulate;
+import org.vpac.worker.MasterDatabaseProtocol.DropStream;
 import org.vpac.worker.MasterDatabaseProtocol.JobUpdate;
 import org.vpac.worker.MasterDatabaseProtocol.Fold;
+import org.vpac.worker.MasterWorkerProtocol.ResultChunk;
+import org.vpac.worker.MasterWorkerProtocol.ResultChunkAck;
+import org.vpac.worker.MasterWorkerProtocol.StreamedResult;
 import org.vpac.ndg.common.datamodel.TaskState;
 import org.vpac.ndg.query.filter.Foldable;
 import org.vpac.worker.Job.Work;
@@ -61,17 +71,57 @@ public class DatabaseActor extends UntypedActor {
 		}
 	}
 
+	/**
+	 * Sent to self when the results of a job have been folded and saved.
+	 */
+	private static final class FoldDone {
+		final String jobId;
+		final Throwable error;
+
+		FoldDone(String jobId, Throwable error) {
+			this.jobId = jobId;
+			this.error = error;
+		}
+	}
+
 	private JobProgressDao jobProgressDao;
 	private StatisticsDao statisticsDao;
 	private NdgConfigManager ndgConfigManager;
 	private final LoggingAdapter log = Logging.getLogger(getContext().system(),
 		this);
 
+	// Reading, folding and saving results happens on this executor, so that
+	// progress updates for other jobs aren't held up.
+	private ExecutorService executor;
+	// Results of jobs that are still running.
+	private Map<String, ResultFolder> folders = new HashMap<>();
+	// Updates for jobs whose results are still being saved. These are held
+	// back so that a job isn't reported as finished before its results are
+	// available.
+	private Map<String, List<JobUpdate>> deferredUpdates = new HashMap<>();
+	// Results that are being streamed from workers.
+	private ResultStreams streams = new ResultStreams();
+
 	public DatabaseActor() {
 		ApplicationContext appContext = AppContextSingleton.INSTANCE.appContext;
 		statisticsDao = (StatisticsDao) appContext.getBean("statisticsDao");
 		jobProgressDao = (JobProgressDao) appContext.getBean("jobProgressDao");
 		ndgConfigManager = (NdgConfigManager) appContext.getBean("ndgConfigManager");
+
+		int nthreads = Runtime.getRuntime().availableProcessors();
+		executor = Executors.newFixedThreadPool(nthreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "result-folder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public void postStop() {
+		executor.shutdownNow();
 	}
 
 	@Override
@@ -79,23 +129,150 @@ public class DatabaseActor extends UntypedActor {
 		log.info("message:" + message);
 		if (message instanceof JobUpdate) {
 			JobUpdate job = (JobUpdate) message;
-			JobProgress progress = jobProgressDao.retrieve(job.jobId);
-			progress.setErrorMessage(job.errorMessage);
-			progress.setCurrentStepProgress(100 * job.fraction);
-			progress.setState(job.state);
-			if (job.state == TaskState.FINISHED)
-				progress.setCompleted();
-			jobProgressDao.save(progress);
+			List<JobUpdate> deferred = deferredUpdates.get(job.jobId);
+			if (deferred != null) {
+				deferred.add(job);
+				return;
+			}
+			if (job.state != TaskState.RUNNING) {
+				// The job has stopped without being folded, e.g. because it
+				// failed. Its partial results are no longer needed.
+				ResultFolder folder = folders.remove(job.jobId);
+				if (folder != null)
+					folder.cancel();
+				streams.dropJob(job.jobId);
+			}
+			updateJob(job);
+
+		} else if (message instanceof ResultChunk) {
+			ResultChunk chunk = (ResultChunk) message;
+			// Rejected chunks aren't acknowledged. The worker will send them
+			// again until the work times out and is requeued.
+			if (streams.add(chunk)) {
+				getSender().tell(new ResultChunkAck(chunk.workId, chunk.seq),
+						getSelf());
+			}
+
+		} else if (message instanceof DropStream) {
+			DropStream drop = (DropStream) message;
+			streams.drop(drop.workId, drop.workerId);
+
+		} else if (message instanceof Accumulate) {
+			Accumulate acc = (Accumulate) message;
+			addResult(getFolder(acc.jobId), acc.jobId, acc.workId, acc.index,
+					acc.result);
 
 		} else if (message instanceof Fold) {
 			Fold fold = (Fold) message;
-			foldResults(fold.currentWorkInfo, fold.list);
+			startFold(fold);
+
+		} else if (message instanceof FoldDone) {
+			FoldDone done = (FoldDone) message;
+			List<JobUpdate> deferred = deferredUpdates.remove(done.jobId);
+			if (deferred == null)
+				return;
+			for (JobUpdate job : deferred) {
+				if (done.error != null && job.state == TaskState.FINISHED) {
+					job = new JobUpdate(job.jobId, job.fraction,
+						TaskState.EXECUTION_ERROR, String.format(
+							"Failed to save results: %s",
+							done.error.getMessage()));
+				}
+				updateJob(job);
+			}
 
 		} else if (message instanceof String) {
 			System.out.println("message:" + message);
 		}
 	}
 
+	private void updateJob(JobUpdate job) {
+		JobProgress progress = jobProgressDao.retrieve(job.jobId);
+		progress.setErrorMessage(job.errorMessage);
+		progress.setCurrentStepProgress(100 * job.fraction);
+		progress.setState(job.state);
+		if (job.state == TaskState.FINISHED)
+			progress.setCompleted();
+		jobProgressDao.save(progress);
+	}
+
+	private ResultFolder getFolder(String jobId) {
+		ResultFolder folder = folders.get(jobId);
+		if (folder == null) {
+			folder = new ResultFolder(executor);
+			folders.put(jobId, folder);
+		}
+		return folder;
+	}
+
+	/**
+	 * Fold and save the results of a job in the background. When done, a
+	 * {@link FoldDone} message is sent to this actor.
+	 */
+	private void startFold(final Fold fold) {
+		final String jobId = fold.currentWorkInfo.work.jobProgressId;
+		ResultFolder folder = getFolder(jobId);
+		folders.remove(jobId);
+		if (!deferredUpdates.containsKey(jobId))
+			deferredUpdates.put(jobId, new ArrayList<JobUpdate>());
+
+		// Results that weren't accumulated (e.g. if a message was lost) are
+		// read now.
+		for (int i = 0; i < fold.workIds.size(); i++)
+			addResult(folder, jobId, fold.workIds.get(i), i, fold.list.get(i));
+		streams.dropJob(jobId);
+
+		final ActorRef self = getSelf();
+		final Future<Map<String, Foldable<?>>> result;
+		try {
+			result = folder.fold(fold.workIds);
+		} catch (IllegalStateException e) {
+			log.error(e, "Failed to fold results of job {}", jobId);
+			folder.cancel();
+			self.tell(new FoldDone(jobId, e), ActorRef.noSender());
+			return;
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Throwable error = null;
+				try {
+					saveResults(fold.currentWorkInfo, result.get());
+				} catch (ExecutionException e) {
+					error = e.getCause();
+				} catch (Throwable e) {
+					error = e;
+				}
+				if (error != null)
+					log.error(error, "Failed to save results of job {}", jobId);
+				self.tell(new FoldDone(jobId, error), ActorRef.noSender());
+			}
+		});
+	}
+
+	/**
+	 * Start reading the result of one piece of work.
+	 * @param index The position of the work in the order it was submitted.
+	 * @param result The name of a result file, or a {@link StreamedResult}
+	 *            whose chunks have already been received.
+	 */
+	private void addResult(ResultFolder folder, String jobId, String workId,
+			int index, Object result) {
+		if (folder.contains(workId))
+			return;
+		if (result instanceof StreamedResult) {
+			byte[] data = streams.take(workId, (StreamedResult) result);
+			if (data == null) {
+				log.warning("Result of work {} is incomplete", workId);
+				return;
+			}
+			folder.add(workId, index, data);
+		} else {
+			folder.add(workId, index, getOutputPath(jobId, result.toString()));
+		}
+	}
+
 	private boolean isTaskCatsExist(String jobProgressId, String key) {
 		List<TaskCats> tc = statisticsDao.searchCats(jobProgressId, key);
 		if (tc.size() > 0)
@@ -103,37 +280,11 @@ public class DatabaseActor extends UntypedActor {
 		return false;
 	}
 
-	@SuppressWarnings("unchecked")
-	private void foldResults(WorkInfo currentWorkInfo, List<String> list) {
-		HashMap<String, Foldable<?>> resultMap = new HashMap<>();
-
-		for (String w : list) {
-			Map<String, Foldable<?>> map = DeserializeResult(currentWorkInfo.work.jobProgressId, w);
-			for (Entry<String, ?> v : map.entrySet()) {
-				Foldable<?> result;
-				if (VectorCats.class.isAssignableFrom(v.getValue().getClass())) {
-					VectorCats baseResult = (VectorCats) resultMap.get(v.getKey());
-					VectorCats currentResult = (VectorCats) v.getValue();
-					if (baseResult == null)
-						result = currentResult;
-					else
-						result = baseResult.fold(currentResult);
-				} else if (Ledger.class.isAssignableFrom(v.getValue().getClass())) {
-					Ledger baseResult = (Ledger) resultMap.get(v.getKey());
-					Ledger currentResult = (Ledger) v.getValue();
-					if (baseResult == null)
-						result = currentResult;
-					else
-						result = baseResult.fold(currentResult);
-				} else {
-					log.warning("Ignorning unrecognised query result {}",
-							v.getValue().getClass());
-					continue;
-				}
-				resultMap.put(v.getKey(), result);
-			}
-		}
-
+	/**
+	 * Store folded results in the database. This runs on the executor.
+	 */
+	private void saveResults(WorkInfo currentWorkInfo,
+			Map<String, Foldable<?>> resultMap) {
 		for (String key : resultMap.keySet()) {
 			// The key is the name of the filter that generated the data
 			Foldable<?> value = resultMap.get(key);
@@ -188,27 +339,6 @@ public class DatabaseActor extends UntypedActor {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	public HashMap<String, Foldable<?>> DeserializeResult(String jobProgressId, String result) {
-		HashMap<String, Foldable<?>> value = null;
-		Path fileName = getOutputPath(jobProgressId, result);
-		try {
-			FileInputStream fileIn = new FileInputStream(fileName.toString());
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-			value = (HashMap<String, Foldable<?>>) in.readObject();
-			in.close();
-			fileIn.close();
-		}catch(IOException i) {
-			i.printStackTrace();
-			return null;
-		}catch(ClassNotFoundException c) {
-			System.out.println("Employee class not found");
-			c.printStackTrace();
-			return null;
-		}
-		return value;
-	}
-
 	public Path getOutputPath(String jobProgressId, String result) {
 		Path outputDir = Paths.get(ndgConfigManager.getConfig()
 		.getDefaultPickupLocation() + "/" + jobProgressId + "/temp/" + result);
@@ -31,6 +31,8 @@ import java.util.concurrent.TimeUnit;
 import org.apache.commons.net.util.*;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.vpac.ndg.configuration.NdgConfig;
+import org.vpac.ndg.configuration.NdgConfigManager;
 import org.vpac.ndg.query.io.DatasetProvider;
 import org.vpac.ndg.query.io.ProviderRegistry;
 import scala.concurrent.Await;
@@ -149,11 +151,25 @@ public class Main {
 	}
 
 	public void startWorker() {
+		ApplicationContext appContext = AppContextSingleton.INSTANCE.appContext;
+		NdgConfig config = ((NdgConfigManager) appContext
+				.getBean("ndgConfigManager")).getConfig();
+		int slots = Math.max(1, config.getWorkerSlots());
+		int threads = Math.max(1, config.getWorkerQueryThreads());
+
 		ActorSystem system = createSystem("worker");
 	    ActorRef clusterClient = system.actorOf(
 	        ClusterClient.props(ClusterClientSettings.create(system)),
 	        "clusterClient");
-	    system.actorOf(Worker.props(clusterClient, Props.create(WorkExecutor.class)), "worker");
+		// Each slot registers with the master as a separate worker, so the
+		// master can give it work independently. The slots share this JVM's
+		// application context and dataset providers.
+		Props executorProps = Props.create(WorkExecutor.class)
+				.withDispatcher("work-executor-dispatcher");
+		for (int i = 0; i < slots; i++) {
+			system.actorOf(Worker.props(clusterClient, executorProps, threads),
+					"worker-" + i);
+		}
 	}
 
 	public ActorSystem createSystem(String role) {
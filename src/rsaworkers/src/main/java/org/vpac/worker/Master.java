@@ -26,6 +26,7 @@ import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,12 +34,15 @@ import java.util.Map.Entry;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.vpac.ndg.common.datamodel.CellSize;
 import org.vpac.ndg.common.datamodel.TaskState;
 import org.vpac.ndg.query.filter.Foldable;
+import org.vpac.ndg.query.math.BoxReal;
+import org.vpac.ndg.query.math.VectorReal;
 import org.vpac.ndg.query.stats.VectorCats;
 import org.vpac.ndg.query.stats.Ledger;
 import org.vpac.worker.Job.Work;
@@ -46,10 +50,13 @@ import org.vpac.worker.Job.WorkInfo;
 import org.vpac.worker.master.WorkResult;
 import org.vpac.worker.master.Ack;
 import org.vpac.worker.MasterDatabaseProtocol.JobUpdate;
+import org.vpac.worker.MasterDatabaseProtocol.Accumulate;
+import org.vpac.worker.MasterDatabaseProtocol.DropStream;
 import org.vpac.worker.MasterDatabaseProtocol.Fold;
 import org.vpac.worker.MasterWorkerProtocol.*;
 import scala.Option;
 import scala.concurrent.duration.Deadline;
+import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
 public class Master extends UntypedActor {
@@ -69,6 +76,14 @@ public class Master extends UntypedActor {
 	private Queue<Work> pendingWork = new LinkedList<Work>();
 	private Set<String> workIds = new LinkedHashSet<String>();
 	private Map<String, WorkInfo> workProgress = new HashMap<String, WorkInfo>();
+	// The work of each job, with running totals of its progress. Jobs are
+	// removed when they finish or fail; pending work of removed jobs is
+	// skipped when it reaches the front of the queue.
+	private Map<String, JobStatus> jobs = new HashMap<String, JobStatus>();
+	private final Cancellable progressTask;
+	// The last work given to each worker, for locality.
+	private Map<String, Work> lastWork = new HashMap<String, Work>();
+	private Map<String, WorkerStats> workerStats = new HashMap<String, WorkerStats>();
 	Cluster cluster = Cluster.get(getContext().system());
 
 	public Master(FiniteDuration workTimeout) {
@@ -80,6 +95,11 @@ public class Master extends UntypedActor {
 				.scheduler()
 				.schedule(workTimeout.div(2), workTimeout.div(2), getSelf(),
 						CleanupTick, getContext().dispatcher(), getSelf());
+		this.progressTask = getContext()
+				.system()
+				.scheduler()
+				.schedule(PROGRESS_INTERVAL, PROGRESS_INTERVAL, getSelf(),
+						ProgressTick, getContext().dispatcher(), getSelf());
 	}
 
 	@Override
@@ -91,6 +111,7 @@ public class Master extends UntypedActor {
 	@Override
 	public void postStop() {
 		cleanupTask.cancel();
+		progressTask.cancel();
 	}
 
 	@Override
@@ -107,6 +128,7 @@ public class Master extends UntypedActor {
 
 			RegisterWorker msg = (RegisterWorker) message;
 			String workerId = msg.workerId;
+			getWorkerStats(workerId).setCapacity(msg.capacity);
 			if (workers.containsKey(workerId)) {
 				workers.put(workerId,
 						workers.get(workerId).copyWithRef(getSender()));
@@ -122,11 +144,14 @@ public class Master extends UntypedActor {
 			String workerId = msg.workerId;
 			if (!pendingWork.isEmpty()) {
 				WorkerState state = workers.get(workerId);
-				if (state != null && state.status.isIdle()) {
-					Work work = pendingWork.remove();
+				Work work = null;
+				if (state != null && state.status.isIdle())
+					work = nextPendingWork(workerId);
+				if (work != null) {
 					log.debug("Giving worker {} some work {}", workerId, "");
 					// TODO store in Eventsourced
 					getSender().tell(work, getSelf());
+					lastWork.put(workerId, work);
 					workers.put(workerId, state.copyWithStatus(new Busy(work,
 							workTimeout.fromNow())));
 				}
@@ -145,27 +170,24 @@ public class Master extends UntypedActor {
 				acknowledgeWorkCompletion(msg, workerId, workId);
 				return;
 			}
-			currentWorkInfo.result = msg.result;
-			workProgress.put(workId, currentWorkInfo);
-
-			double totalArea = 0;
-			double completedArea = 0;
-			int completedWork = 0;
-			List<WorkInfo> allTaskWorks = getAllTaskWork(currentWorkInfo.work.jobProgressId);
-			int totalNoOfWork = allTaskWorks.size();
-			for (WorkInfo w : allTaskWorks) {
-				if (w.result != null) {
-					completedArea += w.processedArea;
-					completedWork++;
-				}
-				totalArea += w.area;
+			if (msg.result instanceof StreamedResult
+					&& !isAssigned(workerId, workId)) {
+				// The work was requeued after this attempt failed or timed
+				// out, so the chunks it sent have been dropped.
+				log.info("Discarding streamed result of work {} from worker"
+						+ " {}: the work has been requeued", workId, workerId);
+				acknowledgeWorkCompletion(msg, workerId, workId);
+				return;
 			}
+			JobStatus job = jobs.get(currentWorkInfo.work.jobProgressId);
+			if (currentWorkInfo.result == null)
+				job.completed++;
+			currentWorkInfo.result = msg.result;
+			accumulate(job, currentWorkInfo);
 
-			if (totalNoOfWork == completedWork) {
-				//foldResults(currentWorkInfo);
-				fold(currentWorkInfo);
-				updateTaskProgress(currentWorkInfo.work.jobProgressId,
-						completedArea, totalArea, TaskState.FINISHED, null);
+			if (job.isComplete()) {
+				fold(job, currentWorkInfo);
+				sendTaskUpdate(job, TaskState.FINISHED, null);
 				removeWork(currentWorkInfo.work.jobProgressId);
 			}
 
@@ -178,11 +200,26 @@ public class Master extends UntypedActor {
 			if (state != null && state.status.isBusy()
 					&& state.status.getWork().workId.equals(workId)) {
 				log.info("Work failed: {}", state.status.getWork());
+				workFailed(workerId, state.status);
 				// TODO store in Eventsourced
 				workers.put(workerId, state.copyWithStatus(Idle.instance));
+				dropStream(workId, workerId);
 				pendingWork.add(state.status.getWork());
 				notifyWorkers();
 			}
+		} else if (message instanceof ResultChunk) {
+			ResultChunk chunk = (ResultChunk) message;
+			if (workProgress.containsKey(chunk.workId)) {
+				// The database actor acknowledges the chunk directly, so the
+				// worker can't send faster than the results are stored.
+				ActorSelection database = getContext().system().actorSelection(
+						"akka://Workers/user/database");
+				database.tell(chunk, getSender());
+			} else {
+				// The job has failed or already finished.
+				getSender().tell(new ResultChunkAck(chunk.workId, chunk.seq),
+						getSelf());
+			}
 		} else if (message instanceof ProgressCheckPoint) {
 			ProgressCheckPoint check = (ProgressCheckPoint) message;
 			WorkInfo work = workProgress.get(check.workId);
@@ -192,17 +229,10 @@ public class Master extends UntypedActor {
 						+ " probably failed on another worker.");
 				return;
 			}
-			work.processedArea = work.area * check.progress.getFraction();
-			String taskId = work.work.jobProgressId;
-			List<WorkInfo> allTaskWork = getAllTaskWork(taskId);
-			double totalArea = 0;
-			double completedArea = 0;
-			for (WorkInfo wi : allTaskWork) {
-				totalArea += wi.area;
-				completedArea += wi.processedArea;
-			}
-			updateTaskProgress(taskId, completedArea, totalArea,
-					TaskState.RUNNING, null);
+			JobStatus job = jobs.get(work.work.jobProgressId);
+			job.setProcessedArea(work,
+					work.area * check.progress.getFraction());
+			updateTaskProgress(job);
 		} else if (message instanceof Work) {
 			Work work = (Work) message;
 			// idempotent
@@ -215,22 +245,43 @@ public class Master extends UntypedActor {
 				workIds.add(work.workId);
 				WorkInfo workInfo = new WorkInfo(work, null);
 				workProgress.put(work.workId, workInfo);
+				JobStatus job = jobs.get(work.jobProgressId);
+				if (job == null) {
+					job = new JobStatus(work.jobProgressId);
+					jobs.put(work.jobProgressId, job);
+				}
+				job.add(workInfo);
 				getSender().tell(new Ack(work.workId), getSelf());
 				notifyWorkers();
 			}
 		} else if (message instanceof Job.Error) {
 			Job.Error error = (Job.Error) message;
-			updateTaskProgress(error.work.jobProgressId,
-					0, 0, TaskState.EXECUTION_ERROR, error.exception.getMessage());
-			removeWork(error.work.jobProgressId);
+			JobStatus job = jobs.get(error.work.jobProgressId);
+			if (job != null) {
+				sendTaskUpdate(job, TaskState.EXECUTION_ERROR,
+						error.exception.getMessage());
+				removeWork(error.work.jobProgressId);
+			}
 
 			// On error, the worker transitions to its idle state - so update
 			// the local copy of that state.
 			WorkerState state = workers.get(error.workerId);
 			if (state != null && state.status.isBusy()) {
+				workFailed(error.workerId, state.status);
 				workers.put(error.workerId, state.copyWithStatus(Idle.instance));
 			}
 			System.out.println("Error:" + error.exception.getMessage());
+		} else if (message == ProgressTick) {
+			// Send updates that were held back by the rate limit.
+			for (JobStatus job : jobs.values()) {
+				if (job.dirty)
+					sendTaskUpdate(job, TaskState.RUNNING, null);
+			}
+		} else if (message instanceof GetWorkerStats) {
+			Map<String, WorkerStats> stats = new HashMap<String, WorkerStats>();
+			for (Entry<String, WorkerStats> entry : workerStats.entrySet())
+				stats.put(entry.getKey(), new WorkerStats(entry.getValue()));
+			getSender().tell(new WorkerStatsReport(stats), getSelf());
 		} else if (message == CleanupTick) {
 			Iterator<Map.Entry<String, WorkerState>> iterator = workers
 					.entrySet().iterator();
@@ -241,8 +292,11 @@ public class Master extends UntypedActor {
 					if (state.status.getDeadLine().isOverdue()) {
 						Work work = state.status.getWork();
 						log.info("Work timed out: {}", work);
+						workFailed(entry.getKey(), state.status);
 						// TODO store in Eventsourced
 						iterator.remove();
+						lastWork.remove(entry.getKey());
+						dropStream(work.workId, entry.getKey());
 						pendingWork.add(work);
 						notifyWorkers();
 					}
@@ -266,6 +320,10 @@ public class Master extends UntypedActor {
 					workerId);
 			System.out.println("Work is done: " + work + " => " + result
 					+ " by worker " + workerId);
+			WorkerStats stats = getWorkerStats(workerId);
+			stats.workCompleted(area(work.bound),
+					System.nanoTime() - state.status.getStartTime());
+			log.debug("Worker {}: {}", workerId, stats);
 			// TODO store in Eventsourced
 			workers.put(workerId, state.copyWithStatus(Idle.instance));
 			mediator.tell(new DistributedPubSubMediator.Publish(
@@ -280,55 +338,156 @@ public class Master extends UntypedActor {
 		}
 	}
 
-	private void updateTaskProgress(String taskId, double completedArea,
-			double totalArea, TaskState state, String errorMessage) {
+	/**
+	 * Report the progress of a running job. Updates are sent at most once per
+	 * {@link #PROGRESS_INTERVAL}; if one is held back, it will be sent on the
+	 * next {@link #ProgressTick}.
+	 */
+	private void updateTaskProgress(JobStatus job) {
+		if (job.nextUpdate.hasTimeLeft()) {
+			job.dirty = true;
+			return;
+		}
+		sendTaskUpdate(job, TaskState.RUNNING, null);
+	}
+
+	private void sendTaskUpdate(JobStatus job, TaskState state,
+			String errorMessage) {
 		ActorSelection database = getContext().system().actorSelection(
 				"akka://Workers/user/database");
-		double fraction = completedArea / totalArea;
-		JobUpdate update = new JobUpdate(taskId, fraction, state, errorMessage);
+		JobUpdate update = new JobUpdate(job.jobId, job.getFraction(), state,
+				errorMessage);
 		database.tell(update, getSelf());
+		job.dirty = false;
+		job.nextUpdate = PROGRESS_INTERVAL.fromNow();
 	}
 
-	private List<WorkInfo> getAllTaskWork(String taskId) {
-		List<WorkInfo> list = new ArrayList<>();
-		for (WorkInfo wi : workProgress.values()) {
-			if (wi.work.jobProgressId.equals(taskId))
-				list.add(wi);
+	/**
+	 * Choose the next piece of work for a worker. The first few pieces in the
+	 * queue are considered; of those, the one from the same job that is
+	 * closest to the worker's previous work is chosen, because that worker is
+	 * likely to have the neighbouring data in its caches. Otherwise the work
+	 * is handed out in order.
+	 *
+	 * @return The next piece of work to hand out, or null if there is none.
+	 *         Work of jobs that have been removed is discarded.
+	 */
+	private Work nextPendingWork(String workerId) {
+		Work last = lastWork.get(workerId);
+		Work best = null;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		int n = 0;
+		Iterator<Work> iterator = pendingWork.iterator();
+		while (iterator.hasNext() && n < LOCALITY_WINDOW) {
+			Work work = iterator.next();
+			if (!jobs.containsKey(work.jobProgressId)) {
+				iterator.remove();
+				continue;
+			}
+			n++;
+			if (last == null) {
+				best = work;
+				break;
+			}
+			double distance;
+			if (work.jobProgressId.equals(last.jobProgressId))
+				distance = distance(last.bound, work.bound);
+			else
+				distance = Double.MAX_VALUE;
+			if (distance < bestDistance) {
+				best = work;
+				bestDistance = distance;
+			}
 		}
-		return list;
+		if (best != null)
+			pendingWork.remove(best);
+		return best;
+	}
+
+	private static double distance(BoxReal a, BoxReal b) {
+		double dx = (a.getMin().getX() + a.getMax().getX())
+				- (b.getMin().getX() + b.getMax().getX());
+		double dy = (a.getMin().getY() + a.getMax().getY())
+				- (b.getMin().getY() + b.getMax().getY());
+		return Math.hypot(dx, dy) / 2;
+	}
+
+	private static double area(BoxReal bound) {
+		VectorReal size = bound.getMax().subNew(bound.getMin());
+		return size.get(0) * size.get(1);
+	}
+
+	private WorkerStats getWorkerStats(String workerId) {
+		WorkerStats stats = workerStats.get(workerId);
+		if (stats == null) {
+			stats = new WorkerStats();
+			workerStats.put(workerId, stats);
+		}
+		return stats;
+	}
+
+	private void workFailed(String workerId, WorkerStatus status) {
+		getWorkerStats(workerId).workFailed(
+				System.nanoTime() - status.getStartTime());
+	}
+
+	/**
+	 * Let the database actor start reading a result while the rest of the job
+	 * is running.
+	 */
+	private void accumulate(JobStatus job, WorkInfo workInfo) {
+		ActorSelection database = getContext().system().actorSelection(
+					"akka://Workers/user/database");
+		Accumulate msg = new Accumulate(workInfo.work.jobProgressId,
+				workInfo.work.workId, job.indexOf(workInfo.work.workId),
+				workInfo.result);
+		database.tell(msg, getSelf());
+	}
+
+	/**
+	 * Discard the chunks that a worker has streamed for some work, because
+	 * the work has been requeued.
+	 */
+	private void dropStream(String workId, String workerId) {
+		ActorSelection database = getContext().system().actorSelection(
+					"akka://Workers/user/database");
+		database.tell(new DropStream(workId, workerId), getSelf());
+	}
+
+	/**
+	 * @return true if the worker is currently assigned the work.
+	 */
+	private boolean isAssigned(String workerId, String workId) {
+		WorkerState state = workers.get(workerId);
+		return state != null && state.status.isBusy()
+				&& state.status.getWork().workId.equals(workId);
 	}
 
-	@SuppressWarnings("unchecked")
-	private void fold(WorkInfo currentWorkInfo) {
+	private void fold(JobStatus job, WorkInfo currentWorkInfo) {
 		ActorSelection database = getContext().system().actorSelection(
 					"akka://Workers/user/database");
-		List<WorkInfo> list = getAllTaskWork(currentWorkInfo.work.jobProgressId);
-		List<String> results = new ArrayList<>();
-		for (WorkInfo w : list) {
-			results.add(w.result.toString());
+		// The job's work is kept in the order it was submitted, so the
+		// results are folded in that order.
+		List<String> ids = new ArrayList<>();
+		List<Object> results = new ArrayList<>();
+		for (WorkInfo w : job.work.values()) {
+			ids.add(w.work.workId);
+			results.add(w.result);
 		}
 
-		Fold msg = new Fold(results, currentWorkInfo);
+		Fold msg = new Fold(ids, results, currentWorkInfo);
 		database.tell(msg, getSelf());
 	}
 
 	private void removeWork(String jobProgressId) {
 		// Remove jobs that are currently being worked on. This allows Master
-		// to ignore future WorkCompleted messages for this job.
-		Iterator<Entry<String, WorkInfo>> iter = workProgress.entrySet()
-				.iterator();
-		while (iter.hasNext()) {
-			Entry<String, WorkInfo> entry = iter.next();
-			if (entry.getValue().work.jobProgressId.equals(jobProgressId))
-				iter.remove();
-		}
-		// Remove jobs that haven't started yet.
-		Iterator<Work> iter2 = pendingWork.iterator();
-		while (iter2.hasNext()) {
-			Work work = iter2.next();
-			if (work.jobProgressId.equals(jobProgressId))
-				iter2.remove();
-		}
+		// to ignore future WorkCompleted messages for this job. Work that
+		// hasn't started yet is skipped by nextPendingWork.
+		JobStatus job = jobs.remove(jobProgressId);
+		if (job == null)
+			return;
+		for (String workId : job.work.keySet())
+			workProgress.remove(workId);
 	}
 
 	private void notifyWorkers() {
@@ -351,6 +510,8 @@ public class Master extends UntypedActor {
 		protected abstract Work getWork();
 
 		protected abstract Deadline getDeadLine();
+
+		protected abstract long getStartTime();
 	}
 
 	private static final class Idle extends WorkerStatus {
@@ -375,6 +536,11 @@ public class Master extends UntypedActor {
 			throw new IllegalAccessError();
 		}
 
+		@Override
+		protected long getStartTime() {
+			throw new IllegalAccessError();
+		}
+
 		@Override
 		public String toString() {
 			return "Idle";
@@ -384,10 +550,12 @@ public class Master extends UntypedActor {
 	private static final class Busy extends WorkerStatus {
 		private final Work work;
 		private final Deadline deadline;
+		private final long startTime;
 
 		private Busy(Work work, Deadline deadline) {
 			this.work = work;
 			this.deadline = deadline;
+			this.startTime = System.nanoTime();
 		}
 
 		@Override
@@ -405,6 +573,11 @@ public class Master extends UntypedActor {
 			return deadline;
 		}
 
+		@Override
+		protected long getStartTime() {
+			return startTime;
+		}
+
 		@Override
 		public String toString() {
 			return "Busy{" + "work=" + work + ", deadline=" + deadline + '}';
@@ -415,6 +588,56 @@ public class Master extends UntypedActor {
 
 
 
+	/**
+	 * The work of one job, and its progress. The totals are kept up to date
+	 * as the work progresses, so they don't need to be recalculated for each
+	 * message.
+	 */
+	private static final class JobStatus {
+		final String jobId;
+		// In the order that the work was submitted.
+		final Map<String, WorkInfo> work = new LinkedHashMap<String, WorkInfo>();
+		// The position of each piece of work in the submission order.
+		final Map<String, Integer> positions = new HashMap<String, Integer>();
+		double totalArea = 0;
+		double processedArea = 0;
+		int completed = 0;
+		// Whether an update was held back by the rate limit.
+		boolean dirty = false;
+		Deadline nextUpdate = Deadline.now();
+
+		JobStatus(String jobId) {
+			this.jobId = jobId;
+		}
+
+		void add(WorkInfo wi) {
+			if (!positions.containsKey(wi.work.workId))
+				positions.put(wi.work.workId, positions.size());
+			work.put(wi.work.workId, wi);
+			totalArea += wi.area;
+			processedArea += wi.processedArea;
+		}
+
+		void setProcessedArea(WorkInfo wi, double area) {
+			processedArea += area - wi.processedArea;
+			wi.processedArea = area;
+		}
+
+		int indexOf(String workId) {
+			return positions.get(workId);
+		}
+
+		boolean isComplete() {
+			return completed == work.size();
+		}
+
+		double getFraction() {
+			if (totalArea == 0)
+				return 0;
+			return processedArea / totalArea;
+		}
+	}
+
 	private static final class WorkerState {
 		public final ActorRef ref;
 		public final WorkerStatus status;
@@ -462,6 +685,25 @@ public class Master extends UntypedActor {
 		}
 	}
 
+	/**
+	 * The number of queued pieces of work to consider when choosing work for
+	 * a worker.
+	 */
+	private static final int LOCALITY_WINDOW = 16;
+
+	/**
+	 * The minimum time between progress updates for each job.
+	 */
+	private static final FiniteDuration PROGRESS_INTERVAL =
+			Duration.create(1, TimeUnit.SECONDS);
+
+	private static final Object ProgressTick = new Object() {
+		@Override
+		public String toString() {
+			return "ProgressTick";
+		}
+	};
+
 	private static final Object CleanupTick = new Object() {
 		@Override
 		public String toString() {
@@ -32,13 +32,71 @@ public abstract class MasterDatabaseProtocol {
 		}
 	}
 
-	public static final class Fold implements Serializable {
+	/**
+	 * Sent when a piece of work has finished, so that its result can be read
+	 * while the rest of the job is running.
+	 */
+	public static final class Accumulate implements Serializable {
+		private static final long serialVersionUID = 2L;
+		public final String jobId;
+		public final String workId;
+		/** The position of the work in the order it was submitted */
+		public final int index;
+		/**
+		 * The name of the file that holds the result, or a
+		 * {@link MasterWorkerProtocol.StreamedResult}.
+		 */
+		public final Object result;
+
+		public Accumulate(String jobId, String workId, int index,
+				Object result) {
+			this.jobId = jobId;
+			this.workId = workId;
+			this.index = index;
+			this.result = result;
+		}
+
+		@Override
+		public String toString() {
+			return "Accumulate{" + "jobId=" + jobId + ",workId=" + workId
+					+ ",index=" + index
+					+ ",result=" + result + '}';
+		}
+	}
+
+	/**
+	 * Sent when a piece of work is requeued, so that the chunks the failed
+	 * attempt has streamed are discarded.
+	 */
+	public static final class DropStream implements Serializable {
 		private static final long serialVersionUID = 1L;
+		public final String workId;
+		public final String workerId;
+
+		public DropStream(String workId, String workerId) {
+			this.workId = workId;
+			this.workerId = workerId;
+		}
+
+		@Override
+		public String toString() {
+			return "DropStream{" + "workId=" + workId + ",workerId="
+					+ workerId + '}';
+		}
+	}
+
+	public static final class Fold implements Serializable {
+		private static final long serialVersionUID = 3L;
 		/** The name of the filter that generated the data */
 		public WorkInfo currentWorkInfo;
-		public final List<String> list;
+		/** The IDs of all the work of the job, in the order it was submitted */
+		public final List<String> workIds;
+		/** The results, in the same order as the work IDs */
+		public final List<Object> list;
 
-		public Fold(List<String> list, WorkInfo currentWorkInfo) {
+		public Fold(List<String> workIds, List<Object> list,
+				WorkInfo currentWorkInfo) {
+			this.workIds = workIds;
 			this.list = list;
 			this.currentWorkInfo = currentWorkInfo;
 		}
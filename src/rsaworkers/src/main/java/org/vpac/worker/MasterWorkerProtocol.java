@@ -1,6 +1,7 @@
 package org.vpac.worker;
 
 import java.io.Serializable;
+import java.util.Map;
 
 public abstract class MasterWorkerProtocol {
 
@@ -8,15 +9,23 @@ public abstract class MasterWorkerProtocol {
 
   public static final class RegisterWorker implements Serializable {
     public final String workerId;
+    // The number of threads the worker uses for each piece of work.
+    public final int capacity;
 
     public RegisterWorker(String workerId) {
+      this(workerId, 1);
+    }
+
+    public RegisterWorker(String workerId, int capacity) {
       this.workerId = workerId;
+      this.capacity = capacity;
     }
 
     @Override
     public String toString() {
       return "RegisterWorker{" +
         "workerId='" + workerId + '\'' +
+        ", capacity=" + capacity +
         '}';
     }
   }
@@ -75,8 +84,92 @@ public abstract class MasterWorkerProtocol {
     }
   }
 
+  /**
+   * Part of the encoded result of a piece of work. Chunks are forwarded to
+   * the database actor, which acknowledges each one with a
+   * {@link ResultChunkAck}.
+   */
+  public static final class ResultChunk implements Serializable {
+    private static final long serialVersionUID = 2L;
+    public final String jobId;
+    public final String workId;
+    /** The worker that is sending the result */
+    public final String workerId;
+    public final int seq;
+    public final int total;
+    public final byte[] data;
+
+    public ResultChunk(String jobId, String workId, String workerId, int seq,
+        int total, byte[] data) {
+      this.jobId = jobId;
+      this.workId = workId;
+      this.workerId = workerId;
+      this.seq = seq;
+      this.total = total;
+      this.data = data;
+    }
+
+    @Override
+    public String toString() {
+      return "ResultChunk{" +
+        "workId='" + workId + '\'' +
+        ", workerId='" + workerId + '\'' +
+        ", seq=" + seq +
+        ", total=" + total +
+        ", size=" + (data == null ? -1 : data.length) +
+        '}';
+    }
+  }
+
+  /**
+   * The result of a piece of work that was sent as {@link ResultChunk}s. Sent
+   * as the result of {@link WorkIsDone} once all chunks have been
+   * acknowledged.
+   */
+  public static final class StreamedResult implements Serializable {
+    private static final long serialVersionUID = 2L;
+    /** The worker that sent the chunks */
+    public final String workerId;
+    public final int chunks;
+    public final long size;
+
+    public StreamedResult(String workerId, int chunks, long size) {
+      this.workerId = workerId;
+      this.chunks = chunks;
+      this.size = size;
+    }
+
+    @Override
+    public String toString() {
+      return "StreamedResult{" +
+        "workerId='" + workerId + '\'' +
+        ", chunks=" + chunks +
+        ", size=" + size +
+        '}';
+    }
+  }
+
   // Messages to Workers
 
+  public static final class ResultChunkAck implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public final String workId;
+    public final int seq;
+
+    public ResultChunkAck(String workId, int seq) {
+      this.workId = workId;
+      this.seq = seq;
+    }
+
+    @Override
+    public String toString() {
+      return "ResultChunkAck{" +
+        "workId='" + workId + '\'' +
+        ", seq=" + seq +
+        '}';
+    }
+  }
+
   public static final class WorkIsReady implements Serializable {
     private static final WorkIsReady instance = new WorkIsReady();
     public static WorkIsReady getInstance() {
@@ -113,4 +206,33 @@ public abstract class MasterWorkerProtocol {
 		}
 	}
 
+	// Messages from/to monitors
+
+	/**
+	 * Ask the master for the throughput of each worker. The master replies
+	 * with a {@link WorkerStatsReport}.
+	 */
+	public static final class GetWorkerStats implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private static final GetWorkerStats instance = new GetWorkerStats();
+
+		public static GetWorkerStats getInstance() {
+			return instance;
+		}
+	}
+
+	public static final class WorkerStatsReport implements Serializable {
+		private static final long serialVersionUID = 1L;
+		public final Map<String, WorkerStats> stats;
+
+		public WorkerStatsReport(Map<String, WorkerStats> stats) {
+			this.stats = stats;
+		}
+
+		@Override
+		public String toString() {
+			return "WorkerStatsReport{" + "stats=" + stats + "}";
+		}
+	}
+
 }
\ No newline at end of file
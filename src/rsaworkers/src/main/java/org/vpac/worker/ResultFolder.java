@@ -0,0 +1,270 @@
+package org.vpac.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.query.filter.Foldable;
+import org.vpac.ndg.query.stats.Ledger;
+import org.vpac.ndg.query.stats.StatsCodec;
+import org.vpac.ndg.query.stats.VectorCats;
+
+/**
+ * Combines the results of the pieces of work of one job.
+ *
+ * <p>
+ * Results are folded as a balanced tree while the rest of the job is still
+ * running. Each piece of work is a leaf, identified by its position in the
+ * order the work was submitted. When both halves of an aligned block of
+ * leaves (positions 0-1, 2-3, 0-3, ...) have been added, they are folded on
+ * the executor and only the folded result is kept. So only the unfolded
+ * frontier stays resident: a few blocks for each gap in the completed work.
+ * When the job is finished, {@link #fold(List)} combines the remaining
+ * blocks in order. Results are only ever combined with their neighbours, so
+ * the outcome is the same as folding them sequentially in the given order
+ * (up to floating point rounding).
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe; it should only be used from the actor that
+ * owns it. The tasks that it submits only wait for tasks that were submitted
+ * before them, so they can share a fixed-size thread pool without
+ * deadlocking.
+ * </p>
+ */
+public class ResultFolder {
+
+	private static final Logger log = LoggerFactory.getLogger(ResultFolder.class);
+
+	private ExecutorService executor;
+	// The position of each piece of work that has been added.
+	private Map<String, Integer> positions;
+	// Folded blocks, by level: the block at level k with index j covers
+	// positions [j * 2^k, (j + 1) * 2^k).
+	private List<Map<Integer, Future<Map<String, Foldable<?>>>>> levels;
+
+	public ResultFolder(ExecutorService executor) {
+		this.executor = executor;
+		positions = new HashMap<>();
+		levels = new ArrayList<>();
+	}
+
+	/**
+	 * Start reading the result of one piece of work. If a result has already
+	 * been added for this work (e.g. because a worker's acknowledgement was
+	 * lost and it reported the same work twice), this does nothing.
+	 *
+	 * @param index The position of the work in the order it was submitted.
+	 */
+	public void add(String workId, int index, final Path file) {
+		if (positions.containsKey(workId))
+			return;
+		insert(workId, index, executor.submit(
+				new Callable<Map<String, Foldable<?>>>() {
+			@Override
+			public Map<String, Foldable<?>> call() throws Exception {
+				return read(file);
+			}
+		}));
+	}
+
+	/**
+	 * Start decoding the result of one piece of work that was sent as a
+	 * message. Like {@link #add(String, int, Path)}, this does nothing if the
+	 * result has already been added.
+	 */
+	public void add(String workId, int index, final byte[] data) {
+		if (positions.containsKey(workId))
+			return;
+		insert(workId, index, executor.submit(
+				new Callable<Map<String, Foldable<?>>>() {
+			@Override
+			public Map<String, Foldable<?>> call() throws Exception {
+				return read(new ByteArrayInputStream(data));
+			}
+		}));
+	}
+
+	/**
+	 * Add a leaf to the tree, and fold it into its neighbours for as long as
+	 * they complete a block.
+	 */
+	private void insert(String workId, int index,
+			Future<Map<String, Foldable<?>>> result) {
+		positions.put(workId, index);
+
+		int j = index;
+		for (int level = 0;; level++) {
+			if (levels.size() == level) {
+				levels.add(new HashMap<Integer,
+						Future<Map<String, Foldable<?>>>>());
+			}
+			Map<Integer, Future<Map<String, Foldable<?>>>> blocks =
+					levels.get(level);
+			Future<Map<String, Foldable<?>>> sibling = blocks.remove(j ^ 1);
+			if (sibling == null) {
+				blocks.put(j, result);
+				return;
+			}
+			if ((j & 1) == 0)
+				result = combine(result, sibling);
+			else
+				result = combine(sibling, result);
+			j >>= 1;
+		}
+	}
+
+	private Future<Map<String, Foldable<?>>> combine(
+			final Future<Map<String, Foldable<?>>> a,
+			final Future<Map<String, Foldable<?>>> b) {
+		return executor.submit(new Callable<Map<String, Foldable<?>>>() {
+			@Override
+			public Map<String, Foldable<?>> call() throws Exception {
+				return fold(get(a), get(b));
+			}
+		});
+	}
+
+	/**
+	 * @return true if a result has been added for the given work.
+	 */
+	public boolean contains(String workId) {
+		return positions.containsKey(workId);
+	}
+
+	/**
+	 * Combine the results. All pieces of work must have been added first.
+	 *
+	 * @param workIds The order in which to combine the results. This must be
+	 *            the order that the positions were given in.
+	 * @return The combined result: a map from filter name to output.
+	 */
+	public Future<Map<String, Foldable<?>>> fold(List<String> workIds) {
+		for (int i = 0; i < workIds.size(); i++) {
+			Integer index = positions.get(workIds.get(i));
+			if (index == null) {
+				throw new IllegalStateException(String.format(
+					"No result has been added for work %s", workIds.get(i)));
+			}
+			if (index != i) {
+				throw new IllegalStateException(String.format(
+					"Result of work %s was added at position %d, not %d",
+					workIds.get(i), index, i));
+			}
+		}
+		if (positions.size() != workIds.size()) {
+			throw new IllegalStateException(String.format(
+				"Expected %d results, but %d were added", workIds.size(),
+				positions.size()));
+		}
+
+		// What's left is one block for each bit of the number of results,
+		// largest first.
+		List<Future<Map<String, Foldable<?>>>> level = new ArrayList<>();
+		for (int k = levels.size() - 1; k >= 0; k--) {
+			Map<Integer, Future<Map<String, Foldable<?>>>> blocks =
+					levels.get(k);
+			for (Future<Map<String, Foldable<?>>> block : blocks.values())
+				level.add(block);
+			blocks.clear();
+		}
+
+		if (level.size() == 0) {
+			return executor.submit(new Callable<Map<String, Foldable<?>>>() {
+				@Override
+				public Map<String, Foldable<?>> call() throws Exception {
+					return new HashMap<String, Foldable<?>>();
+				}
+			});
+		}
+
+		Future<Map<String, Foldable<?>>> result = level.get(0);
+		for (int i = 1; i < level.size(); i++)
+			result = combine(result, level.get(i));
+		return result;
+	}
+
+	/**
+	 * Stop reading results, e.g. because the job failed.
+	 */
+	public void cancel() {
+		for (Map<Integer, Future<Map<String, Foldable<?>>>> blocks : levels) {
+			for (Future<?> result : blocks.values())
+				result.cancel(false);
+			blocks.clear();
+		}
+		positions.clear();
+	}
+
+	private static Map<String, Foldable<?>> get(
+			Future<Map<String, Foldable<?>>> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Combine two sets of results. Neither argument is modified.
+	 * @return A new map containing the folded results.
+	 */
+	static Map<String, Foldable<?>> fold(Map<String, Foldable<?>> a,
+			Map<String, Foldable<?>> b) {
+		Map<String, Foldable<?>> res = new HashMap<>(a);
+		for (Entry<String, Foldable<?>> v : b.entrySet()) {
+			Foldable<?> base = res.get(v.getKey());
+			Foldable<?> current = v.getValue();
+			Foldable<?> result;
+			if (current instanceof VectorCats) {
+				if (base == null)
+					result = current;
+				else
+					result = ((VectorCats) base).fold((VectorCats) current);
+			} else if (current instanceof Ledger) {
+				if (base == null)
+					result = current;
+				else
+					result = ((Ledger) base).fold((Ledger) current);
+			} else {
+				log.warn("Ignoring unrecognised query result {}",
+						current.getClass());
+				continue;
+			}
+			res.put(v.getKey(), result);
+		}
+		return res;
+	}
+
+	static Map<String, Foldable<?>> read(Path file) throws IOException {
+		try (InputStream in = new FileInputStream(file.toFile())) {
+			return read(in);
+		} catch (IOException e) {
+			throw new IOException(String.format(
+				"Could not read result %s", file), e);
+		}
+	}
+
+	/**
+	 * Decode a result that was encoded with {@link StatsCodec}.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Foldable<?>> read(InputStream in) throws IOException {
+		return new StatsCodec().decode(in, Map.class);
+	}
+}
@@ -0,0 +1,171 @@
+package org.vpac.worker;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.worker.MasterWorkerProtocol.ResultChunk;
+import org.vpac.worker.MasterWorkerProtocol.StreamedResult;
+
+/**
+ * Collects the chunks of results that are being streamed from workers.
+ *
+ * <p>
+ * Each attempt at a piece of work has its own stream, identified by the work
+ * ID and the ID of the worker that sent it. So if work is requeued while the
+ * original worker is still sending, the chunks of the two attempts are never
+ * mixed. Chunks that don't fit their stream are rejected rather than stored.
+ * </p>
+ *
+ * <p>
+ * This class is not thread-safe; it should only be used from the actor that
+ * owns it.
+ * </p>
+ */
+class ResultStreams {
+
+	private static final Logger log = LoggerFactory.getLogger(ResultStreams.class);
+
+	/**
+	 * The most chunks a stream may have. Workers send chunks of 64KiB, and a
+	 * result must fit in a byte array.
+	 */
+	static final int MAX_CHUNKS = 1 << 15;
+
+	/**
+	 * The chunks of one attempt at a piece of work.
+	 */
+	private static final class ChunkBuffer {
+		final String jobId;
+		final String workId;
+		final byte[][] chunks;
+		int received = 0;
+		long size = 0;
+
+		ChunkBuffer(String jobId, String workId, int total) {
+			this.jobId = jobId;
+			this.workId = workId;
+			this.chunks = new byte[total][];
+		}
+
+		/**
+		 * @return false if the chunk doesn't belong to this stream.
+		 */
+		boolean add(ResultChunk chunk) {
+			if (!jobId.equals(chunk.jobId) || chunk.total != chunks.length)
+				return false;
+			if (chunks[chunk.seq] != null)
+				return true;
+			if (size + chunk.data.length > Integer.MAX_VALUE)
+				return false;
+			chunks[chunk.seq] = chunk.data;
+			received++;
+			size += chunk.data.length;
+			return true;
+		}
+
+		boolean isComplete() {
+			return received == chunks.length;
+		}
+
+		byte[] join() {
+			byte[] data = new byte[(int) size];
+			int offset = 0;
+			for (byte[] chunk : chunks) {
+				System.arraycopy(chunk, 0, data, offset, chunk.length);
+				offset += chunk.length;
+			}
+			return data;
+		}
+	}
+
+	private Map<String, ChunkBuffer> streams = new HashMap<>();
+
+	private static String key(String workId, String workerId) {
+		return workId + "/" + workerId;
+	}
+
+	/**
+	 * Store a chunk.
+	 *
+	 * @return true if the chunk was stored (or had already been stored), so
+	 *         that it can be acknowledged; false if it was rejected.
+	 */
+	public boolean add(ResultChunk chunk) {
+		if (chunk.jobId == null || chunk.workId == null
+				|| chunk.workerId == null || chunk.data == null
+				|| chunk.total <= 0 || chunk.total > MAX_CHUNKS
+				|| chunk.seq < 0 || chunk.seq >= chunk.total) {
+			log.warn("Rejecting malformed result chunk {}", chunk);
+			return false;
+		}
+
+		String key = key(chunk.workId, chunk.workerId);
+		ChunkBuffer buffer = streams.get(key);
+		if (buffer == null) {
+			buffer = new ChunkBuffer(chunk.jobId, chunk.workId, chunk.total);
+			streams.put(key, buffer);
+		}
+		if (!buffer.add(chunk)) {
+			log.warn("Rejecting result chunk {}: it doesn't match the other"
+					+ " chunks from worker {}", chunk, chunk.workerId);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the stream that a worker reported as its result, along with any
+	 * other attempts at the same work.
+	 *
+	 * @return The result, or null if the stream is missing or incomplete.
+	 */
+	public byte[] take(String workId, StreamedResult result) {
+		ChunkBuffer buffer = streams.get(key(workId, result.workerId));
+		if (buffer == null || !buffer.isComplete()
+				|| buffer.chunks.length != result.chunks
+				|| buffer.size != result.size) {
+			return null;
+		}
+		dropWork(workId);
+		return buffer.join();
+	}
+
+	/**
+	 * Forget one attempt at a piece of work, e.g. because it was requeued.
+	 */
+	public void drop(String workId, String workerId) {
+		streams.remove(key(workId, workerId));
+	}
+
+	/**
+	 * Forget all attempts at a piece of work.
+	 */
+	public void dropWork(String workId) {
+		Iterator<ChunkBuffer> iterator = streams.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().workId.equals(workId))
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * Forget the partially received results of a job.
+	 */
+	public void dropJob(String jobId) {
+		Iterator<ChunkBuffer> iterator = streams.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().jobId.equals(jobId))
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * @return The number of streams that are being received.
+	 */
+	public int size() {
+		return streams.size();
+	}
+}
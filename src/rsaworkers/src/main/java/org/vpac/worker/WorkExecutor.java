@@ -5,9 +5,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Serializable;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.Files;
@@ -28,9 +25,11 @@ import org.vpac.ndg.AppContext;
 import org.vpac.ndg.configuration.NdgConfigManager;
 import org.vpac.ndg.query.Query;
 import org.vpac.ndg.query.QueryDefinition;
+import org.vpac.ndg.query.QueryDefinition.CacheDefinition;
 import org.vpac.ndg.query.QueryDefinition.DatasetInputDefinition;
 import org.vpac.ndg.query.QueryException;
 import org.vpac.ndg.query.filter.Foldable;
+import org.vpac.ndg.query.stats.StatsCodec;
 import org.vpac.worker.Job.Work;
 
 import scala.concurrent.duration.Duration;
@@ -67,7 +66,14 @@ public class WorkExecutor extends UntypedActor {
 	
 	}
 
+	/**
+	 * Value of {@link org.vpac.ndg.configuration.NdgConfig#getWorkerResultSink()}
+	 * that makes results be written to files instead of sent as messages.
+	 */
+	public static final String FILE_SINK = "file";
+
 	private NdgConfigManager ndgConfigManager;
+	private StatsCodec codec = new StatsCodec();
 	private LoggingAdapter log = Logging.getLogger(getContext().system(), this);
 
 	@Override
@@ -118,39 +124,44 @@ public class WorkExecutor extends UntypedActor {
 
 			HashMap<String, Foldable<?>> result = new java.util.HashMap<>();
 			for (Entry<String, Foldable<?>> v : output.entrySet()) {
-				if (!Serializable.class.isAssignableFrom(v.getValue()
-						.getClass()))
+				if (!StatsCodec.canEncode(v.getValue())) {
+					log.debug("Not returning {}: can't encode {}", v.getKey(),
+							v.getValue().getClass());
 					continue;
+				}
 				log.info("key : {}, value: {}", v.getKey(), v.getValue());
 				result.put(v.getKey(), v.getValue());
 			}
 
-			String fileId = SerializeResult(work, result);
-			getSender().tell(new Job.WorkComplete(fileId), getSelf());
+			Object ref;
+			try {
+				byte[] data = codec.encode(result);
+				if (FILE_SINK.equals(ndgConfigManager.getConfig()
+						.getWorkerResultSink())) {
+					ref = writeResult(work, data);
+				} else {
+					// The worker sends the data to the master in chunks.
+					ref = data;
+				}
+			} catch (Exception e) {
+				log.error(e, "Failed to return result of task {}", work.workId);
+				getSender().tell(new Job.Error(work, e), getSelf());
+				return;
+			}
+			getSender().tell(new Job.WorkComplete(ref), getSelf());
 		}
 	}
 
-	private String SerializeResult(Work work, HashMap<String, Foldable<?>> result) {
+	/**
+	 * Write an encoded result to the pickup location, for the master to read.
+	 * @return The name of the file.
+	 */
+	private String writeResult(Work work, byte[] data) throws IOException {
 		String fileName = UUID.randomUUID().toString();
 		Path outputDir = Paths.get(ndgConfigManager.getConfig()
 		.getDefaultPickupLocation() + "/" + work.jobProgressId + "/temp");
-		try {
-			if (!Files.exists(outputDir))
-				try {
-					Files.createDirectories(outputDir);
-				} catch (IOException e1) {
-					log.error("directory creation error:", e1);
-					e1.printStackTrace();
-					throw e1;
-				}
-			FileOutputStream fileOut = new FileOutputStream(outputDir + "/" + fileName);
-			ObjectOutputStream out = new ObjectOutputStream(fileOut);
-			out.writeObject(result);
-			out.close();
-			fileOut.close();
-		} catch(IOException i) {
-				i.printStackTrace();
-		}
+		Files.createDirectories(outputDir);
+		Files.write(outputDir.resolve(fileName), data);
 		return fileName;
 	}
 
@@ -162,6 +173,19 @@ public class WorkExecutor extends UntypedActor {
 				.getMin().getX(), work.bound.getMin().getY(), work.bound
 				.getMax().getX(), work.bound.getMax().getY());
 
+		// Several pieces of work may run at once on this node; share the
+		// cache budget between them.
+		int cachePages = ndgConfigManager.getConfig().getWorkerCachePages();
+		if (cachePages > 0) {
+			int slots = Math.max(1, ndgConfigManager.getConfig()
+					.getWorkerSlots());
+			int pages = Math.max(1, cachePages / slots);
+			if (qd.cache == null)
+				qd.cache = new CacheDefinition();
+			if (qd.cache.pages == null || qd.cache.pages > pages)
+				qd.cache.pages = pages;
+		}
+
 		// Fetch external data and store in local files before executing query.
 		// This is required because the query engine needs to know some metadata
 		// early in the query configuration process, before the files are
@@ -212,7 +236,8 @@ public class WorkExecutor extends UntypedActor {
 
 		try {
 			Query q = new Query(outputDataset);
-			q.setNumThreads(1);
+			q.setNumThreads(Math.max(1, ndgConfigManager.getConfig()
+					.getWorkerQueryThreads()));
 			q.setMemento(qd, new File(".").getAbsolutePath());
 			try {
 				q.setProgress(wp);
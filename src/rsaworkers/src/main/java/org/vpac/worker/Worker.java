@@ -9,6 +9,7 @@ import akka.event.LoggingAdapter;
 import akka.japi.Function;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.HashSet;
 import java.util.Set;
@@ -28,14 +29,19 @@ import static org.vpac.worker.MasterWorkerProtocol.*;
 public class Worker extends UntypedActor {
 
 	public static Props props(ActorRef clusterClient, Props workExecutorProps,
-			FiniteDuration registerInterval) {
+			FiniteDuration registerInterval, int capacity) {
 		return Props.create(Worker.class, clusterClient, workExecutorProps,
-				registerInterval);
+				registerInterval, capacity);
 	}
 
-	public static Props props(ActorRef clusterClient, Props workExecutorProps) {
+	public static Props props(ActorRef clusterClient, Props workExecutorProps,
+			int capacity) {
 		return props(clusterClient, workExecutorProps,
-				Duration.create(10, "seconds"));
+				Duration.create(10, "seconds"), capacity);
+	}
+
+	public static Props props(ActorRef clusterClient, Props workExecutorProps) {
+		return props(clusterClient, workExecutorProps, 1);
 	}
 
 	private ActorRef clusterClient;
@@ -46,10 +52,17 @@ public class Worker extends UntypedActor {
 	private final ActorRef workExecutor;
 	private final Cancellable registerTask;
 	private String currentWorkId = null;
+	private String currentJobId = null;
+
+	// Results are sent to the master in chunks of this size, so that large
+	// ledgers fit within the remoting frame size.
+	private static final int CHUNK_SIZE = 64 * 1024;
+	// The number of chunks that may be waiting for acknowledgement.
+	private static final int CHUNK_WINDOW = 4;
 	Cluster cluster = Cluster.get(getContext().system());
 
 	public Worker(ActorRef clusterClient, Props workExecutorProps,
-			FiniteDuration registerInterval) {
+			FiniteDuration registerInterval, int capacity) {
 		this.clusterClient = clusterClient;
 		this.workExecutorProps = workExecutorProps;
 		this.registerInterval = registerInterval;
@@ -63,7 +76,7 @@ public class Worker extends UntypedActor {
 						registerInterval,
 						clusterClient,
 						new SendToAll("/user/master/singleton",
-								new RegisterWorker(workerId)),
+								new RegisterWorker(workerId, capacity)),
 						getContext().dispatcher(), getSelf());
 	}
 
@@ -118,6 +131,7 @@ public class Worker extends UntypedActor {
 				Work work = (Work) message;
 				log.info("Got work: {}", work);
 				currentWorkId = work.workId;
+				currentJobId = work.jobProgressId;
 				workExecutor.tell(work, getSelf());
 				getContext().become(working);
 			} else
@@ -127,7 +141,14 @@ public class Worker extends UntypedActor {
 
 	private final Behavior working = new Behavior() {
 		public void apply(Object message) {
-			if (message instanceof WorkComplete) {
+			if (message instanceof WorkComplete
+					&& ((WorkComplete) message).result instanceof byte[]) {
+				byte[] data = (byte[]) ((WorkComplete) message).result;
+				log.info("Work is complete. Sending {} bytes.", data.length);
+				ResultSender sender = new ResultSender(data);
+				getContext().become(sender);
+				sender.start();
+			} else if (message instanceof WorkComplete) {
 				Object result = ((WorkComplete) message).result;
 				log.info("Work is complete. Result {}.", result);
 				sendToMaster(new WorkIsDone(workerId, workId(), result));
@@ -151,6 +172,75 @@ public class Worker extends UntypedActor {
 		}
 	};
 
+	/**
+	 * Sends an encoded result to the master in chunks. At most
+	 * {@link #CHUNK_WINDOW} chunks are unacknowledged at a time; if no
+	 * acknowledgement arrives in time, the outstanding chunks are sent again.
+	 * When all chunks have been acknowledged, the work is reported as done.
+	 */
+	private final class ResultSender extends Behavior {
+		private final byte[] data;
+		private final boolean[] acked;
+		private int nAcked = 0;
+		private int next = 0;
+
+		ResultSender(byte[] data) {
+			this.data = data;
+			int n = (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			this.acked = new boolean[Math.max(n, 1)];
+		}
+
+		void start() {
+			getContext().setReceiveTimeout(Duration.create(5, "seconds"));
+			fill();
+		}
+
+		private void fill() {
+			while (next < acked.length && next - nAcked < CHUNK_WINDOW) {
+				send(next);
+				next++;
+			}
+		}
+
+		private void send(int seq) {
+			int from = seq * CHUNK_SIZE;
+			int to = Math.min(from + CHUNK_SIZE, data.length);
+			byte[] chunk = Arrays.copyOfRange(data, from, to);
+			sendToMaster(new ResultChunk(currentJobId, workId(), workerId,
+					seq, acked.length, chunk));
+		}
+
+		public void apply(Object message) {
+			if (message instanceof ResultChunkAck
+					&& ((ResultChunkAck) message).workId.equals(workId())) {
+				int seq = ((ResultChunkAck) message).seq;
+				if (!acked[seq]) {
+					acked[seq] = true;
+					nAcked++;
+				}
+				if (nAcked == acked.length) {
+					Object result = new StreamedResult(workerId,
+							acked.length, data.length);
+					sendToMaster(new WorkIsDone(workerId, workId(), result));
+					getContext().become(waitForWorkIsDoneAck(result));
+				} else {
+					fill();
+				}
+			} else if (message instanceof ReceiveTimeout) {
+				log.info("Result chunks not acknowledged, resending ("
+						+ workerId + " -> " + workId() + ")");
+				for (int i = 0; i < next; i++) {
+					if (!acked[i])
+						send(i);
+				}
+			} else if (message instanceof ProgressCheckPoint) {
+				// The query has finished; progress is no longer needed.
+			} else {
+				unhandled(message);
+			}
+		}
+	}
+
 	private Behavior waitForWorkIsDoneAck(final Object result) {
 		return new Behavior() {
 			public void apply(Object message) {
@@ -0,0 +1,96 @@
+package org.vpac.worker;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of one worker, as seen by the master.
+ */
+public final class WorkerStats implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private int capacity = 1;
+	private int completed;
+	private int failed;
+	private double area;
+	private long busyNanos;
+
+	public WorkerStats() {
+	}
+
+	public WorkerStats(WorkerStats other) {
+		capacity = other.capacity;
+		completed = other.completed;
+		failed = other.failed;
+		area = other.area;
+		busyNanos = other.busyNanos;
+	}
+
+	void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	void workCompleted(double area, long nanos) {
+		this.completed++;
+		this.area += area;
+		this.busyNanos += nanos;
+	}
+
+	void workFailed(long nanos) {
+		this.failed++;
+		this.busyNanos += nanos;
+	}
+
+	/**
+	 * @return The number of threads that the worker uses for each piece of
+	 *         work, as reported by the worker.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of pieces of work that the worker has finished.
+	 */
+	public int getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return The number of pieces of work that failed or timed out.
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return The total area of the work that the worker has finished.
+	 */
+	public double getArea() {
+		return area;
+	}
+
+	/**
+	 * @return The time spent working, including on failed work.
+	 */
+	public long getBusyTime(TimeUnit unit) {
+		return unit.convert(busyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return The area processed per second of busy time.
+	 */
+	public double getThroughput() {
+		if (busyNanos == 0)
+			return 0;
+		return area / (busyNanos / 1.0e9);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WorkerStats{capacity=%d, completed=%d, "
+				+ "failed=%d, area=%g, busy=%ds, throughput=%g/s}", capacity,
+				completed, failed, area, getBusyTime(TimeUnit.SECONDS),
+				getThroughput());
+	}
+}
@@ -0,0 +1,140 @@
+package org.vpac.worker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.worker.MasterWorkerProtocol.ResultChunk;
+import org.vpac.worker.MasterWorkerProtocol.StreamedResult;
+
+public class ResultStreamsTest {
+
+	private static final int CHUNK_SIZE = 4;
+
+	private ResultStreams streams;
+
+	@Before
+	public void setUp() {
+		streams = new ResultStreams();
+	}
+
+	static byte[] data(int size, int fill) {
+		byte[] data = new byte[size];
+		Arrays.fill(data, (byte) fill);
+		return data;
+	}
+
+	static int nChunks(byte[] data) {
+		return (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	}
+
+	static ResultChunk chunk(String workerId, byte[] data, int seq) {
+		int from = seq * CHUNK_SIZE;
+		int to = Math.min(from + CHUNK_SIZE, data.length);
+		return new ResultChunk("job", "work", workerId, seq, nChunks(data),
+				Arrays.copyOfRange(data, from, to));
+	}
+
+	static StreamedResult result(String workerId, byte[] data) {
+		return new StreamedResult(workerId, nChunks(data), data.length);
+	}
+
+	@Test
+	public void test_interleavedDuplicateStreams() {
+		// The work was requeued while the first worker was still sending, so
+		// two workers stream different results for the same work at once.
+		// They have different numbers of chunks too.
+		byte[] a = data(10, 1);
+		byte[] b = data(15, 2);
+		for (int seq = 0; seq < nChunks(b); seq++) {
+			if (seq < nChunks(a)) {
+				assertTrue(streams.add(chunk("w1", a, seq)));
+				// Resent after a lost acknowledgement.
+				assertTrue(streams.add(chunk("w1", a, seq)));
+			}
+			assertTrue(streams.add(chunk("w2", b, seq)));
+			assertTrue(streams.add(chunk("w2", b, seq)));
+		}
+		assertEquals(2, streams.size());
+
+		assertArrayEquals(b, streams.take("work", result("w2", b)));
+		// The other attempt is discarded along with it.
+		assertEquals(0, streams.size());
+		assertNull(streams.take("work", result("w1", a)));
+	}
+
+	@Test
+	public void test_requeue() {
+		byte[] a = data(10, 1);
+		byte[] b = data(10, 2);
+		streams.add(chunk("w1", a, 0));
+		streams.add(chunk("w1", a, 1));
+		streams.drop("work", "w1");
+		assertEquals(0, streams.size());
+
+		for (int seq = 0; seq < nChunks(b); seq++)
+			streams.add(chunk("w2", b, seq));
+		// A late chunk from the first attempt doesn't touch the second.
+		streams.add(chunk("w1", a, 2));
+		assertNull(streams.take("work", result("w1", a)));
+		assertArrayEquals(b, streams.take("work", result("w2", b)));
+	}
+
+	@Test
+	public void test_incomplete() {
+		byte[] a = data(10, 1);
+		streams.add(chunk("w1", a, 0));
+		streams.add(chunk("w1", a, 2));
+		assertNull(streams.take("work", result("w1", a)));
+
+		streams.add(chunk("w1", a, 1));
+		// The worker reported a different size than it sent.
+		assertNull(streams.take("work", result("w1", data(11, 1))));
+		assertArrayEquals(a, streams.take("work", result("w1", a)));
+	}
+
+	@Test
+	public void test_rejectMalformed() {
+		byte[] data = data(4, 1);
+		assertFalse(streams.add(new ResultChunk("job", "work", "w1", 3, 3,
+				data)));
+		assertFalse(streams.add(new ResultChunk("job", "work", "w1", -1, 3,
+				data)));
+		assertFalse(streams.add(new ResultChunk("job", "work", "w1", 0, 0,
+				data)));
+		assertFalse(streams.add(new ResultChunk("job", "work", "w1", 0,
+				ResultStreams.MAX_CHUNKS + 1, data)));
+		assertFalse(streams.add(new ResultChunk("job", "work", "w1", 0, 3,
+				null)));
+		assertFalse(streams.add(new ResultChunk("job", "work", null, 0, 3,
+				data)));
+		assertEquals(0, streams.size());
+
+		// Chunks that disagree with the rest of their stream.
+		assertTrue(streams.add(new ResultChunk("job", "work", "w1", 0, 3,
+				data)));
+		assertFalse(streams.add(new ResultChunk("job", "work", "w1", 3, 4,
+				data)));
+		assertFalse(streams.add(new ResultChunk("other", "work", "w1", 1, 3,
+				data)));
+		assertTrue(streams.add(new ResultChunk("job", "work", "w1", 1, 3,
+				data)));
+	}
+
+	@Test
+	public void test_dropJob() {
+		byte[] a = data(10, 1);
+		streams.add(chunk("w1", a, 0));
+		streams.add(new ResultChunk("job2", "work2", "w2", 0, 1, a));
+		streams.dropJob("job");
+		assertEquals(1, streams.size());
+		assertArrayEquals(a, streams.take("work2",
+				new StreamedResult("w2", 1, a.length)));
+	}
+}
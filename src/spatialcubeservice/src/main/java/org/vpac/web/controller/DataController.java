@@ -30,6 +30,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -67,13 +68,11 @@ import org.vpac.ndg.common.datamodel.CellSize;
 import org.vpac.ndg.common.datamodel.Format;
 import org.vpac.ndg.common.datamodel.GdalFormat;
 import org.vpac.ndg.common.datamodel.TaskType;
-import org.vpac.ndg.datamodel.AggregationDefinition;
-import org.vpac.ndg.datamodel.AggregationOpener;
 import org.vpac.ndg.datamodel.RsaAggregationFactory;
+import org.vpac.ndg.datamodel.TileFileCache;
 import org.vpac.ndg.exceptions.TaskException;
 import org.vpac.ndg.exceptions.TaskInitialisationException;
 import org.vpac.ndg.geometry.Box;
-import org.vpac.ndg.geometry.Tile;
 import org.vpac.ndg.geometry.TileManager;
 import org.vpac.ndg.lock.ProcessUpdateTimer;
 import org.vpac.ndg.query.Query;
@@ -88,7 +87,7 @@ import org.vpac.ndg.query.sampling.ArrayAdapter;
 import org.vpac.ndg.query.sampling.ArrayAdapterImpl;
 import org.vpac.ndg.query.sampling.NodataStrategy;
 import org.vpac.ndg.query.sampling.NodataStrategyFactory;
-import org.vpac.ndg.query.stats.Ledger;
+import org.vpac.ndg.query.stats.LedgerCube;
 import org.vpac.ndg.rasterdetails.RasterDetails;
 import org.vpac.ndg.storage.dao.BandDao;
 import org.vpac.ndg.storage.dao.DatasetDao;
@@ -103,7 +102,10 @@ import org.vpac.ndg.storage.model.TaskCats;
 import org.vpac.ndg.storage.model.TaskLedger;
 import org.vpac.ndg.storage.model.TimeSlice;
 import org.vpac.ndg.storage.model.Upload;
+import org.vpac.ndg.storage.util.ChunkStore;
 import org.vpac.ndg.storage.util.DatasetUtil;
+import org.vpac.ndg.storage.util.TileManifest;
+import org.vpac.ndg.storage.util.TimeSeriesStore;
 import org.vpac.ndg.storage.util.TimeSliceUtil;
 import org.vpac.ndg.storage.util.UploadUtil;
 import org.vpac.ndg.task.Exporter;
@@ -119,9 +121,11 @@ import org.vpac.web.model.request.FileRequest;
 import org.vpac.web.model.request.PagingRequest;
 import org.vpac.web.model.request.S3ImportRequest;
 import org.vpac.web.model.request.TaskSearchRequest;
+import org.vpac.web.model.response.ChunkListResponse;
 import org.vpac.web.model.response.CleanUpResponse;
 import org.vpac.web.model.response.DatasetPlotResponse;
 import org.vpac.web.model.response.ExportResponse;
+import org.vpac.web.model.response.FileCacheResponse;
 import org.vpac.web.model.response.FileInfoResponse;
 import org.vpac.web.model.response.ImportResponse;
 import org.vpac.web.model.response.QueryResponse;
@@ -130,6 +134,8 @@ import org.vpac.web.model.response.TabularResponse;
 import org.vpac.web.model.response.TaskCollectionResponse;
 import org.vpac.web.model.response.TaskResponse;
 import org.vpac.web.util.ControllerHelper;
+import org.vpac.web.util.LedgerCubeCache;
+import org.vpac.web.util.QueryPlanner;
 import org.vpac.web.util.Pager;
 import org.vpac.web.util.QueryMutator;
 import org.vpac.web.util.QueryPreviewHelper;
@@ -167,9 +173,17 @@ public class DataController {
 	@Autowired
 	TimeSliceUtil timeSliceUtil;
 	@Autowired
+	TimeSeriesStore timeSeriesStore;
+	@Autowired
 	TileManager tileManager;
 	@Autowired
 	BandDao bandDao;
+	@Autowired
+	LedgerCubeCache ledgerCubeCache;
+	@Autowired
+	TileManifest tileManifest;
+	@Autowired
+	TileFileCache tileFileCache;
 
 	private Pager<JobProgress> pager = new Pager<JobProgress>();
 
@@ -219,24 +233,98 @@ public class DataController {
 		Path fileIdDir = uploadUtil.getDirectory(upload).toAbsolutePath();
 		uploadUtil.createDirectory(upload);
 
-		for (MultipartFile file : fileRequest.getFiles()) {
-			Path target = fileIdDir.resolve(file.getOriginalFilename());
-			if (!file.isEmpty())
-				file.transferTo(target.toFile());
+		// Files may be omitted, e.g. to start a chunked upload.
+		if (fileRequest.getFiles() != null) {
+			for (MultipartFile file : fileRequest.getFiles()) {
+				Path target = fileIdDir.resolve(file.getOriginalFilename());
+				if (!file.isEmpty())
+					file.transferTo(target.toFile());
+			}
 		}
 
 		model.addAttribute(ControllerHelper.RESPONSE_ROOT, new FileInfoResponse(upload.getFileId()));
 		return "FileUploadSuccess";
 	}
 
+	/*
+	 * Chunked uploads: large files are split into chunks that are named by
+	 * their SHA-256 digest. The client asks which chunks the server already
+	 * has, sends the rest (in parallel, if it likes), and then asks for the
+	 * files to be assembled. An interrupted upload can be resumed by sending
+	 * the same chunks to the same task ID.
+	 */
+
+	@RequestMapping(value="/Upload/{taskId}/Chunks", method = RequestMethod.GET)
+	public String listUploadChunks(@PathVariable String taskId, ModelMap model) throws ResourceNotFoundException, IOException {
+		Upload upload = findUpload(taskId);
+		ChunkStore chunks = uploadUtil.getChunkStore(upload);
+		model.addAttribute(ControllerHelper.RESPONSE_ROOT, new ChunkListResponse(upload.getFileId(), chunks.list()));
+		return "List";
+	}
+
+	@RequestMapping(value="/Upload/{taskId}/Chunks/{chunkId}", method = RequestMethod.POST)
+	public String uploadChunk(@PathVariable String taskId, @PathVariable String chunkId, InputStream body, ModelMap model) throws ResourceNotFoundException, IOException {
+		Upload upload = findUpload(taskId);
+		ChunkStore chunks = uploadUtil.getChunkStore(upload);
+		// The ID is the digest of the contents, so if the chunk is already
+		// present it doesn't need to be stored again.
+		if (!chunks.contains(chunkId))
+			chunks.put(chunkId, body);
+		model.addAttribute(ControllerHelper.RESPONSE_ROOT, new FileInfoResponse(upload.getFileId()));
+		return "Success";
+	}
+
+	/**
+	 * Join uploaded chunks into files. The parameters are parallel lists: the
+	 * nth <em>name</em> is made from the nth <em>chunks</em>, which is a
+	 * space-separated list of chunk IDs.
+	 */
+	@RequestMapping(value="/Upload/{taskId}/Assemble", method = RequestMethod.POST)
+	public String assembleUpload(@PathVariable String taskId, @RequestParam MultiValueMap<String, String> params, ModelMap model) throws ResourceNotFoundException, IOException {
+		List<String> names = params.get("name");
+		List<String> chunkLists = params.get("chunks");
+		if (names == null || chunkLists == null || names.size() != chunkLists.size())
+			throw new IllegalArgumentException("Each file name needs a list of chunks.");
+
+		Upload upload = findUpload(taskId);
+		Path fileIdDir = uploadUtil.getDirectory(upload).toAbsolutePath();
+		uploadUtil.createDirectory(upload);
+		ChunkStore chunks = uploadUtil.getChunkStore(upload);
+		for (int i = 0; i < names.size(); i++) {
+			Path target = fileIdDir.resolve(names.get(i)).normalize();
+			if (!fileIdDir.equals(target.getParent()))
+				throw new IllegalArgumentException(String.format("Invalid file name \"%s\".", names.get(i)));
+			List<String> ids = new ArrayList<String>();
+			for (String id : chunkLists.get(i).trim().split("\\s+")) {
+				if (!id.isEmpty())
+					ids.add(id);
+			}
+			long size = chunks.assemble(ids, target);
+			log.info("Assembled {} ({} bytes)", target, size);
+		}
+		// All files are complete, so the chunks are no longer needed.
+		chunks.delete();
+
+		model.addAttribute(ControllerHelper.RESPONSE_ROOT, new FileInfoResponse(upload.getFileId()));
+		return "Success";
+	}
+
+	private Upload findUpload(String taskId) throws ResourceNotFoundException {
+		Upload upload = uploadDao.retrieve(taskId);
+		if (upload == null)
+			throw new ResourceNotFoundException(String.format("Upload with task ID = \"%s\" not found.", taskId));
+		return upload;
+	}
+
  	@RequestMapping(value="/Import", method = RequestMethod.POST)
-	public String importTimeSlice(@RequestParam(required=true) String taskId, @RequestParam(required=true) String bandId, @RequestParam(required=true) String srcnodata, @RequestParam(required=false) Boolean useBilinearInterpolation, ModelMap model ) throws TaskInitialisationException {
+	public String importTimeSlice(@RequestParam(required=true) String taskId, @RequestParam(required=true) String bandId, @RequestParam(required=true) String srcnodata, @RequestParam(required=false) Boolean useBilinearInterpolation, @RequestParam(required=false) Boolean useInProcessWarp, ModelMap model ) throws TaskInitialisationException {
 
 		log.info("TimeSlice Import");
 		log.debug("Task ID: {}", taskId);
 		log.debug("Band ID: {}", bandId);
 		log.debug("srcnodata: {}", srcnodata);
 		log.debug("useBilinearInterpolation: {}", useBilinearInterpolation);
+		log.debug("useInProcessWarp: {}", useInProcessWarp);
 
 		Importer importer = new Importer();
 		// mandatory
@@ -245,6 +333,8 @@ public class DataController {
 		importer.setSrcnodata(srcnodata);
 		if (useBilinearInterpolation != null)
 			importer.setUseBilinearInterpolation(useBilinearInterpolation);
+		if (useInProcessWarp != null)
+			importer.setUseInProcessWarp(useInProcessWarp);
 
 		// After calling runInBackground, we can't access the exporter any more.
 		// So the model must be updated after configuration, but before the task
@@ -500,18 +590,31 @@ public class DataController {
 		log.info("Data getLedger");
 		log.debug("Task ID: {}", taskId);
 
-		List<TaskLedger> tls = statisticsDao.searchTaskLedger(taskId, key);
-
-		if (tls.size() == 0) {
+		// Look up the ID first: it's much cheaper than loading the ledger, and
+		// the ledger may already be indexed.
+		String ledgerId = statisticsDao.findTaskLedgerId(taskId, key);
+		if (ledgerId == null) {
 			throw new ResourceNotFoundException(
 					"No ledger found for this task ID.");
 		}
 
-		TaskLedger tl = tls.get(0);
+		LedgerCubeCache.Entry cached = ledgerCubeCache.get(ledgerId);
+		if (cached == null) {
+			List<TaskLedger> tls = statisticsDao.searchTaskLedger(taskId, key);
+			if (tls.size() == 0) {
+				throw new ResourceNotFoundException(
+						"No ledger found for this task ID.");
+			}
+			TaskLedger tl = tls.get(0);
+			cached = new LedgerCubeCache.Entry(new LedgerCube(tl.getLedger()),
+					tl.getKey(), tl.getOutputResolution());
+			ledgerCubeCache.put(tl.getId(), cached);
+		}
+		LedgerCube cube = cached.getCube();
 
 		if (columns == null || columns.size() == 0) {
 			columns = new ArrayList<>();
-			int nColumns = tl.getLedger().getBucketingStrategies().size();
+			int nColumns = cube.getWidth();
 			for (int i = 0; i < nColumns; i++) {
 				columns.add(i);
 			}
@@ -546,20 +649,19 @@ public class DataController {
 			}
 		}
 
-		Ledger unfiltered = tl.getLedger();
-		Ledger ledger = unfiltered.copy();
+		BitSet rows = cube.all();
 		for (Map.Entry<Integer, Set<Double>> entry : colIds.entrySet()) {
-			ledger = ledger.filterRows(entry.getKey(), entry.getValue());
+			rows.and(cube.select(entry.getKey(), entry.getValue()));
 		}
 		for (Map.Entry<Integer, List<Double>> entry : colLowerBounds.entrySet()) {
 			List<Double> lowerBounds = entry.getValue();
 			List<Double> upperBounds = colUpperBounds.get(entry.getKey());
-			ledger = ledger.filterRows(entry.getKey(), lowerBounds, upperBounds);
+			rows.and(cube.select(entry.getKey(), lowerBounds, upperBounds));
 		}
 
 		TabularResponse response = new TableBuilder().buildLedger(
-			ledger, unfiltered, columns, tl.getOutputResolution());
-		response.setCategorisation(tl.getKey());
+			cube, rows, columns, cached.getOutputResolution());
+		response.setCategorisation(cached.getKey());
 		model.addAttribute(ControllerHelper.RESPONSE_ROOT, response);
 
 		return "List";
@@ -630,46 +732,54 @@ public class DataController {
 		ModelAndView modelNView = new ModelAndView("DisplayPlot");
 
 		try {
-			AggregationDefinition def = factory.create(ds, tsList, bands, new Box(x, y, x, y));
+			Box bounds = new Box(x, y, x, y);
 			log.info("TS0:" + tsList.get(0).getCreated());
 			log.info("TSN:" + tsList.get(tsList.size() - 1).getCreated());
-			AggregationOpener opener = new AggregationOpener();
-			NetcdfDataset dataset = opener.open(def, "");
-			Variable varx = dataset.findVariable("x");
-			Variable vary = dataset.findVariable("y");
-			int xIndex = getArrayIndex(varx, x);
-			int yIndex = getArrayIndex(vary, y);
-
-			int[] origin = new int[] {0, yIndex, xIndex };
-			int[] shape = new int[] {tsList.size(), 1, 1 };
-
-			Map<String, List<Pair>> bandPlotPair = new HashMap<String, List<Pair>>();
-			Array ar = null;
-			NodataStrategyFactory ndsfac = new NodataStrategyFactory();
-			for(Band b : bands) {
-				Variable var = dataset.findVariable(b.getName());
-				Type type = Type.get(var.getDataType(), var.isUnsigned());
-				NodataStrategy nds = ndsfac.create(var, type);
-				ar = var.read(origin, shape);
-				ArrayAdapter arradapt = ArrayAdapterImpl.createAndPromote(ar,
-						var.getDataType(), nds);
-				List<Pair> plotValues = new ArrayList<Pair>();
-				for(int i = 0; i < ar.getIndex().getSize(); i++) {
-					ScalarElement elem = arradapt.get(i);
-					Date timeval = tsList.get(i).getCreated();
-					if (elem.isValid())
-						plotValues.add(new Pair(timeval, elem.doubleValue()));
-					else if (!omitNodata)
-						plotValues.add(new Pair(timeval, null));
+			// Prefer the time series store: it avoids opening every tile.
+			NetcdfDataset dataset = timeSeriesStore.open(ds, tsList, bands,
+					bounds);
+			if (dataset == null)
+				dataset = factory.open(ds, tsList, bands, bounds);
+			try {
+				Variable varx = dataset.findVariable("x");
+				Variable vary = dataset.findVariable("y");
+				int xIndex = getArrayIndex(varx, x);
+				int yIndex = getArrayIndex(vary, y);
+
+				int[] origin = new int[] {0, yIndex, xIndex };
+				int[] shape = new int[] {tsList.size(), 1, 1 };
+
+				Map<String, List<Pair>> bandPlotPair = new HashMap<String, List<Pair>>();
+				Array ar = null;
+				NodataStrategyFactory ndsfac = new NodataStrategyFactory();
+				for(Band b : bands) {
+					Variable var = dataset.findVariable(b.getName());
+					Type type = Type.get(var.getDataType(), var.isUnsigned());
+					NodataStrategy nds = ndsfac.create(var, type);
+					ar = var.read(origin, shape);
+					ArrayAdapter arradapt = ArrayAdapterImpl.createAndPromote(ar,
+							var.getDataType(), nds);
+					List<Pair> plotValues = new ArrayList<Pair>();
+					for(int i = 0; i < ar.getIndex().getSize(); i++) {
+						ScalarElement elem = arradapt.get(i);
+						Date timeval = tsList.get(i).getCreated();
+						if (elem.isValid())
+							plotValues.add(new Pair(timeval, elem.doubleValue()));
+						else if (!omitNodata)
+							plotValues.add(new Pair(timeval, null));
+					}
+					bandPlotPair.put(b.getName(), plotValues);
 				}
-				bandPlotPair.put(b.getName(), plotValues);
-			}
-			modelNView.addObject("bandPlotValues", bandPlotPair);
-			modelNView.addObject("datasetName", ds.getName());
-			modelNView.addObject("pointX", x);
-			modelNView.addObject("pointY", y);
+				modelNView.addObject("bandPlotValues", bandPlotPair);
+				modelNView.addObject("datasetName", ds.getName());
+				modelNView.addObject("pointX", x);
+				modelNView.addObject("pointY", y);
 
-			model.addAttribute(ControllerHelper.RESPONSE_ROOT, new DatasetPlotResponse(tsList, ar));
+				model.addAttribute(ControllerHelper.RESPONSE_ROOT, new DatasetPlotResponse(tsList, ar));
+			} finally {
+				// The tiles stay open in the file cache for the next plot.
+				dataset.close();
+			}
 
 		} catch (IOException e) {
 			log.error(e.getStackTrace().toString());
@@ -741,6 +851,28 @@ public class DataController {
 		}
 	}
 
+	@RequestMapping(value = "/ReIndex", method = RequestMethod.POST)
+	public String reIndex(@RequestParam(required=false) String datasetId, ModelMap model) throws ResourceNotFoundException, IOException {
+		int returnCount = 0;
+		if (datasetId != null) {
+			Dataset ds = datasetDao.retrieve(datasetId);
+			if (ds == null)
+				throw new ResourceNotFoundException(String.format("Dataset with ID = \"%s\" not found.", datasetId));
+			returnCount = tileManifest.rebuild(ds);
+		} else {
+			for (Dataset ds : datasetDao.getAll())
+				returnCount += tileManifest.rebuild(ds);
+		}
+		model.addAttribute(ControllerHelper.RESPONSE_ROOT, new CleanUpResponse(returnCount));
+		return "Success";
+	}
+
+	@RequestMapping(value = "/FileCache", method = RequestMethod.GET)
+	public String getFileCacheStats(ModelMap model) {
+		model.addAttribute(ControllerHelper.RESPONSE_ROOT, new FileCacheResponse(tileFileCache));
+		return "List";
+	}
+
 	@RequestMapping(value = "/DQuery-test", method = RequestMethod.GET)
 	public String distributedQueryTest() throws IllegalAccessException, IOException, QueryException {
 
@@ -900,6 +1032,9 @@ public class DataController {
 		// Find extents of grid so that it can be spatially split and
 		// distributed across multiple nodes for processing.
 		Box extent = null;
+		// Bounds of the data in each time slice, used to estimate the cost
+		// of each tile.
+		List<Box> dataBounds = null;
 		if (diGrid == null)
 			throw new IllegalArgumentException("No input reference of output grid");
 
@@ -919,6 +1054,11 @@ public class DataController {
 				throw new IllegalArgumentException("No timeslice on this dataset");
 
 			extent = timeSliceUtil.aggregateBounds(tsList);
+			dataBounds = new ArrayList<Box>();
+			for (TimeSlice ts : tsList) {
+				if (!timeSliceUtil.isEmpty(ts))
+					dataBounds.add(ts.getBounds());
+			}
 		} else if (diGrid.href.startsWith("epiphany")) {
 			baseRsaDatasetResolution = CellSize.m100;
 			extent = new Box(2125500.0, 2250100.0, 2960500.0, 2825000.0);
@@ -926,7 +1066,15 @@ public class DataController {
 			throw new IllegalArgumentException("Output grid reference should be rsa or epiphany");
 		}
 
-		List<Tile> tiles = tileManager.getTiles(extent, baseRsaDatasetResolution);
+		if (extent == null)
+			throw new IllegalArgumentException("No data in this dataset");
+		QueryPlanner planner = new QueryPlanner(tileManager,
+				baseRsaDatasetResolution);
+		List<QueryPlanner.Piece> pieces = planner.plan(extent, dataBounds);
+		if (pieces.isEmpty()) {
+			throw new IllegalArgumentException(
+					"The query region does not contain any data");
+		}
 
 		// Inject categorisation filters.
 		if (groupBy != null) {
@@ -951,17 +1099,12 @@ public class DataController {
 		jobProgressDao.save(job);
 
 		log.info("Query Step1!");
-		for(Tile t : tiles) {
-			Box bound = tileManager.getNngGrid().getBounds(t.getIndex(), baseRsaDatasetResolution);
-			bound.intersect(extent);
-			BoxReal bb = new BoxReal(2);
-			bb.getMin().setX(bound.getXMin());
-			bb.getMin().setY(bound.getYMin());
-			bb.getMax().setX(bound.getXMax());
-			bb.getMax().setY(bound.getYMax());
-			log.info("message" + bb);
+		String queryXml = qd.toXML();
+		for (QueryPlanner.Piece piece : pieces) {
+			BoxReal bb = piece.getBoundsReal();
+			log.debug("Submitting {}", piece);
 			frontend.tell(new org.vpac.worker.Job.Work(
-					UUID.randomUUID().toString(), qd.toXML(), ver, bb,
+					UUID.randomUUID().toString(), queryXml, ver, bb,
 					job.getId(), baseRsaDatasetResolution, datasetId, bandId,
 					timeSliceId), ActorRef.noSender());
 		}
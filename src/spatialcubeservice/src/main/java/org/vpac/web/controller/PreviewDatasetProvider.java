@@ -40,6 +40,7 @@ import org.vpac.ndg.common.datamodel.TaskType;
 import org.vpac.ndg.configuration.NdgConfigManager;
 import org.vpac.ndg.datamodel.AggregationOpener;
 import org.vpac.ndg.datamodel.RsaAggregationFactory;
+import org.vpac.ndg.datamodel.TileFileCache;
 import org.vpac.ndg.geometry.Box;
 import org.vpac.ndg.lock.TimeSliceDbReadWriteLock;
 import org.vpac.ndg.query.DatasetUtils;
@@ -107,6 +108,8 @@ public class PreviewDatasetProvider implements DatasetProvider {
 	NdgConfigManager ndgConfigManager;
 	@Autowired
 	DatasetUtil datasetUtil;
+	@Autowired
+	TileFileCache tileFileCache;
 
 	public PreviewDatasetProvider() {
 		factory = new RsaAggregationFactory();
@@ -166,10 +169,15 @@ public class PreviewDatasetProvider implements DatasetProvider {
 					"Could not find dataset %s", uri));
 		}
 
-		return getPreviewDataset(dataset, uri);
+		return NetcdfDataset.openDataset(findPreviewFile(dataset, uri)
+				.toString());
 	}
 
-	private NetcdfDataset getPreviewDataset(Dataset ds, String uri) throws IOException {
+	/**
+	 * @return The preview file of a dataset. It is created if it does not
+	 *         exist yet.
+	 */
+	private Path findPreviewFile(Dataset ds, String uri) throws IOException {
 		Path previewFile = getPreviewFile(ds);
 		if (!Files.exists(previewFile)) {
 			ReadWriteLock lock = getLock(ds);
@@ -190,7 +198,7 @@ public class PreviewDatasetProvider implements DatasetProvider {
 						uri));
 			}
 		}
-		return NetcdfDataset.openDataset(previewFile.toString());
+		return previewFile;
 	}
 
 	private void runPreviewQuery(Dataset ds) throws IOException,
@@ -317,10 +325,10 @@ public class PreviewDatasetProvider implements DatasetProvider {
 	}
 
 	@Override
-	public DatasetMetadata queryMetadata(String uri, String referential)
+	public DatasetMetadata queryMetadata(final String uri, String referential)
 			throws IOException {
 
-		DatasetMetadata meta = new DatasetMetadata();
+		final DatasetMetadata meta = new DatasetMetadata();
 
 		// Coordinate system
 		Dataset dataset = findDataset(uri, referential);
@@ -329,29 +337,30 @@ public class PreviewDatasetProvider implements DatasetProvider {
 					uri));
 		}
 
-		NetcdfDataset ds = getPreviewDataset(dataset, uri);
-		try {
-			ds.enhance();
-			if (ds.getCoordinateSystems().size() == 0) {
-				throw new IOException(String.format(
-						"Dataset %s has no coordinate system.", uri));
-			}
-			GridProjected grid = gridUtils.findBounds(ds);
-			TimeAxis timeAxis = datasetUtils.findTimeCoordinates(ds);
-			meta.setCsys(new QueryCoordinateSystem(grid, timeAxis));
-
-			List<Variable> vars = ds.getVariables();
-			List<String> varNames = new ArrayList<String>(vars.size());
-			for (Variable var : vars) {
-				varNames.add(var.getFullName());
-			}
-			meta.setVariables(varNames);
-
-			return meta;
+		// The preview is usually queried several times in a row, so keep it
+		// open in the cache rather than parsing it again each time.
+		return tileFileCache.withDataset(findPreviewFile(dataset, uri),
+				new TileFileCache.DatasetCallback<DatasetMetadata>() {
+			@Override
+			public DatasetMetadata apply(NetcdfDataset ds) throws IOException {
+				if (ds.getCoordinateSystems().size() == 0) {
+					throw new IOException(String.format(
+							"Dataset %s has no coordinate system.", uri));
+				}
+				GridProjected grid = gridUtils.findBounds(ds);
+				TimeAxis timeAxis = datasetUtils.findTimeCoordinates(ds);
+				meta.setCsys(new QueryCoordinateSystem(grid, timeAxis));
+
+				List<Variable> vars = ds.getVariables();
+				List<String> varNames = new ArrayList<String>(vars.size());
+				for (Variable var : vars) {
+					varNames.add(var.getFullName());
+				}
+				meta.setVariables(varNames);
 
-		} finally {
-			ds.close();
-		}
+				return meta;
+			}
+		});
 	}
 
 	protected Dataset findDataset(String uri, String referential)
@@ -20,6 +20,7 @@
 package org.vpac.web.model;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Map;
@@ -32,6 +33,7 @@ import org.vpac.ndg.query.stats.Cats;
 import org.vpac.ndg.query.stats.Hist;
 import org.vpac.ndg.query.stats.Ledger;
 import org.vpac.ndg.query.stats.Ledger;
+import org.vpac.ndg.query.stats.LedgerCube;
 import org.vpac.ndg.query.stats.Stats;
 import org.vpac.web.model.response.TableColumn;
 import org.vpac.web.model.response.TabularResponse;
@@ -101,6 +103,23 @@ public class TableBuilder {
 		// filtered rows) would be considered filtered.
 		ledger = ledger.filterColumns(columns);
 		unfiltered = unfiltered.filterColumns(columns);
+		return buildProjectedLedger(ledger, unfiltered, columns, resolution);
+	}
+
+	/**
+	 * Like {@link #buildLedger(Ledger, Ledger, List, CellSize)}, but the rows
+	 * are selected from an indexed ledger.
+	 * @param rows The rows of the cube that match the filters.
+	 */
+	public TabularResponse buildLedger(LedgerCube cube, BitSet rows,
+			List<Integer> columns, CellSize resolution) {
+		Ledger ledger = cube.aggregate(rows, columns);
+		Ledger unfiltered = cube.aggregate(cube.all(), columns);
+		return buildProjectedLedger(ledger, unfiltered, columns, resolution);
+	}
+
+	private TabularResponse buildProjectedLedger(Ledger ledger,
+			Ledger unfiltered, List<Integer> columns, CellSize resolution) {
 		TabularResponse table = new TabularResponse();
 		table.setTableType("product");
 		table.setColumns(ledgerColumns(ledger, unfiltered, columns, resolution));
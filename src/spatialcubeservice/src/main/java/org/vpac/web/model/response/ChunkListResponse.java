@@ -0,0 +1,61 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.web.model.response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The chunks of an upload that the server already has.
+ */
+@XmlRootElement(name = "Chunks")
+public class ChunkListResponse {
+	private String id;
+	private List<String> items;
+
+	public ChunkListResponse() {
+		items = new ArrayList<String>();
+	}
+
+	public ChunkListResponse(String id, List<String> items) {
+		this.id = id;
+		this.items = items;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	@XmlElement
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public List<String> getItems() {
+		return items;
+	}
+
+	@XmlElement(name = "Chunk")
+	public void setItems(List<String> items) {
+		this.items = items;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.web.model.response;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.vpac.ndg.datamodel.TileFileCache;
+
+@XmlRootElement(name = "FileCache")
+public class FileCacheResponse {
+	private int openFiles;
+	private int maxOpenFiles;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private double hitRate;
+
+	public FileCacheResponse() {
+	}
+
+	public FileCacheResponse(TileFileCache cache) {
+		this.openFiles = cache.getOpenFiles();
+		this.maxOpenFiles = cache.getMaxOpenFiles();
+		this.hits = cache.getHits();
+		this.misses = cache.getMisses();
+		this.evictions = cache.getEvictions();
+		this.hitRate = cache.getHitRate();
+	}
+
+	public int getOpenFiles() {
+		return openFiles;
+	}
+
+	@XmlElement
+	public void setOpenFiles(int openFiles) {
+		this.openFiles = openFiles;
+	}
+
+	public int getMaxOpenFiles() {
+		return maxOpenFiles;
+	}
+
+	@XmlElement
+	public void setMaxOpenFiles(int maxOpenFiles) {
+		this.maxOpenFiles = maxOpenFiles;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	@XmlElement
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	@XmlElement
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	@XmlElement
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	public double getHitRate() {
+		return hitRate;
+	}
+
+	@XmlElement
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+}
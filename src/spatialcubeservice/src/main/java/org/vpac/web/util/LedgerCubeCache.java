@@ -0,0 +1,104 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.web.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.vpac.ndg.common.datamodel.CellSize;
+import org.vpac.ndg.query.stats.LedgerCube;
+
+/**
+ * Keeps indexed ledgers in memory, so that a table can be filtered repeatedly
+ * without loading and indexing its ledger each time. Entries are keyed by the
+ * ID of the task ledger; the least recently used entry is dropped when the
+ * cache is full.
+ */
+public class LedgerCubeCache {
+
+	public static final int DEFAULT_CAPACITY = 8;
+
+	/**
+	 * An indexed ledger, and the details of the task ledger it came from.
+	 */
+	public static class Entry {
+		private LedgerCube cube;
+		private String key;
+		private CellSize outputResolution;
+
+		public Entry(LedgerCube cube, String key, CellSize outputResolution) {
+			this.cube = cube;
+			this.key = key;
+			this.outputResolution = outputResolution;
+		}
+
+		public LedgerCube getCube() {
+			return cube;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public CellSize getOutputResolution() {
+			return outputResolution;
+		}
+	}
+
+	private int capacity;
+	private Map<String, Entry> entries;
+
+	public LedgerCubeCache() {
+		capacity = DEFAULT_CAPACITY;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param id The ID of a task ledger.
+	 * @return The cached entry, or null if it is not present.
+	 */
+	public synchronized Entry get(String id) {
+		return entries.get(id);
+	}
+
+	public synchronized void put(String id, Entry entry) {
+		entries.put(id, entry);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity The maximum number of ledgers to keep. Indexed ledgers
+	 *            take roughly as much memory as the ledgers themselves.
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		while (entries.size() > capacity)
+			entries.remove(entries.keySet().iterator().next());
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.web.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.vpac.ndg.common.datamodel.CellSize;
+import org.vpac.ndg.geometry.Box;
+import org.vpac.ndg.geometry.Tile;
+import org.vpac.ndg.geometry.TileManager;
+import org.vpac.ndg.query.math.BoxReal;
+
+/**
+ * Splits the extent of a distributed query into pieces of work.
+ *
+ * <p>
+ * The cost of a tile is estimated as the area of the tile that is covered by
+ * data, summed over all time slices. Tiles that contain no data are skipped.
+ * Neighbouring tiles in the same row are merged into one piece while their
+ * combined cost is no more than that of a full tile, so tiles at the edge of
+ * the data don't each pay the overhead of a separate piece of work. The pieces
+ * are returned most expensive first, so that the longest work starts early and
+ * the cheap work fills in the gaps at the end.
+ * </p>
+ */
+public class QueryPlanner {
+
+	/**
+	 * A rectangular region to be processed as one piece of work.
+	 */
+	public static class Piece {
+		private Box bounds;
+		private double cost;
+		private int nTiles;
+
+		Piece(Box bounds, double cost) {
+			this.bounds = bounds;
+			this.cost = cost;
+			this.nTiles = 1;
+		}
+
+		public Box getBounds() {
+			return bounds;
+		}
+
+		public BoxReal getBoundsReal() {
+			BoxReal bb = new BoxReal(2);
+			bb.getMin().setX(bounds.getXMin());
+			bb.getMin().setY(bounds.getYMin());
+			bb.getMax().setX(bounds.getXMax());
+			bb.getMax().setY(bounds.getYMax());
+			return bb;
+		}
+
+		/**
+		 * @return The estimated cost of this piece, in data area: i.e. the
+		 *         sum of the area covered by each time slice.
+		 */
+		public double getCost() {
+			return cost;
+		}
+
+		/**
+		 * @return The number of tiles that were merged to make this piece.
+		 */
+		public int getTileCount() {
+			return nTiles;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Piece(%s, cost=%g, tiles=%d)", bounds, cost,
+					nTiles);
+		}
+	}
+
+	private TileManager tileManager;
+	private CellSize resolution;
+	private double batchFraction = 1.0;
+
+	public QueryPlanner(TileManager tileManager, CellSize resolution) {
+		this.tileManager = tileManager;
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Set the maximum cost of merged tiles, as a fraction of the cost of one
+	 * tile that is fully covered by every time slice. Set to zero to disable
+	 * batching.
+	 */
+	public void setBatchFraction(double batchFraction) {
+		this.batchFraction = batchFraction;
+	}
+
+	/**
+	 * @param extent The region to process.
+	 * @param dataBounds The bounds of each time slice. If null, the data is
+	 *            assumed to cover the whole extent (e.g. for external
+	 *            datasets, which have no time slices).
+	 * @return The pieces of work, most expensive first.
+	 */
+	public List<Piece> plan(Box extent, List<Box> dataBounds) {
+		if (dataBounds == null) {
+			dataBounds = new ArrayList<Box>();
+			dataBounds.add(extent);
+		}
+
+		List<Tile> tiles = tileManager.getTiles(extent, resolution);
+		List<Piece> pieces = new ArrayList<Piece>();
+		Piece current = null;
+		Tile previous = null;
+		double maxCost = 0;
+
+		for (Tile t : tiles) {
+			Box tileBounds = tileManager.getNngGrid().getBounds(t.getIndex(),
+					resolution);
+			if (maxCost == 0) {
+				maxCost = tileBounds.getArea() * dataBounds.size()
+						* batchFraction;
+			}
+			Box bounds = new Box(tileBounds);
+			bounds.intersect(extent);
+			double cost = estimateCost(bounds, dataBounds);
+			if (cost <= 0) {
+				current = null;
+				previous = null;
+				continue;
+			}
+
+			boolean adjacent = previous != null
+					&& previous.getY() == t.getY()
+					&& previous.getX() + 1 == t.getX();
+			if (adjacent && current.cost + cost <= maxCost) {
+				current.bounds.union(bounds);
+				current.cost += cost;
+				current.nTiles++;
+			} else {
+				current = new Piece(bounds, cost);
+				pieces.add(current);
+			}
+			previous = t;
+		}
+
+		Collections.sort(pieces, new Comparator<Piece>() {
+			@Override
+			public int compare(Piece a, Piece b) {
+				return Double.compare(b.cost, a.cost);
+			}
+		});
+		return pieces;
+	}
+
+	private static double estimateCost(Box bounds, List<Box> dataBounds) {
+		double cost = 0;
+		for (Box data : dataBounds) {
+			if (!bounds.intersects(data))
+				continue;
+			Box overlap = new Box(bounds);
+			overlap.intersect(data);
+			cost += overlap.getArea();
+		}
+		return cost;
+	}
+}
@@ -38,6 +38,7 @@ public class Constant {
 	public static final String TASK_DESCRIPTION_TILEAGGREGATOR = "Making a spatial aggregation on newly created tiles";
 	public static final String TASK_DESCRIPTION_NCMLBUILDER = "Aggregating into NCML";
 	public static final String TASK_DESCRIPTION_TILEUPDATER = "Updating/Inserting tiles into dataset";
+	public static final String TASK_DESCRIPTION_TILECOMPOSITOR = "Compositing new tile on top of existing tile";
 	public static final String TASK_DESCRIPTION_COMMITTER = "Committing tiles into storagepool";
 	public static final String TASK_DESCRIPTION_COMPRESSOR = "Packaging output into a zip file";
 	public static final String TASK_DESCRIPTION_NOOP = "No operation";
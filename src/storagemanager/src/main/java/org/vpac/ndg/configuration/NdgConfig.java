@@ -111,10 +111,38 @@ public class NdgConfig {
 	// How many processors for gdal2tiles to use to produce WMTS tiles.
 	// -1 flags non-parallel mode
 	private int lockDeadline = 3;
+	// How many tasks of an inner task pipeline (e.g. the tile transformations
+	// of an import) may run at once. 1 runs them in order on one thread.
+	private int pipelineThreads = 1;
+	// How many pieces of distributed query work a worker node runs at once,
+	// and how many threads each of those queries uses.
+	private int workerSlots = 1;
+	private int workerQueryThreads = 1;
+	// The number of cache pages per query input that a worker node may hold,
+	// shared between its slots. 0 lets each query choose.
+	private int workerCachePages = 0;
+	// How workers return query results: "message" sends them to the master
+	// over the cluster; "file" writes them to the pickup location, which must
+	// be shared with the master.
+	private String workerResultSink = "message";
 
 	@XStreamConverter(value=BooleanConverter.class)
 	private boolean generateImportTileAggregation;
 
+	// Maintain a time-major copy of each band for fast time series queries.
+	@XStreamConverter(value=BooleanConverter.class)
+	private boolean timeSeriesStore;
+
+	// Reproject imported tiles in the JVM instead of running gdalwarp for each
+	// tile. Imports may override this.
+	@XStreamConverter(value=BooleanConverter.class)
+	private boolean inProcessWarp;
+
+	// Overlay new tiles on existing ones in the JVM instead of running
+	// gdalwarp for each tile.
+	@XStreamConverter(value=BooleanConverter.class)
+	private boolean inProcessComposite = true;
+
 	// Storage locations
 	@XStreamAlias("storagepool")
 	private String defaultStoragePool;
@@ -249,6 +277,30 @@ public class NdgConfig {
 		this.generateImportTileAggregation = generateImportTileAggregation;
 	}
 
+	public boolean isTimeSeriesStore() {
+		return timeSeriesStore;
+	}
+
+	public void setTimeSeriesStore(boolean timeSeriesStore) {
+		this.timeSeriesStore = timeSeriesStore;
+	}
+
+	public boolean isInProcessWarp() {
+		return inProcessWarp;
+	}
+
+	public void setInProcessWarp(boolean inProcessWarp) {
+		this.inProcessWarp = inProcessWarp;
+	}
+
+	public boolean isInProcessComposite() {
+		return inProcessComposite;
+	}
+
+	public void setInProcessComposite(boolean inProcessComposite) {
+		this.inProcessComposite = inProcessComposite;
+	}
+
 	public float getHeartBeatSpacing() {
 		return heartBeatSpacing;
 	}
@@ -280,4 +332,44 @@ public class NdgConfig {
 	public void setGdal2TilesProcessors(int processors) {
 		this.gdal2tilesProcessors = processors;
 	}
+
+	public int getPipelineThreads() {
+		return pipelineThreads;
+	}
+
+	public void setPipelineThreads(int pipelineThreads) {
+		this.pipelineThreads = pipelineThreads;
+	}
+
+	public int getWorkerSlots() {
+		return workerSlots;
+	}
+
+	public void setWorkerSlots(int workerSlots) {
+		this.workerSlots = workerSlots;
+	}
+
+	public int getWorkerQueryThreads() {
+		return workerQueryThreads;
+	}
+
+	public void setWorkerQueryThreads(int workerQueryThreads) {
+		this.workerQueryThreads = workerQueryThreads;
+	}
+
+	public int getWorkerCachePages() {
+		return workerCachePages;
+	}
+
+	public void setWorkerCachePages(int workerCachePages) {
+		this.workerCachePages = workerCachePages;
+	}
+
+	public String getWorkerResultSink() {
+		return workerResultSink;
+	}
+
+	public void setWorkerResultSink(String workerResultSink) {
+		this.workerResultSink = workerResultSink;
+	}
 }
@@ -47,9 +47,12 @@ import org.vpac.ndg.storage.model.Dataset;
 import org.vpac.ndg.storage.model.TileBand;
 import org.vpac.ndg.storage.model.TimeSlice;
 import org.vpac.ndg.storage.util.BandUtil;
+import org.vpac.ndg.storage.util.TileBitmap;
+import org.vpac.ndg.storage.util.TileManifest;
 import org.vpac.ndg.storage.util.TimeSliceUtil;
 import org.vpac.ndg.storagemanager.IGraphicsFile;
 
+import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.time.CalendarDate;
 import ucar.nc2.time.CalendarDateUnit;
 
@@ -67,6 +70,8 @@ public class RsaAggregationFactory extends AggregationFactory {
 	TileManager tileManager;
 	NdgConfigManager ndgConfigManager;
 	BandUtil bandUtil;
+	TileManifest tileManifest;
+	TileFileCache tileFileCache;
 
 	public RsaAggregationFactory() {
 		ApplicationContext appContext = ApplicationContextProvider.getApplicationContext();
@@ -76,6 +81,8 @@ public class RsaAggregationFactory extends AggregationFactory {
 		tileManager = (TileManager) appContext.getBean("tileManager");
 		ndgConfigManager = (NdgConfigManager) appContext.getBean("ndgConfigManager");
 		bandUtil = (BandUtil) appContext.getBean("bandUtil");
+		tileManifest = (TileManifest) appContext.getBean("tileManifest");
+		tileFileCache = (TileFileCache) appContext.getBean("tileFileCache");
 	}
 
 	/**
@@ -96,6 +103,43 @@ public class RsaAggregationFactory extends AggregationFactory {
 
 	public AggregationDefinition create(Dataset dataset, Box boundsHint,
 			Date timeMin, Date timeMax, List<String> bands) throws IOException {
+		List<TimeSlice> tss = findTimeSlices(dataset, timeMin, timeMax);
+		List<Band> bs = findBands(dataset, bands);
+		return create(dataset, tss, bs, boundsHint);
+	}
+
+	/**
+	 * Open a data cube that references all the data in a dataset. This is
+	 * equivalent to opening the aggregation returned by
+	 * {@link #create(Dataset)}, but the NCML is never generated.
+	 *
+	 * @see VirtualDatasetBuilder
+	 */
+	public NetcdfDataset open(Dataset dataset) throws IOException {
+		List<TimeSlice> tss = datasetDao.getTimeSlices(dataset.getId());
+		Collections.sort(tss);
+		List<Band> bs = datasetDao.getBands(dataset.getId());
+		Box bounds = timeSliceUtil.aggregateBounds(tss);
+		return open(dataset, tss, bs, bounds);
+	}
+
+	/**
+	 * Open part of a dataset as a data cube. This is equivalent to opening
+	 * the aggregation returned by
+	 * {@link #create(Dataset, Box, Date, Date, List)}, but the NCML is never
+	 * generated.
+	 *
+	 * @see VirtualDatasetBuilder
+	 */
+	public NetcdfDataset open(Dataset dataset, Box boundsHint, Date timeMin,
+			Date timeMax, List<String> bands) throws IOException {
+		List<TimeSlice> tss = findTimeSlices(dataset, timeMin, timeMax);
+		List<Band> bs = findBands(dataset, bands);
+		return open(dataset, tss, bs, boundsHint);
+	}
+
+	private List<TimeSlice> findTimeSlices(Dataset dataset, Date timeMin,
+			Date timeMax) throws IOException {
 		List<TimeSlice> tss;
 		try {
 			tss = datasetDao.findTimeSlices(dataset.getId(),
@@ -105,12 +149,14 @@ public class RsaAggregationFactory extends AggregationFactory {
 					"slice list: %s", e.getMessage()));
 		}
 		Collections.sort(tss);
-		List<Band> bs;
+		return tss;
+	}
+
+	private List<Band> findBands(Dataset dataset, List<String> bands) {
 		if (bands != null)
-			bs = datasetDao.findBandsByName(dataset.getId(), bands);
+			return datasetDao.findBandsByName(dataset.getId(), bands);
 		else
-			bs = datasetDao.getBands(dataset.getId());
-		return create(dataset, tss, bs, boundsHint);
+			return datasetDao.getBands(dataset.getId());
 	}
 
 	/**
@@ -156,22 +202,7 @@ public class RsaAggregationFactory extends AggregationFactory {
 		// completely empty due to the lack of a nodata value.
 		bs = filterBands(bs);
 		tss = filterTimeSlices(tss);
-
-		if (boundsHint == null)
-			boundsHint = timeSliceUtil.aggregateBounds(tss);
-		if (boundsHint == null) {
-			throw new IllegalArgumentException("Can't create aggregation: " +
-					"could not determine spatial extents.");
-		}
-
-		if (bs.size() == 0) {
-			throw new IllegalArgumentException("Can't create aggregation: " +
-					"none of the bands have been initialised.");
-		}
-		if (tss.size() == 0) {
-			throw new IllegalArgumentException("Can't create aggregation: " +
-					"none of the time slices contain any data.");
-		}
+		boundsHint = checkExtents(tss, bs, boundsHint);
 
 		// Get global list of times
 		List<CalendarDate> all_coords = new ArrayList<>();
@@ -241,6 +272,123 @@ public class RsaAggregationFactory extends AggregationFactory {
 		return aggDef;
 	}
 
+	/**
+	 * Opens a 4D datacube from a dataset. The result has the same structure as
+	 * the aggregation created by {@link #create(Dataset, List, List, Box)},
+	 * but it is built directly from the tile files instead of from NCML.
+	 * @throws IOException If the blank tiles could not be read.
+	 */
+	public NetcdfDataset open(Dataset ds, List<TimeSlice> tss,
+			List<Band> bs, Box boundsHint) throws IOException {
+
+		log.debug("Dataset requested with bands {} and timeslices {}", bs,
+				tss);
+
+		bs = filterBands(bs);
+		tss = filterTimeSlices(tss);
+		boundsHint = checkExtents(tss, bs, boundsHint);
+
+		List<CalendarDate> all_coords = new ArrayList<>();
+		CalendarDateUnit timeUnits = timeSliceUtil.computeTimeMapping(tss, all_coords);
+
+		BoxInt globalTileBounds = tileManager.mapToTile(boundsHint,
+				ds.getResolution());
+		List<Tile> tiles = tileManager.getTiles(globalTileBounds);
+		List<Point<Integer>> origins = collectTileOrigins(tiles,
+				ds.getResolution());
+
+		List<Path> blanks = new ArrayList<>();
+		for (Band b : bs)
+			blanks.add(bandUtil.getBlankTile(ds, b).getFileLocation());
+
+		// Find the file for each band, time slice and tile. Where there is no
+		// data the file is null; the reader fills those regions in without
+		// opening anything. Time slices that have no tiles at all in the
+		// bounds are excluded.
+		List<List<List<Path>>> files = new ArrayList<>();
+		for (int i = 0; i < bs.size(); i++)
+			files.add(new ArrayList<List<Path>>());
+		List<CalendarDate> coords = new ArrayList<>();
+		int tsIndex = 0;
+		for (TimeSlice ts : tss) {
+			BoxInt tileBounds = tileManager.mapToTile(ts.getBounds(),
+					ds.getResolution());
+			tileBounds.intersect(globalTileBounds);
+			List<List<Path>> tsFiles = new ArrayList<>();
+			int nPopulated = 0;
+			for (int i = 0; i < bs.size(); i++) {
+				List<Path> bandFiles = new ArrayList<>();
+				TileBitmap existing = tileManifest.get(ts, bs.get(i));
+				for (Tile tile : tiles) {
+					Path path = null;
+					if (tileBounds.contains(tile.getIndex())
+							&& existing.contains(tile)) {
+						TileBand tb = new TileBand(tile, bs.get(i), ts);
+						path = tb.getFileLocation();
+						nPopulated++;
+					}
+					bandFiles.add(path);
+				}
+				tsFiles.add(bandFiles);
+			}
+			if (nPopulated > 0) {
+				for (int i = 0; i < bs.size(); i++)
+					files.get(i).add(tsFiles.get(i));
+				coords.add(all_coords.get(tsIndex));
+			}
+			tsIndex++;
+		}
+		if (coords.size() == 0) {
+			throw new IllegalArgumentException("Can't create aggregation: " +
+					"none of the time slices contain any data in the bounds.");
+		}
+
+		VirtualDatasetBuilder builder = new VirtualDatasetBuilder();
+		builder.setFileCache(tileFileCache);
+		builder.setTime(timeUnits.toString(),
+				timeSliceUtil.datesToCoordValues(timeUnits, coords));
+		builder.setTiles(origins,
+				tileManager.getResolutionList().get(ds.getResolution()));
+		for (int i = 0; i < bs.size(); i++)
+			builder.addBand(bs.get(i).getName(), blanks.get(i), files.get(i));
+
+		NestedGrid nng = tileManager.getNngGrid();
+		Box finalExtents = nng.alignToTileGrid(boundsHint, ds.getResolution());
+		double res = ds.getResolution().toDouble();
+		int width = (int)(finalExtents.getWidth() / res);
+		int height = (int)(finalExtents.getHeight() / res);
+		Point<Double> firstCellCentre = nng.alignToGridCentre(finalExtents.getMin(), ds.getResolution());
+		builder.setGrid(width, height, firstCellCentre.getX(),
+				firstCellCentre.getY(), res);
+
+		return builder.build();
+	}
+
+	/**
+	 * Checks that an aggregation can be made of the (filtered) bands and time
+	 * slices.
+	 * @return The spatial extents of the aggregation.
+	 */
+	protected Box checkExtents(List<TimeSlice> tss, List<Band> bs,
+			Box boundsHint) {
+		if (boundsHint == null)
+			boundsHint = timeSliceUtil.aggregateBounds(tss);
+		if (boundsHint == null) {
+			throw new IllegalArgumentException("Can't create aggregation: " +
+					"could not determine spatial extents.");
+		}
+
+		if (bs.size() == 0) {
+			throw new IllegalArgumentException("Can't create aggregation: " +
+					"none of the bands have been initialised.");
+		}
+		if (tss.size() == 0) {
+			throw new IllegalArgumentException("Can't create aggregation: " +
+					"none of the time slices contain any data.");
+		}
+		return boundsHint;
+	}
+
 	/**
 	 * Filters out empty time slices
 	 */
@@ -303,6 +451,7 @@ public class RsaAggregationFactory extends AggregationFactory {
 
 		List<AggregationDefinition> children = new ArrayList<>();
 		List<String> filteredSections = new ArrayList<>();
+		TileBitmap existing = tileManifest.get(ts, band);
 		int nPopulatedTiles = 0;
 		for (int i = 0; i < tiles.size(); i++) {
 
@@ -312,14 +461,12 @@ public class RsaAggregationFactory extends AggregationFactory {
 				// Tile is outside bounds of time slice.
 				aggDef = raw(blankTile, false);
 
-			} else {
+			} else if (existing.contains(tiles.get(i))) {
 				TileBand tb = new TileBand(tiles.get(i), band, ts);
-				if (tb.existsInStoragepool()) {
-					aggDef = raw(tb, false);
-					nPopulatedTiles++;
-				} else {
-					aggDef = raw(blankTile, false);
-				}
+				aggDef = raw(tb, false);
+				nPopulatedTiles++;
+			} else {
+				aggDef = raw(blankTile, false);
 			}
 
 			children.add(aggDef);
@@ -340,6 +487,25 @@ public class RsaAggregationFactory extends AggregationFactory {
 	protected List<String> collectTileSections(List<Tile> tiles,
 			CellSize resolution) {
 
+		int tileSize = tileManager.getResolutionList().get(resolution);
+		List<String> sections = new ArrayList<>();
+		for (Point<Integer> start : collectTileOrigins(tiles, resolution)) {
+			sections.add(String.format("%d:%d,%d:%d",
+					start.getY(), start.getY() + tileSize - 1,
+					start.getX(), start.getX() + tileSize - 1));
+		}
+		return sections;
+	}
+
+	/**
+	 * Computes the position of all tiles in a list, relative to the first
+	 * tile.
+	 * @return The cell offset of the first row (y) and column (x) of each
+	 *         tile.
+	 */
+	protected List<Point<Integer>> collectTileOrigins(List<Tile> tiles,
+			CellSize resolution) {
+
 		int tileSize = tileManager.getResolutionList().get(resolution);
 		Point<Integer> size = new Point<Integer>(tileSize, tileSize);
 		// TODO: Don't assume tile zero is the first in the rasterisation. Add
@@ -352,24 +518,18 @@ public class RsaAggregationFactory extends AggregationFactory {
 			origin.setY(origin.getY() + 1);
 		}
 
-		List<String> sections = new ArrayList<>();
+		List<Point<Integer>> origins = new ArrayList<>();
 		for (Tile t : tiles) {
 			Point<Integer> offset = Point.subi(t.getIndex(), origin);
 			Point<Integer> start = Point.muli(offset, size);
-			Point<Integer> end = Point.addi(start, size);
-			String section;
 			if (invertYOrder) {
-				section = String.format("%d:%d,%d:%d",
-						end.getY(), start.getY() - 1,
-						start.getX(), end.getX() - 1);
-			} else {
-				section = String.format("%d:%d,%d:%d",
-						start.getY(), end.getY() - 1,
-						start.getX(), end.getX() - 1);
+				// The rows of the tile run from the end to the start.
+				Point<Integer> end = Point.addi(start, size);
+				start.setY(end.getY());
 			}
-			sections.add(section);
+			origins.add(start);
 		}
-		return sections;
+		return origins;
 	}
 
 	/**
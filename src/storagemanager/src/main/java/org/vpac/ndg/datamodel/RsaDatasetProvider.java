@@ -56,6 +56,7 @@ import org.vpac.ndg.storage.model.Band;
 import org.vpac.ndg.storage.model.Dataset;
 import org.vpac.ndg.storage.model.TimeSlice;
 import org.vpac.ndg.storage.util.BandUtil;
+import org.vpac.ndg.storage.util.TimeSeriesStore;
 import org.vpac.ndg.storage.util.TimeSliceUtil;
 
 import ucar.nc2.dataset.CoordinateSystem;
@@ -72,7 +73,6 @@ public class RsaDatasetProvider implements DatasetProvider {
 	final Logger log = LoggerFactory.getLogger(RsaDatasetProvider.class);
 
 	RsaAggregationFactory factory;
-	AggregationOpener opener;
 
 	@Autowired
 	DatasetDao datasetDao;
@@ -86,10 +86,13 @@ public class RsaDatasetProvider implements DatasetProvider {
 	BandUtil bandUtil;
 	@Autowired
 	NdgConfigManager ndgConfigManager;
+	@Autowired
+	TimeSeriesStore timeSeriesStore;
+	@Autowired
+	TileFileCache tileFileCache;
 
 	public RsaDatasetProvider() {
 		factory = new RsaAggregationFactory();
-		opener = new AggregationOpener();
 	}
 
 	@Override
@@ -187,9 +190,24 @@ public class RsaDatasetProvider implements DatasetProvider {
 		log.trace("Time constrained between {} and {}", timeMin, timeMax);
 		log.trace("Bands: {}", bands);
 
-		AggregationDefinition def = factory.create(dataset, bounds, tmin, tmax,
-				bands);
-		return opener.open(def, uri);
+		// Small windows can be read from the time series store, which is much
+		// faster than opening every tile.
+		if (timeSeriesStore.isEnabled()) {
+			List<TimeSlice> tss = datasetDao.findTimeSlices(dataset.getId(),
+					tmin, tmax);
+			List<Band> bs;
+			if (bands != null)
+				bs = datasetDao.findBandsByName(dataset.getId(), bands);
+			else
+				bs = datasetDao.getBands(dataset.getId());
+			NetcdfDataset ds = timeSeriesStore.open(dataset, tss, bs, bounds);
+			if (ds != null) {
+				log.debug("Reading {} from time series store", dataset);
+				return ds;
+			}
+		}
+
+		return factory.open(dataset, bounds, tmin, tmax, bands);
 	}
 
 	@Override
@@ -248,7 +266,8 @@ public class RsaDatasetProvider implements DatasetProvider {
 		resolution.setY(cellSize);
 
 		// All files for a given dataset share a common coordinate system. So,
-		// we can just open one of the blank files and take a peek at it.
+		// we can just take a peek at one of the blank files. It is probably
+		// already open in the cache.
 		CoordinateSystem srs = null;
 		List<Band> bands = datasetDao.getBands(dataset.getId());
 		for (Band b : bands) {
@@ -256,14 +275,14 @@ public class RsaDatasetProvider implements DatasetProvider {
 			if (Files.notExists(blankTilePath))
 				continue;
 
-			NetcdfDataset ncd = NetcdfDataset.openDataset(blankTilePath.toString());
-			try {
-				ncd.enhance();
-				srs = ncd.getCoordinateSystems().get(0);
-				break;
-			} finally {
-				ncd.close();
-			}
+			srs = tileFileCache.withDataset(blankTilePath,
+					new TileFileCache.DatasetCallback<CoordinateSystem>() {
+				@Override
+				public CoordinateSystem apply(NetcdfDataset ncd) {
+					return ncd.getCoordinateSystems().get(0);
+				}
+			});
+			break;
 		}
 		if (srs == null) {
 			throw new IOException(String.format("Could not determine " +
@@ -45,13 +45,11 @@ public class RsaDatasetReader {
 	final Logger log = LoggerFactory.getLogger(RsaDatasetReader.class);
 
 	RsaAggregationFactory factory;
-	AggregationOpener opener;
 
 	DatasetDao datasetDao;
 
 	public RsaDatasetReader() {
 		factory = new RsaAggregationFactory();
-		opener = new AggregationOpener();
 		ApplicationContext appContext = ApplicationContextProvider.getApplicationContext();
 		datasetDao = (DatasetDao) appContext.getBean("datasetDao");
 	}
@@ -78,8 +76,7 @@ public class RsaDatasetReader {
 	public NetcdfDataset open(String uri) throws IOException {
 		Dataset dataset = findDataset(uri);
 		log.trace("Opening {}", dataset);
-		AggregationDefinition def = factory.create(dataset);
-		return opener.open(def, uri);
+		return factory.open(dataset);
 	}
 
 	protected Dataset findDataset(String uri)
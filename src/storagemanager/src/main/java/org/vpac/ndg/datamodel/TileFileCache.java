@@ -0,0 +1,643 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.datamodel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.common.Default;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Keeps NetCDF files open so that they can be read many times without parsing
+ * their headers again. One instance (the <em>tileFileCache</em> bean) is
+ * shared by everything in the process that reads tiles, blank tiles and
+ * previews, so a file opened by one query is still open for the next one.
+ *
+ * <p>
+ * Files are closed when too many are open (least recently used first), when
+ * they have not been used for a while, or when they are
+ * {@link #invalidate(Path) invalidated} - e.g. by the
+ * {@link org.vpac.ndg.task.Committer Committer} when it replaces a tile.
+ * Files may also be replaced by other processes, so a cached file is checked
+ * against the file system again after {@link #REVALIDATE_MILLIS}.
+ * </p>
+ *
+ * <p>
+ * A NetCDF file can't be read by two threads at once, so each open handle is
+ * only used by one thread at a time. When several threads read the same file
+ * (e.g. the blank tile, or neighbouring pixels of one tile), more handles are
+ * opened for it, up to {@link #getHandlesPerFile()}; beyond that, readers wait
+ * for a handle to be free. Extra handles are closed along with the file.
+ * </p>
+ */
+public class TileFileCache {
+
+	final private Logger log = LoggerFactory.getLogger(TileFileCache.class);
+
+	public static final int DEFAULT_MAX_OPEN_FILES = 512;
+	public static final long DEFAULT_IDLE_MILLIS = 5 * 60 * 1000;
+	public static final int DEFAULT_HANDLES_PER_FILE = 4;
+	/** How long a cached file is trusted before it is checked again. */
+	public static final long REVALIDATE_MILLIS = 5000;
+
+	/**
+	 * Does something with an open file. The file must not be closed, and must
+	 * not be used after this returns.
+	 */
+	public interface FileCallback<T> {
+		T apply(NetcdfFile nc) throws IOException;
+	}
+
+	/**
+	 * Does something with an open, enhanced dataset. The dataset must not be
+	 * closed, and must not be used after this returns.
+	 */
+	public interface DatasetCallback<T> {
+		T apply(NetcdfDataset ds) throws IOException;
+	}
+
+	private interface Action<T> {
+		T apply(Handle handle) throws IOException, InvalidRangeException;
+	}
+
+	private final int maxOpenFiles;
+	private final long idleMillis;
+	private final int handlesPerFile;
+	private Map<Key, CachedFile> files;
+	/** Files removed from the map that still need to be closed. */
+	private List<CachedFile> evicted;
+	private Timer timer;
+
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong evictions;
+	private AtomicLong extraHandles;
+
+	public TileFileCache() {
+		this(DEFAULT_MAX_OPEN_FILES, DEFAULT_IDLE_MILLIS);
+	}
+
+	/**
+	 * @param maxOpenFiles The maximum number of files to keep open.
+	 * @param idleMillis How long a file may go unused before it is closed. If
+	 *            zero, files are only closed when the limit is reached.
+	 */
+	public TileFileCache(int maxOpenFiles, long idleMillis) {
+		this(maxOpenFiles, idleMillis, DEFAULT_HANDLES_PER_FILE);
+	}
+
+	/**
+	 * @param maxOpenFiles The maximum number of files to keep open.
+	 * @param idleMillis How long a file may go unused before it is closed. If
+	 *            zero, files are only closed when the limit is reached.
+	 * @param handlesPerFile The maximum number of threads that may read one
+	 *            file at once. Each needs its own handle, so up to
+	 *            <em>maxOpenFiles * handlesPerFile</em> file descriptors may
+	 *            be used.
+	 */
+	public TileFileCache(final int maxOpenFiles, long idleMillis,
+			int handlesPerFile) {
+		if (handlesPerFile < 1) {
+			throw new IllegalArgumentException(
+					"At least one handle per file is required");
+		}
+		this.maxOpenFiles = maxOpenFiles;
+		this.idleMillis = idleMillis;
+		this.handlesPerFile = handlesPerFile;
+		evicted = new ArrayList<CachedFile>();
+		files = new LinkedHashMap<Key, CachedFile>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Key, CachedFile> eldest) {
+				if (size() <= maxOpenFiles)
+					return false;
+				evicted.add(eldest.getValue());
+				return true;
+			}
+		};
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		evictions = new AtomicLong();
+		extraHandles = new AtomicLong();
+	}
+
+	/**
+	 * Read part of the data variable of a tile.
+	 *
+	 * @param path The tile file.
+	 * @param section The part to read, in the tile's own coordinates.
+	 */
+	public Array readBand(Path path, final Section section)
+			throws IOException, InvalidRangeException {
+		return use(path, false, new Action<Array>() {
+			@Override
+			public Array apply(Handle handle) throws IOException,
+					InvalidRangeException {
+				return handle.getBand().read(section);
+			}
+		});
+	}
+
+	/**
+	 * @return The shape of the data variable of a tile.
+	 */
+	public int[] getBandShape(Path path) throws IOException {
+		try {
+			return use(path, false, new Action<int[]>() {
+				@Override
+				public int[] apply(Handle handle) throws IOException {
+					return handle.getBand().getShape();
+				}
+			});
+		} catch (InvalidRangeException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Use a file as it is stored, without any enhancements (e.g. scaling).
+	 */
+	public <T> T withFile(Path path, final FileCallback<T> callback)
+			throws IOException {
+		try {
+			return use(path, false, new Action<T>() {
+				@Override
+				public T apply(Handle handle) throws IOException {
+					return callback.apply(handle.nc);
+				}
+			});
+		} catch (InvalidRangeException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Use a file as an enhanced dataset, e.g. to find its coordinate systems.
+	 */
+	public <T> T withDataset(Path path, final DatasetCallback<T> callback)
+			throws IOException {
+		try {
+			return use(path, true, new Action<T>() {
+				@Override
+				public T apply(Handle handle) throws IOException {
+					return callback.apply((NetcdfDataset) handle.nc);
+				}
+			});
+		} catch (InvalidRangeException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private <T> T use(Path path, boolean enhanced, Action<T> action)
+			throws IOException, InvalidRangeException {
+		while (true) {
+			CachedFile file = acquire(new Key(path, enhanced));
+			Handle handle = file.borrow();
+			// The file may have been evicted while waiting for a handle.
+			if (handle == null)
+				continue;
+			try {
+				file.used = System.currentTimeMillis();
+				return action.apply(handle);
+			} finally {
+				file.giveBack(handle);
+			}
+		}
+	}
+
+	private CachedFile acquire(Key key) throws IOException {
+		CachedFile file;
+		synchronized (files) {
+			file = files.get(key);
+		}
+
+		long now = System.currentTimeMillis();
+		if (file != null) {
+			if (now - file.checked < REVALIDATE_MILLIS) {
+				hits.incrementAndGet();
+				return file;
+			}
+			Object version = getVersion(key.path);
+			if (version != null && version.equals(file.version)) {
+				file.checked = now;
+				hits.incrementAndGet();
+				return file;
+			}
+			log.debug("File {} has changed", key.path);
+			remove(key, file);
+		}
+		misses.incrementAndGet();
+
+		// Open the file without holding the lock, so that other files can be
+		// used in the meantime.
+		Object version = getVersion(key.path);
+		file = new CachedFile(key, open(key), version);
+		CachedFile existing;
+		synchronized (files) {
+			existing = files.get(key);
+			if (existing == null)
+				files.put(key, file);
+		}
+		if (existing != null) {
+			// Another thread got there first.
+			file.close();
+			file = existing;
+		}
+		closeEvicted();
+		startTimer();
+		return file;
+	}
+
+	private Handle open(Key key) throws IOException {
+		log.trace("Opening {}", key.path);
+		NetcdfFile nc;
+		if (key.enhanced)
+			nc = NetcdfDataset.openDataset(key.path.toString());
+		else
+			nc = NetcdfFile.open(key.path.toString());
+		return new Handle(key.path, nc);
+	}
+
+	/**
+	 * Close a file, e.g. because it has been replaced. This should be called
+	 * after the file has been changed; files that are in use are closed when
+	 * the current reader is finished.
+	 */
+	public void invalidate(Path path) {
+		Path abs = path.toAbsolutePath();
+		List<CachedFile> removed = new ArrayList<CachedFile>();
+		synchronized (files) {
+			Iterator<CachedFile> it = files.values().iterator();
+			while (it.hasNext()) {
+				CachedFile file = it.next();
+				if (file.key.path.equals(abs)) {
+					it.remove();
+					removed.add(file);
+				}
+			}
+		}
+		close(removed);
+	}
+
+	/**
+	 * Close all files that have not been used recently.
+	 */
+	public void evictIdle() {
+		long cutoff = System.currentTimeMillis() - idleMillis;
+		List<CachedFile> removed = new ArrayList<CachedFile>();
+		synchronized (files) {
+			Iterator<CachedFile> it = files.values().iterator();
+			while (it.hasNext()) {
+				CachedFile file = it.next();
+				if (file.used < cutoff) {
+					it.remove();
+					removed.add(file);
+				}
+			}
+		}
+		if (removed.size() > 0)
+			log.debug("Closing {} idle files", removed.size());
+		close(removed);
+	}
+
+	/**
+	 * Close all files and stop the idle timer.
+	 */
+	public void close() {
+		List<CachedFile> removed;
+		synchronized (files) {
+			removed = new ArrayList<CachedFile>(files.values());
+			files.clear();
+			if (timer != null) {
+				timer.cancel();
+				timer = null;
+			}
+		}
+		close(removed);
+	}
+
+	private void remove(Key key, CachedFile file) {
+		synchronized (files) {
+			if (files.get(key) == file)
+				files.remove(key);
+		}
+		close(file);
+	}
+
+	private void closeEvicted() {
+		List<CachedFile> removed;
+		synchronized (files) {
+			if (evicted.isEmpty())
+				return;
+			removed = new ArrayList<CachedFile>(evicted);
+			evicted.clear();
+		}
+		close(removed);
+	}
+
+	private void close(List<CachedFile> removed) {
+		for (CachedFile file : removed)
+			close(file);
+	}
+
+	private void close(CachedFile file) {
+		evictions.incrementAndGet();
+		file.close();
+	}
+
+	private void startTimer() {
+		if (idleMillis <= 0)
+			return;
+		synchronized (files) {
+			if (timer != null)
+				return;
+			timer = new Timer("TileFileCache", true);
+			long period = Math.max(idleMillis / 2, 1000);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					evictIdle();
+				}
+			}, period, period);
+		}
+	}
+
+	/**
+	 * @return Something that changes whenever the file is replaced, or null if
+	 *         the file does not exist.
+	 */
+	private static Object getVersion(Path path) throws IOException {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		return String.format("%s %s %d", attrs.fileKey(),
+				attrs.lastModifiedTime(), attrs.size());
+	}
+
+	public int getMaxOpenFiles() {
+		return maxOpenFiles;
+	}
+
+	public int getOpenFiles() {
+		synchronized (files) {
+			return files.size();
+		}
+	}
+
+	public int getHandlesPerFile() {
+		return handlesPerFile;
+	}
+
+	/**
+	 * @return The number of times a file was used while it was already open.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of times a file had to be opened.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return The number of times a file was closed before the cache was.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return The number of times another handle was opened because a file
+	 *         was being read by other threads.
+	 */
+	public long getExtraHandles() {
+		return extraHandles.get();
+	}
+
+	/**
+	 * @return The fraction of uses that didn't need to open the file.
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		if (total == 0)
+			return 0;
+		return (double) h / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"TileFileCache(%d/%d open, %d hits, %d misses, %d evictions)",
+				getOpenFiles(), maxOpenFiles, getHits(), getMisses(),
+				getEvictions());
+	}
+
+	private static class Key {
+		final Path path;
+		final boolean enhanced;
+
+		Key(Path path, boolean enhanced) {
+			this.path = path.toAbsolutePath();
+			this.enhanced = enhanced;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + (enhanced ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return enhanced == other.enhanced && path.equals(other.path);
+		}
+	}
+
+	/**
+	 * The open handles of one file.
+	 */
+	private class CachedFile {
+		final Key key;
+		final Object version;
+		volatile long checked;
+		volatile long used;
+		/** Handles that are open but not being used. */
+		private final Deque<Handle> idle;
+		/** The number of open handles, including those being used. */
+		private int open;
+		private boolean closed;
+
+		CachedFile(Key key, Handle handle, Object version) {
+			this.key = key;
+			this.version = version;
+			this.checked = System.currentTimeMillis();
+			this.used = checked;
+			idle = new ArrayDeque<Handle>();
+			idle.push(handle);
+			open = 1;
+			closed = false;
+		}
+
+		/**
+		 * Take a handle that no other thread is using. If they are all busy,
+		 * another one is opened; if there are already too many, this waits
+		 * for one to be given back.
+		 *
+		 * @return The handle, or null if the file has been closed.
+		 */
+		Handle borrow() throws IOException {
+			synchronized (this) {
+				while (true) {
+					if (closed)
+						return null;
+					if (!idle.isEmpty())
+						return idle.pop();
+					if (open < handlesPerFile)
+						break;
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException(String.format(
+								"Interrupted while waiting for %s", key.path));
+					}
+				}
+				open++;
+			}
+
+			// Open the file without holding the lock, so that handles can be
+			// given back in the meantime.
+			boolean opened = false;
+			try {
+				Handle handle = open(key);
+				opened = true;
+				extraHandles.incrementAndGet();
+				return handle;
+			} finally {
+				if (!opened) {
+					synchronized (this) {
+						open--;
+						notifyAll();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Return a handle after using it. If the file has been closed in the
+		 * meantime, the handle is closed too.
+		 */
+		void giveBack(Handle handle) {
+			synchronized (this) {
+				if (!closed) {
+					idle.push(handle);
+					notifyAll();
+					return;
+				}
+				open--;
+			}
+			handle.close();
+		}
+
+		/**
+		 * Close the handles that aren't being used; the others are closed
+		 * when they are given back.
+		 */
+		void close() {
+			List<Handle> removed;
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+				removed = new ArrayList<Handle>(idle);
+				open -= idle.size();
+				idle.clear();
+				notifyAll();
+			}
+			for (Handle handle : removed)
+				handle.close();
+		}
+	}
+
+	private class Handle {
+		final Path path;
+		final NetcdfFile nc;
+		private Variable band;
+
+		Handle(Path path, NetcdfFile nc) {
+			this.path = path;
+			this.nc = nc;
+		}
+
+		Variable getBand() throws IOException {
+			if (band == null) {
+				band = nc.findVariable(Default.BAND1);
+				if (band == null) {
+					throw new IOException(String.format(
+							"%s has no variable %s", path, Default.BAND1));
+				}
+			}
+			return band;
+		}
+
+		void close() {
+			try {
+				nc.close();
+			} catch (IOException e) {
+				log.warn("Could not close {}: {}", path, e);
+			}
+		}
+	}
+}
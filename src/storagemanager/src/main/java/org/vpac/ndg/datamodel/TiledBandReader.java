@@ -0,0 +1,188 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.datamodel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.vpac.ndg.geometry.Point;
+import org.vpac.ndg.query.io.SparseReader;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.MAMath;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
+import ucar.nc2.Variable;
+import ucar.nc2.util.CancelTask;
+
+/**
+ * Reads a (time, y, x) band variable from a grid of tile files. This does the
+ * same job as a joinNew aggregation of tiled aggregations, but only the tiles
+ * that intersect the requested section are read.
+ *
+ * <p>
+ * Tiles that have no data don't need a file at all: those regions are set to
+ * the fill value without any I/O. Because this reader knows where they are,
+ * queries can skip them entirely (see {@link SparseReader}).
+ * </p>
+ */
+class TiledBandReader implements SparseReader {
+
+	private VirtualDataset dataset;
+	private List<List<Path>> files;
+	private List<Point<Integer>> origins;
+	private int tileSize;
+	private double fillValue;
+
+	/**
+	 * @param dataset The dataset that owns the open tile files.
+	 * @param files The tile files, indexed by time and then by tile. Tiles
+	 *            that have no data are null.
+	 * @param origins The offset of each tile in the grid, in cells. X is the
+	 *            column, and Y is the row.
+	 * @param tileSize The width and height of the tiles, in cells.
+	 * @param fillValue The raw value of cells that have no data.
+	 */
+	TiledBandReader(VirtualDataset dataset, List<List<Path>> files,
+			List<Point<Integer>> origins, int tileSize, double fillValue) {
+		this.dataset = dataset;
+		this.files = files;
+		this.origins = origins;
+		this.tileSize = tileSize;
+		this.fillValue = fillValue;
+	}
+
+	@Override
+	public Array reallyRead(Variable client, CancelTask cancelTask)
+			throws IOException {
+		try {
+			return reallyRead(client, client.getShapeAsSection(), cancelTask);
+		} catch (InvalidRangeException e) {
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public Array reallyRead(Variable client, Section section,
+			CancelTask cancelTask) throws IOException, InvalidRangeException {
+
+		section = Section.fill(section, client.getShape());
+		Range tr = section.getRange(0);
+		Range yr = section.getRange(1);
+		Range xr = section.getRange(2);
+		int ny = yr.length();
+		int nx = xr.length();
+
+		Array out = Array.factory(client.getDataType(), section.getShape());
+		if (fillValue != 0)
+			MAMath.setDouble(out, fillValue);
+		Object dst = out.getStorage();
+		for (int k = 0; k < tr.length(); k++) {
+			List<Path> tiles = files.get(tr.element(k));
+			for (int i = 0; i < origins.size(); i++) {
+				Point<Integer> origin = origins.get(i);
+				Path path = tiles.get(i);
+				if (path == null)
+					continue;
+				Range ty = clip(yr, origin.getY());
+				Range tx = clip(xr, origin.getX());
+				if (ty == null || tx == null)
+					continue;
+				if (cancelTask != null && cancelTask.isCancel())
+					return null;
+
+				int[] shape = dataset.getTileShape(path);
+				if (shape.length != 2 || shape[0] != tileSize
+						|| shape[1] != tileSize) {
+					throw new IOException(String.format(
+							"Tile %s should be %dx%d", path, tileSize,
+							tileSize));
+				}
+				Array data = dataset.readTile(path, new Section(
+						Arrays.asList(ty, tx)));
+				if (data.getElementType() != out.getElementType())
+					data = MAMath.convert(data, client.getDataType());
+
+				// Copy row by row into the output.
+				Object src = data.get1DJavaArray(data.getElementType());
+				int y0 = (ty.first() + origin.getY() - yr.first()) / yr.stride();
+				int x0 = (tx.first() + origin.getX() - xr.first()) / xr.stride();
+				int h = ty.length();
+				int w = tx.length();
+				for (int row = 0; row < h; row++) {
+					System.arraycopy(src, row * w, dst,
+							(k * ny + y0 + row) * nx + x0, w);
+				}
+			}
+		}
+		return out;
+	}
+
+	@Override
+	public boolean isBlank(Section section) {
+		if (section.getRank() != 3)
+			return false;
+		Range tr = section.getRange(0);
+		Range yr = section.getRange(1);
+		Range xr = section.getRange(2);
+		if (tr == null || yr == null || xr == null)
+			return false;
+		try {
+			for (int k = 0; k < tr.length(); k++) {
+				List<Path> tiles = files.get(tr.element(k));
+				for (int i = 0; i < origins.size(); i++) {
+					if (tiles.get(i) == null)
+						continue;
+					Point<Integer> origin = origins.get(i);
+					if (clip(yr, origin.getY()) != null
+							&& clip(xr, origin.getX()) != null)
+						return false;
+				}
+			}
+		} catch (InvalidRangeException | IndexOutOfBoundsException e) {
+			// Let the read report the problem.
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Find the part of a range that falls within a tile.
+	 *
+	 * @param r The range, in grid coordinates.
+	 * @param start The offset of the tile along the same axis.
+	 * @return The part of the range that intersects the tile, relative to the
+	 *         start of the tile; or null if they don't intersect.
+	 */
+	private Range clip(Range r, int start) throws InvalidRangeException {
+		int lo = Math.max(r.first(), start);
+		int hi = Math.min(r.last(), start + tileSize - 1);
+		if (hi < lo)
+			return null;
+		int stride = r.stride();
+		int first = r.first() + (lo - r.first() + stride - 1) / stride * stride;
+		int last = r.first() + (hi - r.first()) / stride * stride;
+		if (last < first)
+			return null;
+		return new Range(first - start, last - start, stride);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.datamodel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * An in-memory dataset whose data variables are backed by tile files. The
+ * tiles are opened when they are first read, and are kept open in a
+ * {@link TileFileCache}. If the cache is shared, the tiles stay open after
+ * this dataset is closed so that the next dataset can use them too.
+ *
+ * @see VirtualDatasetBuilder
+ */
+public class VirtualDataset extends NetcdfDataset {
+
+	/**
+	 * The maximum number of tile files that are kept open at once, if this
+	 * dataset has its own cache.
+	 */
+	static final int MAX_OPEN_FILES = 64;
+
+	private TileFileCache fileCache;
+	private boolean ownCache;
+
+	/**
+	 * @param fileCache The cache to open tiles with. If null, the dataset
+	 *            gets its own cache, and closes the tiles when it is closed.
+	 */
+	public VirtualDataset(TileFileCache fileCache) {
+		if (fileCache == null) {
+			this.fileCache = new TileFileCache(MAX_OPEN_FILES, 0);
+			this.ownCache = true;
+		} else {
+			this.fileCache = fileCache;
+			this.ownCache = false;
+		}
+	}
+
+	TileFileCache getFileCache() {
+		return fileCache;
+	}
+
+	/**
+	 * Read part of the data variable of a tile.
+	 *
+	 * @param path The tile file.
+	 * @param section The part to read, in the tile's own coordinates.
+	 */
+	Array readTile(Path path, Section section) throws IOException,
+			InvalidRangeException {
+		return fileCache.readBand(path, section);
+	}
+
+	/**
+	 * @return The shape of the data variable of a tile.
+	 */
+	int[] getTileShape(Path path) throws IOException {
+		return fileCache.getBandShape(path);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			if (ownCache)
+				fileCache.close();
+		} finally {
+			super.close();
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.datamodel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.vpac.ndg.common.Default;
+import org.vpac.ndg.geometry.Point;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+
+/**
+ * Builds a 4D data cube (bands of time, y, x) from tile files directly,
+ * without going through NCML. The result has the same structure as the
+ * aggregation created by {@link RsaAggregationFactory}: the tiles are
+ * arranged on a grid (like a <em>tiled</em> aggregation), the bands are
+ * combined (like a <em>union</em>) and the time slices are stacked (like a
+ * <em>joinNew</em>). No tile is opened until its data is read.
+ *
+ * <p>
+ * All tiles of a dataset share the same coordinate system and metadata, so
+ * the attributes and non-gridded variables are copied from the blank tile of
+ * each band.
+ * </p>
+ *
+ * <p>
+ * Files are opened through a {@link TileFileCache}. Use a shared cache (see
+ * {@link #setFileCache(TileFileCache)}) to avoid opening the same tiles again
+ * for every dataset.
+ * </p>
+ */
+public class VirtualDatasetBuilder {
+
+	private int width;
+	private int height;
+	private double xStart;
+	private double yStart;
+	private double resolution;
+
+	private String timeUnits;
+	private List<String> timeCoordValues;
+
+	private List<Point<Integer>> tileOrigins;
+	private int tileSize;
+
+	private List<String> bandNames;
+	private List<Path> blankTiles;
+	private List<List<List<Path>>> bandFiles;
+
+	private TileFileCache fileCache;
+
+	public VirtualDatasetBuilder() {
+		bandNames = new ArrayList<>();
+		blankTiles = new ArrayList<>();
+		bandFiles = new ArrayList<>();
+	}
+
+	/**
+	 * Set the extents of the grid.
+	 *
+	 * @param width The number of columns.
+	 * @param height The number of rows.
+	 * @param xStart The x coordinate of the centre of the first column.
+	 * @param yStart The y coordinate of the centre of the first row.
+	 * @param resolution The size of the cells.
+	 */
+	public void setGrid(int width, int height, double xStart, double yStart,
+			double resolution) {
+		this.width = width;
+		this.height = height;
+		this.xStart = xStart;
+		this.yStart = yStart;
+		this.resolution = resolution;
+	}
+
+	/**
+	 * @param units The units of the time axis, e.g. "days since 2011-01-01".
+	 * @param coordValues The time coordinate of each time slice, in those
+	 *            units.
+	 */
+	public void setTime(String units, List<String> coordValues) {
+		this.timeUnits = units;
+		this.timeCoordValues = coordValues;
+	}
+
+	/**
+	 * @param origins The position of each tile in the grid, in cells. X is the
+	 *            column, and Y is the row.
+	 * @param tileSize The width and height of the tiles, in cells.
+	 */
+	public void setTiles(List<Point<Integer>> origins, int tileSize) {
+		this.tileOrigins = origins;
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * @param fileCache The cache to open files with. If not set, the dataset
+	 *            has its own cache, and closes the files when it is closed.
+	 */
+	public void setFileCache(TileFileCache fileCache) {
+		this.fileCache = fileCache;
+	}
+
+	/**
+	 * Add a band to the cube.
+	 *
+	 * @param name The name of the variable.
+	 * @param blankTile A tile of this band that contains no data. Its
+	 *            attributes are copied to the variable.
+	 * @param files The tile files, indexed by time slice and then by tile (in
+	 *            the same order as the {@link #setTiles(List, int) origins}).
+	 *            Positions that have no data should be null; they are filled
+	 *            with the blank tile's fill value without reading anything.
+	 *            The files are not checked until they are read.
+	 */
+	public void addBand(String name, Path blankTile, List<List<Path>> files) {
+		bandNames.add(name);
+		blankTiles.add(blankTile);
+		bandFiles.add(files);
+	}
+
+	/**
+	 * Create the dataset. Only the blank tiles are read.
+	 *
+	 * @throws IOException If a blank tile could not be read.
+	 */
+	public NetcdfDataset build() throws IOException {
+		if (bandNames.isEmpty())
+			throw new IllegalArgumentException("No bands to aggregate");
+		if (timeCoordValues == null || tileOrigins == null)
+			throw new IllegalArgumentException("Time and tiles must be set");
+
+		VirtualDataset dataset = new VirtualDataset(fileCache);
+		try {
+			define(dataset);
+		} catch (IOException | RuntimeException e) {
+			dataset.close();
+			throw e;
+		}
+		dataset.finish();
+		return dataset;
+	}
+
+	private void define(final VirtualDataset dataset) throws IOException {
+		int nt = timeCoordValues.size();
+		dataset.addDimension(null, new Dimension("time", nt));
+		dataset.addDimension(null, new Dimension("y", height));
+		dataset.addDimension(null, new Dimension("x", width));
+
+		Array times = Array.factory(DataType.INT, new int[] {nt});
+		for (int t = 0; t < nt; t++)
+			times.setInt(t, Integer.parseInt(timeCoordValues.get(t)));
+		Variable timeVar = new VariableDS(dataset, null, null, "time",
+				DataType.INT, "time", null, null);
+		timeVar.addAttribute(new Attribute("units", timeUnits));
+		timeVar.addAttribute(new Attribute("_CoordinateAxisType", "Time"));
+		timeVar.setCachedData(times, false);
+		dataset.addVariable(null, timeVar);
+
+		final Array ys = Array.factory(DataType.DOUBLE, new int[] {height});
+		for (int i = 0; i < height; i++)
+			ys.setDouble(i, yStart + i * resolution);
+		final Array xs = Array.factory(DataType.DOUBLE, new int[] {width});
+		for (int j = 0; j < width; j++)
+			xs.setDouble(j, xStart + j * resolution);
+
+		TileFileCache cache = dataset.getFileCache();
+		cache.withFile(blankTiles.get(0), new TileFileCache.FileCallback<Void>() {
+			@Override
+			public Void apply(NetcdfFile blank) throws IOException {
+				for (Attribute attr : blank.getGlobalAttributes())
+					dataset.addAttribute(null, attr);
+				dataset.addVariable(null, copyAxis(dataset, blank, "y", ys));
+				dataset.addVariable(null, copyAxis(dataset, blank, "x", xs));
+				Variable band1 = blank.findVariable(Default.BAND1);
+				Attribute mapping = band1 == null ? null
+						: band1.findAttribute("grid_mapping");
+				if (mapping != null && mapping.isString()) {
+					Variable crs = blank.findVariable(mapping.getStringValue());
+					if (crs != null) {
+						Variable v = new VariableDS(dataset, null, null,
+								crs.getShortName(), crs.getDataType(), "", null,
+								null);
+						for (Attribute attr : crs.getAttributes())
+							v.addAttribute(attr);
+						v.setCachedData(crs.read(), false);
+						dataset.addVariable(null, v);
+					}
+				}
+				return null;
+			}
+		});
+
+		for (int i = 0; i < bandNames.size(); i++) {
+			final List<List<Path>> files = bandFiles.get(i);
+			if (files.size() != nt) {
+				throw new IllegalArgumentException(String.format(
+						"Band %s has %d time slices; expected %d",
+						bandNames.get(i), files.size(), nt));
+			}
+
+			final String name = bandNames.get(i);
+			Variable v = cache.withFile(blankTiles.get(i),
+					new TileFileCache.FileCallback<Variable>() {
+				@Override
+				public Variable apply(NetcdfFile blank) throws IOException {
+					Variable band1 = blank.findVariable(Default.BAND1);
+					if (band1 == null) {
+						throw new IOException(String.format(
+								"%s has no variable %s", blank.getLocation(),
+								Default.BAND1));
+					}
+					Variable v = new VariableDS(dataset, null, null, name,
+							band1.getDataType(), "time y x", null, null);
+					for (Attribute attr : band1.getAttributes())
+						v.addAttribute(attr);
+					v.setCaching(false);
+					v.setProxyReader(new TiledBandReader(dataset, files,
+							tileOrigins, tileSize, findFillValue(band1)));
+					return v;
+				}
+			});
+			dataset.addVariable(null, v);
+		}
+	}
+
+	/**
+	 * @return The raw value that the blank tile is filled with.
+	 */
+	private double findFillValue(Variable band1) throws IOException {
+		for (String name : new String[] {"_FillValue", "missing_value"}) {
+			Attribute attr = band1.findAttribute(name);
+			if (attr != null && attr.getNumericValue() != null)
+				return attr.getNumericValue().doubleValue();
+		}
+		// No metadata; assume the blank tile is uniform.
+		int[] origin = new int[band1.getRank()];
+		int[] shape = new int[band1.getRank()];
+		Arrays.fill(shape, 1);
+		try {
+			return band1.read(origin, shape).getDouble(0);
+		} catch (InvalidRangeException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private Variable copyAxis(NetcdfDataset dataset, NetcdfFile blank,
+			String name, Array values) {
+		Variable v = new VariableDS(dataset, null, null, name, DataType.DOUBLE,
+				name, null, null);
+		Variable original = blank.findVariable(name);
+		if (original != null) {
+			for (Attribute attr : original.getAttributes())
+				v.addAttribute(attr);
+		}
+		v.setCachedData(values, false);
+		return v;
+	}
+}
@@ -25,7 +25,6 @@ import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.context.ApplicationContext;
 import org.vpac.ndg.ApplicationContextProvider;
 import org.vpac.ndg.common.datamodel.CellSize;
 import org.vpac.ndg.configuration.NdgConfig;
@@ -49,8 +48,15 @@ public class TileManager {
 	NdgConfigManager ndgConfigManager;
 
 	public TileManager() {
-		ApplicationContext appContext = ApplicationContextProvider.getApplicationContext();
-		ndgConfigManager = (NdgConfigManager) appContext.getBean("ndgConfigManager");
+		this((NdgConfigManager) ApplicationContextProvider
+				.getApplicationContext().getBean("ndgConfigManager"));
+	}
+
+	/**
+	 * @param ndgConfigManager The configuration that defines the grid.
+	 */
+	public TileManager(NdgConfigManager ndgConfigManager) {
+		this.ndgConfigManager = ndgConfigManager;
 		NdgConfig cfg = ndgConfigManager.getConfig();
 		this.origin = cfg.getGridOriginPointInTargetSrs();
 		this.resolutionList = cfg.getResolutionMap();	
@@ -0,0 +1,349 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.rasterservices;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.rasterdetails.RasterDetails;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+import ucar.nc2.jni.netcdf.Nc4Chunking;
+import ucar.nc2.jni.netcdf.Nc4ChunkingStrategyImpl;
+
+/**
+ * Overlays NetCDF tiles that share a grid, as an alternative to mosaicking
+ * them with <em>gdalwarp</em>.
+ *
+ * <p>
+ * The output has the structure of the first source. It starts out as nodata,
+ * and then the valid cells of each source are copied over it in order, so
+ * later sources win where they overlap. The tiles are processed a block of
+ * rows at a time, so memory use does not depend on the size of the tiles.
+ * Nodata and data types are handled as gdalwarp does: the source nodata value
+ * applies to all sources (each source's own _FillValue is used if it is not
+ * given), NaN is never valid, and values are rounded and clamped to the output
+ * type.
+ * </p>
+ *
+ * <p>
+ * If the sources don't have identical grids, an
+ * {@link UnsupportedOperationException} is thrown before anything is written.
+ * </p>
+ */
+public class Compositor {
+
+	final private Logger log = LoggerFactory.getLogger(Compositor.class);
+
+	/**
+	 * The number of cells that are read from each source at once.
+	 */
+	static final int BLOCK_CELLS = 1024 * 1024;
+
+	private Double srcnodata;
+	private Double dstnodata;
+	private RasterDetails datatype;
+
+	/**
+	 * Overlay the sources.
+	 *
+	 * @param sources The tiles to combine, bottom first.
+	 * @param target The file to write.
+	 * @throws IOException If a source could not be read or the target could
+	 *             not be written.
+	 * @throws UnsupportedOperationException If the sources don't share a
+	 *             grid. Nothing is written in that case.
+	 */
+	public void composite(List<Path> sources, Path target)
+			throws IOException {
+
+		if (sources.isEmpty())
+			throw new IOException("No sources to composite");
+
+		List<NetcdfFile> files = new ArrayList<NetcdfFile>();
+		try {
+			for (Path source : sources)
+				files.add(NetcdfFile.open(source.toString()));
+			compositeFiles(files, target);
+		} finally {
+			for (NetcdfFile nc : files)
+				nc.close();
+		}
+	}
+
+	private void compositeFiles(List<NetcdfFile> files, Path target)
+			throws IOException {
+
+		NetcdfFile base = files.get(0);
+		Variable baseBand = findBand(base);
+		List<Variable> bands = new ArrayList<Variable>();
+		for (NetcdfFile nc : files) {
+			Variable band = findBand(nc);
+			checkGrid(base, baseBand, nc, band);
+			bands.add(band);
+		}
+
+		DataType type;
+		if (datatype != null)
+			type = Warper.toDataType(datatype);
+		else
+			type = baseBand.getDataType();
+		switch (type) {
+		case BYTE:
+		case SHORT:
+		case INT:
+		case FLOAT:
+		case DOUBLE:
+			break;
+		default:
+			throw new UnsupportedOperationException(String.format(
+					"Can't composite data of type %s", type));
+		}
+
+		Double nodata = dstnodata;
+		if (nodata == null)
+			nodata = srcnodata;
+		if (nodata == null)
+			nodata = getNoData(baseBand);
+
+		log.debug("Compositing {} tiles into {}", files.size(), target);
+		NetcdfFileWriter writer = NetcdfFileWriter.createNew(
+				Version.netcdf4_classic, target.toString(),
+				Nc4ChunkingStrategyImpl.factory(Nc4Chunking.Strategy.standard,
+						Warper.DEFLATE_LEVEL, false));
+		try {
+			Variable outBand = define(writer, base, baseBand, type, nodata);
+			writer.create();
+
+			// Copy coordinates etc. verbatim.
+			for (Variable var : base.getVariables()) {
+				if (var == baseBand)
+					continue;
+				writer.write(writer.findVariable(var.getFullNameEscaped()),
+						var.read());
+			}
+
+			int[] shape = baseBand.getShape();
+			int height = shape[0];
+			int width = shape[1];
+			int rows = Math.max(1, BLOCK_CELLS / width);
+			double[] cells = new double[Math.min(rows, height) * width];
+			double fill = nodata == null ? 0.0 : nodata;
+
+			for (int y = 0; y < height; y += rows) {
+				int n = Math.min(rows, height - y);
+				int[] origin = new int[] {y, 0};
+				int[] blockShape = new int[] {n, width};
+				int size = n * width;
+				Arrays.fill(cells, 0, size, fill);
+
+				for (Variable band : bands) {
+					Array block = band.read(origin, blockShape);
+					overlay(block, size, isUnsigned(band), getSourceNoData(band),
+							cells);
+				}
+
+				Array out = Array.factory(type, blockShape);
+				for (int i = 0; i < size; i++)
+					Warper.setCell(out, i, cells[i], type);
+				writer.write(outBand, origin, out);
+			}
+		} catch (InvalidRangeException e) {
+			throw new IOException(String.format(
+					"Could not composite into %s", target), e);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Copy the valid cells of a block over the output.
+	 */
+	private static void overlay(Array block, int size, boolean unsigned,
+			Double nodata, double[] cells) {
+		boolean hasNoData = nodata != null && !nodata.isNaN();
+		double nd = hasNoData ? nodata : 0;
+		for (int i = 0; i < size; i++) {
+			double value = block.getDouble(i);
+			if (unsigned && value < 0)
+				value += 256;
+			if (Double.isNaN(value))
+				continue;
+			if (hasNoData && value == nd)
+				continue;
+			cells[i] = value;
+		}
+	}
+
+	/**
+	 * Declare the dimensions and variables of the output, copied from the
+	 * first source.
+	 * @return The output data variable.
+	 */
+	private Variable define(NetcdfFileWriter writer, NetcdfFile base,
+			Variable baseBand, DataType type, Double nodata) {
+
+		for (Attribute att : base.getGlobalAttributes())
+			writer.addGroupAttribute(null, att);
+		for (Dimension dim : base.getDimensions())
+			writer.addDimension(null, dim.getShortName(), dim.getLength());
+
+		Variable outBand = null;
+		for (Variable var : base.getVariables()) {
+			boolean isBand = var == baseBand;
+			Variable out = writer.addVariable(null, var.getShortName(),
+					isBand ? type : var.getDataType(),
+					var.getDimensionsString());
+			for (Attribute att : var.getAttributes()) {
+				if (isBand && (att.getShortName().equals("_FillValue")
+						|| att.getShortName().equals("missing_value")
+						|| att.getShortName().equals("_Unsigned"))) {
+					continue;
+				}
+				writer.addVariableAttribute(out, att);
+			}
+			if (isBand)
+				outBand = out;
+		}
+
+		if (type == DataType.BYTE) {
+			writer.addVariableAttribute(outBand,
+					new Attribute("_Unsigned", "true"));
+		}
+		if (nodata != null) {
+			Array fill = Array.factory(type, new int[] {1});
+			Warper.setCell(fill, 0, nodata, type);
+			writer.addVariableAttribute(outBand,
+					new Attribute("_FillValue", fill));
+		}
+		return outBand;
+	}
+
+	/**
+	 * @return The data variable of a tile, as written by GDAL.
+	 */
+	private static Variable findBand(NetcdfFile nc) {
+		Variable band = nc.findVariable(Warper.BAND_NAME);
+		if (band == null || band.getRank() != 2) {
+			throw new UnsupportedOperationException(String.format(
+					"%s has no 2D variable %s", nc.getLocation(),
+					Warper.BAND_NAME));
+		}
+		return band;
+	}
+
+	/**
+	 * Check that a tile has the same shape and coordinates as the first one.
+	 */
+	private static void checkGrid(NetcdfFile base, Variable baseBand,
+			NetcdfFile nc, Variable band) throws IOException {
+
+		if (!Arrays.equals(baseBand.getShape(), band.getShape())) {
+			throw new UnsupportedOperationException(String.format(
+					"%s and %s have different shapes", base.getLocation(),
+					nc.getLocation()));
+		}
+		if (nc == base)
+			return;
+
+		for (Dimension dim : baseBand.getDimensions()) {
+			Variable a = base.findVariable(dim.getShortName());
+			Variable b = nc.findVariable(dim.getShortName());
+			if (a == null || b == null) {
+				throw new UnsupportedOperationException(String.format(
+						"Missing coordinates for %s", dim.getShortName()));
+			}
+			Array va = a.read();
+			Array vb = b.read();
+			double tolerance = 0;
+			if (va.getSize() > 1)
+				tolerance = Math.abs(va.getDouble(1) - va.getDouble(0)) * 1e-6;
+			for (int i = 0; i < va.getSize(); i++) {
+				if (Math.abs(va.getDouble(i) - vb.getDouble(i)) > tolerance) {
+					throw new UnsupportedOperationException(String.format(
+							"%s and %s have different %s coordinates",
+							base.getLocation(), nc.getLocation(),
+							dim.getShortName()));
+				}
+			}
+		}
+	}
+
+	private Double getSourceNoData(Variable band) {
+		if (srcnodata != null)
+			return srcnodata;
+		return getNoData(band);
+	}
+
+	private static Double getNoData(Variable band) {
+		Attribute att = band.findAttribute("_FillValue");
+		if (att == null)
+			att = band.findAttribute("missing_value");
+		if (att == null || att.getNumericValue() == null)
+			return null;
+		double value = att.getNumericValue().doubleValue();
+		if (isUnsigned(band) && value < 0)
+			value += 256;
+		return value;
+	}
+
+	private static boolean isUnsigned(Variable band) {
+		if (band.getDataType() != DataType.BYTE)
+			return false;
+		Attribute att = band.findAttribute("_Unsigned");
+		return att != null && "true".equalsIgnoreCase(att.getStringValue());
+	}
+
+	public Double getSrcnodata() {
+		return srcnodata;
+	}
+
+	public void setSrcnodata(Double srcnodata) {
+		this.srcnodata = srcnodata;
+	}
+
+	public Double getDstnodata() {
+		return dstnodata;
+	}
+
+	public void setDstnodata(Double dstnodata) {
+		this.dstnodata = dstnodata;
+	}
+
+	public RasterDetails getDatatype() {
+		return datatype;
+	}
+
+	public void setDatatype(RasterDetails datatype) {
+		this.datatype = datatype;
+	}
+}
@@ -0,0 +1,738 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.rasterservices;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.gdal.osr.CoordinateTransformation;
+import org.gdal.osr.SpatialReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.GdalInterface;
+import org.vpac.ndg.geometry.Box;
+import org.vpac.ndg.query.coordinates.Warp;
+import org.vpac.ndg.query.coordinates.WarpApproximate;
+import org.vpac.ndg.query.coordinates.WarpIdentity;
+import org.vpac.ndg.query.coordinates.WarpOffsetWithScaleAndProjection;
+import org.vpac.ndg.query.coordinates.WarpSpatial;
+import org.vpac.ndg.query.math.VectorReal;
+import org.vpac.ndg.rasterdetails.RasterDetails;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+import ucar.nc2.jni.netcdf.Nc4Chunking;
+import ucar.nc2.jni.netcdf.Nc4ChunkingStrategyImpl;
+
+/**
+ * Reprojects and mosaics rasters into a NetCDF file in-process, as an
+ * alternative to running <em>gdalwarp</em>.
+ *
+ * <p>
+ * The sources are read with the GDAL bindings, so any format that gdalwarp
+ * can read is supported. Each target cell centre is mapped to the sources with
+ * the query engine's warps; reprojection is approximated to within
+ * {@link #MAX_ERROR} source cells, which is gdalwarp's default error
+ * threshold. Cells are resampled by nearest neighbour or bilinear
+ * interpolation, ignoring source cells that are nodata. Where sources overlap,
+ * the last one with a valid value wins. The output is written with NetCDF-Java
+ * using the same conventions as GDAL's netCDF driver (CF grid mapping,
+ * bottom-up rows, <em>Band1</em>).
+ * </p>
+ *
+ * <p>
+ * Sources that can not be handled here (rotated grids, several bands, unknown
+ * coordinate systems or projections without a CF mapping) cause an
+ * {@link UnsupportedOperationException} before anything is written, so the
+ * caller can fall back to gdalwarp. Instances are not thread-safe.
+ * </p>
+ */
+public class Warper {
+
+	final private Logger log = LoggerFactory.getLogger(Warper.class);
+
+	/**
+	 * The maximum error of approximate reprojection, in source cells. This is
+	 * the default of gdalwarp's -et option.
+	 */
+	public static final double MAX_ERROR = 0.125;
+
+	/**
+	 * The largest region of a source that will be read at once, in cells.
+	 */
+	public static final long MAX_WINDOW = 64L * 1024 * 1024;
+
+	/**
+	 * The name of the data variable, as written by GDAL.
+	 */
+	public static final String BAND_NAME = "Band1";
+
+	static final int DEFLATE_LEVEL = 6;
+
+	/**
+	 * The number of segments that each edge of the target is divided into
+	 * when finding the region of a source that it covers.
+	 */
+	static final int EDGE_SEGMENTS = 20;
+
+	private GdalInterface gdal;
+	private boolean useBilinearInterpolation;
+	private Double srcnodata;
+	private Double dstnodata;
+	private RasterDetails datatype;
+
+	public Warper() {
+		gdal = new GdalInterface();
+	}
+
+	/**
+	 * The target raster: a north-up grid that is filled in by each source.
+	 */
+	private static class Canvas {
+		int width;
+		int height;
+		double xmin;
+		double ymax;
+		double resolution;
+		double[] data;
+		Double nodata;
+		RasterDetails datatype;
+
+		Canvas(Box extents, double resolution) {
+			this.resolution = resolution;
+			xmin = extents.getXMin();
+			ymax = extents.getYMax();
+			// Same rounding as gdalwarp's -te and -tr options.
+			width = (int) ((extents.getXMax() - extents.getXMin()
+					+ resolution / 2) / resolution);
+			height = (int) ((extents.getYMax() - extents.getYMin()
+					+ resolution / 2) / resolution);
+			data = new double[width * height];
+		}
+	}
+
+	/**
+	 * A region of one source band, read into memory.
+	 */
+	private static class Source {
+		double[] pixels;
+		int xoff;
+		int yoff;
+		int width;
+		int height;
+		Double nodata;
+
+		double get(int x, int y) {
+			x -= xoff;
+			y -= yoff;
+			if (x < 0 || y < 0 || x >= width || y >= height)
+				return Double.NaN;
+			double value = pixels[y * width + x];
+			if (nodata != null && value == nodata)
+				return Double.NaN;
+			return value;
+		}
+
+		double nearest(double x, double y) {
+			return get((int) Math.floor(x), (int) Math.floor(y));
+		}
+
+		/**
+		 * Interpolate between the four nearest cell centres. Like gdalwarp,
+		 * the cell under the point must be valid; other invalid cells are
+		 * left out and the weights of the remaining cells are normalised.
+		 */
+		double bilinear(double x, double y) {
+			if (Double.isNaN(nearest(x, y)))
+				return Double.NaN;
+
+			double fx = x - 0.5;
+			double fy = y - 0.5;
+			int x0 = (int) Math.floor(fx);
+			int y0 = (int) Math.floor(fy);
+			double dx = fx - x0;
+			double dy = fy - y0;
+
+			double sum = 0;
+			double weight = 0;
+			for (int n = 0; n < 4; n++) {
+				int ox = n & 1;
+				int oy = n >> 1;
+				double w = (ox == 1 ? dx : 1 - dx) * (oy == 1 ? dy : 1 - dy);
+				if (w == 0)
+					continue;
+				double value = get(x0 + ox, y0 + oy);
+				if (Double.isNaN(value))
+					continue;
+				sum += value * w;
+				weight += w;
+			}
+			if (weight < 0.00001)
+				return Double.NaN;
+			return sum / weight;
+		}
+	}
+
+	/**
+	 * Transforms projected coordinates using GDAL/OGR.
+	 */
+	private static class WarpOgr extends WarpSpatial {
+
+		private CoordinateTransformation transformation;
+		private double[] point;
+
+		WarpOgr(SpatialReference from, SpatialReference to) {
+			transformation = new CoordinateTransformation(from, to);
+			point = new double[3];
+		}
+
+		@Override
+		public void warp(VectorReal co) {
+			point[0] = co.getX();
+			point[1] = co.getY();
+			point[2] = 0;
+			try {
+				transformation.TransformPoint(point);
+			} catch (RuntimeException e) {
+				point[0] = point[1] = Double.NaN;
+			}
+			co.setX(point[0]);
+			co.setY(point[1]);
+		}
+	}
+
+	/**
+	 * Warp the sources into a new NetCDF file.
+	 *
+	 * @param sources The files to mosaic, in order. Missing files are
+	 *            skipped.
+	 * @param target The file to write.
+	 * @param targetSrs The coordinate system of the target.
+	 * @param extents The bounds of the target, in target coordinates.
+	 * @param resolution The size of the target cells.
+	 * @throws IOException If a source could not be read or the target could
+	 *             not be written.
+	 * @throws UnsupportedOperationException If the sources or target can't be
+	 *             handled in-process. Nothing is written in that case.
+	 */
+	public void warp(List<Path> sources, Path target,
+			SpatialReference targetSrs, Box extents, double resolution)
+			throws IOException {
+
+		Canvas canvas = new Canvas(extents, resolution);
+		if (canvas.width <= 0 || canvas.height <= 0) {
+			throw new UnsupportedOperationException(String.format(
+					"Target extents %s are smaller than one cell", extents));
+		}
+		canvas.nodata = dstnodata;
+		canvas.datatype = datatype;
+
+		// Check that the target can be described before doing any work.
+		List<Attribute> gridMapping = getGridMapping(targetSrs);
+
+		boolean initialised = false;
+		for (Path source : sources) {
+			if (!source.toFile().exists())
+				continue;
+			Dataset ds = gdal.open(source);
+			if (ds == null) {
+				throw new IOException(String.format(
+						"Could not open %s", source));
+			}
+			try {
+				if (!initialised) {
+					initialise(canvas, ds);
+					initialised = true;
+				}
+				warpSource(canvas, ds, source, targetSrs);
+			} finally {
+				ds.delete();
+			}
+		}
+		if (!initialised)
+			throw new IOException("None of the sources exist: " + sources);
+
+		write(canvas, target, targetSrs, gridMapping);
+	}
+
+	/**
+	 * Determine the output type and nodata value from the first source, if
+	 * they have not been set explicitly. This is what gdalwarp does.
+	 */
+	private void initialise(Canvas canvas, Dataset ds) {
+		Band band = ds.GetRasterBand(1);
+		if (canvas.datatype == null) {
+			try {
+				canvas.datatype = RasterDetails.valueOf(band.getDataType());
+			} catch (IllegalArgumentException e) {
+				throw new UnsupportedOperationException(e.getMessage());
+			}
+		}
+		if (canvas.nodata == null)
+			canvas.nodata = srcnodata;
+		if (canvas.nodata == null) {
+			Double[] nodata = new Double[1];
+			band.GetNoDataValue(nodata);
+			canvas.nodata = nodata[0];
+		}
+		Arrays.fill(canvas.data,
+				canvas.nodata == null ? 0.0 : canvas.nodata);
+	}
+
+	private void warpSource(Canvas canvas, Dataset ds, Path file,
+			SpatialReference targetSrs) throws IOException {
+
+		if (ds.GetRasterCount() != 1) {
+			throw new UnsupportedOperationException(String.format(
+					"%s has %d bands; only one is supported", file,
+					ds.GetRasterCount()));
+		}
+		double[] gt = ds.GetGeoTransform();
+		if (gt[2] != 0 || gt[4] != 0) {
+			throw new UnsupportedOperationException(String.format(
+					"%s has a rotated grid", file));
+		}
+		String wkt = ds.GetProjection();
+		if (wkt == null || wkt.isEmpty()) {
+			throw new UnsupportedOperationException(String.format(
+					"%s has no coordinate system", file));
+		}
+		SpatialReference sourceSrs = new SpatialReference(wkt);
+
+		Warp warp = createWarp(canvas, gt, targetSrs, sourceSrs);
+		Source source = new Source();
+		if (!findWindow(canvas, warp, ds, source)) {
+			// Same as gdalwarp's SKIP_NOSOURCE.
+			log.debug("{} does not overlap the target; skipping", file);
+			return;
+		}
+
+		Band band = ds.GetRasterBand(1);
+		source.nodata = srcnodata;
+		if (source.nodata == null) {
+			Double[] nodata = new Double[1];
+			band.GetNoDataValue(nodata);
+			source.nodata = nodata[0];
+		}
+		if (source.nodata != null && source.nodata.isNaN()) {
+			// NaN is always treated as nodata.
+			source.nodata = null;
+		}
+
+		source.pixels = new double[source.width * source.height];
+		int err = band.ReadRaster(source.xoff, source.yoff,
+				source.width, source.height, source.width, source.height,
+				gdalconstConstants.GDT_Float64, source.pixels);
+		if (err != gdalconstConstants.CE_None) {
+			throw new IOException(String.format(
+					"Could not read %s (error %d)", file, err));
+		}
+
+		resample(canvas, warp, source);
+	}
+
+	/**
+	 * @return A warp from target cell coordinates to source cell coordinates.
+	 */
+	private Warp createWarp(Canvas canvas, double[] gt,
+			SpatialReference targetSrs, SpatialReference sourceSrs) {
+
+		boolean reproject = sourceSrs.IsSame(targetSrs) == 0;
+		Warp projection;
+		if (reproject)
+			projection = new WarpOgr(targetSrs, sourceSrs);
+		else
+			projection = new WarpIdentity();
+
+		// Target rows run from north to south, like the source.
+		Warp warp = new WarpOffsetWithScaleAndProjection(
+				VectorReal.create(canvas.xmin, canvas.ymax),
+				VectorReal.create(gt[0], gt[3]),
+				VectorReal.create(canvas.resolution, -canvas.resolution),
+				VectorReal.create(gt[1], gt[5]),
+				projection);
+		if (reproject)
+			warp = new WarpApproximate(warp, MAX_ERROR);
+		return warp;
+	}
+
+	/**
+	 * Find the region of the source that the target covers, by warping
+	 * points along the edges of the target.
+	 *
+	 * @return false if the target does not overlap the source.
+	 */
+	private boolean findWindow(Canvas canvas, Warp warp, Dataset ds,
+			Source source) {
+
+		double xmin = Double.POSITIVE_INFINITY;
+		double ymin = Double.POSITIVE_INFINITY;
+		double xmax = Double.NEGATIVE_INFINITY;
+		double ymax = Double.NEGATIVE_INFINITY;
+		VectorReal co = VectorReal.createEmpty(2);
+		for (int i = 0; i <= EDGE_SEGMENTS; i++) {
+			double f = (double) i / EDGE_SEGMENTS;
+			double[][] points = new double[][] {
+				{ canvas.width * f, 0 },
+				{ canvas.width * f, canvas.height },
+				{ 0, canvas.height * f },
+				{ canvas.width, canvas.height * f } };
+			for (double[] p : points) {
+				co.setX(p[0]);
+				co.setY(p[1]);
+				warp.warp(co);
+				if (Double.isNaN(co.getX()) || Double.isNaN(co.getY()))
+					continue;
+				xmin = Math.min(xmin, co.getX());
+				ymin = Math.min(ymin, co.getY());
+				xmax = Math.max(xmax, co.getX());
+				ymax = Math.max(ymax, co.getY());
+			}
+		}
+		if (xmin > xmax)
+			return false;
+
+		// Expand by one cell for the neighbours used by interpolation.
+		int x0 = (int) Math.max(Math.floor(xmin) - 1, 0);
+		int y0 = (int) Math.max(Math.floor(ymin) - 1, 0);
+		int x1 = (int) Math.min(Math.ceil(xmax) + 1, ds.getRasterXSize());
+		int y1 = (int) Math.min(Math.ceil(ymax) + 1, ds.getRasterYSize());
+		if (x0 >= x1 || y0 >= y1)
+			return false;
+
+		if ((long) (x1 - x0) * (y1 - y0) > MAX_WINDOW) {
+			throw new UnsupportedOperationException(String.format(
+					"Source region %dx%d is too large to read at once",
+					x1 - x0, y1 - y0));
+		}
+		source.xoff = x0;
+		source.yoff = y0;
+		source.width = x1 - x0;
+		source.height = y1 - y0;
+		return true;
+	}
+
+	private void resample(Canvas canvas, Warp warp, Source source) {
+		VectorReal co = VectorReal.createEmpty(2);
+		for (int j = 0; j < canvas.height; j++) {
+			for (int i = 0; i < canvas.width; i++) {
+				co.setX(i + 0.5);
+				co.setY(j + 0.5);
+				warp.warp(co);
+				double value;
+				if (useBilinearInterpolation)
+					value = source.bilinear(co.getX(), co.getY());
+				else
+					value = source.nearest(co.getX(), co.getY());
+				if (!Double.isNaN(value))
+					canvas.data[j * canvas.width + i] = value;
+			}
+		}
+	}
+
+	/**
+	 * @return The attributes of the CF grid mapping variable for a coordinate
+	 *         system, as written by GDAL's netCDF driver.
+	 */
+	private List<Attribute> getGridMapping(SpatialReference srs) {
+		List<Attribute> atts = new ArrayList<Attribute>();
+		if (srs.IsGeographic() != 0) {
+			atts.add(new Attribute("grid_mapping_name", "latitude_longitude"));
+		} else if (srs.IsProjected() != 0) {
+			String projection = srs.GetAttrValue("PROJECTION");
+			if ("Albers_Conic_Equal_Area".equals(projection)) {
+				atts.add(new Attribute("grid_mapping_name",
+						"albers_conical_equal_area"));
+				atts.add(new Attribute("standard_parallel", Arrays.asList(
+						(Number) srs.GetProjParm("standard_parallel_1", 0),
+						srs.GetProjParm("standard_parallel_2", 0))));
+				atts.add(new Attribute("longitude_of_central_meridian",
+						srs.GetProjParm("longitude_of_center", 0)));
+				atts.add(new Attribute("latitude_of_projection_origin",
+						srs.GetProjParm("latitude_of_center", 0)));
+			} else if ("Transverse_Mercator".equals(projection)) {
+				atts.add(new Attribute("grid_mapping_name",
+						"transverse_mercator"));
+				atts.add(new Attribute("scale_factor_at_central_meridian",
+						srs.GetProjParm("scale_factor", 1)));
+				atts.add(new Attribute("longitude_of_central_meridian",
+						srs.GetProjParm("central_meridian", 0)));
+				atts.add(new Attribute("latitude_of_projection_origin",
+						srs.GetProjParm("latitude_of_origin", 0)));
+			} else if ("Lambert_Conformal_Conic_2SP".equals(projection)) {
+				atts.add(new Attribute("grid_mapping_name",
+						"lambert_conformal_conic"));
+				atts.add(new Attribute("standard_parallel", Arrays.asList(
+						(Number) srs.GetProjParm("standard_parallel_1", 0),
+						srs.GetProjParm("standard_parallel_2", 0))));
+				atts.add(new Attribute("longitude_of_central_meridian",
+						srs.GetProjParm("central_meridian", 0)));
+				atts.add(new Attribute("latitude_of_projection_origin",
+						srs.GetProjParm("latitude_of_origin", 0)));
+			} else {
+				throw new UnsupportedOperationException(String.format(
+						"No CF grid mapping for projection %s", projection));
+			}
+			atts.add(new Attribute("false_easting",
+					srs.GetProjParm("false_easting", 0)));
+			atts.add(new Attribute("false_northing",
+					srs.GetProjParm("false_northing", 0)));
+		} else {
+			throw new UnsupportedOperationException(
+					"Target coordinate system is neither geographic nor " +
+					"projected");
+		}
+		atts.add(new Attribute("longitude_of_prime_meridian", 0.0));
+		atts.add(new Attribute("semi_major_axis", srs.GetSemiMajor()));
+		atts.add(new Attribute("inverse_flattening", srs.GetInvFlattening()));
+		atts.add(new Attribute("spatial_ref", srs.ExportToWkt()));
+		return atts;
+	}
+
+	private void write(Canvas canvas, Path target, SpatialReference srs,
+			List<Attribute> gridMapping) throws IOException {
+
+		boolean geographic = srs.IsGeographic() != 0;
+		String xName = geographic ? "lon" : "x";
+		String yName = geographic ? "lat" : "y";
+		// GDAL names the grid mapping variable after the mapping, except
+		// for geographic coordinates.
+		String crsName = geographic ? "crs"
+				: gridMapping.get(0).getStringValue();
+
+		DataType type = toDataType(canvas.datatype);
+		NetcdfFileWriter writer = NetcdfFileWriter.createNew(
+				Version.netcdf4_classic, target.toString(),
+				Nc4ChunkingStrategyImpl.factory(Nc4Chunking.Strategy.standard,
+						DEFLATE_LEVEL, false));
+		try {
+			writer.addGroupAttribute(null,
+					new Attribute("Conventions", "CF-1.5"));
+
+			Dimension yDim = writer.addDimension(null, yName, canvas.height);
+			Dimension xDim = writer.addDimension(null, xName, canvas.width);
+
+			Variable crsVar = writer.addVariable(null, crsName, DataType.CHAR,
+					new ArrayList<Dimension>());
+			for (Attribute att : gridMapping)
+				writer.addVariableAttribute(crsVar, att);
+			writer.addVariableAttribute(crsVar, new Attribute("GeoTransform",
+					String.format("%s %s 0 %s 0 %s", canvas.xmin,
+					canvas.resolution, canvas.ymax, -canvas.resolution)));
+
+			Variable yVar = writer.addVariable(null, yName, DataType.DOUBLE,
+					Arrays.asList(yDim));
+			Variable xVar = writer.addVariable(null, xName, DataType.DOUBLE,
+					Arrays.asList(xDim));
+			if (geographic) {
+				addAxisAttributes(writer, yVar, "latitude", "latitude",
+						"degrees_north");
+				addAxisAttributes(writer, xVar, "longitude", "longitude",
+						"degrees_east");
+			} else {
+				String units = srs.GetLinearUnits() == 1.0 ? "m"
+						: srs.GetLinearUnitsName();
+				addAxisAttributes(writer, yVar, "projection_y_coordinate",
+						"y coordinate of projection", units);
+				addAxisAttributes(writer, xVar, "projection_x_coordinate",
+						"x coordinate of projection", units);
+			}
+
+			Variable band = writer.addVariable(null, BAND_NAME, type,
+					Arrays.asList(yDim, xDim));
+			writer.addVariableAttribute(band,
+					new Attribute("long_name", "GDAL Band Number 1"));
+			if (canvas.datatype == RasterDetails.BYTE) {
+				writer.addVariableAttribute(band,
+						new Attribute("_Unsigned", "true"));
+			}
+			if (canvas.nodata != null) {
+				Array fill = Array.factory(type, new int[] {1});
+				setCell(fill, 0, canvas.nodata, type);
+				writer.addVariableAttribute(band,
+						new Attribute("_FillValue", fill));
+			}
+			writer.addVariableAttribute(band,
+					new Attribute("grid_mapping", crsName));
+
+			writer.create();
+
+			// Cell centres; rows are stored bottom-up, like GDAL does.
+			double ymin = canvas.ymax - canvas.height * canvas.resolution;
+			Array ys = Array.factory(DataType.DOUBLE,
+					new int[] {canvas.height});
+			for (int j = 0; j < canvas.height; j++)
+				ys.setDouble(j, ymin + (j + 0.5) * canvas.resolution);
+			Array xs = Array.factory(DataType.DOUBLE,
+					new int[] {canvas.width});
+			for (int i = 0; i < canvas.width; i++)
+				xs.setDouble(i, canvas.xmin + (i + 0.5) * canvas.resolution);
+
+			Array data = Array.factory(type,
+					new int[] {canvas.height, canvas.width});
+			Index index = data.getIndex();
+			for (int j = 0; j < canvas.height; j++) {
+				int row = (canvas.height - 1 - j) * canvas.width;
+				for (int i = 0; i < canvas.width; i++) {
+					index.set(j, i);
+					setCell(data, index.currentElement(),
+							canvas.data[row + i], type);
+				}
+			}
+
+			writer.write(yVar, ys);
+			writer.write(xVar, xs);
+			writer.write(band, data);
+		} catch (InvalidRangeException e) {
+			throw new IOException(String.format(
+					"Could not write %s", target), e);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static void addAxisAttributes(NetcdfFileWriter writer,
+			Variable var, String standardName, String longName, String units) {
+		writer.addVariableAttribute(var,
+				new Attribute("standard_name", standardName));
+		writer.addVariableAttribute(var,
+				new Attribute("long_name", longName));
+		writer.addVariableAttribute(var, new Attribute("units", units));
+	}
+
+	static DataType toDataType(RasterDetails datatype) {
+		switch (datatype) {
+		case BYTE:
+			return DataType.BYTE;
+		case INT16:
+			return DataType.SHORT;
+		case INT32:
+			return DataType.INT;
+		case FLOAT32:
+			return DataType.FLOAT;
+		case FLOAT64:
+		default:
+			return DataType.DOUBLE;
+		}
+	}
+
+	/**
+	 * Store a value, rounding and clamping it to the range of the type in the
+	 * same way as GDAL.
+	 */
+	static void setCell(Array array, int i, double value, DataType type) {
+		switch (type) {
+		case BYTE:
+			// GDAL bytes are unsigned.
+			array.setByte(i, (byte) round(value, 0, 255));
+			break;
+		case SHORT:
+			array.setShort(i, (short) round(value,
+					Short.MIN_VALUE, Short.MAX_VALUE));
+			break;
+		case INT:
+			array.setInt(i, (int) round(value,
+					Integer.MIN_VALUE, Integer.MAX_VALUE));
+			break;
+		case FLOAT:
+			array.setFloat(i, (float) value);
+			break;
+		case DOUBLE:
+		default:
+			array.setDouble(i, value);
+			break;
+		}
+	}
+
+	private static long round(double value, long min, long max) {
+		if (Double.isNaN(value))
+			return 0;
+		// Round half away from zero.
+		double rounded = value < 0 ? Math.ceil(value - 0.5)
+				: Math.floor(value + 0.5);
+		if (rounded < min)
+			return min;
+		if (rounded > max)
+			return max;
+		return (long) rounded;
+	}
+
+	/**
+	 * Parse a nodata value in the form accepted by gdalwarp. Only the first
+	 * value is used, since only single-band sources are supported.
+	 *
+	 * @return The value, or null if none was specified.
+	 */
+	public static Double parseNoData(String nodata) {
+		if (nodata == null)
+			return null;
+		nodata = nodata.trim();
+		if (nodata.isEmpty() || nodata.equalsIgnoreCase("None"))
+			return null;
+		String value = nodata.split("\\s+")[0];
+		if (value.equalsIgnoreCase("nan"))
+			return Double.NaN;
+		return Double.parseDouble(value);
+	}
+
+	public boolean isUseBilinearInterpolation() {
+		return useBilinearInterpolation;
+	}
+
+	public void setUseBilinearInterpolation(boolean useBilinearInterpolation) {
+		this.useBilinearInterpolation = useBilinearInterpolation;
+	}
+
+	public Double getSrcnodata() {
+		return srcnodata;
+	}
+
+	public void setSrcnodata(Double srcnodata) {
+		this.srcnodata = srcnodata;
+	}
+
+	public Double getDstnodata() {
+		return dstnodata;
+	}
+
+	public void setDstnodata(Double dstnodata) {
+		this.dstnodata = dstnodata;
+	}
+
+	public RasterDetails getDatatype() {
+		return datatype;
+	}
+
+	public void setDatatype(RasterDetails datatype) {
+		this.datatype = datatype;
+	}
+}
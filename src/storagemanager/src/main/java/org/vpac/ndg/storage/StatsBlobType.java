@@ -0,0 +1,181 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.usertype.ParameterizedType;
+import org.hibernate.usertype.UserType;
+import org.vpac.ndg.query.stats.StatsCodec;
+
+/**
+ * Stores statistics ({@link org.vpac.ndg.query.stats.Cats},
+ * {@link org.vpac.ndg.query.stats.Ledger} etc.) in a single binary column
+ * using {@link StatsCodec}, instead of mapping each bucket to its own row.
+ *
+ * <p>
+ * Parameters: <em>statsClass</em> is the class of the mapped property, and
+ * <em>compress</em> controls whether new values are deflated (default true).
+ * </p>
+ *
+ * <p>
+ * The values are treated as immutable: modifying a loaded object in-place will
+ * not cause it to be saved again. Set the property instead.
+ * </p>
+ */
+public class StatsBlobType implements UserType, ParameterizedType {
+
+	private Class<?> clazz;
+	private StatsCodec codec;
+
+	@Override
+	public void setParameterValues(Properties parameters) {
+		String className = null;
+		String compress = null;
+		if (parameters != null) {
+			className = parameters.getProperty("statsClass");
+			compress = parameters.getProperty("compress");
+		}
+		if (className == null) {
+			throw new IllegalArgumentException(
+				"The statsClass parameter is required");
+		}
+		try {
+			clazz = Class.forName(className);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException(
+				String.format("Unknown class %s", className), e);
+		}
+		codec = new StatsCodec(compress == null ||
+			Boolean.parseBoolean(compress));
+	}
+
+	@Override
+	public Class<?> returnedClass() {
+		return clazz;
+	}
+
+	@Override
+	public int[] sqlTypes() {
+		return new int[] { Types.LONGVARBINARY };
+	}
+
+	@Override
+	public boolean isMutable() {
+		return false;
+	}
+
+	@Override
+	public Object nullSafeGet(ResultSet resultSet, String[] names,
+			SessionImplementor session, Object owner)
+			throws HibernateException, SQLException {
+		// Decode straight from the stream, so the encoded form doesn't need
+		// to be held in memory as well.
+		InputStream in = resultSet.getBinaryStream(names[0]);
+		if (in == null)
+			return null;
+		try {
+			return codec.decode(in, clazz);
+		} catch (IOException e) {
+			throw new HibernateException(String.format(
+				"Failed to decode %s", clazz.getSimpleName()), e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Ignore; the value has already been read.
+			}
+		}
+	}
+
+	@Override
+	public void nullSafeSet(PreparedStatement statement, Object value,
+			int index, SessionImplementor session)
+			throws HibernateException, SQLException {
+
+		if (value == null) {
+			statement.setNull(index, Types.LONGVARBINARY);
+			return;
+		}
+
+		statement.setBytes(index, encode(value));
+	}
+
+	private byte[] encode(Object value) {
+		try {
+			return codec.encode(value);
+		} catch (IOException e) {
+			throw new HibernateException(String.format(
+				"Failed to encode %s", clazz.getSimpleName()), e);
+		}
+	}
+
+	@Override
+	public Object deepCopy(Object value) throws HibernateException {
+		return value;
+	}
+
+	@Override
+	public Object assemble(Serializable cached, Object owner)
+			throws HibernateException {
+		if (cached == null)
+			return null;
+		try {
+			return codec.decode((byte[]) cached);
+		} catch (IOException e) {
+			throw new HibernateException(String.format(
+				"Failed to decode %s", clazz.getSimpleName()), e);
+		}
+	}
+
+	@Override
+	public Serializable disassemble(Object value) throws HibernateException {
+		if (value == null)
+			return null;
+		return encode(value);
+	}
+
+	@Override
+	public Object replace(Object original, Object target, Object owner)
+			throws HibernateException {
+		return original;
+	}
+
+	@Override
+	public boolean equals(Object a, Object b)
+			throws HibernateException {
+		// The statistics classes don't define equality, and comparing them
+		// would be as expensive as saving them.
+		return a == b;
+	}
+
+	@Override
+	public int hashCode(Object value) throws HibernateException {
+		return System.identityHashCode(value);
+	}
+
+}
@@ -54,4 +54,10 @@ public interface StatisticsDao {
 	 * might output multiple ledgers.
 	 */
 	List<TaskLedger> searchTaskLedger(String jobId, String key);
+	/**
+	 * Find the ID of the ledger that {@link #searchTaskLedger(String, String)}
+	 * would return first, without loading the ledger itself.
+	 * @return The ID, or null if there is no matching ledger.
+	 */
+	String findTaskLedgerId(String jobId, String key);
 }
@@ -25,7 +25,10 @@ import java.util.List;
 
 import org.hibernate.Criteria;
 import org.hibernate.Session;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.vpac.ndg.query.stats.Ledger;
@@ -36,6 +39,8 @@ import org.vpac.ndg.storage.util.CustomHibernateDaoSupport;
 
 public class StatisticsDaoImpl extends CustomHibernateDaoSupport implements StatisticsDao {
 
+	final Logger log = LoggerFactory.getLogger(StatisticsDaoImpl.class);
+
 	@Override
 	@Transactional(readOnly = false, propagation = Propagation.REQUIRED)
 	public void saveCats(TaskCats c) {
@@ -76,10 +81,13 @@ public class StatisticsDaoImpl extends CustomHibernateDaoSupport implements Stat
 			c.add(Restrictions.eq("tc.name", catType));
 		@SuppressWarnings("unchecked")
 		List<TaskCats> cats = c.list();
-		// Ensure the objects have been fully fetched before leaving the
-		// transaction.
-		if (cats.size() > 0)
-			cats.get(0);
+		for (TaskCats tc : cats) {
+			if (tc.getLegacyCats() != null) {
+				tc.setCats(tc.getLegacyCats());
+				tc.setLegacyCats(null);
+				deleteLegacy(session, tc.getCats());
+			}
+		}
 		return cats;
 	}
 
@@ -98,10 +106,13 @@ public class StatisticsDaoImpl extends CustomHibernateDaoSupport implements Stat
 			c.add(Restrictions.eq("dc.name", catType));
 		@SuppressWarnings("unchecked")
 		List<DatasetCats> cats = c.list();
-		// Ensure the objects have been fully fetched before leaving the
-		// transaction.
-		if (cats.size() > 0)
-			cats.get(0);
+		for (DatasetCats dc : cats) {
+			if (dc.getLegacyCats() != null) {
+				dc.setCats(dc.getLegacyCats());
+				dc.setLegacyCats(null);
+				deleteLegacy(session, dc.getCats());
+			}
+		}
 		return cats;
 	}
 
@@ -142,9 +153,37 @@ public class StatisticsDaoImpl extends CustomHibernateDaoSupport implements Stat
 			c.add(Restrictions.eq("tl.key", key));
 		@SuppressWarnings("unchecked")
 		List<TaskLedger> tls = c.list();
-		// Ensure the objects have been fully fetched before leaving the
-		// transaction.
-		for (TaskLedger tl : tls) {}
+		for (TaskLedger tl : tls) {
+			if (tl.getLegacyLedger() != null) {
+				tl.setLedger(tl.getLegacyLedger());
+				tl.setLegacyLedger(null);
+				deleteLegacy(session, tl.getLedger());
+			}
+		}
 		return tls;
 	}
+
+	@Override
+	@Transactional
+	public String findTaskLedgerId(String jobId, String key) {
+		Session session = getSession();
+		Criteria c = session.createCriteria(TaskLedger.class, "tl");
+		c.add(Restrictions.eq("tl.job.id", jobId));
+		if (key != null)
+			c.add(Restrictions.eq("tl.key", key));
+		c.setProjection(Projections.id());
+		c.setMaxResults(1);
+		return (String) c.uniqueResult();
+	}
+
+	/**
+	 * Remove statistics that were stored in the old row-per-bucket tables.
+	 * This is done when a row is first read, after the value has been moved
+	 * to the row's blob column. The value has already been loaded, so it is
+	 * still usable after it has been deleted.
+	 */
+	private void deleteLegacy(Session session, Object legacy) {
+		log.info("Converting {} to blob storage", legacy);
+		session.delete(legacy);
+	}
 }
@@ -17,6 +17,9 @@ public class DatasetCats implements Serializable {
 	private String bandId;
 	private String name;
 	private Cats cats;
+	// Categories that were stored in their own tables before they were
+	// encoded as blobs. Converted by the DAO on first read.
+	private Cats legacyCats;
 
 	// No need to store domain (categorical/continuous) here, nor resolution,
 	// because they are in the dataset.
@@ -66,6 +69,8 @@ public class DatasetCats implements Serializable {
 	}
 
 	public Cats getCats() {
+		if (cats == null)
+			return legacyCats;
 		return cats;
 	}
 
@@ -73,6 +78,14 @@ public class DatasetCats implements Serializable {
 		this.cats = cats;
 	}
 
+	public Cats getLegacyCats() {
+		return legacyCats;
+	}
+
+	public void setLegacyCats(Cats legacyCats) {
+		this.legacyCats = legacyCats;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -17,6 +17,9 @@ public class TaskCats implements Serializable {
 	private String name;
 	private CellSize outputResolution;
 	private Cats cats;
+	// Categories that were stored in their own tables before they were
+	// encoded as blobs. Converted by the DAO on first read.
+	private Cats legacyCats;
 	private boolean categorical;
 
 	public TaskCats() {
@@ -48,6 +51,8 @@ public class TaskCats implements Serializable {
 	}
 
 	public Cats getCats() {
+		if (cats == null)
+			return legacyCats;
 		return cats;
 	}
 
@@ -55,6 +60,14 @@ public class TaskCats implements Serializable {
 		this.cats = cats;
 	}
 
+	public Cats getLegacyCats() {
+		return legacyCats;
+	}
+
+	public void setLegacyCats(Cats legacyCats) {
+		this.legacyCats = legacyCats;
+	}
+
 	public String getName() {
 		return name;
 	}
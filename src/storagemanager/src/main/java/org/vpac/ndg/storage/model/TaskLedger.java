@@ -37,6 +37,9 @@ public class TaskLedger implements Serializable {
 	private String key;
 	private CellSize outputResolution;
 	private Ledger ledger;
+	// Ledger that was stored in its own tables before ledgers were encoded as
+	// blobs. Converted by the DAO on first read.
+	private Ledger legacyLedger;
 
 	public TaskLedger() {
 	}
@@ -64,6 +67,8 @@ public class TaskLedger implements Serializable {
 	}
 
 	public Ledger getLedger() {
+		if (ledger == null)
+			return legacyLedger;
 		return ledger;
 	}
 
@@ -71,6 +76,14 @@ public class TaskLedger implements Serializable {
 		this.ledger = ledger;
 	}
 
+	public Ledger getLegacyLedger() {
+		return legacyLedger;
+	}
+
+	public void setLegacyLedger(Ledger legacyLedger) {
+		this.legacyLedger = legacyLedger;
+	}
+
 	public String getKey() {
 		return key;
 	}
@@ -37,6 +37,7 @@ import org.vpac.ndg.geometry.Projection;
 import org.vpac.ndg.geometry.Tile;
 import org.vpac.ndg.geometry.TileManager;
 import org.vpac.ndg.storage.dao.TimeSliceDao;
+import org.vpac.ndg.storage.util.TileManifest;
 import org.vpac.ndg.storage.util.TimeSliceUtil;
 import org.vpac.ndg.storagemanager.IGraphicsFile;
 
@@ -59,6 +60,7 @@ public class TileBand implements IGraphicsFile {
 	TimeSliceDao timeSliceDao;
 	TimeSliceUtil timeSliceUtil;
 	TileManager tileManager;
+	TileManifest tileManifest;
 
 	/** 
 	 * Create a tileband from the specified tile, band and timeslice.
@@ -74,6 +76,7 @@ public class TileBand implements IGraphicsFile {
 		timeSliceDao = (TimeSliceDao) appContext.getBean("timeSliceDao");
 		timeSliceUtil = (TimeSliceUtil) appContext.getBean("timeSliceUtil");
 		tileManager = (TileManager) appContext.getBean("tileManager");
+		tileManifest = (TileManifest) appContext.getBean("tileManifest");
 	}
 
 	public Tile getTile() {
@@ -305,23 +308,17 @@ public class TileBand implements IGraphicsFile {
 	}
 
 	/**
-	 * Check if current tile exists in default storagepool.
+	 * Check if current tile exists in default storagepool. This is answered
+	 * from the {@link TileManifest}, so it doesn't touch the file system.
 	 * @return Returns true if the tile exists in default storagepool,
 	 * otherwise returns false.
 	 */
 	public boolean existsInStoragepool() {
-		Path defaultFileLocation = null;
-		try {
-			defaultFileLocation = getDefaultFileLocation();
-		} catch (TaskException e) {
-			log.error("Could not get default file location: {}", e);
-		}
-
-		if(defaultFileLocation == null) {
+		if(timeSlice == null || band == null || tile == null) {
 			return false;
 		}
 
-		return Files.exists(defaultFileLocation);
+		return tileManifest.exists(timeSlice, band, tile);
 	}
 
 	@Override
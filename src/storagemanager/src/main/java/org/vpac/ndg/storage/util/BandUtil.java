@@ -37,6 +37,7 @@ import org.vpac.ndg.FileUtils;
 import org.vpac.ndg.common.datamodel.CellSize;
 import org.vpac.ndg.common.datamodel.GdalFormat;
 import org.vpac.ndg.configuration.NdgConfigManager;
+import org.vpac.ndg.datamodel.TileFileCache;
 import org.vpac.ndg.rasterservices.ProcessException;
 import org.vpac.ndg.storage.dao.BandDao;
 import org.vpac.ndg.storage.model.Band;
@@ -60,6 +61,12 @@ public class BandUtil {
 	NdgConfigManager ndgConfigManager;
 	@Autowired
 	BandDao bandDao;
+	@Autowired
+	TimeSeriesStore timeSeriesStore;
+	@Autowired
+	TileManifest tileManifest;
+	@Autowired
+	TileFileCache tileFileCache;
 	
 	
 	public BandUtil() {
@@ -86,6 +93,7 @@ public class BandUtil {
 			log.debug("Removing Query Engine UI preview for band {} in dataset {}", band, ds);
 			Files.delete(path);
 		}
+		tileFileCache.invalidate(path);
 	}
 	
 	/**
@@ -193,6 +201,7 @@ public class BandUtil {
 			throw new IOException(String.format("Failed to create blank tile for %s", band), e);
 		}
 
+		tileFileCache.invalidate(path);
 		log.info("Created blank tile {}", path);
 	}
 
@@ -259,6 +268,8 @@ public class BandUtil {
 		for (Path p : bandTilePaths) {
 			FileUtils.deleteIfExists(p);
 		}
+		timeSeriesStore.delete(ds, band);
+		tileManifest.delete(ds, band);
 
 		bandDao.delete(band);
 	}
@@ -0,0 +1,242 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.FileUtils;
+
+/**
+ * Holds the pieces of files that are being uploaded, so that large files can
+ * be sent as many small requests - in parallel, and resuming where they left
+ * off if the connection drops.
+ *
+ * <p>
+ * Chunks are named by the SHA-256 digest of their contents. This makes
+ * storing a chunk idempotent, lets the server check that it arrived intact,
+ * and lets a client find out which chunks it still needs to send. Once all
+ * chunks of a file are present, they are
+ * {@link #assemble(List, Path) assembled} into the target file.
+ * </p>
+ */
+public class ChunkStore {
+
+	final Logger log = LoggerFactory.getLogger(ChunkStore.class);
+
+	public static final String DIGEST_ALGORITHM = "SHA-256";
+	/** The largest chunk that will be accepted. */
+	public static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	private static final Pattern ID_PATTERN = Pattern.compile("[0-9a-f]{64}");
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private Path dir;
+
+	/**
+	 * @param dir The directory to store chunks in. It is created when the
+	 *            first chunk is stored.
+	 */
+	public ChunkStore(Path dir) {
+		this.dir = dir;
+	}
+
+	public Path getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * @return True if the ID looks like a chunk digest. Anything else is
+	 *         rejected, so IDs are always safe to use as file names.
+	 */
+	public static boolean isValidId(String id) {
+		return id != null && ID_PATTERN.matcher(id).matches();
+	}
+
+	public static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return The ID of a chunk with the given contents.
+	 */
+	public static String getId(byte[] data, int offset, int length) {
+		MessageDigest md = createDigest();
+		md.update(data, offset, length);
+		return toHex(md.digest());
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+			sb.append(String.format("%02x", b));
+		return sb.toString();
+	}
+
+	/**
+	 * @return The IDs of the chunks that have been stored.
+	 */
+	public List<String> list() throws IOException {
+		List<String> ids = new ArrayList<String>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (isValidId(name))
+					ids.add(name);
+			}
+		} catch (NoSuchFileException e) {
+			// Nothing stored yet.
+		}
+		return ids;
+	}
+
+	public boolean contains(String id) {
+		return isValidId(id) && Files.exists(dir.resolve(id));
+	}
+
+	/**
+	 * Store a chunk. The data are written to a temporary file and only moved
+	 * into place if their digest matches the ID, so a chunk that is present
+	 * is always complete.
+	 *
+	 * @param id The expected digest of the data.
+	 * @param in The data. This is read until the end, but not closed.
+	 * @throws IllegalArgumentException If the ID is invalid, the data don't
+	 *             match it or the chunk is too large.
+	 */
+	public void put(String id, InputStream in) throws IOException {
+		if (!isValidId(id)) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid chunk ID \"%s\"", id));
+		}
+		Files.createDirectories(dir);
+		Path tmp = dir.resolve(id + "." + UUID.randomUUID() + ".part");
+		MessageDigest md = createDigest();
+		long size = 0;
+		try {
+			try (OutputStream out = Files.newOutputStream(tmp)) {
+				byte[] buf = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buf)) >= 0) {
+					size += n;
+					if (size > MAX_CHUNK_SIZE) {
+						throw new IllegalArgumentException(String.format(
+								"Chunk %s is larger than %d bytes", id,
+								MAX_CHUNK_SIZE));
+					}
+					md.update(buf, 0, n);
+					out.write(buf, 0, n);
+				}
+			}
+			String actual = toHex(md.digest());
+			if (!actual.equals(id)) {
+				throw new IllegalArgumentException(String.format(
+						"Chunk %s was corrupted: digest is %s", id, actual));
+			}
+			Files.move(tmp, dir.resolve(id),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			log.trace("Stored chunk {} ({} bytes)", id, size);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Join chunks together to make a file. The chunks are copied by the
+	 * file system (without passing through user space, where supported), and
+	 * the target only appears once it is complete.
+	 *
+	 * @param ids The chunks, in order.
+	 * @param target The file to create. It is replaced if it exists.
+	 * @return The size of the file.
+	 * @throws IllegalArgumentException If a chunk is missing.
+	 */
+	public long assemble(List<String> ids, Path target) throws IOException {
+		for (String id : ids) {
+			if (!contains(id)) {
+				throw new IllegalArgumentException(String.format(
+						"Chunk %s of %s has not been uploaded", id,
+						target.getFileName()));
+			}
+		}
+
+		Path tmp = target.resolveSibling(target.getFileName() + ".part");
+		long position = 0;
+		try {
+			try (FileChannel out = FileChannel.open(tmp,
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (String id : ids) {
+					try (FileChannel in = FileChannel.open(dir.resolve(id),
+							StandardOpenOption.READ)) {
+						long size = in.size();
+						long done = 0;
+						while (done < size) {
+							long n = out.transferFrom(in, position + done,
+									size - done);
+							if (n <= 0) {
+								throw new IOException(String.format(
+										"Could not copy chunk %s", id));
+							}
+							done += n;
+						}
+						position += size;
+					}
+				}
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		log.debug("Assembled {} from {} chunks ({} bytes)", target,
+				ids.size(), position);
+		return position;
+	}
+
+	/**
+	 * Delete all chunks.
+	 */
+	public void delete() throws IOException {
+		if (Files.exists(dir))
+			FileUtils.removeDirectory(dir);
+	}
+}
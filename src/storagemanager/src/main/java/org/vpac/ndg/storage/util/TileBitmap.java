@@ -0,0 +1,219 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.vpac.ndg.common.datamodel.GdalFormat;
+import org.vpac.ndg.geometry.Tile;
+
+/**
+ * The set of tiles of one band that exist in one time slice, stored as a
+ * bitmap over their bounding box. Instances are immutable, so they can be
+ * shared between threads.
+ *
+ * <p>
+ * The on-disk form is a small binary file: a header with the bounding box,
+ * followed by the bits in row-major order.
+ * </p>
+ *
+ * @see TileManifest
+ */
+public class TileBitmap {
+
+	private static final int MAGIC = 0x52534174; // "RSAt"
+	private static final int VERSION = 1;
+
+	public static final TileBitmap EMPTY = new TileBitmap(0, 0, 0, 0,
+			new BitSet());
+
+	private final int xmin;
+	private final int ymin;
+	private final int width;
+	private final int height;
+	private final BitSet bits;
+
+	private TileBitmap(int xmin, int ymin, int width, int height, BitSet bits) {
+		this.xmin = xmin;
+		this.ymin = ymin;
+		this.width = width;
+		this.height = height;
+		this.bits = bits;
+	}
+
+	/**
+	 * Create a bitmap that contains exactly the given tiles.
+	 */
+	public static TileBitmap of(Collection<Tile> tiles) {
+		if (tiles.isEmpty())
+			return EMPTY;
+
+		int xmin = Integer.MAX_VALUE;
+		int ymin = Integer.MAX_VALUE;
+		int xmax = Integer.MIN_VALUE;
+		int ymax = Integer.MIN_VALUE;
+		for (Tile tile : tiles) {
+			xmin = Math.min(xmin, tile.getX());
+			ymin = Math.min(ymin, tile.getY());
+			xmax = Math.max(xmax, tile.getX());
+			ymax = Math.max(ymax, tile.getY());
+		}
+		int width = xmax - xmin + 1;
+		int height = ymax - ymin + 1;
+		BitSet bits = new BitSet(width * height);
+		for (Tile tile : tiles)
+			bits.set((tile.getY() - ymin) * width + tile.getX() - xmin);
+		return new TileBitmap(xmin, ymin, width, height, bits);
+	}
+
+	/**
+	 * @return A new bitmap that contains the tiles of this one and the given
+	 *         tiles.
+	 */
+	public TileBitmap union(Collection<Tile> tiles) {
+		List<Tile> all = new ArrayList<Tile>(getTiles());
+		all.addAll(tiles);
+		return of(all);
+	}
+
+	public boolean contains(int x, int y) {
+		x -= xmin;
+		y -= ymin;
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			return false;
+		return bits.get(y * width + x);
+	}
+
+	public boolean contains(Tile tile) {
+		return contains(tile.getX(), tile.getY());
+	}
+
+	/**
+	 * @return The number of tiles in the set.
+	 */
+	public int size() {
+		return bits.cardinality();
+	}
+
+	public List<Tile> getTiles() {
+		List<Tile> tiles = new ArrayList<Tile>(size());
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+			tiles.add(new Tile(xmin + i % width, ymin + i / width));
+		return tiles;
+	}
+
+	/**
+	 * Find the tiles of a band by listing a time slice directory. This is one
+	 * directory read, rather than one stat call per tile.
+	 *
+	 * @param dir The time slice directory.
+	 * @param bandName The name of the band, as used in the tile file names.
+	 * @return The tiles that were found. If the directory does not exist, the
+	 *         set is empty.
+	 */
+	public static TileBitmap scan(Path dir, String bandName)
+			throws IOException {
+		Pattern pattern = Pattern.compile(Pattern.quote(bandName.trim())
+				+ "_tile_x(-?\\d+)_y(-?\\d+)"
+				+ Pattern.quote(GdalFormat.NC.getExtension()));
+		List<Tile> tiles = new ArrayList<Tile>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				Matcher m = pattern.matcher(file.getFileName().toString());
+				if (!m.matches())
+					continue;
+				tiles.add(new Tile(Integer.parseInt(m.group(1)),
+						Integer.parseInt(m.group(2))));
+			}
+		} catch (NoSuchFileException e) {
+			return EMPTY;
+		}
+		return of(tiles);
+	}
+
+	/**
+	 * @throws IOException If the file can't be read, or is not a tile bitmap.
+	 */
+	public static TileBitmap read(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(String.format(
+						"Unrecognised tile bitmap %s", path));
+			}
+			int xmin = in.readInt();
+			int ymin = in.readInt();
+			int width = in.readInt();
+			int height = in.readInt();
+			int nbytes = in.readInt();
+			if (width < 0 || height < 0 || nbytes < 0
+					|| nbytes > ((long) width * height + 7) / 8) {
+				throw new IOException(String.format(
+						"Malformed tile bitmap %s", path));
+			}
+			byte[] bytes = new byte[nbytes];
+			in.readFully(bytes);
+			return new TileBitmap(xmin, ymin, width, height,
+					BitSet.valueOf(bytes));
+		}
+	}
+
+	/**
+	 * Write the bitmap to a file. The file is replaced atomically, so readers
+	 * never see a partial bitmap.
+	 */
+	public void write(Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		byte[] bytes = bits.toByteArray();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(xmin);
+			out.writeInt(ymin);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TileBitmap(%d tiles in %dx%d at %d,%d)", size(),
+				width, height, xmin, ymin);
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.vpac.ndg.geometry.Tile;
+import org.vpac.ndg.storage.dao.DatasetDao;
+import org.vpac.ndg.storage.model.Band;
+import org.vpac.ndg.storage.model.Dataset;
+import org.vpac.ndg.storage.model.TimeSlice;
+
+/**
+ * Answers whether a tile exists in the storage pool without touching the
+ * file system for each tile. Each time slice directory holds one
+ * {@link TileBitmap} per band, listing the tiles that have been committed.
+ * The bitmaps are cached in memory.
+ *
+ * <p>
+ * The manifest is maintained by the
+ * {@link org.vpac.ndg.task.Committer Committer} (including its rollback) and
+ * by lock recovery. If a manifest file is missing - e.g. for data imported
+ * before manifests existed, or after it has been
+ * {@link #invalidate(TimeSlice) invalidated} - the directory is listed
+ * instead, which is still only one request per time slice and band. Use
+ * {@link #rebuild(Dataset)} (<em>rsa data reindex</em>) after changing the
+ * storage pool by hand.
+ * </p>
+ *
+ * <p>
+ * Other processes may commit to the same storage pool, so cached entries are
+ * checked against the manifest file again after {@link #REVALIDATE_MILLIS}.
+ * </p>
+ */
+public class TileManifest {
+
+	final Logger log = LoggerFactory.getLogger(TileManifest.class);
+
+	/** How long a cached manifest is trusted before the file is checked. */
+	public static final long REVALIDATE_MILLIS = 5000;
+	/** The maximum number of time slice and band pairs to keep in memory. */
+	static final int MAX_ENTRIES = 10000;
+
+	private static final String PREFIX = "tiles_";
+	private static final String SUFFIX = ".idx";
+
+	/** How long cached manifests are trusted; tests may shorten it. */
+	long revalidateMillis = REVALIDATE_MILLIS;
+
+	@Autowired
+	DatasetDao datasetDao;
+	@Autowired
+	DatasetUtil datasetUtil;
+	@Autowired
+	TimeSliceUtil timeSliceUtil;
+
+	private Map<String, Entry> entries;
+
+	private static class Entry {
+		final Path path;
+		final TileBitmap tiles;
+		/** The identity of the manifest file, or null if there was none. */
+		final Object version;
+		volatile long checked;
+
+		Entry(Path path, TileBitmap tiles, Object version) {
+			this.path = path;
+			this.tiles = tiles;
+			this.version = version;
+			this.checked = System.currentTimeMillis();
+		}
+	}
+
+	public TileManifest() {
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		};
+	}
+
+	/**
+	 * @return The manifest file of a band in a time slice. This uses the ID of
+	 *         the band, so it does not change when the band is renamed.
+	 */
+	public Path getPath(TimeSlice ts, Band band) {
+		return getPath(timeSliceUtil.getFileLocation(ts), band);
+	}
+
+	private Path getPath(Path tsDir, Band band) {
+		return tsDir.resolve(PREFIX + band.getId() + SUFFIX);
+	}
+
+	private static String key(TimeSlice ts, Band band) {
+		return ts.getId() + "/" + band.getId();
+	}
+
+	/**
+	 * @return True if the tile has been committed to the time slice.
+	 */
+	public boolean exists(TimeSlice ts, Band band, Tile tile) {
+		return get(ts, band).contains(tile);
+	}
+
+	/**
+	 * Get the tiles of a band in a time slice. Callers that check many tiles
+	 * should use this rather than {@link #exists(TimeSlice, Band, Tile)}.
+	 *
+	 * @return The tiles that exist. If they can't be determined, the set is
+	 *         empty.
+	 */
+	public TileBitmap get(TimeSlice ts, Band band) {
+		String key = key(ts, band);
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key);
+		}
+
+		long now = System.currentTimeMillis();
+		if (entry != null && now - entry.checked < revalidateMillis)
+			return entry.tiles;
+
+		Path path = entry != null ? entry.path : getPath(ts, band);
+		try {
+			Object version = getVersion(path);
+			if (version == null && entry != null
+					&& !Files.isDirectory(path.getParent())) {
+				// The time slice or dataset may have been renamed.
+				path = getPath(ts, band);
+				version = getVersion(path);
+			}
+			if (entry != null && version != null
+					&& version.equals(entry.version)) {
+				entry.checked = now;
+				return entry.tiles;
+			}
+			entry = load(path, band, version);
+		} catch (IOException e) {
+			log.error("Could not read tile manifest {}: {}", path, e);
+			return TileBitmap.EMPTY;
+		}
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+		return entry.tiles;
+	}
+
+	/**
+	 * Read a manifest file, or list the directory if there isn't one.
+	 */
+	private Entry load(Path path, Band band, Object version)
+			throws IOException {
+		if (version != null) {
+			try {
+				return new Entry(path, TileBitmap.read(path), version);
+			} catch (NoSuchFileException e) {
+				// Deleted since it was checked.
+			} catch (IOException e) {
+				log.warn("Ignoring tile manifest {}: {}", path, e.getMessage());
+			}
+		}
+		log.debug("No tile manifest {}; listing directory", path);
+		return new Entry(path, TileBitmap.scan(path.getParent(),
+				band.getName()), null);
+	}
+
+	/**
+	 * @return Something that changes whenever the file is replaced, or null if
+	 *         the file does not exist.
+	 */
+	private static Object getVersion(Path path) throws IOException {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		// Manifests are replaced by renaming, which gives them a new file key
+		// even if the modification time doesn't change.
+		return String.format("%s %s %d", attrs.fileKey(),
+				attrs.lastModifiedTime(), attrs.size());
+	}
+
+	/**
+	 * Record that tiles have been committed to a time slice. This should be
+	 * called while the time slice is locked for writing.
+	 *
+	 * @param tiles The tiles that were added. Tiles that were already present
+	 *            are ignored.
+	 */
+	public void add(TimeSlice ts, Band band, Collection<Tile> tiles)
+			throws IOException {
+		Path path = getPath(ts, band);
+		Entry current = load(path, band, getVersion(path));
+		write(key(ts, band), path, current.tiles.union(tiles));
+	}
+
+	/**
+	 * Rebuild the manifest of a band in a time slice from the files in the
+	 * storage pool.
+	 */
+	public void rebuild(TimeSlice ts, Band band) throws IOException {
+		rebuild(ts, band, timeSliceUtil.getFileLocation(ts));
+	}
+
+	private void rebuild(TimeSlice ts, Band band, Path tsDir)
+			throws IOException {
+		Path path = getPath(tsDir, band);
+		if (!Files.isDirectory(tsDir)) {
+			// Nothing has been committed to this time slice yet.
+			forget(key(ts, band));
+			Files.deleteIfExists(path);
+			return;
+		}
+		write(key(ts, band), path, TileBitmap.scan(tsDir, band.getName()));
+	}
+
+	/**
+	 * Rebuild the manifests of every band and time slice of a dataset.
+	 *
+	 * @return The number of time slices that were indexed.
+	 */
+	public int rebuild(Dataset ds) throws IOException {
+		List<Band> bands = datasetDao.getBands(ds.getId());
+		List<TimeSlice> tss = datasetDao.getTimeSlices(ds.getId());
+		Path dsDir = datasetUtil.getPath(ds);
+		for (TimeSlice ts : tss) {
+			Path tsDir = dsDir.resolve(timeSliceUtil.getRelativeLocation(ts));
+			for (Band band : bands)
+				rebuild(ts, band, tsDir);
+		}
+		log.info("Rebuilt tile manifests of {} time slices of {}", tss.size(),
+				ds);
+		return tss.size();
+	}
+
+	private void write(String key, Path path, TileBitmap tiles)
+			throws IOException {
+		tiles.write(path);
+		Entry entry = new Entry(path, tiles, getVersion(path));
+		synchronized (entries) {
+			entries.put(key, entry);
+		}
+		log.debug("Wrote tile manifest {}: {}", path, tiles);
+	}
+
+	/**
+	 * Discard the manifest of a band in a time slice, e.g. when the tiles have
+	 * been changed in a way that was not tracked. The directory will be listed
+	 * instead until the manifest is rebuilt.
+	 */
+	public void invalidate(TimeSlice ts, Band band) {
+		forget(key(ts, band));
+		Path path = getPath(ts, band);
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			log.error("Could not delete tile manifest {}: {}", path, e);
+		}
+	}
+
+	/**
+	 * Discard the manifests of all bands of a time slice.
+	 */
+	public void invalidate(TimeSlice ts) {
+		String prefix = ts.getId() + "/";
+		synchronized (entries) {
+			Iterator<String> it = entries.keySet().iterator();
+			while (it.hasNext()) {
+				if (it.next().startsWith(prefix))
+					it.remove();
+			}
+		}
+		Path tsDir = timeSliceUtil.getFileLocation(ts);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(tsDir,
+				PREFIX + "*" + SUFFIX)) {
+			for (Path path : files)
+				Files.deleteIfExists(path);
+		} catch (NoSuchFileException e) {
+			// Nothing to delete.
+		} catch (IOException e) {
+			log.error("Could not delete tile manifests in {}: {}", tsDir, e);
+		}
+	}
+
+	/**
+	 * Delete the manifests of a band from every time slice, e.g. when the band
+	 * is deleted.
+	 */
+	public void delete(Dataset ds, Band band) {
+		Path dsDir = datasetUtil.getPath(ds);
+		for (TimeSlice ts : datasetDao.getTimeSlices(ds.getId())) {
+			forget(key(ts, band));
+			Path path = getPath(dsDir.resolve(
+					timeSliceUtil.getRelativeLocation(ts)), band);
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				log.error("Could not delete tile manifest {}: {}", path, e);
+			}
+		}
+	}
+
+	private void forget(String key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+}
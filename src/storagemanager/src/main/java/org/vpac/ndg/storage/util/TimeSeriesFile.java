@@ -0,0 +1,537 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.storage.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
+
+/**
+ * A time-major copy of one band of one tile, for fast time series reads.
+ *
+ * <p>
+ * The tiles in the storage pool are stored one file per time slice, so reading
+ * the history of a single pixel requires every file to be opened. This file
+ * holds the same data rearranged into chunks of {@link #SEGMENT_LENGTH} time
+ * steps by {@link #BLOCK_SIZE}&times;{@link #BLOCK_SIZE} pixels. A time series
+ * of any pixel (or small window) can then be read with one contiguous read per
+ * segment.
+ * </p>
+ *
+ * <p>
+ * The store consists of two files: a data file containing the chunks, and a
+ * text index that maps time slice IDs to time steps (slots) in the data file.
+ * Time slices are given slots in the order they are written, so new data can
+ * be appended without rearranging the existing chunks. Time slices that don't
+ * have any data for this tile are recorded in the index as empty.
+ * </p>
+ *
+ * <p>
+ * Writes are serialised with a file lock, so several processes can update the
+ * same store. A file lock is held by the whole process, so threads of one
+ * process are kept apart by a lock in memory as well. The index is replaced
+ * atomically after the data have been written, so readers always see a
+ * consistent set of slots.
+ * </p>
+ */
+public class TimeSeriesFile {
+
+	/** Width and height of a chunk, in pixels. */
+	public static final int BLOCK_SIZE = 16;
+	/** Number of time steps in a chunk. */
+	public static final int SEGMENT_LENGTH = 64;
+
+	private static final String MAGIC = "rsa-timeseries";
+	private static final int VERSION = 1;
+	private static final String EMPTY = "empty";
+
+	/**
+	 * Serialises writes by threads of this process. Each store uses one of
+	 * these, chosen by its path, so that all instances for the same store
+	 * share it.
+	 */
+	private static final Object[] THREAD_LOCKS = new Object[64];
+	static {
+		for (int i = 0; i < THREAD_LOCKS.length; i++)
+			THREAD_LOCKS[i] = new Object();
+	}
+
+	private Path indexPath;
+	private Path dataPath;
+	private Path lockPath;
+
+	private int width;
+	private int height;
+	private DataType dataType;
+	private List<String> slots;
+	private Map<String, Integer> slotIndex;
+	private List<Boolean> populated;
+
+	/**
+	 * @param basePath The path of the store, without extension. Several files
+	 *        will be created with this prefix.
+	 */
+	public TimeSeriesFile(Path basePath) {
+		String name = basePath.getFileName().toString();
+		indexPath = basePath.resolveSibling(name + ".idx");
+		dataPath = basePath.resolveSibling(name + ".dat");
+		lockPath = basePath.resolveSibling(name + ".lock");
+		slots = new ArrayList<>();
+		slotIndex = new HashMap<>();
+		populated = new ArrayList<>();
+	}
+
+	public boolean exists() {
+		return Files.exists(indexPath);
+	}
+
+	/**
+	 * Read the index. This must be called before reading, and is called
+	 * automatically before writing.
+	 * @throws IOException If the index can't be read, or is malformed.
+	 */
+	public void load() throws IOException {
+		slots.clear();
+		slotIndex.clear();
+		populated.clear();
+		try (BufferedReader reader = Files.newBufferedReader(indexPath,
+				StandardCharsets.UTF_8)) {
+			String header = reader.readLine();
+			String[] fields = header == null ? new String[0] : header.split(" ");
+			if (fields.length != 7 || !fields[0].equals(MAGIC)
+					|| Integer.parseInt(fields[1]) != VERSION
+					|| Integer.parseInt(fields[5]) != BLOCK_SIZE
+					|| Integer.parseInt(fields[6]) != SEGMENT_LENGTH) {
+				throw new IOException(String.format(
+						"Unrecognised time series index %s", indexPath));
+			}
+			width = Integer.parseInt(fields[2]);
+			height = Integer.parseInt(fields[3]);
+			dataType = DataType.getType(fields[4]);
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty())
+					continue;
+				String[] entry = line.split(" ");
+				addSlot(entry[0], entry.length < 2 || !entry[1].equals(EMPTY));
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException(String.format(
+					"Malformed time series index %s", indexPath), e);
+		}
+	}
+
+	private void addSlot(String timeSliceId, boolean hasData) {
+		slotIndex.put(timeSliceId, slots.size());
+		slots.add(timeSliceId);
+		populated.add(hasData);
+	}
+
+	private void saveIndex() throws IOException {
+		Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tmp,
+				StandardCharsets.UTF_8)) {
+			writer.write(String.format("%s %d %d %d %s %d %d\n", MAGIC,
+					VERSION, width, height, dataType, BLOCK_SIZE,
+					SEGMENT_LENGTH));
+			for (int i = 0; i < slots.size(); i++) {
+				writer.write(slots.get(i));
+				if (!populated.get(i))
+					writer.write(" " + EMPTY);
+				writer.write("\n");
+			}
+		}
+		Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return True if the time slice has been written to this store (even if
+	 *         it was empty).
+	 */
+	public boolean contains(String timeSliceId) {
+		return slotIndex.containsKey(timeSliceId);
+	}
+
+	/**
+	 * @return True if the time slice has data in this store.
+	 */
+	public boolean hasData(String timeSliceId) {
+		Integer slot = slotIndex.get(timeSliceId);
+		return slot != null && populated.get(slot);
+	}
+
+	public List<String> getTimeSliceIds() {
+		return Collections.unmodifiableList(slots);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public DataType getDataType() {
+		return dataType;
+	}
+
+	/**
+	 * Write the data of one time slice. If the time slice is already in the
+	 * store, its data will be replaced.
+	 *
+	 * @param timeSliceId The time slice that the data belong to.
+	 * @param plane The data, with shape (y, x). The first row must be the
+	 *        northernmost one. If null, the time slice will be recorded as
+	 *        empty.
+	 */
+	public void write(String timeSliceId, Array plane) throws IOException {
+		write(Collections.singletonList(timeSliceId),
+				Collections.singletonList(plane));
+	}
+
+	/**
+	 * Write the data of several time slices at once. This is cheaper than
+	 * writing them one at a time, because the index is only saved once.
+	 *
+	 * @see #write(String, Array)
+	 */
+	public void write(List<String> timeSliceIds, List<Array> planes)
+			throws IOException {
+		if (timeSliceIds.size() != planes.size()) {
+			throw new IllegalArgumentException(
+					"Number of time slices does not match number of planes");
+		}
+
+		Files.createDirectories(indexPath.getParent());
+		synchronized (getThreadLock()) {
+			writeLocked(timeSliceIds, planes);
+		}
+	}
+
+	private Object getThreadLock() {
+		int hash = lockPath.toAbsolutePath().normalize().hashCode();
+		return THREAD_LOCKS[(hash & Integer.MAX_VALUE) % THREAD_LOCKS.length];
+	}
+
+	/**
+	 * Write while holding the thread lock. Taking the file lock twice from
+	 * one process would throw an OverlappingFileLockException.
+	 */
+	private void writeLocked(List<String> timeSliceIds, List<Array> planes)
+			throws IOException {
+		try (FileChannel lockChannel = FileChannel.open(lockPath,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock lock = lockChannel.lock()) {
+
+			if (exists()) {
+				load();
+			} else {
+				Array first = null;
+				for (Array plane : planes) {
+					if (plane != null) {
+						first = plane;
+						break;
+					}
+				}
+				if (first == null) {
+					// Nothing to write, and the shape is not yet known.
+					return;
+				}
+				int[] shape = first.getShape();
+				height = shape[0];
+				width = shape[1];
+				dataType = DataType.getType(first.getElementType());
+			}
+
+			for (int i = 0; i < timeSliceIds.size(); i++) {
+				String timeSliceId = timeSliceIds.get(i);
+				Array plane = planes.get(i);
+				Integer slot = slotIndex.get(timeSliceId);
+				if (slot == null) {
+					slot = slots.size();
+					addSlot(timeSliceId, plane != null);
+				} else {
+					populated.set(slot, plane != null);
+				}
+				if (plane != null)
+					writePlane(slot, plane);
+			}
+			saveIndex();
+		}
+	}
+
+	private void writePlane(int slot, Array plane) throws IOException {
+		int[] shape = plane.getShape();
+		if (shape.length != 2 || shape[0] != height || shape[1] != width) {
+			throw new IOException(String.format("Can't write plane of shape "
+					+ "%dx%d to time series of shape %dx%d", shape[0],
+					shape[1], height, width));
+		}
+		if (DataType.getType(plane.getElementType()) != dataType) {
+			throw new IOException(String.format("Can't write %s data to time "
+					+ "series of type %s", DataType.getType(plane.getElementType()), dataType));
+		}
+
+		int elementSize = dataType.getSize();
+		ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE * BLOCK_SIZE
+				* elementSize);
+		Index ima = plane.getIndex();
+		try (FileChannel channel = FileChannel.open(dataPath,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			for (int by = 0; by < blocksY(); by++) {
+				for (int bx = 0; bx < blocksX(); bx++) {
+					buf.clear();
+					for (int py = 0; py < BLOCK_SIZE; py++) {
+						int y = by * BLOCK_SIZE + py;
+						for (int px = 0; px < BLOCK_SIZE; px++) {
+							int x = bx * BLOCK_SIZE + px;
+							if (y < height && x < width) {
+								ima.set(y, x);
+								put(buf, plane, ima);
+							} else {
+								// Padding at the edge of the tile.
+								buf.position(buf.position() + elementSize);
+							}
+						}
+					}
+					buf.flip();
+					long offset = chunkOffset(slot / SEGMENT_LENGTH, by, bx)
+							+ (long) (slot % SEGMENT_LENGTH) * buf.limit();
+					while (buf.hasRemaining())
+						offset += channel.write(buf, offset);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the time series of a window.
+	 *
+	 * @param x The column of the first pixel.
+	 * @param y The row of the first pixel (counting from the north).
+	 * @param w The width of the window.
+	 * @param h The height of the window.
+	 * @param timeSliceIds The time slices to read. These must all be
+	 *        {@link #contains(String) contained} in the store, or null for
+	 *        time slices that are known to be empty.
+	 * @param fillValue The value to use for time slices without data.
+	 * @return The data, with shape (time, y, x). The first row is the
+	 *         northernmost one.
+	 */
+	public Array read(int x, int y, int w, int h, List<String> timeSliceIds,
+			Number fillValue) throws IOException {
+
+		if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width
+				|| y + h > height) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Window %d,%d %dx%d is outside time series of shape %dx%d",
+					x, y, w, h, height, width));
+		}
+
+		int nt = timeSliceIds.size();
+		Array result = Array.factory(dataType, new int[] {nt, h, w});
+		Index ima = result.getIndex();
+
+		// Group the requested time slices by segment, so that each chunk is
+		// only read once.
+		Map<Integer, List<Integer>> segments = new HashMap<>();
+		for (int t = 0; t < nt; t++) {
+			String id = timeSliceIds.get(t);
+			Integer slot = null;
+			if (id != null) {
+				slot = slotIndex.get(id);
+				if (slot == null) {
+					throw new IllegalArgumentException(String.format(
+							"Time slice %s is not in time series %s", id,
+							indexPath));
+				}
+			}
+			if (slot == null || !populated.get(slot)) {
+				for (int i = 0; i < h; i++) {
+					for (int j = 0; j < w; j++) {
+						ima.set(t, i, j);
+						result.setObject(ima, fillValue);
+					}
+				}
+				continue;
+			}
+			int segment = slot / SEGMENT_LENGTH;
+			if (!segments.containsKey(segment))
+				segments.put(segment, new ArrayList<Integer>());
+			segments.get(segment).add(t);
+		}
+
+		int elementSize = dataType.getSize();
+		int planeSize = BLOCK_SIZE * BLOCK_SIZE * elementSize;
+		ByteBuffer buf = ByteBuffer.allocate(SEGMENT_LENGTH * planeSize);
+		try (FileChannel channel = FileChannel.open(dataPath,
+				StandardOpenOption.READ)) {
+			for (Map.Entry<Integer, List<Integer>> entry : segments.entrySet()) {
+				int segment = entry.getKey();
+				for (int by = y / BLOCK_SIZE; by <= (y + h - 1) / BLOCK_SIZE; by++) {
+					for (int bx = x / BLOCK_SIZE; bx <= (x + w - 1) / BLOCK_SIZE; bx++) {
+						readFully(channel, buf, chunkOffset(segment, by, bx));
+						for (int t : entry.getValue()) {
+							int slot = slotIndex.get(timeSliceIds.get(t));
+							int base = (slot % SEGMENT_LENGTH) * planeSize;
+							copyWindow(buf, base, bx, by, x, y, w, h, t,
+									result, ima);
+						}
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private void copyWindow(ByteBuffer buf, int base, int bx, int by, int x,
+			int y, int w, int h, int t, Array result, Index ima) {
+		int elementSize = dataType.getSize();
+		int ymin = Math.max(y, by * BLOCK_SIZE);
+		int ymax = Math.min(y + h, (by + 1) * BLOCK_SIZE);
+		int xmin = Math.max(x, bx * BLOCK_SIZE);
+		int xmax = Math.min(x + w, (bx + 1) * BLOCK_SIZE);
+		for (int i = ymin; i < ymax; i++) {
+			for (int j = xmin; j < xmax; j++) {
+				int py = i - by * BLOCK_SIZE;
+				int px = j - bx * BLOCK_SIZE;
+				buf.position(base + (py * BLOCK_SIZE + px) * elementSize);
+				ima.set(t, i - y, j - x);
+				get(buf, result, ima);
+			}
+		}
+	}
+
+	private void readFully(FileChannel channel, ByteBuffer buf, long offset)
+			throws IOException {
+		buf.clear();
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, offset);
+			if (n < 0) {
+				// The last segment may be short; the rest of it has never
+				// been written, so it will not be used.
+				break;
+			}
+			offset += n;
+		}
+	}
+
+	private int blocksX() {
+		return (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	private int blocksY() {
+		return (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	private long chunkOffset(int segment, int by, int bx) {
+		long chunkSize = (long) SEGMENT_LENGTH * BLOCK_SIZE * BLOCK_SIZE
+				* dataType.getSize();
+		long block = (long) by * blocksX() + bx;
+		return ((long) segment * blocksX() * blocksY() + block) * chunkSize;
+	}
+
+	private void put(ByteBuffer buf, Array array, Index ima) {
+		switch (dataType) {
+		case BYTE:
+			buf.put(array.getByte(ima));
+			break;
+		case SHORT:
+			buf.putShort(array.getShort(ima));
+			break;
+		case INT:
+			buf.putInt(array.getInt(ima));
+			break;
+		case LONG:
+			buf.putLong(array.getLong(ima));
+			break;
+		case FLOAT:
+			buf.putFloat(array.getFloat(ima));
+			break;
+		case DOUBLE:
+			buf.putDouble(array.getDouble(ima));
+			break;
+		default:
+			throw new UnsupportedOperationException(String.format(
+					"Can't store %s data in a time series", dataType));
+		}
+	}
+
+	private void get(ByteBuffer buf, Array array, Index ima) {
+		switch (dataType) {
+		case BYTE:
+			array.setByte(ima, buf.get());
+			break;
+		case SHORT:
+			array.setShort(ima, buf.getShort());
+			break;
+		case INT:
+			array.setInt(ima, buf.getInt());
+			break;
+		case LONG:
+			array.setLong(ima, buf.getLong());
+			break;
+		case FLOAT:
+			array.setFloat(ima, buf.getFloat());
+			break;
+		case DOUBLE:
+			array.setDouble(ima, buf.getDouble());
+			break;
+		default:
+			throw new UnsupportedOperationException(String.format(
+					"Can't read %s data from a time series", dataType));
+		}
+	}
+
+	/**
+	 * Delete the store.
+	 */
+	public void delete() throws IOException {
+		Files.deleteIfExists(indexPath);
+		Files.deleteIfExists(dataPath);
+		Files.deleteIfExists(lockPath);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TimeSeriesFile(%s)", indexPath);
+	}
+}
@@ -0,0 +1,683 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+package org.vpac.ndg.storage.util;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.vpac.ndg.FileUtils;
+import org.vpac.ndg.common.Default;
+import org.vpac.ndg.common.datamodel.CellSize;
+import org.vpac.ndg.common.datamodel.GdalFormat;
+import org.vpac.ndg.configuration.NdgConfigManager;
+import org.vpac.ndg.geometry.Box;
+import org.vpac.ndg.geometry.NestedGrid;
+import org.vpac.ndg.geometry.Point;
+import org.vpac.ndg.geometry.Tile;
+import org.vpac.ndg.geometry.TileManager;
+import org.vpac.ndg.storage.dao.DatasetDao;
+import org.vpac.ndg.storage.model.Band;
+import org.vpac.ndg.storage.model.Dataset;
+import org.vpac.ndg.storage.model.TimeSlice;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.Dimension;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+import ucar.nc2.dataset.VariableDS;
+import ucar.nc2.time.CalendarDate;
+import ucar.nc2.time.CalendarDateUnit;
+
+/**
+ * Maintains a time-major copy of each band of a dataset, so that the time
+ * series of a pixel can be read without opening every tile. There is one
+ * {@link TimeSeriesFile} per band and tile. The copy is optional (see
+ * {@link org.vpac.ndg.configuration.NdgConfig#isTimeSeriesStore()}); the
+ * tiles are always the primary copy of the data.
+ *
+ * <p>
+ * A store is created from the existing tiles the first time a tile is
+ * committed to it, and is then updated as new time slices are committed.
+ * Creating a store reads the whole history of the tile, so it is done on a
+ * background thread rather than while the committed time slice is locked;
+ * until it finishes, readers fall back to the tiles. If a store might be out
+ * of date it is deleted rather than repaired.
+ * </p>
+ *
+ * @see TimeSeriesFile
+ */
+public class TimeSeriesStore {
+
+	final Logger log = LoggerFactory.getLogger(TimeSeriesStore.class);
+
+	/** The largest window (per side, in pixels) that will be served. */
+	public static final int MAX_WINDOW = 64;
+	/** How many tiles to read before writing them to a new store. */
+	private static final int BATCH_SIZE = 8;
+	/**
+	 * Marks a store that is still being created. The marker is on disk so
+	 * that a store left incomplete by a restart is finished by the next
+	 * update.
+	 */
+	private static final String INCOMPLETE_SUFFIX = ".incomplete";
+
+	@Autowired
+	DatasetDao datasetDao;
+	@Autowired
+	DatasetUtil datasetUtil;
+	@Autowired
+	TimeSliceUtil timeSliceUtil;
+	@Autowired
+	BandUtil bandUtil;
+	@Autowired
+	TileManager tileManager;
+	@Autowired
+	NdgConfigManager ndgConfigManager;
+	@Autowired
+	TileManifest tileManifest;
+
+	/**
+	 * Stores that are being created, keyed by their markers. The value is
+	 * true if more time slices have been committed since the current pass
+	 * over the history started.
+	 */
+	private final Map<Path, Boolean> pending = new HashMap<>();
+	/**
+	 * Incremented whenever stores are deleted, so that a store that is being
+	 * created from tiles that have since changed is abandoned.
+	 */
+	private long generation;
+	private final Object writeLock = new Object();
+	private Executor backfillExecutor;
+
+	public TimeSeriesStore() {
+	}
+
+	public boolean isEnabled() {
+		return ndgConfigManager.getConfig().isTimeSeriesStore();
+	}
+
+	/**
+	 * @return The directory that contains the time series of all bands of a
+	 *         dataset.
+	 */
+	public Path getPath(Dataset ds) {
+		return datasetUtil.getPath(ds).resolve("timeseries");
+	}
+
+	/**
+	 * @return The directory that contains the time series of one band. This
+	 *         uses the ID of the band, so it does not change when the band is
+	 *         renamed.
+	 */
+	public Path getPath(Dataset ds, Band band) {
+		return getPath(ds).resolve(band.getId());
+	}
+
+	TimeSeriesFile getFile(Dataset ds, Band band, Tile tile) {
+		return new TimeSeriesFile(getPath(ds, band).resolve(getName(tile)));
+	}
+
+	Path getMarker(Dataset ds, Band band, Tile tile) {
+		return getPath(ds, band).resolve(getName(tile) + INCOMPLETE_SUFFIX);
+	}
+
+	private static String getName(Tile tile) {
+		return String.format("tile_x%d_y%d", tile.getX(), tile.getY());
+	}
+
+	/**
+	 * @return The location of a tile in the storage pool. This is like
+	 *         {@link org.vpac.ndg.storage.model.TileBand#getFileLocation()},
+	 *         but doesn't need to look up the dataset of the time slice.
+	 */
+	Path getTilePath(Dataset ds, Band band, TimeSlice ts, Tile tile) {
+		return datasetUtil.getPath(ds)
+				.resolve(timeSliceUtil.getRelativeLocation(ts))
+				.resolve(String.format("%s_tile_x%d_y%d%s",
+						band.getName().trim(), tile.getX(), tile.getY(),
+						GdalFormat.NC.getExtension()));
+	}
+
+	/**
+	 * @return True if the tile has been committed to the time slice. This is
+	 *         answered by the {@link TileManifest}, so reading the history of
+	 *         a tile doesn't touch every time slice.
+	 */
+	boolean hasTile(Dataset ds, Band band, TimeSlice ts, Tile tile) {
+		return tileManifest.exists(ts, band, tile);
+	}
+
+	/**
+	 * Add newly-committed tiles to the store. This should be called after the
+	 * tiles have been copied into the storage pool and added to the
+	 * {@link TileManifest}. Tiles that don't have a store yet are added when
+	 * it is created in the background.
+	 *
+	 * @param ds The dataset that the tiles belong to.
+	 * @param band The band that was updated.
+	 * @param ts The time slice that was updated.
+	 * @param tiles The tiles that were written.
+	 * @throws IOException If the store could not be updated. In that case it
+	 *         should be {@link #invalidate(Dataset, Band, Collection)
+	 *         invalidated}.
+	 */
+	public void update(Dataset ds, Band band, TimeSlice ts,
+			Collection<Tile> tiles) throws IOException {
+		if (!isEnabled())
+			return;
+
+		for (Tile tile : tiles) {
+			TimeSeriesFile file = getFile(ds, band, tile);
+			while (true) {
+				long gen = getGeneration();
+				if (scheduleBackfill(ds, band, tile, file))
+					break;
+				Array plane = readTile(getTilePath(ds, band, ts, tile));
+				if (write(file, Collections.singletonList(ts.getId()),
+						Collections.singletonList(plane), gen)) {
+					break;
+				}
+				// Stores were deleted in the meantime. If this one was, it
+				// must be created again rather than written to.
+			}
+		}
+	}
+
+	/**
+	 * Start creating the store of a tile if it doesn't exist or is
+	 * incomplete.
+	 *
+	 * @return True if the store is being created. It will pick up newly
+	 *         committed time slices by itself.
+	 */
+	private boolean scheduleBackfill(final Dataset ds, final Band band,
+			final Tile tile, TimeSeriesFile file) throws IOException {
+		Path marker = getMarker(ds, band, tile);
+		synchronized (pending) {
+			if (pending.containsKey(marker)) {
+				pending.put(marker, true);
+				return true;
+			}
+			if (file.exists() && Files.notExists(marker))
+				return false;
+			Files.createDirectories(marker.getParent());
+			try {
+				Files.createFile(marker);
+			} catch (FileAlreadyExistsException e) {
+				// Left over from an earlier attempt; carry on from there.
+			}
+			pending.put(marker, false);
+		}
+
+		final long gen = getGeneration();
+		try {
+			getBackfillExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					backfill(ds, band, tile, gen);
+				}
+			});
+		} catch (RuntimeException e) {
+			synchronized (pending) {
+				pending.remove(marker);
+			}
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Create a store for a tile from all of the existing time slices. Time
+	 * slices that don't have the tile are not recorded; they are assumed to
+	 * be empty when reading. If time slices are committed while this runs,
+	 * the history is checked again before finishing.
+	 *
+	 * @param gen The generation at the time the backfill was scheduled. If any
+	 *        store is deleted in the meantime, this one is abandoned: the
+	 *        tiles it has read may have been rolled back.
+	 */
+	void backfill(Dataset ds, Band band, Tile tile, long gen) {
+		TimeSeriesFile file = getFile(ds, band, tile);
+		Path marker = getMarker(ds, band, tile);
+		log.debug("Creating time series store {}", file);
+		try {
+			while (true) {
+				if (!fill(ds, band, tile, file, gen)) {
+					log.debug("Abandoning time series store {}", file);
+					abandon(file, marker);
+					return;
+				}
+				synchronized (pending) {
+					if (!pending.get(marker)) {
+						pending.remove(marker);
+						break;
+					}
+					pending.put(marker, false);
+				}
+			}
+			synchronized (writeLock) {
+				if (generation == gen)
+					Files.deleteIfExists(marker);
+			}
+			log.debug("Created time series store {}", file);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not create time series store {}", file, e);
+			abandon(file, marker);
+		}
+	}
+
+	/**
+	 * Write the time slices that have the tile but are not in the store yet.
+	 *
+	 * @return False if stores have been deleted since the backfill started.
+	 */
+	private boolean fill(Dataset ds, Band band, Tile tile, TimeSeriesFile file,
+			long gen) throws IOException {
+		if (file.exists())
+			file.load();
+		List<TimeSlice> tss = datasetDao.getTimeSlices(ds.getId());
+		Collections.sort(tss);
+		List<String> ids = new ArrayList<>();
+		List<Array> planes = new ArrayList<>();
+		for (TimeSlice ts : tss) {
+			if (file.contains(ts.getId())
+					|| !hasTile(ds, band, ts, tile))
+				continue;
+			ids.add(ts.getId());
+			planes.add(readTile(getTilePath(ds, band, ts, tile)));
+			if (ids.size() >= BATCH_SIZE) {
+				if (!write(file, ids, planes, gen))
+					return false;
+				ids.clear();
+				planes.clear();
+			}
+		}
+		return ids.isEmpty() || write(file, ids, planes, gen);
+	}
+
+	/**
+	 * Write to a store unless stores have been deleted since it was checked.
+	 * Otherwise a store that was being deleted could be recreated without
+	 * its earlier time slices.
+	 *
+	 * @return False if stores have been deleted since the generation was
+	 *         read.
+	 */
+	private boolean write(TimeSeriesFile file, List<String> ids,
+			List<Array> planes, long gen) throws IOException {
+		synchronized (writeLock) {
+			if (generation != gen)
+				return false;
+			file.write(ids, planes);
+			return true;
+		}
+	}
+
+	/**
+	 * Delete a store that could not be completed. It is only removed from the
+	 * pending set afterwards, so that a new backfill can't start on it first.
+	 */
+	private void abandon(TimeSeriesFile file, Path marker) {
+		synchronized (writeLock) {
+			try {
+				file.delete();
+				Files.deleteIfExists(marker);
+			} catch (IOException e) {
+				log.error("Could not delete time series {}", file, e);
+			}
+		}
+		synchronized (pending) {
+			pending.remove(marker);
+		}
+	}
+
+	private long getGeneration() {
+		synchronized (writeLock) {
+			return generation;
+		}
+	}
+
+	private synchronized Executor getBackfillExecutor() {
+		if (backfillExecutor == null) {
+			backfillExecutor = Executors.newSingleThreadExecutor(
+					new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "timeseries-backfill");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return backfillExecutor;
+	}
+
+	/**
+	 * @param backfillExecutor Runs the creation of new stores. By default this
+	 *        is a single background thread, so that only one history is read
+	 *        at a time.
+	 */
+	public synchronized void setBackfillExecutor(Executor backfillExecutor) {
+		this.backfillExecutor = backfillExecutor;
+	}
+
+	/**
+	 * Stop creating stores. Stores that are incomplete will be finished by
+	 * later updates.
+	 */
+	public synchronized void close() {
+		if (backfillExecutor instanceof ExecutorService)
+			((ExecutorService) backfillExecutor).shutdownNow();
+	}
+
+	/**
+	 * @return The data of a tile, with the northernmost row first.
+	 */
+	Array readTile(Path path) throws IOException {
+		NetcdfFile nc = NetcdfFile.open(path.toString());
+		try {
+			Variable var = nc.findVariable(Default.BAND1);
+			if (var == null) {
+				throw new IOException(String.format(
+						"Tile %s does not contain variable %s", path,
+						Default.BAND1));
+			}
+			Array data = var.read();
+			// GDAL usually writes NetCDF files bottom-up.
+			Variable y = nc.findVariable("y");
+			if (y != null && y.getSize() > 1) {
+				Array ys = y.read();
+				if (ys.getDouble(1) > ys.getDouble(0))
+					data = data.flip(0);
+			}
+			return data;
+		} finally {
+			nc.close();
+		}
+	}
+
+	/**
+	 * Delete the stores of some tiles, e.g. because an update failed. They
+	 * will be recreated from the tiles on the next commit.
+	 */
+	public void invalidate(Dataset ds, Band band, Collection<Tile> tiles) {
+		synchronized (writeLock) {
+			generation++;
+			for (Tile tile : tiles) {
+				TimeSeriesFile file = getFile(ds, band, tile);
+				try {
+					file.delete();
+					Files.deleteIfExists(getMarker(ds, band, tile));
+				} catch (IOException e) {
+					log.error("Could not delete time series {}", file, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete all stores of a dataset, e.g. because tiles have been changed
+	 * without going through {@link #update(Dataset, Band, TimeSlice, Collection)}.
+	 */
+	public void invalidate(Dataset ds) {
+		delete(getPath(ds));
+	}
+
+	/**
+	 * Delete all stores of a band.
+	 */
+	public void delete(Dataset ds, Band band) {
+		delete(getPath(ds, band));
+	}
+
+	private void delete(Path dir) {
+		synchronized (writeLock) {
+			generation++;
+			try {
+				FileUtils.removeDirectory(dir);
+			} catch (NoSuchFileException e) {
+				// Nothing to delete.
+			} catch (IOException e) {
+				log.error("Could not delete time series {}", dir, e);
+			}
+		}
+	}
+
+	/**
+	 * Open a small window of a dataset as an in-memory NetCDF dataset. The
+	 * result is shaped like an aggregation created by
+	 * {@link org.vpac.ndg.datamodel.RsaAggregationFactory}: it has the
+	 * dimensions (time, y, x), and time slices that have no data in the window
+	 * are excluded. However it only covers the cells that intersect the
+	 * bounds, rather than whole tiles.
+	 *
+	 * @param ds The dataset to read from.
+	 * @param tss The time slices to read.
+	 * @param bands The bands to read.
+	 * @param bounds The area to read.
+	 * @return The dataset, or null if the data can't be read from the store.
+	 *         That happens when the store is disabled or out of date, or when
+	 *         the window is too large; the tiles should be read instead.
+	 * @throws IOException If the store could not be read.
+	 */
+	public NetcdfDataset open(Dataset ds, List<TimeSlice> tss,
+			List<Band> bands, Box bounds) throws IOException {
+		if (!isEnabled())
+			return null;
+
+		List<Band> bs = new ArrayList<>();
+		for (Band b : bands) {
+			if (!bandUtil.isEmpty(b))
+				bs.add(b);
+		}
+		List<TimeSlice> candidates = new ArrayList<>();
+		for (TimeSlice ts : tss) {
+			if (!timeSliceUtil.isEmpty(ts))
+				candidates.add(ts);
+		}
+		Collections.sort(candidates);
+		if (bs.isEmpty() || candidates.isEmpty())
+			return null;
+
+		// Find the cells that intersect the bounds. They must all be in the
+		// same tile.
+		CellSize resolution = ds.getResolution();
+		double res = resolution.toDouble();
+		NestedGrid nng = tileManager.getNngGrid();
+		Point<Integer> ulCell = nng.mapToCell(new Point<Double>(
+				bounds.getXMin(), bounds.getYMax()), resolution);
+		// The maximum is *just* inside the next cell, so shrink it by half a
+		// cell (unless the box is a point).
+		Point<Integer> lrCell = nng.mapToCell(new Point<Double>(
+				Math.max(bounds.getXMin(), bounds.getXMax() - res * 0.5),
+				Math.min(bounds.getYMax(), bounds.getYMin() + res * 0.5)),
+				resolution);
+		if (ulCell.getX() < 0 || ulCell.getY() < 0)
+			return null;
+		Point<Integer> tileIndex = nng.cellToTile(ulCell, resolution);
+		if (!tileIndex.equals(nng.cellToTile(lrCell, resolution)))
+			return null;
+		int w = lrCell.getX() - ulCell.getX() + 1;
+		int h = lrCell.getY() - ulCell.getY() + 1;
+		if (w > MAX_WINDOW || h > MAX_WINDOW)
+			return null;
+		Tile tile = new Tile(tileIndex);
+		Point<Integer> tileOrigin = nng.tileToCell(tileIndex, resolution);
+		int x = ulCell.getX() - tileOrigin.getX();
+		int y = ulCell.getY() - tileOrigin.getY();
+
+		// Work out which time slices have data. If a tile exists but is not in
+		// the store, the store is out of date (or still being created).
+		List<TimeSeriesFile> files = new ArrayList<>();
+		for (Band b : bs) {
+			TimeSeriesFile file = getFile(ds, b, tile);
+			if (!file.exists())
+				return null;
+			file.load();
+			files.add(file);
+		}
+		List<TimeSlice> included = new ArrayList<>();
+		List<List<String>> ids = new ArrayList<>();
+		for (int i = 0; i < bs.size(); i++)
+			ids.add(new ArrayList<String>());
+		for (TimeSlice ts : candidates) {
+			boolean hasData = false;
+			List<String> row = new ArrayList<>();
+			for (int i = 0; i < bs.size(); i++) {
+				TimeSeriesFile file = files.get(i);
+				if (file.contains(ts.getId())) {
+					row.add(ts.getId());
+					hasData |= file.hasData(ts.getId());
+				} else if (hasTile(ds, bs.get(i), ts, tile)) {
+					log.debug("Time series {} is missing {}", file, ts);
+					return null;
+				} else {
+					row.add(null);
+				}
+			}
+			if (!hasData)
+				continue;
+			included.add(ts);
+			for (int i = 0; i < bs.size(); i++)
+				ids.get(i).add(row.get(i));
+		}
+		if (included.isEmpty())
+			return null;
+
+		NetcdfDataset dataset = new NetcdfDataset();
+		int nt = included.size();
+		dataset.addDimension(null, new Dimension("time", nt));
+		dataset.addDimension(null, new Dimension("y", h));
+		dataset.addDimension(null, new Dimension("x", w));
+
+		List<CalendarDate> all_coords = new ArrayList<>();
+		CalendarDateUnit timeUnits = timeSliceUtil.computeTimeMapping(
+				included, all_coords);
+		List<String> coordValues = timeSliceUtil.datesToCoordValues(
+				timeUnits, all_coords);
+		Array times = Array.factory(DataType.INT, new int[] {nt});
+		for (int t = 0; t < nt; t++)
+			times.setInt(t, Integer.parseInt(coordValues.get(t)));
+		Variable timeVar = new VariableDS(dataset, null, null, "time",
+				DataType.INT, "time", null, null);
+		timeVar.addAttribute(new Attribute("units", timeUnits.toString()));
+		timeVar.addAttribute(new Attribute("_CoordinateAxisType", "Time"));
+		timeVar.setCachedData(times, false);
+		dataset.addVariable(null, timeVar);
+
+		// Rows are in increasing y order, like the aggregation. The cell
+		// indices increase going south.
+		Point<Double> ulCorner = nng.cellToMap(ulCell, resolution);
+		Array xs = Array.factory(DataType.DOUBLE, new int[] {w});
+		for (int j = 0; j < w; j++)
+			xs.setDouble(j, ulCorner.getX() + (j + 0.5) * res);
+		Array ys = Array.factory(DataType.DOUBLE, new int[] {h});
+		for (int i = 0; i < h; i++)
+			ys.setDouble(i, ulCorner.getY() - (h - i - 0.5) * res);
+
+		// All tiles of a dataset share the same coordinate system and
+		// metadata, so copy it from the blank tile.
+		NetcdfFile blank = NetcdfFile.open(bandUtil.getBlankTile(ds, bs.get(0))
+				.getFileLocation().toString());
+		try {
+			for (Attribute attr : blank.getGlobalAttributes())
+				dataset.addAttribute(null, attr);
+			dataset.addVariable(null, copyAxis(dataset, blank, "y", ys));
+			dataset.addVariable(null, copyAxis(dataset, blank, "x", xs));
+			Variable band1 = blank.findVariable(Default.BAND1);
+			Attribute mapping = band1 == null ? null
+					: band1.findAttribute("grid_mapping");
+			if (mapping != null && mapping.isString()) {
+				Variable crs = blank.findVariable(mapping.getStringValue());
+				if (crs != null) {
+					Variable v = new VariableDS(dataset, null, null,
+							crs.getShortName(), crs.getDataType(), "", null,
+							null);
+					for (Attribute attr : crs.getAttributes())
+						v.addAttribute(attr);
+					v.setCachedData(crs.read(), false);
+					dataset.addVariable(null, v);
+				}
+			}
+		} finally {
+			blank.close();
+		}
+
+		for (int i = 0; i < bs.size(); i++) {
+			Band b = bs.get(i);
+			TimeSeriesFile file = files.get(i);
+			Number fill = 0;
+			if (b.getNodata() != null && !b.getNodata().isEmpty())
+				fill = Double.parseDouble(b.getNodata());
+			Array data = file.read(x, y, w, h, ids.get(i), fill);
+			Variable v = new VariableDS(dataset, null, null, b.getName(),
+					file.getDataType(), "time y x", null, null);
+			blank = NetcdfFile.open(bandUtil.getBlankTile(ds, b)
+					.getFileLocation().toString());
+			try {
+				Variable band1 = blank.findVariable(Default.BAND1);
+				if (band1 != null) {
+					for (Attribute attr : band1.getAttributes())
+						v.addAttribute(attr);
+				}
+			} finally {
+				blank.close();
+			}
+			v.setCachedData(data.flip(1).copy(), false);
+			dataset.addVariable(null, v);
+		}
+
+		dataset.finish();
+		return dataset;
+	}
+
+	private Variable copyAxis(NetcdfDataset dataset, NetcdfFile blank,
+			String name, Array values) {
+		Variable v = new VariableDS(dataset, null, null, name,
+				DataType.DOUBLE, name, null, null);
+		Variable original = blank.findVariable(name);
+		if (original != null) {
+			for (Attribute attr : original.getAttributes())
+				v.addAttribute(attr);
+		}
+		v.setCachedData(values, false);
+		return v;
+	}
+}
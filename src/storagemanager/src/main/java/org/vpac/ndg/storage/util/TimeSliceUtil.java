@@ -70,6 +70,10 @@ public class TimeSliceUtil {
 	DatasetUtil datasetUtil;
 	@Autowired
 	NdgConfigManager ndgConfigManager;
+	@Autowired
+	TimeSeriesStore timeSeriesStore;
+	@Autowired
+	TileManifest tileManifest;
 
 	public DatasetUtil getDatasetUtil() {
 		return datasetUtil;
@@ -346,6 +350,11 @@ public class TimeSliceUtil {
 		} catch (IOException e) {
 			log.error("Error restoring {} caused by {}", tsPath, e);
 		}
+		// The time series store may contain data from the tiles that were
+		// just replaced. It will be rebuilt on the next import.
+		timeSeriesStore.invalidate(timeSliceDao.getParentDataset(timesliceId));
+		// Likewise the tile manifest may list tiles that have been removed.
+		tileManifest.invalidate(ts);
 	}
 
 	public void cleanup(String timesliceId) {
@@ -397,6 +406,7 @@ public class TimeSliceUtil {
 		} catch (NoSuchFileException e) {
 			log.warn("Could not find dataset directory {}. Continuing with deletion anyway", tsPath);
 		}
+		tileManifest.invalidate(ts);
 
 		timeSliceDao.delete(ts);
 	}
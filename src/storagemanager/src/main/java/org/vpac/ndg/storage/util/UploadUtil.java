@@ -53,4 +53,14 @@ public class UploadUtil {
 		return dir;
 	}
 
+	/**
+	 * @return The store for chunks of files that are being uploaded in
+	 *         pieces. It is kept next to the upload directory (rather than in
+	 *         it) so that it is not mistaken for an uploaded file.
+	 */
+	public ChunkStore getChunkStore(Upload u) throws IOException {
+		Path dir = getDirectory(u);
+		return new ChunkStore(dir.resolveSibling(u.getFileId() + ".chunks"));
+	}
+
 }
@@ -20,6 +20,7 @@
 package org.vpac.ndg.task;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -30,9 +31,11 @@ import org.springframework.transaction.annotation.Transactional;
 import org.vpac.ndg.ApplicationContextProvider;
 import org.vpac.ndg.application.Constant;
 import org.vpac.ndg.common.datamodel.RunningTaskState;
+import org.vpac.ndg.datamodel.TileFileCache;
 import org.vpac.ndg.exceptions.TaskException;
 import org.vpac.ndg.exceptions.TaskInitialisationException;
 import org.vpac.ndg.geometry.Box;
+import org.vpac.ndg.geometry.Tile;
 import org.vpac.ndg.lock.HasRunningState;
 import org.vpac.ndg.rasterdetails.RasterDetails;
 import org.vpac.ndg.storage.dao.BandDao;
@@ -42,6 +45,8 @@ import org.vpac.ndg.storage.model.Dataset;
 import org.vpac.ndg.storage.model.TileBand;
 import org.vpac.ndg.storage.model.TimeSlice;
 import org.vpac.ndg.storage.util.BandUtil;
+import org.vpac.ndg.storage.util.TileManifest;
+import org.vpac.ndg.storage.util.TimeSeriesStore;
 import org.vpac.ndg.storage.util.TimeSliceUtil;
 
 /**
@@ -67,6 +72,9 @@ public class Committer extends BaseTask {
 	BandDao bandDao;
 	TimeSliceUtil timeSliceUtil;
 	BandUtil bandUtil;
+	TimeSeriesStore timeSeriesStore;
+	TileManifest tileManifest;
+	TileFileCache tileFileCache;
 
 	private ScalarReceiver<HasRunningState> taskMonitor;
 
@@ -81,6 +89,9 @@ public class Committer extends BaseTask {
 		bandDao = (BandDao) appContext.getBean("bandDao");
 		timeSliceUtil = (TimeSliceUtil) appContext.getBean("timeSliceUtil");
 		bandUtil = (BandUtil) appContext.getBean("bandUtil");
+		timeSeriesStore = (TimeSeriesStore) appContext.getBean("timeSeriesStore");
+		tileManifest = (TileManifest) appContext.getBean("tileManifest");
+		tileFileCache = (TileFileCache) appContext.getBean("tileFileCache");
 	}
 
 	@Override
@@ -118,6 +129,8 @@ public class Committer extends BaseTask {
 			tileband.renameExistingTileAsOld();
 			// Copy the tileband into its default location in storagepool.
 			tileband.copyIntoDefaultLocationInStoragePool();
+			// Readers in this process may still have the old tile open.
+			tileFileCache.invalidate(tileband.getFileLocation());
 			// Add tileband into tile list if it doesn't exist in this time slice
 			log.debug("TARGET = {}", tileband.getFileLocation());
 			log.info("Committing {} tile = {}", tileband.getBand().getName(),
@@ -173,6 +186,28 @@ public class Committer extends BaseTask {
 		actionLog.add(String.format("Updating ts %s", ts));
 		timeSliceDao.update(ts);
 
+		// Readers trust the manifest, so if it can't be updated it must be
+		// removed; they will then list the directory instead.
+		actionLog.add("Updating tile manifest");
+		try {
+			tileManifest.add(target, band, getTiles());
+		} catch (IOException e) {
+			log.warn("Could not update tile manifest: {}", e);
+			tileManifest.invalidate(target, band);
+		}
+
+		// The time series store is only a copy of the tiles, so don't fail the
+		// import if it can't be updated.
+		if (timeSeriesStore.isEnabled()) {
+			actionLog.add("Updating time series store");
+			try {
+				timeSeriesStore.update(dataset, band, ts, getTiles());
+			} catch (IOException | RuntimeException e) {
+				log.warn("Could not update time series store", e);
+				timeSeriesStore.invalidate(dataset, band, getTiles());
+			}
+		}
+
 		// Change the RunningTaskMonitor state from RUNNING into CLEANUP
 		// If locking is disabled, this field may be null.
 		if (taskMonitor != null && taskMonitor.get() != null)
@@ -194,7 +229,27 @@ public class Committer extends BaseTask {
 			}
 			log.debug("ROLLBACK moving stored tile back to = {}",
 					tileband.getFileLocation());
+			if (tileband.getPreviousFileLocation() != null)
+				tileFileCache.invalidate(tileband.getPreviousFileLocation());
 		}
+
+		// The store may already contain the new data.
+		timeSeriesStore.invalidate(dataset, band, getTiles());
+
+		// The manifest may list tiles that have just been moved out.
+		try {
+			tileManifest.rebuild(target, band);
+		} catch (IOException e) {
+			log.warn("Could not rebuild tile manifest: {}", e);
+			tileManifest.invalidate(target, band);
+		}
+	}
+
+	private List<Tile> getTiles() {
+		List<Tile> tiles = new ArrayList<Tile>();
+		for (TileBand tileband : source)
+			tiles.add(tileband.getTile());
+		return tiles;
 	}
 
 	@Override
@@ -230,6 +230,15 @@ public class Exporter extends Application {
 		// image per band per time slice.
 		List<ScalarReceiver<AggregationDefinition>> multiBandTimeSlices = new ArrayList<>();
 		List<List<GraphicsFile>> allFiles = new ArrayList<>();
+
+		// Each band of each time slice is transformed independently, so they
+		// can run in parallel. The aggregation tasks below run after all of
+		// them have finished.
+		TaskGroup transformGroup = new TaskGroup("Transforming bands");
+		transformGroup.getInnerTaskPipeline().setNumThreads(
+				ndgConfigManager.getConfig().getPipelineThreads());
+		getTaskPipeline().addTask(transformGroup);
+
 		for (TimeSlice ts : timeSlices) {
 
 			// STEP 1: Aggregate by band (see multibandBuilder below).
@@ -237,7 +246,12 @@ public class Exporter extends Application {
 			// new projection and combine into one file.
 			List<GraphicsFile> transformedBands = new ArrayList<>();
 			for (Band b : selectedBands) {
-				GraphicsFile targetImage = createPartialPipeline(ts, b);
+				TaskGroup bandGroup = new TaskGroup(String.format(
+						"Transforming band %s of time slice %s", b.getName(),
+						ts.getId()));
+				GraphicsFile targetImage = createPartialPipeline(ts, b,
+						bandGroup);
+				transformGroup.addTask(bandGroup);
 				transformedBands.add(targetImage);
 			}
 			allFiles.add(transformedBands);
@@ -398,18 +412,21 @@ public class Exporter extends Application {
 
 	/**
 	 * Create a pipeline to reproject one band of one timeslice. This adds the
-	 * necessary tasks to the shared task pipeline.
+	 * necessary tasks to the given group.
 	 *
 	 * @param ts
 	 *            The timeslice to operate on.
 	 * @param band
 	 *            The band to operate on.
+	 * @param group
+	 *            The group to add the tasks to. The tasks depend on each
+	 *            other, so they will run in order.
 	 * @return A handle to the output file (which will not exist until the tasks
 	 *         run).
 	 * @throws TaskInitialisationException
 	 */
-	protected GraphicsFile createPartialPipeline(TimeSlice ts, Band band) throws
-			TaskInitialisationException {
+	protected GraphicsFile createPartialPipeline(TimeSlice ts, Band band,
+			TaskGroup group) throws TaskInitialisationException {
 
 		// Create an empty container to capture all tilebands
 		List<TileBand> unfilteredtilebands = new ArrayList<TileBand>();
@@ -536,11 +553,11 @@ public class Exporter extends Application {
 
 
 		// ADD TASK
-		getTaskPipeline().addTask(tilebandCreator);
-		getTaskPipeline().addTask(tileBandFilter);
-		getTaskPipeline().addTask(vrtBuilder);
-		getTaskPipeline().addTask(initialTransform);
-		getTaskPipeline().addTask(ncTranslator);
+		group.addTask(tilebandCreator);
+		group.addTask(tileBandFilter);
+		group.addTask(vrtBuilder);
+		group.addTask(initialTransform);
+		group.addTask(ncTranslator);
 
 		return exportedImage;
 	}
@@ -83,6 +83,7 @@ public class Importer extends Application {
 	private List<TileBand> mergedTilebands;
 	private ScalarReceiver<HasRunningState> lockBox;
 	private Boolean useBilinearInterpolation;
+	private Boolean useInProcessWarp;
 
 	UploadDao uploadDao;
 	TimeSliceDao timeSliceDao;
@@ -256,6 +257,10 @@ public class Importer extends Application {
 			tileTransformer.setUseBilinearInterpolation(getUseBilinearInterpolation());
 		else
 			tileTransformer.setUseBilinearInterpolation(band.isContinuous());
+		if (getUseInProcessWarp() != null)
+			tileTransformer.setUseInProcessWarp(getUseInProcessWarp());
+		else
+			tileTransformer.setUseInProcessWarp(ndgConfigManager.getConfig().isInProcessWarp());
 		tileTransformer.setSrcnodata(srcnodata);
 		tileTransformer.setDstnodata(dstnodata);
 		tileTransformer.setDatatype(datatype);
@@ -524,4 +529,16 @@ public class Importer extends Application {
 		this.useBilinearInterpolation = useBilinearInterpolation;
 	}
 
+	public Boolean getUseInProcessWarp() {
+		return useInProcessWarp;
+	}
+
+	/**
+	 * Cut the tiles in-process rather than with gdalwarp. If not set, the
+	 * inProcessWarp setting of the configuration is used.
+	 */
+	public void setUseInProcessWarp(Boolean useInProcessWarp) {
+		this.useInProcessWarp = useInProcessWarp;
+	}
+
 }
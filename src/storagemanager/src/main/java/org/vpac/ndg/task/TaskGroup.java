@@ -0,0 +1,84 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.task;
+
+import java.util.Collection;
+
+import org.vpac.ndg.exceptions.TaskException;
+import org.vpac.ndg.exceptions.TaskInitialisationException;
+
+/**
+ * A task that runs a sequence of other tasks in an inner pipeline. This allows
+ * chains of dependent tasks to be scheduled as one unit, e.g. so that several
+ * chains can run in parallel in another pipeline.
+ */
+public class TaskGroup extends BaseTask {
+
+	private TaskPipeline innerTaskPipeline = new TaskPipeline(false);
+
+	public TaskGroup(String description) {
+		super(description);
+	}
+
+	/**
+	 * Add a task to the group. Tasks are run in the order they were added.
+	 */
+	public void addTask(Task task) {
+		innerTaskPipeline.addTask(task);
+	}
+
+	@Override
+	public void initialise() throws TaskInitialisationException {
+		// Run each specific initialisation on each task in inner pipeline
+		innerTaskPipeline.initialise();
+	}
+
+	@Override
+	public void execute(Collection<String> actionLog, ProgressCallback progressCallback) throws TaskException {
+		innerTaskPipeline.setActionLog(actionLog);
+		// Progress of the inner tasks is scaled by their weights, which sum to
+		// the weight of this group.
+		innerTaskPipeline.setParentCallback(progressCallback);
+		innerTaskPipeline.run();
+	}
+
+	@Override
+	public void rollback() {
+		innerTaskPipeline.rollback();
+	}
+
+	@Override
+	public void finalise() {
+		innerTaskPipeline.finalise();
+	}
+
+	public TaskPipeline getInnerTaskPipeline() {
+		return innerTaskPipeline;
+	}
+
+	@Override
+	public double getProgressWeight() {
+		double weight = 0.0;
+		for (Task task : innerTaskPipeline.getQueue())
+			weight += task.getProgressWeight();
+		return weight;
+	}
+}
@@ -23,6 +23,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +48,13 @@ import org.vpac.ndg.storage.model.JobProgress;
 
 /**
  * Manages a collection of tasks as a transaction.
+ *
+ * <p>
+ * By default the tasks are run in order. If the pipeline is given more than one
+ * thread (see {@link #setNumThreads(int)}), the tasks are run concurrently
+ * instead; this is only suitable for pipelines whose tasks don't depend on each
+ * other, such as the per-tile transformations of an import.
+ * </p>
  * @author hsumanto
  */
 public class TaskPipeline implements ProgressCallback {
@@ -55,6 +72,12 @@ public class TaskPipeline implements ProgressCallback {
 	/** for differentiating main pipeline and child pipeline */
 	private boolean isMain;
 	private Collection<String> actionLog;
+	/** Number of tasks that may run at once; 1 for sequential execution */
+	private int numThreads = 1;
+	/** Progress of each task, when running in parallel */
+	private double[] taskProgress;
+	/** Receives the progress of an inner pipeline, as a fraction */
+	private ProgressCallback parentCallback;
 
 	/** Total weights from all tasks in pipeline, used to normalise individual
 	  * progress values */
@@ -133,12 +156,18 @@ public class TaskPipeline implements ProgressCallback {
 
 		log.info("{}START OF TASK EXECUTION", tab);
 
+		if (numThreads > 1 && queue.size() > 1) {
+			runParallel(tab);
+			taskpipelineCurrentState(TaskState.FINISHED);
+			return;
+		}
+
 		int currTaskStep = 1;
 		// Perform execution of each task in pipeline
 		for (Task task : queue) {
 			log.debug(String.format("%sTASK_EXEC [%s] = %s", tab,
 					currTaskStep, task.getDescription()));
-			task.execute(actionLog, this);
+			task.execute(actionLog, isMain() ? this : stepCallback(currTaskStep - 1));
 			taskpipelineCurrentStep(currTaskStep, task.getDescription());
 			currTaskStep++;
 		}
@@ -147,6 +176,102 @@ public class TaskPipeline implements ProgressCallback {
 		taskpipelineCurrentState(TaskState.FINISHED);
 	}
 
+	/**
+	 * Execute the tasks concurrently. If a task fails, no more tasks will be
+	 * started, but this waits for the running ones to finish before throwing
+	 * the error - so that a subsequent {@link #rollback()} doesn't race with
+	 * them.
+	 */
+	private void runParallel(final String tab) throws TaskException {
+		int nthreads = Math.min(numThreads, queue.size());
+		log.info("{}Running {} tasks on {} threads", tab, queue.size(),
+				nthreads);
+
+		// Tasks may write to the log from any thread.
+		final Collection<String> sharedLog =
+				Collections.synchronizedCollection(actionLog);
+		taskProgress = new double[queue.size()];
+
+		ExecutorService executor = Executors.newFixedThreadPool(nthreads,
+				new ThreadFactory() {
+			AtomicInteger count = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, String.format("%s-%d",
+						name == null ? "pipeline" : name,
+						count.getAndIncrement()));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		CompletionService<Integer> completion =
+				new ExecutorCompletionService<Integer>(executor);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+		for (int i = 0; i < queue.size(); i++) {
+			final Task task = queue.get(i);
+			final int index = i;
+			futures.add(completion.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					log.debug(String.format("%sTASK_EXEC [%s] = %s", tab,
+							index + 1, task.getDescription()));
+					task.execute(sharedLog, new ProgressCallback() {
+						@Override
+						public void progressUpdated(double progress) {
+							taskProgressUpdated(index, progress);
+						}
+					});
+					return index;
+				}
+			}));
+		}
+
+		TaskException error = null;
+		try {
+			for (int i = 0; i < queue.size(); i++) {
+				Future<Integer> future = completion.take();
+				try {
+					int index = future.get();
+					taskCompleted(index, i + 1);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof TaskException)
+						error = (TaskException) cause;
+					else
+						error = new TaskException(cause);
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = new TaskException("Interrupted while running tasks.", e);
+		} finally {
+			for (Future<Integer> future : futures)
+				future.cancel(false);
+			executor.shutdown();
+			awaitTermination(executor, tab);
+		}
+
+		if (error != null)
+			throw error;
+	}
+
+	private void awaitTermination(ExecutorService executor, String tab) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.MINUTES))
+					break;
+				log.info("{}Waiting for running tasks to finish", tab);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
 	/**
 	 * Roll back each task in task pipeline.
 	 * @throws TaskException
@@ -227,6 +352,27 @@ public class TaskPipeline implements ProgressCallback {
 		return isMain;
 	}
 
+	/**
+	 * @param numThreads The number of tasks that may run at once. If this is
+	 *        greater than 1, the tasks must not depend on each other.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * @param parentCallback Receives the progress of an inner pipeline, as a
+	 *        fraction of its total weight. Ignored for main pipelines, which
+	 *        record their own progress.
+	 */
+	public void setParentCallback(ProgressCallback parentCallback) {
+		this.parentCallback = parentCallback;
+	}
+
 	/**
 	 * Set the name for the current taskpipeline.
 	 * Also set the progress name and its task type.
@@ -266,8 +412,9 @@ public class TaskPipeline implements ProgressCallback {
 	 * @param currTaskDesc The current task description.
 	 */
 	private void taskpipelineCurrentStep(int currTaskStep, String currTaskDesc) {
-		// Ignore if inner taskpipeline job progress
+		// Inner pipelines report to the task that runs them instead
 		if (!isMain()) {
+			reportToParent(completedWeight(currTaskStep));
 			return;
 		}
 
@@ -306,6 +453,76 @@ public class TaskPipeline implements ProgressCallback {
 		jobProgressDao.save(getProgress());
 	}
 
+	/**
+	 * @return The total weight of the first n tasks.
+	 */
+	private double completedWeight(int n) {
+		double weight = 0.0;
+		for (int i = 0; i < n; i++)
+			weight += queue.get(i).getProgressWeight();
+		return weight;
+	}
+
+	/**
+	 * @return A callback that scales the progress of one task of an inner
+	 *         pipeline to the progress of the whole pipeline.
+	 */
+	private ProgressCallback stepCallback(final int index) {
+		return new ProgressCallback() {
+			@Override
+			public void progressUpdated(double progress) {
+				reportToParent(completedWeight(index)
+						+ progress * queue.get(index).getProgressWeight());
+			}
+		};
+	}
+
+	private void reportToParent(double weightedProgressSum) {
+		if (parentCallback == null || totalTaskPipelineWeight <= 0.0)
+			return;
+		parentCallback.progressUpdated(weightedProgressSum / totalTaskPipelineWeight);
+	}
+
+	/**
+	 * Record the completion of a task that was run in parallel.
+	 * @param index The index of the task in the queue.
+	 * @param numCompleted The number of tasks that have finished so far.
+	 */
+	private synchronized void taskCompleted(int index, int numCompleted) {
+		taskProgress[index] = 1.0;
+		if (!isMain()) {
+			saveParallelProgress();
+			return;
+		}
+
+		getProgress().setCurrentStep(numCompleted,
+				queue.get(index).getDescription());
+		saveParallelProgress();
+	}
+
+	private synchronized void taskProgressUpdated(int index, double progress) {
+		taskProgress[index] = progress;
+		saveParallelProgress();
+	}
+
+	/**
+	 * Sum the weighted progress of all tasks. Unlike sequential execution,
+	 * several tasks may be partially complete at once.
+	 */
+	private void saveParallelProgress() {
+		double weightedProgressSum = 0.0;
+		for (int i = 0; i < queue.size(); i++)
+			weightedProgressSum += taskProgress[i] * queue.get(i).getProgressWeight();
+		if (!isMain()) {
+			reportToParent(weightedProgressSum);
+			return;
+		}
+		double weightedProgressPercent = weightedProgressSum / totalTaskPipelineWeight * 100.0;
+
+		getProgress().setCurrentStepProgress(weightedProgressPercent);
+		jobProgressDao.save(getProgress());
+	}
+
 	/**
 	 * Set the current state in the taskpipeline.
 	 * @param taskState The current task state.
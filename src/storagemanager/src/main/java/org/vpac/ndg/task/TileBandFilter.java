@@ -19,8 +19,6 @@
 
 package org.vpac.ndg.task;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
 
@@ -68,9 +66,10 @@ public class TileBandFilter extends BaseTask {
 		log.debug("If it exists, the first tile will be {}",
 				source.get(0).getDefaultFileLocation());
 
+		// The tile manifest knows which tiles exist, so there's no need to
+		// check each file.
 		for (TileBand tileband: source) {
-			Path tileFileLocation = tileband.getDefaultFileLocation();
-			if (Files.exists(tileFileLocation))
+			if (tileband.existsInStoragepool())
 				target.add(tileband);
 		}
 
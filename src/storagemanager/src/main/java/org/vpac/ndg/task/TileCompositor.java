@@ -0,0 +1,182 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.task;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.application.Constant;
+import org.vpac.ndg.common.StringUtils;
+import org.vpac.ndg.exceptions.TaskException;
+import org.vpac.ndg.exceptions.TaskInitialisationException;
+import org.vpac.ndg.rasterdetails.RasterDetails;
+import org.vpac.ndg.rasterservices.Compositor;
+import org.vpac.ndg.rasterservices.Warper;
+import org.vpac.ndg.storagemanager.GraphicsFile;
+
+/**
+ * The task of this class is to overlay tiles that share a grid, e.g. a newly
+ * imported tile on top of the existing one. The valid cells of each source
+ * replace those of the sources before it. This is done in-process with
+ * {@link Compositor}; if the tiles turn out not to share a grid, it falls back
+ * to mosaicking them with gdalwarp (see {@link Transformer}).
+ */
+public class TileCompositor extends BaseTask {
+
+	final private Logger log = LoggerFactory.getLogger(TileCompositor.class);
+
+	private List<GraphicsFile> source;
+	private GraphicsFile target;
+	private String srcnodata;
+	private String dstnodata;
+	private RasterDetails datatype;
+
+	public TileCompositor() {
+		this(Constant.TASK_DESCRIPTION_TILECOMPOSITOR);
+	}
+
+	public TileCompositor(String description) {
+		super(description);
+	}
+
+	@Override
+	public void initialise() throws TaskInitialisationException {
+		if(source == null) {
+			throw new TaskInitialisationException(getDescription(), Constant.ERR_NO_INPUT_IMAGES);
+		}
+
+		if(target == null) {
+			throw new TaskInitialisationException(getDescription(), Constant.ERR_TARGET_DATASET_NOT_SPECIFIED);
+		}
+	}
+
+	@Override
+	public void execute(Collection<String> actionLog, ProgressCallback progressCallback) throws TaskException {
+		List<Path> inputs = new ArrayList<Path>();
+		for (GraphicsFile gf : source) {
+			if (gf.exists())
+				inputs.add(gf.getFileLocation());
+		}
+		if (inputs.isEmpty()) {
+			String strSource = StringUtils.join(source, "\n");
+			throw new TaskException(getDescription(), "Source file not exist:\n" + strSource);
+		}
+
+		Compositor compositor = new Compositor();
+		compositor.setSrcnodata(Warper.parseNoData(srcnodata));
+		compositor.setDstnodata(Warper.parseNoData(dstnodata));
+		compositor.setDatatype(datatype);
+
+		actionLog.add(String.format("composite %s %s",
+				StringUtils.join(inputs, " "), target.getFileLocation()));
+		try {
+			compositor.composite(inputs, target.getFileLocation());
+			return;
+		} catch (UnsupportedOperationException e) {
+			log.info("Can't composite {} in-process; falling back to " +
+					"gdalwarp: {}", target, e.getMessage());
+		} catch (IOException e) {
+			throw new TaskException(getDescription(), e);
+		}
+
+		Transformer mosaickingTask = new Transformer(getDescription());
+		mosaickingTask.setSource(source);
+		mosaickingTask.setTarget(target);
+		mosaickingTask.setSrcnodata(srcnodata);
+		mosaickingTask.setDstnodata(dstnodata);
+		mosaickingTask.setDatatype(datatype);
+		mosaickingTask.setCleanupSource(false);
+		mosaickingTask.setCleanupTarget(false);
+		try {
+			mosaickingTask.initialise();
+		} catch (TaskInitialisationException e) {
+			throw new TaskException(e);
+		}
+		mosaickingTask.execute(actionLog, progressCallback);
+	}
+
+	@Override
+	public void rollback() {
+		if(target.deleteIfExists()) {
+			log.trace("Deleted {}", target);
+		}
+	}
+
+	@Override
+	public void finalise() {
+		if(isCleanupSource()) {
+			for(GraphicsFile sourceImage: source) {
+				if(sourceImage.deleteIfExists()) {
+					log.trace("Deleted {}", sourceImage);
+				}
+			}
+		}
+
+		if(isCleanupTarget()) {
+			if(target.deleteIfExists()) {
+				log.trace("Deleted {}", target);
+			}
+		}
+	}
+
+	public void setSource(List<GraphicsFile> source) {
+		this.source = source;
+	}
+
+	public List<GraphicsFile> getSource() {
+		return source;
+	}
+
+	public void setTarget(GraphicsFile target) {
+		this.target = target;
+	}
+
+	public GraphicsFile getTarget() {
+		return target;
+	}
+
+	public String getSrcnodata() {
+		return srcnodata;
+	}
+
+	public void setSrcnodata(String srcnodata) {
+		this.srcnodata = srcnodata;
+	}
+
+	public String getDstnodata() {
+		return dstnodata;
+	}
+
+	public void setDstnodata(String dstnodata) {
+		this.dstnodata = dstnodata;
+	}
+
+	public RasterDetails getDatatype() {
+		return datatype;
+	}
+
+	public void setDatatype(RasterDetails datatype) {
+		this.datatype = datatype;
+	}
+}
@@ -30,6 +30,7 @@ import org.springframework.context.ApplicationContext;
 import org.vpac.ndg.ApplicationContextProvider;
 import org.vpac.ndg.FileUtils;
 import org.vpac.ndg.application.Constant;
+import org.vpac.ndg.configuration.NdgConfigManager;
 import org.vpac.ndg.exceptions.TaskException;
 import org.vpac.ndg.exceptions.TaskInitialisationException;
 import org.vpac.ndg.rasterdetails.RasterDetails;
@@ -55,18 +56,20 @@ public class TileTransformer extends BaseTask {
 	private String dstnodata;
 	private RasterDetails datatype;
 	private boolean useBilinearInterpolation;
+	private boolean useInProcessWarp;
 	TimeSliceDao timeSliceDao;
 
 	public TileTransformer() {
-		super(Constant.TASK_DESCRIPTION_TILETRANSFORMER);
-		ApplicationContext appContext = ApplicationContextProvider.getApplicationContext();
-		timeSliceDao = (TimeSliceDao) appContext.getBean("timeSliceDao");
+		this(Constant.TASK_DESCRIPTION_TILETRANSFORMER);
 	}
 
 	public TileTransformer(String description) {
 		super(description);
 		ApplicationContext appContext = ApplicationContextProvider.getApplicationContext();
 		timeSliceDao = (TimeSliceDao) appContext.getBean("timeSliceDao");
+		NdgConfigManager ndgConfigManager = (NdgConfigManager) appContext.getBean("ndgConfigManager");
+		// Each tile is warped by a separate process, so they can run at once.
+		innerTaskPipeline.setNumThreads(ndgConfigManager.getConfig().getPipelineThreads());
 	}
 
 	@Override
@@ -116,6 +119,7 @@ public class TileTransformer extends BaseTask {
 			makeTile.setCleanupSource(isCleanupSource());
 			makeTile.setCleanupTarget(isCleanupTarget());
 			makeTile.setUseBilinearInterpolation(useBilinearInterpolation);
+			makeTile.setUseInProcessWarp(useInProcessWarp);
 			makeTile.setSrcnodata(srcnodata);
 			makeTile.setDstnodata(dstnodata);
 			makeTile.setDatatype(datatype);
@@ -187,6 +191,14 @@ public class TileTransformer extends BaseTask {
 		this.useBilinearInterpolation = useBilinearInterpolation;
 	}
 
+	public boolean isUseInProcessWarp() {
+		return useInProcessWarp;
+	}
+
+	public void setUseInProcessWarp(boolean useInProcessWarp) {
+		this.useInProcessWarp = useInProcessWarp;
+	}
+
 	public String getSrcnodata() {
 		return srcnodata;
 	}
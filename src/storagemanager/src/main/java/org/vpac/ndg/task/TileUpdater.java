@@ -19,6 +19,7 @@
 
 package org.vpac.ndg.task;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -29,6 +30,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.vpac.ndg.ApplicationContextProvider;
 import org.vpac.ndg.application.Constant;
+import org.vpac.ndg.configuration.NdgConfigManager;
 import org.vpac.ndg.exceptions.TaskException;
 import org.vpac.ndg.exceptions.TaskInitialisationException;
 import org.vpac.ndg.geometry.Box;
@@ -54,6 +56,7 @@ public class TileUpdater extends BaseTask {
 	private String srcnodata;
 	private String dstnodata;
 	private RasterDetails datatype;
+	private boolean useInProcessComposite;
 	TimeSliceDao timeSliceDao;
 	TimeSliceUtil timeSliceUtil;
 	TileManager tileManager;
@@ -68,6 +71,10 @@ public class TileUpdater extends BaseTask {
 		timeSliceDao = (TimeSliceDao) appContext.getBean("timeSliceDao");
 		timeSliceUtil = (TimeSliceUtil) appContext.getBean("timeSliceUtil");
 		tileManager = (TileManager) appContext.getBean("tileManager");
+		NdgConfigManager ndgConfigManager = (NdgConfigManager) appContext.getBean("ndgConfigManager");
+		// Each tile is composited independently, so they can run at once.
+		innerTaskPipeline.setNumThreads(ndgConfigManager.getConfig().getPipelineThreads());
+		useInProcessComposite = ndgConfigManager.getConfig().isInProcessComposite();
 	}
 
 	@Override
@@ -92,10 +99,12 @@ public class TileUpdater extends BaseTask {
 				isExistingTile = existingBounds.intersects(tileBounds);
 			}
 
-			if (tileband.existsInStoragepool() && isExistingTile) {
+			// Find location of existing tile. This checks the file rather than
+			// the tile manifest: the manifest may be cached, and merging with
+			// the wrong tile would lose data.
+			Path defaultFileLocationForPreviousUpload = tileband.getDefaultFileLocation();
+			if (isExistingTile && Files.exists(defaultFileLocationForPreviousUpload)) {
 				log.trace("Found tile {}", t);
-				// Find location of existing tile
-				Path defaultFileLocationForPreviousUpload = tileband.getDefaultFileLocation();
 				// Get new and existing tile images
 				GraphicsFile newImage = new GraphicsFile(tileband.getFileLocation());
 				GraphicsFile oldImage = new GraphicsFile(defaultFileLocationForPreviousUpload);
@@ -111,17 +120,33 @@ public class TileUpdater extends BaseTask {
 				targetTile.setFileLocation(transformTileFileLocation); // targetTile.setFileLocation("/var/tmp/.../Band1_tile_x1_y1.nc.composite");
 				tileband.setFileLocation(targetTile.getFileLocation());
 
-				Transformer mosaickingTask = new Transformer("Composite new tile on top of exisiting tile " + t.getIndex());
-				// Set up source image
-				mosaickingTask.setSource(sourceTiles);
-				// Set up target image
-				mosaickingTask.setTarget(targetTile);
-				mosaickingTask.setSrcnodata(srcnodata);
-				mosaickingTask.setDstnodata(dstnodata);
-				mosaickingTask.setDatatype(datatype);
-				mosaickingTask.setCleanupSource(false);
-				mosaickingTask.setCleanupTarget(false);
-				innerTaskPipeline.addTask(mosaickingTask);
+				String description = "Composite new tile on top of exisiting tile " + t.getIndex();
+				if (useInProcessComposite) {
+					// The tiles share a grid, so they can be overlaid cell by cell.
+					TileCompositor mosaickingTask = new TileCompositor(description);
+					// Set up source image
+					mosaickingTask.setSource(sourceTiles);
+					// Set up target image
+					mosaickingTask.setTarget(targetTile);
+					mosaickingTask.setSrcnodata(srcnodata);
+					mosaickingTask.setDstnodata(dstnodata);
+					mosaickingTask.setDatatype(datatype);
+					mosaickingTask.setCleanupSource(false);
+					mosaickingTask.setCleanupTarget(false);
+					innerTaskPipeline.addTask(mosaickingTask);
+				} else {
+					Transformer mosaickingTask = new Transformer(description);
+					// Set up source image
+					mosaickingTask.setSource(sourceTiles);
+					// Set up target image
+					mosaickingTask.setTarget(targetTile);
+					mosaickingTask.setSrcnodata(srcnodata);
+					mosaickingTask.setDstnodata(dstnodata);
+					mosaickingTask.setDatatype(datatype);
+					mosaickingTask.setCleanupSource(false);
+					mosaickingTask.setCleanupTarget(false);
+					innerTaskPipeline.addTask(mosaickingTask);
+				}
 			}
 			else {
 				innerTaskPipeline.addTask(new NoOperation("Dummy task"));
@@ -218,4 +243,16 @@ public class TileUpdater extends BaseTask {
 		this.datatype = datatype;
 	}
 
+	public boolean isUseInProcessComposite() {
+		return useInProcessComposite;
+	}
+
+	/**
+	 * Overlay the tiles in-process rather than with gdalwarp. Defaults to the
+	 * inProcessComposite setting of the configuration.
+	 */
+	public void setUseInProcessComposite(boolean useInProcessComposite) {
+		this.useInProcessComposite = useInProcessComposite;
+	}
+
 }
@@ -20,20 +20,24 @@
 package org.vpac.ndg.task;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
+import org.gdal.osr.SpatialReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vpac.ndg.CommandUtil;
 import org.vpac.ndg.application.Constant;
 import org.vpac.ndg.common.StringUtils;
+import org.vpac.ndg.common.datamodel.GdalFormat;
 import org.vpac.ndg.exceptions.TaskException;
 import org.vpac.ndg.exceptions.TaskInitialisationException;
 import org.vpac.ndg.geometry.Box;
 import org.vpac.ndg.rasterdetails.RasterDetails;
 import org.vpac.ndg.rasterservices.ProcessException;
+import org.vpac.ndg.rasterservices.Warper;
 import org.vpac.ndg.storagemanager.GraphicsFile;
 
 /**
@@ -52,6 +56,7 @@ public class Transformer extends BaseTask {
 	private GraphicsFile target;
 	private Box extents;
 	private boolean useBilinearInterpolation;
+	private boolean useInProcessWarp;
 	private List<String> command;
 	private String srcnodata;
 	private String dstnodata;
@@ -101,6 +106,18 @@ public class Transformer extends BaseTask {
 			}
 		}
 
+		if (useInProcessWarp && canWarpInProcess()) {
+			try {
+				warpInProcess(actionLog);
+				return;
+			} catch (UnsupportedOperationException e) {
+				log.info("Can't warp {} in-process; falling back to " +
+						"gdalwarp: {}", target, e.getMessage());
+			} catch (IOException e) {
+				throw new TaskException(getDescription(), e);
+			}
+		}
+
 		// Initialize command parameter list
 		command = new ArrayList<String>();
 
@@ -210,6 +227,62 @@ public class Transformer extends BaseTask {
 		}
 	}
 
+	/**
+	 * @return true if the target is fully specified, so that gdalwarp would
+	 *         not need to infer anything from the sources.
+	 */
+	private boolean canWarpInProcess() {
+		if (target.getFormat() != GdalFormat.NC)
+			return false;
+		if (target.getResolution() == null)
+			return false;
+		if (getExtents() == null && target.getBounds() == null)
+			return false;
+		if (target.getEpsgId() <= -1
+				&& (target.getSrs() == null || target.getSrs().isEmpty()))
+			return false;
+		return true;
+	}
+
+	/**
+	 * Warp the sources with {@link Warper} instead of gdalwarp. The result is
+	 * equivalent to the command built in {@link #execute}.
+	 * @throws UnsupportedOperationException if the sources can't be handled
+	 *         in-process; nothing is written in that case.
+	 */
+	private void warpInProcess(Collection<String> actionLog)
+			throws IOException, TaskException {
+
+		List<Path> inputs = new ArrayList<Path>();
+		for (GraphicsFile gf : source) {
+			if (gf.exists())
+				inputs.add(gf.getFileLocation());
+		}
+		if (inputs.isEmpty()) {
+			String strSource = StringUtils.join(source, "\n");
+			throw new TaskException(getDescription(), "Source file not exist:\n" + strSource);
+		}
+
+		SpatialReference srs = new SpatialReference();
+		if (target.getEpsgId() > -1)
+			srs.ImportFromEPSG(target.getEpsgId());
+		else
+			srs.SetFromUserInput(target.getSrs());
+
+		Box bounds = getExtents() != null ? getExtents() : target.getBounds();
+
+		Warper warper = new Warper();
+		warper.setUseBilinearInterpolation(useBilinearInterpolation);
+		warper.setSrcnodata(Warper.parseNoData(srcnodata));
+		warper.setDstnodata(Warper.parseNoData(dstnodata));
+		warper.setDatatype(datatype);
+
+		actionLog.add(String.format("warp in-process %s %s",
+				StringUtils.join(inputs, " "), target.getFileLocation()));
+		warper.warp(inputs, target.getFileLocation(), srs, bounds,
+				target.getResolution().toDouble());
+	}
+
 	@Override
 	public void rollback() {
 		// Remove the transformed image from temporary storage
@@ -246,6 +319,19 @@ public class Transformer extends BaseTask {
 		this.useBilinearInterpolation = useBilinearInterpolation;
 	}
 
+	public boolean isUseInProcessWarp() {
+		return useInProcessWarp;
+	}
+
+	/**
+	 * Reproject and mosaic the sources in this JVM rather than in a gdalwarp
+	 * process, when the sources and target allow it. Only NetCDF targets are
+	 * supported.
+	 */
+	public void setUseInProcessWarp(boolean useInProcessWarp) {
+		this.useInProcessWarp = useInProcessWarp;
+	}
+
 	public void setSource(List<GraphicsFile> source) {
 		this.source = source;
 	}
@@ -0,0 +1,6 @@
+-- Statistics (categories and ledgers) are now stored as encoded blobs in the
+-- CATS_DATA and LEDGER_DATA columns, which Hibernate adds automatically.
+-- Existing rows are converted when they are first read. Hibernate won't relax
+-- the old constraint on the ledger reference though, so new task ledgers can't
+-- be saved until this has been run.
+ALTER TABLE taskledger ALTER COLUMN ledger DROP NOT NULL;
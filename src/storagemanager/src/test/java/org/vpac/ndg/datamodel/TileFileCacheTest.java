@@ -0,0 +1,280 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.datamodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.ndg.FileUtils;
+import org.vpac.ndg.common.Default;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+
+public class TileFileCacheTest {
+
+	static final int TILE_SIZE = 4;
+
+	private Path tempDir;
+	private TileFileCache cache;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("filecache");
+		cache = new TileFileCache(2, 0);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		cache.close();
+		FileUtils.removeDirectory(tempDir);
+	}
+
+	void writeTile(Path path, int value) throws IOException,
+			InvalidRangeException {
+		NetcdfFileWriter writer = NetcdfFileWriter.createNew(Version.netcdf3,
+				path.toString());
+		try {
+			writer.addDimension(null, "y", TILE_SIZE);
+			writer.addDimension(null, "x", TILE_SIZE);
+			Variable band = writer.addVariable(null, Default.BAND1,
+					DataType.SHORT, "y x");
+			writer.create();
+			Array data = Array.factory(DataType.SHORT,
+					new int[] {TILE_SIZE, TILE_SIZE});
+			for (int i = 0; i < data.getSize(); i++)
+				data.setShort(i, (short) value);
+			writer.write(band, data);
+		} finally {
+			writer.close();
+		}
+	}
+
+	short readFirst(Path path) throws IOException, InvalidRangeException {
+		return cache.readBand(path, new Section("0:0,0:0")).getShort(0);
+	}
+
+	@Test
+	public void testHits() throws Exception {
+		Path a = tempDir.resolve("a.nc");
+		writeTile(a, 1);
+
+		assertEquals(1, readFirst(a));
+		assertArrayEquals(new int[] {TILE_SIZE, TILE_SIZE},
+				cache.getBandShape(a));
+		assertEquals(1, readFirst(a));
+		assertEquals(1, cache.getMisses());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getOpenFiles());
+	}
+
+	@Test
+	public void testLimit() throws Exception {
+		Path a = tempDir.resolve("a.nc");
+		Path b = tempDir.resolve("b.nc");
+		Path c = tempDir.resolve("c.nc");
+		writeTile(a, 1);
+		writeTile(b, 2);
+		writeTile(c, 3);
+
+		readFirst(a);
+		readFirst(b);
+		readFirst(a);
+		readFirst(c);
+		assertEquals(2, cache.getOpenFiles());
+		assertEquals(1, cache.getEvictions());
+
+		// b was the least recently used, so it should have been closed.
+		readFirst(a);
+		assertEquals(3, cache.getMisses());
+		readFirst(b);
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		Path a = tempDir.resolve("a.nc");
+		Path tmp = tempDir.resolve("a.tmp");
+		writeTile(a, 1);
+		assertEquals(1, readFirst(a));
+
+		// Replace the file, like the Committer does.
+		writeTile(tmp, 2);
+		Files.move(tmp, a, StandardCopyOption.REPLACE_EXISTING);
+		cache.invalidate(a);
+
+		assertEquals(2, readFirst(a));
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getOpenFiles());
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final Path a = tempDir.resolve("a.nc");
+		writeTile(a, 1);
+		readFirst(a);
+
+		// Each reader waits inside the callback until the others have
+		// arrived, so this only finishes if they can use the file at once.
+		final int n = TileFileCache.DEFAULT_HANDLES_PER_FILE;
+		final CyclicBarrier barrier = new CyclicBarrier(n);
+		final Set<NetcdfFile> seen = Collections.newSetFromMap(
+				new IdentityHashMap<NetcdfFile, Boolean>());
+		List<Callable<Short>> readers = new ArrayList<Callable<Short>>();
+		for (int i = 0; i < n; i++) {
+			readers.add(new Callable<Short>() {
+				@Override
+				public Short call() throws Exception {
+					return cache.withFile(a,
+							new TileFileCache.FileCallback<Short>() {
+						@Override
+						public Short apply(NetcdfFile nc) throws IOException {
+							synchronized (seen) {
+								seen.add(nc);
+							}
+							try {
+								barrier.await(10, TimeUnit.SECONDS);
+								return nc.findVariable(Default.BAND1)
+										.read("0:0,0:0").getShort(0);
+							} catch (Exception e) {
+								throw new IOException(e);
+							}
+						}
+					});
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(n);
+		try {
+			for (Future<Short> result : executor.invokeAll(readers))
+				assertEquals(1, (short) result.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(n, seen.size());
+		assertEquals(n - 1, cache.getExtraHandles());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getOpenFiles());
+	}
+
+	@Test
+	public void testHandleLimit() throws Exception {
+		final Path a = tempDir.resolve("a.nc");
+		writeTile(a, 1);
+		cache.close();
+		cache = new TileFileCache(2, 0, 2);
+		readFirst(a);
+
+		// More readers than handles: they take turns, and no more than two
+		// are ever reading at once.
+		final AtomicInteger reading = new AtomicInteger();
+		final AtomicInteger mostReading = new AtomicInteger();
+		List<Callable<Short>> readers = new ArrayList<Callable<Short>>();
+		for (int i = 0; i < 16; i++) {
+			readers.add(new Callable<Short>() {
+				@Override
+				public Short call() throws Exception {
+					return cache.withFile(a,
+							new TileFileCache.FileCallback<Short>() {
+						@Override
+						public Short apply(NetcdfFile nc) throws IOException {
+							int r = reading.incrementAndGet();
+							synchronized (mostReading) {
+								mostReading.set(Math.max(r, mostReading.get()));
+							}
+							try {
+								Thread.sleep(5);
+								return nc.findVariable(Default.BAND1)
+										.read("0:0,0:0").getShort(0);
+							} catch (Exception e) {
+								throw new IOException(e);
+							} finally {
+								reading.decrementAndGet();
+							}
+						}
+					});
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (Future<Short> result : executor.invokeAll(readers))
+				assertEquals(1, (short) result.get());
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue(mostReading.get() <= 2);
+		assertTrue(cache.getExtraHandles() <= 1);
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testInvalidateWhileReading() throws Exception {
+		final Path a = tempDir.resolve("a.nc");
+		Path tmp = tempDir.resolve("a.tmp");
+		writeTile(a, 1);
+
+		// Invalidate the file while a handle is borrowed; the handle stays
+		// usable until it is given back.
+		short value = cache.withFile(a, new TileFileCache.FileCallback<Short>() {
+			@Override
+			public Short apply(NetcdfFile nc) throws IOException {
+				cache.invalidate(a);
+				return nc.findVariable(Default.BAND1).read().getShort(0);
+			}
+		});
+		assertEquals(1, value);
+		assertEquals(0, cache.getOpenFiles());
+
+		writeTile(tmp, 2);
+		Files.move(tmp, a, StandardCopyOption.REPLACE_EXISTING);
+		cache.invalidate(a);
+		assertEquals(2, readFirst(a));
+		assertEquals(2, cache.getMisses());
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.datamodel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vpac.ndg.datamodel.VirtualDatasetTest.Layout;
+
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Compares the time taken to open a long time series and read a small window
+ * from it, through NCML and through a {@link VirtualDataset}. This writes
+ * several hundred tiles, and only logs the timings.
+ */
+public class VirtualDatasetSpeedTest {
+
+	final private Logger log = LoggerFactory.getLogger(VirtualDatasetSpeedTest.class);
+
+	static final int TIME_SLICES = 365;
+
+	private VirtualDatasetTest fixture;
+
+	@Before
+	public void setUp() throws Exception {
+		fixture = new VirtualDatasetTest();
+		fixture.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fixture.tearDown();
+	}
+
+	@Test
+	public void testOpenLatency() throws Exception {
+		Layout layout = fixture.createTiles(TIME_SLICES);
+		String band = VirtualDatasetTest.BANDS.get(1);
+		String window = String.format("0:%d,25:27,25:27", TIME_SLICES - 1);
+		for (int i = 0; i < 3; i++) {
+			long start = System.nanoTime();
+			NetcdfDataset ncml = fixture.openNcml(layout);
+			long ncmlOpen = System.nanoTime() - start;
+			try {
+				ncml.findVariable(band).read(window);
+			} finally {
+				ncml.close();
+			}
+			long ncmlTotal = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			NetcdfDataset direct = fixture.openDirect(layout);
+			long directOpen = System.nanoTime() - start;
+			try {
+				direct.findVariable(band).read(window);
+			} finally {
+				direct.close();
+			}
+			long directTotal = System.nanoTime() - start;
+
+			log.info("{} time slices: NCML open {} ms, total {} ms; direct "
+					+ "open {} ms, total {} ms", TIME_SLICES,
+					TimeUnit.NANOSECONDS.toMillis(ncmlOpen),
+					TimeUnit.NANOSECONDS.toMillis(ncmlTotal),
+					TimeUnit.NANOSECONDS.toMillis(directOpen),
+					TimeUnit.NANOSECONDS.toMillis(directTotal));
+		}
+	}
+}
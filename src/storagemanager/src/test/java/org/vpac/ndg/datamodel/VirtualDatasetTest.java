@@ -0,0 +1,289 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.datamodel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.ndg.FileUtils;
+import org.vpac.ndg.common.Default;
+import org.vpac.ndg.datamodel.AggregationDefinition.DimDef;
+import org.vpac.ndg.datamodel.AggregationDefinition.VarDef;
+import org.vpac.ndg.geometry.Point;
+import org.vpac.ndg.query.io.SparseReader;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Section;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+/**
+ * Checks that a {@link VirtualDataset} reads the same data as the equivalent
+ * NCML aggregation.
+ */
+public class VirtualDatasetTest {
+
+	static final int TILE_SIZE = 20;
+	static final int TILES_X = 3;
+	static final int TILES_Y = 2;
+	static final short FILL = -999;
+	static final List<String> BANDS = Arrays.asList("B10", "B20");
+	static final String TIME_UNITS = "days since 2011-01-01";
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("virtual");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.removeDirectory(tempDir);
+	}
+
+	/**
+	 * Describes the tiles of a dataset, indexed by band, time and tile.
+	 */
+	class Layout {
+		List<Path> blanks = new ArrayList<>();
+		List<List<List<Path>>> files = new ArrayList<>();
+		List<Point<Integer>> origins = new ArrayList<>();
+		List<String> sections = new ArrayList<>();
+		List<String> coordValues = new ArrayList<>();
+	}
+
+	/**
+	 * Write a dataset where each time slice only covers a couple of tiles.
+	 */
+	Layout createTiles(int nt) throws IOException, InvalidRangeException {
+		Layout layout = new Layout();
+		int ntiles = TILES_X * TILES_Y;
+		for (int i = 0; i < ntiles; i++) {
+			int x = (i % TILES_X) * TILE_SIZE;
+			int y = (i / TILES_X) * TILE_SIZE;
+			layout.origins.add(new Point<Integer>(x, y));
+			layout.sections.add(String.format("%d:%d,%d:%d", y,
+					y + TILE_SIZE - 1, x, x + TILE_SIZE - 1));
+		}
+		for (int b = 0; b < BANDS.size(); b++) {
+			Path blank = tempDir.resolve(String.format("blank_%d.nc", b));
+			writeTile(blank, -1, 0, 0);
+			layout.blanks.add(blank);
+			List<List<Path>> bandFiles = new ArrayList<>();
+			for (int t = 0; t < nt; t++) {
+				List<Path> row = new ArrayList<>();
+				for (int i = 0; i < ntiles; i++) {
+					if (i == t % ntiles || i == (t + 1) % ntiles) {
+						Path path = tempDir.resolve(String.format(
+								"tile_%d_%d_%d.nc", b, t, i));
+						writeTile(path, t * 10 + b, i % TILES_X, i / TILES_X);
+						row.add(path);
+					} else {
+						row.add(blank);
+					}
+				}
+				bandFiles.add(row);
+			}
+			layout.files.add(bandFiles);
+		}
+		for (int t = 0; t < nt; t++)
+			layout.coordValues.add(Integer.toString(t * 16));
+		return layout;
+	}
+
+	/**
+	 * Write a tile like the ones GDAL creates. If value is negative, the tile
+	 * is blank.
+	 */
+	void writeTile(Path path, int value, int tx, int ty) throws IOException,
+			InvalidRangeException {
+		NetcdfFileWriter writer = NetcdfFileWriter.createNew(Version.netcdf3,
+				path.toString());
+		try {
+			writer.addGroupAttribute(null, new Attribute("Conventions",
+					"CF-1.5"));
+			writer.addDimension(null, "y", TILE_SIZE);
+			writer.addDimension(null, "x", TILE_SIZE);
+			Variable crs = writer.addVariable(null, "crs", DataType.CHAR, "");
+			writer.addVariableAttribute(crs, new Attribute("spatial_ref",
+					"LOCAL_CS[\"test\"]"));
+			Variable xv = writer.addVariable(null, "x", DataType.DOUBLE, "x");
+			writer.addVariableAttribute(xv, new Attribute("units", "m"));
+			Variable yv = writer.addVariable(null, "y", DataType.DOUBLE, "y");
+			writer.addVariableAttribute(yv, new Attribute("units", "m"));
+			Variable band = writer.addVariable(null, Default.BAND1,
+					DataType.SHORT, "y x");
+			writer.addVariableAttribute(band, new Attribute("_FillValue", FILL));
+			writer.addVariableAttribute(band, new Attribute("grid_mapping",
+					"crs"));
+			writer.create();
+
+			Array xs = Array.factory(DataType.DOUBLE, new int[] {TILE_SIZE});
+			Array ys = Array.factory(DataType.DOUBLE, new int[] {TILE_SIZE});
+			for (int i = 0; i < TILE_SIZE; i++) {
+				xs.setDouble(i, tx * TILE_SIZE + i + 0.5);
+				ys.setDouble(i, ty * TILE_SIZE + i + 0.5);
+			}
+			writer.write(xv, xs);
+			writer.write(yv, ys);
+			Array data = Array.factory(DataType.SHORT,
+					new int[] {TILE_SIZE, TILE_SIZE});
+			for (int i = 0; i < data.getSize(); i++) {
+				if (value < 0)
+					data.setShort(i, FILL);
+				else
+					data.setShort(i, (short) (value * 1000 + i));
+			}
+			writer.write(band, data);
+		} finally {
+			writer.close();
+		}
+	}
+
+	NetcdfDataset openNcml(Layout layout) throws IOException {
+		AggregationFactory factory = new AggregationFactory();
+		List<AggregationDefinition> timeSlices = new ArrayList<>();
+		int nt = layout.coordValues.size();
+		for (int t = 0; t < nt; t++) {
+			List<AggregationDefinition> bands = new ArrayList<>();
+			for (int b = 0; b < BANDS.size(); b++) {
+				List<AggregationDefinition> tiles = new ArrayList<>();
+				for (Path path : layout.files.get(b).get(t))
+					tiles.add(new AggregationDefinition(path));
+				bands.add(factory.tile(tiles, "y x", layout.sections));
+			}
+			timeSlices.add(factory.union(bands, BANDS));
+		}
+		AggregationDefinition def = factory.joinNew(timeSlices, BANDS,
+				VarDef.newDimension("time", "int", TIME_UNITS),
+				layout.coordValues);
+		def.getDimensions().add(new DimDef("x",
+				Integer.toString(TILES_X * TILE_SIZE)));
+		def.getVariables().add(VarDef.regularCoordinateAxis("x", "0.5", "1.0"));
+		def.getDimensions().add(new DimDef("y",
+				Integer.toString(TILES_Y * TILE_SIZE)));
+		def.getVariables().add(VarDef.regularCoordinateAxis("y", "0.5", "1.0"));
+		return new AggregationOpener().open(def, "");
+	}
+
+	NetcdfDataset openDirect(Layout layout) throws IOException {
+		VirtualDatasetBuilder builder = new VirtualDatasetBuilder();
+		builder.setGrid(TILES_X * TILE_SIZE, TILES_Y * TILE_SIZE, 0.5, 0.5,
+				1.0);
+		builder.setTime(TIME_UNITS, layout.coordValues);
+		builder.setTiles(layout.origins, TILE_SIZE);
+		for (int b = 0; b < BANDS.size(); b++) {
+			// Unlike NCML, missing tiles don't need to refer to a file.
+			Path blank = layout.blanks.get(b);
+			List<List<Path>> bandFiles = new ArrayList<>();
+			for (List<Path> row : layout.files.get(b)) {
+				List<Path> sparseRow = new ArrayList<>();
+				for (Path path : row)
+					sparseRow.add(path.equals(blank) ? null : path);
+				bandFiles.add(sparseRow);
+			}
+			builder.addBand(BANDS.get(b), blank, bandFiles);
+		}
+		return builder.build();
+	}
+
+	void assertSameData(NetcdfDataset expected, NetcdfDataset actual,
+			String name, String section) throws IOException,
+			InvalidRangeException {
+		Variable ev = expected.findVariable(name);
+		Variable av = actual.findVariable(name);
+		assertEquals(ev.getDataType(), av.getDataType());
+		Array ea = section == null ? ev.read() : ev.read(section);
+		Array aa = section == null ? av.read() : av.read(section);
+		assertArrayEquals(ea.getShape(), aa.getShape());
+		for (int i = 0; i < ea.getSize(); i++) {
+			assertEquals(String.format("%s[%s] at %d", name, section, i),
+					ea.getDouble(i), aa.getDouble(i), 0);
+		}
+	}
+
+	@Test
+	public void testSameAsNcml() throws Exception {
+		Layout layout = createTiles(7);
+		NetcdfDataset ncml = openNcml(layout);
+		NetcdfDataset direct = openDirect(layout);
+		try {
+			assertSameData(ncml, direct, "time", null);
+			assertSameData(ncml, direct, "x", null);
+			assertSameData(ncml, direct, "y", null);
+			for (String band : BANDS) {
+				assertSameData(ncml, direct, band, null);
+				// Within one tile, across tiles, and with strides.
+				assertSameData(ncml, direct, band, "2:4,3:10,5:12");
+				assertSameData(ncml, direct, band, "0:6,15:25,15:45");
+				assertSameData(ncml, direct, band, "0:6:3,1:39:7,0:59:4");
+			}
+			assertEquals(ncml.findVariable(BANDS.get(0))
+					.findAttribute("_FillValue").getNumericValue(),
+					direct.findVariable(BANDS.get(0))
+					.findAttribute("_FillValue").getNumericValue());
+		} finally {
+			ncml.close();
+			direct.close();
+		}
+	}
+
+	@Test
+	public void testIsBlank() throws Exception {
+		Layout layout = createTiles(7);
+		NetcdfDataset direct = openDirect(layout);
+		try {
+			Variable band = direct.findVariable(BANDS.get(0));
+			SparseReader reader = (SparseReader) band.getProxyReader();
+			// Time slice 0 only has tiles 0 and 1 (the first two of the top
+			// row), and time slice 2 has tiles 2 and 3.
+			assertFalse(reader.isBlank(new Section("0:0,0:19,0:39")));
+			assertTrue(reader.isBlank(new Section("0:0,0:19,40:59")));
+			assertTrue(reader.isBlank(new Section("0:0,20:39,0:59")));
+			assertFalse(reader.isBlank(new Section("0:2,20:39,0:59")));
+			// Time slice 1 has tiles 1 and 2; a stride can skip over them.
+			assertTrue(reader.isBlank(new Section("1:1,0:19,0:59:60")));
+			assertFalse(reader.isBlank(new Section("1:1,0:19,0:59:20")));
+
+			Array data = band.read("0:0,0:19,40:59");
+			for (int i = 0; i < data.getSize(); i++)
+				assertEquals(FILL, data.getShort(i));
+		} finally {
+			direct.close();
+		}
+	}
+}
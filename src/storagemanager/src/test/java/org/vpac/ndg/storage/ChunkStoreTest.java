@@ -0,0 +1,129 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.ndg.FileUtils;
+import org.vpac.ndg.storage.util.ChunkStore;
+
+public class ChunkStoreTest {
+
+	private Path tempDir;
+	private ChunkStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("chunkstore");
+		store = new ChunkStore(tempDir.resolve("upload.chunks"));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.removeDirectory(tempDir);
+	}
+
+	String put(String text) throws IOException {
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+		String id = ChunkStore.getId(data, 0, data.length);
+		store.put(id, new ByteArrayInputStream(data));
+		return id;
+	}
+
+	@Test
+	public void testAssemble() throws IOException {
+		assertEquals(0, store.list().size());
+		String a = put("Hello, ");
+		String b = put("world");
+		assertTrue(store.contains(a));
+		assertEquals(2, store.list().size());
+
+		Path target = tempDir.resolve("hello.txt");
+		long size = store.assemble(Arrays.asList(a, b, a), target);
+		assertEquals(19, size);
+		assertArrayEquals("Hello, worldHello, ".getBytes(StandardCharsets.UTF_8),
+				Files.readAllBytes(target));
+
+		store.delete();
+		assertFalse(Files.exists(store.getDirectory()));
+		assertTrue(Files.exists(target));
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		String a = put("first");
+		// Sending a chunk again is harmless.
+		assertEquals(a, put("first"));
+		assertEquals(Collections.singletonList(a), store.list());
+
+		String b = ChunkStore.getId("second".getBytes(StandardCharsets.UTF_8), 0, 6);
+		Path target = tempDir.resolve("out.txt");
+		try {
+			store.assemble(Arrays.asList(a, b), target);
+			fail("Assembled a file with a missing chunk");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		assertFalse(Files.exists(target));
+
+		put("second");
+		store.assemble(Arrays.asList(a, b), target);
+		assertEquals("firstsecond", new String(Files.readAllBytes(target),
+				StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCorrupted() throws IOException {
+		byte[] data = "good".getBytes(StandardCharsets.UTF_8);
+		String id = ChunkStore.getId(data, 0, data.length);
+		try {
+			store.put(id, new ByteArrayInputStream(
+					"bad!".getBytes(StandardCharsets.UTF_8)));
+			fail("Stored a chunk that doesn't match its ID");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		assertFalse(store.contains(id));
+		assertEquals(0, store.list().size());
+		// Nothing should be left behind.
+		assertEquals(0, store.getDirectory().toFile().list().length);
+
+		try {
+			store.put("../escape", new ByteArrayInputStream(data));
+			fail("Accepted an invalid chunk ID");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+}
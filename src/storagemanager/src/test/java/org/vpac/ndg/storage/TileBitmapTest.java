@@ -0,0 +1,104 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.ndg.geometry.Tile;
+import org.vpac.ndg.storage.util.TileBitmap;
+
+public class TileBitmapTest {
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("tilebitmap");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDir)) {
+			for (Path file : files)
+				Files.delete(file);
+		}
+		Files.delete(tempDir);
+	}
+
+	@Test
+	public void testContains() {
+		List<Tile> tiles = Arrays.asList(new Tile(-2, 3), new Tile(4, -1),
+				new Tile(0, 0));
+		TileBitmap bitmap = TileBitmap.of(tiles);
+		assertEquals(3, bitmap.size());
+		for (Tile tile : tiles)
+			assertTrue(tile.toString(), bitmap.contains(tile));
+		assertFalse(bitmap.contains(1, 0));
+		assertFalse(bitmap.contains(-3, 3));
+		assertFalse(bitmap.contains(4, 4));
+		assertFalse(TileBitmap.EMPTY.contains(0, 0));
+	}
+
+	@Test
+	public void testUnion() {
+		TileBitmap bitmap = TileBitmap.of(Arrays.asList(new Tile(1, 1)))
+				.union(Arrays.asList(new Tile(1, 1), new Tile(-5, 10)));
+		assertEquals(2, bitmap.size());
+		assertTrue(bitmap.contains(1, 1));
+		assertTrue(bitmap.contains(-5, 10));
+	}
+
+	@Test
+	public void testReadWrite() throws IOException {
+		TileBitmap bitmap = TileBitmap.of(Arrays.asList(new Tile(-1, 2),
+				new Tile(7, 9), new Tile(3, 3)));
+		Path path = tempDir.resolve("tiles.idx");
+		bitmap.write(path);
+		TileBitmap copy = TileBitmap.read(path);
+		assertEquals(bitmap.getTiles(), copy.getTiles());
+	}
+
+	@Test
+	public void testScan() throws IOException {
+		Files.createFile(tempDir.resolve("B30_tile_x-1_y2.nc"));
+		Files.createFile(tempDir.resolve("B30_tile_x3_y0.nc"));
+		Files.createFile(tempDir.resolve("B300_tile_x5_y5.nc"));
+		Files.createFile(tempDir.resolve("B30_tile_x4_y4.nc_old"));
+
+		TileBitmap bitmap = TileBitmap.scan(tempDir, "B30");
+		assertEquals(2, bitmap.size());
+		assertTrue(bitmap.contains(-1, 2));
+		assertTrue(bitmap.contains(3, 0));
+
+		assertEquals(0, TileBitmap.scan(tempDir.resolve("missing"), "B30")
+				.size());
+	}
+}
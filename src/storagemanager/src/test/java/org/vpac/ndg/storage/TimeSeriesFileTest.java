@@ -0,0 +1,146 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2013 CRCSI - Cooperative Research Centre for Spatial Information
+ * http://www.crcsi.com.au/
+ */
+
+
+package org.vpac.ndg.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.ndg.storage.util.TimeSeriesFile;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.Index;
+
+public class TimeSeriesFileTest {
+
+	static final int WIDTH = 40;
+	static final int HEIGHT = 35;
+	static final short FILL = -999;
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("timeseries");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		new TimeSeriesFile(tempDir.resolve("tile")).delete();
+		Files.deleteIfExists(tempDir);
+	}
+
+	/**
+	 * @return A plane whose values encode the time step and location.
+	 */
+	Array plane(int t) {
+		Array plane = Array.factory(DataType.SHORT, new int[] {HEIGHT, WIDTH});
+		Index ima = plane.getIndex();
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				ima.set(y, x);
+				plane.setShort(ima, value(t, y, x));
+			}
+		}
+		return plane;
+	}
+
+	short value(int t, int y, int x) {
+		return (short) (t * 100 + y * 3 + x);
+	}
+
+	@Test
+	public void test_readWindow() throws Exception {
+		TimeSeriesFile tsf = new TimeSeriesFile(tempDir.resolve("tile"));
+		assertFalse(tsf.exists());
+
+		// Span several segments, and leave a gap.
+		int nt = TimeSeriesFile.SEGMENT_LENGTH * 2 + 5;
+		List<String> ids = new ArrayList<>();
+		for (int t = 0; t < nt; t++) {
+			String id = "ts" + t;
+			ids.add(id);
+			tsf.write(id, t == 7 ? null : plane(t));
+		}
+		assertTrue(tsf.exists());
+
+		TimeSeriesFile reader = new TimeSeriesFile(tempDir.resolve("tile"));
+		reader.load();
+		assertEquals(WIDTH, reader.getWidth());
+		assertEquals(HEIGHT, reader.getHeight());
+		assertEquals(DataType.SHORT, reader.getDataType());
+		assertTrue(reader.contains("ts7"));
+		assertFalse(reader.hasData("ts7"));
+		assertFalse(reader.contains("foo"));
+
+		// A window that straddles several blocks, including the padded edge.
+		int x = 14, y = 30, w = 26, h = 5;
+		Array data = reader.read(x, y, w, h, ids, FILL);
+		assertEquals(Arrays.toString(new int[] {nt, h, w}),
+				Arrays.toString(data.getShape()));
+		Index ima = data.getIndex();
+		for (int t = 0; t < nt; t++) {
+			for (int i = 0; i < h; i++) {
+				for (int j = 0; j < w; j++) {
+					ima.set(t, i, j);
+					short expected = t == 7 ? FILL : value(t, y + i, x + j);
+					assertEquals(expected, data.getShort(ima));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_overwriteAndOrder() throws Exception {
+		TimeSeriesFile tsf = new TimeSeriesFile(tempDir.resolve("tile"));
+		tsf.write("a", plane(1));
+		tsf.write("b", plane(2));
+		// Replace existing data; the slot should be reused.
+		tsf.write("a", plane(3));
+		tsf.load();
+		assertEquals(Arrays.asList("a", "b"), tsf.getTimeSliceIds());
+
+		// Time slices may be requested in any order.
+		Array data = tsf.read(5, 6, 1, 1, Arrays.asList("b", "a"), FILL);
+		assertEquals(value(2, 6, 5), data.getShort(0));
+		assertEquals(value(3, 6, 5), data.getShort(1));
+
+		// Batched writes append in order too.
+		tsf.write(Arrays.asList("c", "b"), Arrays.asList((Array) null, plane(4)));
+		tsf.load();
+		assertEquals(Arrays.asList("a", "b", "c"), tsf.getTimeSliceIds());
+		assertFalse(tsf.hasData("c"));
+		data = tsf.read(5, 6, 1, 1, Arrays.asList("b", "c"), FILL);
+		assertEquals(value(4, 6, 5), data.getShort(0));
+		assertEquals(FILL, data.getShort(1));
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage.util;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.vpac.ndg.common.Default;
+import org.vpac.ndg.common.datamodel.CellSize;
+import org.vpac.ndg.configuration.NdgConfig;
+import org.vpac.ndg.configuration.NdgConfigManager;
+import org.vpac.ndg.geometry.Point;
+import org.vpac.ndg.geometry.Tile;
+import org.vpac.ndg.geometry.TileManager;
+import org.vpac.ndg.rasterdetails.RasterDetails;
+import org.vpac.ndg.storage.dao.DatasetDao;
+import org.vpac.ndg.storage.dao.TimeSliceDao;
+import org.vpac.ndg.storage.model.Band;
+import org.vpac.ndg.storage.model.Dataset;
+import org.vpac.ndg.storage.model.TimeSlice;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.NetcdfFileWriter.Version;
+import ucar.nc2.Variable;
+
+/**
+ * A small dataset in a temporary storage pool, with the database replaced by
+ * in-memory lists. Tiles are {@link #TILE_SIZE} pixels wide, so that they are
+ * cheap to write.
+ */
+class StorageFixture {
+
+	static final int TILE_SIZE = 8;
+	static final CellSize RESOLUTION = CellSize.m500;
+	static final short NODATA = -999;
+
+	final Path root;
+	final Dataset dataset;
+	final Band band;
+	final List<TimeSlice> timeSlices = new ArrayList<>();
+
+	final DatasetDao datasetDao;
+	final DatasetUtil datasetUtil;
+	final TimeSliceUtil timeSliceUtil;
+	final NdgConfigManager ndgConfigManager;
+	final TileManager tileManager;
+
+	StorageFixture(final Path root) {
+		this.root = root;
+
+		dataset = new Dataset("fixture", RESOLUTION, 24 * 60 * 60 * 1000);
+		dataset.setId("ds");
+		band = new Band("B10", true, false);
+		band.setId("b10");
+		band.setType(RasterDetails.INT16);
+		band.setNodata(Short.toString(NODATA));
+
+		datasetUtil = new DatasetUtil() {
+			@Override
+			public Path getPath(Dataset ds) {
+				return root.resolve(ds.getName());
+			}
+		};
+		timeSliceUtil = new TimeSliceUtil();
+		timeSliceUtil.datasetUtil = datasetUtil;
+		timeSliceUtil.timeSliceDao = fake(TimeSliceDao.class, new Object() {
+			@SuppressWarnings("unused")
+			public Dataset getParentDataset(String id) {
+				return dataset;
+			}
+		});
+		datasetDao = fake(DatasetDao.class, new Object() {
+			@SuppressWarnings("unused")
+			public List<TimeSlice> getTimeSlices(String id) {
+				return new ArrayList<>(timeSlices);
+			}
+
+			@SuppressWarnings("unused")
+			public List<Band> getBands(String id) {
+				return new ArrayList<>(Arrays.asList(band));
+			}
+		});
+
+		NdgConfig config = new NdgConfig();
+		NdgConfig.ResolutionSpec spec = new NdgConfig.ResolutionSpec();
+		spec.setCellSize(RESOLUTION);
+		spec.setTileSize(TILE_SIZE);
+		config.setResolutionList(Arrays.asList(spec));
+		config.setGridOriginPointInTargetSrs(new Point<Double>(0.0, 0.0));
+		config.setTimeSeriesStore(true);
+		ndgConfigManager = new NdgConfigManager();
+		ndgConfigManager.setConfig(config);
+		tileManager = new TileManager(ndgConfigManager);
+	}
+
+	/**
+	 * @return An implementation of an interface that forwards calls to the
+	 *         methods of the same name on the target. Other methods throw
+	 *         UnsupportedOperationException.
+	 */
+	static <T> T fake(Class<T> type, final Object target) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(),
+				new Class<?>[] {type}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				Method impl;
+				try {
+					impl = target.getClass().getMethod(method.getName(),
+							method.getParameterTypes());
+				} catch (NoSuchMethodException e) {
+					throw new UnsupportedOperationException(method.getName());
+				}
+				try {
+					impl.setAccessible(true);
+					return impl.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Add a time slice to the dataset. Time slices are one day apart.
+	 */
+	TimeSlice addTimeSlice(Tile... tiles) {
+		int n = timeSlices.size();
+		TimeSlice ts = new TimeSlice(new Date(
+				(365L * 40 + n) * dataset.getPrecision()));
+		ts.setId("ts" + n);
+		if (tiles.length > 0) {
+			ts.setBounds(tileManager.getNngGrid().getBounds(
+					tiles[0].getIndex(), RESOLUTION));
+		}
+		timeSlices.add(ts);
+		return ts;
+	}
+
+	Path getTilePath(TimeSlice ts, Tile tile) {
+		return timeSliceUtil.getFileLocation(ts).resolve(String.format(
+				"%s_tile_x%d_y%d.nc", band.getName(), tile.getX(),
+				tile.getY()));
+	}
+
+	/**
+	 * Write a tile to the storage pool.
+	 * Each pixel has the value {@link #value(int, int, int)}, with the
+	 * northernmost row first.
+	 */
+	Path writeTile(TimeSlice ts, Tile tile, int t) throws IOException {
+		Path path = getTilePath(ts, tile);
+		Files.createDirectories(path.getParent());
+		Array data = Array.factory(DataType.SHORT,
+				new int[] {TILE_SIZE, TILE_SIZE});
+		for (int y = 0; y < TILE_SIZE; y++) {
+			for (int x = 0; x < TILE_SIZE; x++)
+				data.setShort(y * TILE_SIZE + x, value(t, y, x));
+		}
+		write(path, data);
+		return path;
+	}
+
+	/**
+	 * Write a tile that only contains no-data, with the same layout as
+	 * {@link #writeTile(TimeSlice, Tile, int)}.
+	 */
+	Path writeBlankTile(Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		Array data = Array.factory(DataType.SHORT,
+				new int[] {TILE_SIZE, TILE_SIZE});
+		for (int i = 0; i < data.getSize(); i++)
+			data.setShort(i, NODATA);
+		write(path, data);
+		return path;
+	}
+
+	private void write(Path path, Array data) throws IOException {
+		NetcdfFileWriter writer = NetcdfFileWriter.createNew(
+				Version.netcdf3, path.toString());
+		try {
+			writer.addDimension(null, "y", TILE_SIZE);
+			writer.addDimension(null, "x", TILE_SIZE);
+			Variable var = writer.addVariable(null, Default.BAND1,
+					DataType.SHORT, "y x");
+			var.addAttribute(new Attribute("_FillValue", NODATA));
+			writer.create();
+			writer.write(var, data);
+		} catch (InvalidRangeException e) {
+			throw new IOException(e);
+		} finally {
+			writer.close();
+		}
+	}
+
+	static short value(int t, int y, int x) {
+		return (short) (t * 100 + y * TILE_SIZE + x);
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.ndg.FileUtils;
+import org.vpac.ndg.geometry.Tile;
+import org.vpac.ndg.storage.model.TimeSlice;
+
+public class TileManifestTest {
+
+	final Tile a = new Tile(2, 3);
+	final Tile b = new Tile(4, 3);
+	final Tile c = new Tile(-1, 7);
+
+	private Path tempDir;
+	private StorageFixture fixture;
+	private TileManifest manifest;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("tilemanifest");
+		fixture = new StorageFixture(tempDir);
+		manifest = createManifest();
+	}
+
+	/**
+	 * @return A manifest with its own cache, as another process would have.
+	 */
+	TileManifest createManifest() {
+		TileManifest manifest = new TileManifest();
+		manifest.datasetDao = fixture.datasetDao;
+		manifest.datasetUtil = fixture.datasetUtil;
+		manifest.timeSliceUtil = fixture.timeSliceUtil;
+		return manifest;
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.removeDirectory(tempDir);
+	}
+
+	@Test
+	public void testAdd() throws IOException {
+		TimeSlice ts = fixture.addTimeSlice();
+		Files.createDirectories(fixture.timeSliceUtil.getFileLocation(ts));
+
+		manifest.add(ts, fixture.band, Arrays.asList(a));
+		manifest.add(ts, fixture.band, Arrays.asList(a, c));
+		assertTrue(Files.exists(manifest.getPath(ts, fixture.band)));
+		assertTrue(manifest.exists(ts, fixture.band, a));
+		assertFalse(manifest.exists(ts, fixture.band, b));
+		assertTrue(manifest.exists(ts, fixture.band, c));
+		assertEquals(2, manifest.get(ts, fixture.band).size());
+
+		// No tile files were written, so these can only have come from the
+		// manifest file.
+		TileManifest other = createManifest();
+		assertTrue(other.exists(ts, fixture.band, a));
+		assertFalse(other.exists(ts, fixture.band, b));
+		assertTrue(other.exists(ts, fixture.band, c));
+	}
+
+	@Test
+	public void testRebuild() throws IOException {
+		TimeSlice ts = fixture.addTimeSlice();
+		fixture.writeTile(ts, a, 0);
+		fixture.writeTile(ts, b, 0);
+		manifest.add(ts, fixture.band, Arrays.asList(a, c));
+
+		manifest.rebuild(ts, fixture.band);
+		assertTrue(manifest.exists(ts, fixture.band, a));
+		assertTrue(manifest.exists(ts, fixture.band, b));
+		assertFalse(manifest.exists(ts, fixture.band, c));
+		assertTrue(createManifest().exists(ts, fixture.band, b));
+
+		// The whole dataset; the second time slice has no directory.
+		TimeSlice empty = fixture.addTimeSlice();
+		Files.delete(fixture.getTilePath(ts, a));
+		assertEquals(2, manifest.rebuild(fixture.dataset));
+		assertFalse(manifest.exists(ts, fixture.band, a));
+		assertTrue(manifest.exists(ts, fixture.band, b));
+		assertFalse(manifest.exists(empty, fixture.band, a));
+		assertFalse(Files.exists(manifest.getPath(empty, fixture.band)));
+	}
+
+	@Test
+	public void testInvalidate() throws IOException {
+		TimeSlice ts = fixture.addTimeSlice();
+		fixture.writeTile(ts, a, 0);
+		manifest.add(ts, fixture.band, Arrays.asList(a, c));
+		assertTrue(manifest.exists(ts, fixture.band, c));
+
+		manifest.invalidate(ts, fixture.band);
+		assertFalse(Files.exists(manifest.getPath(ts, fixture.band)));
+		assertTrue(manifest.exists(ts, fixture.band, a));
+		assertFalse(manifest.exists(ts, fixture.band, c));
+
+		manifest.add(ts, fixture.band, Arrays.asList(c));
+		assertTrue(manifest.exists(ts, fixture.band, c));
+		manifest.invalidate(ts);
+		assertFalse(Files.exists(manifest.getPath(ts, fixture.band)));
+		assertTrue(manifest.exists(ts, fixture.band, a));
+		assertFalse(manifest.exists(ts, fixture.band, c));
+	}
+
+	@Test
+	public void testRevalidate() throws IOException {
+		TimeSlice ts = fixture.addTimeSlice();
+		Files.createDirectories(fixture.timeSliceUtil.getFileLocation(ts));
+		manifest.add(ts, fixture.band, Arrays.asList(a));
+		assertFalse(manifest.exists(ts, fixture.band, b));
+
+		// Another process commits a tile.
+		createManifest().add(ts, fixture.band, Arrays.asList(b));
+
+		// Until the cache expires, the old answer is given.
+		manifest.revalidateMillis = Long.MAX_VALUE;
+		assertFalse(manifest.exists(ts, fixture.band, b));
+
+		manifest.revalidateMillis = 0;
+		assertTrue(manifest.exists(ts, fixture.band, a));
+		assertTrue(manifest.exists(ts, fixture.band, b));
+
+		// And rolls it back by rebuilding from the tile files.
+		createManifest().rebuild(ts, fixture.band);
+		assertFalse(manifest.exists(ts, fixture.band, a));
+		assertFalse(manifest.exists(ts, fixture.band, b));
+	}
+
+	@Test
+	public void testListingFallback() throws IOException {
+		TimeSlice ts = fixture.addTimeSlice();
+		assertFalse(manifest.exists(ts, fixture.band, a));
+
+		// Tiles imported before manifests existed.
+		manifest.revalidateMillis = 0;
+		fixture.writeTile(ts, a, 0);
+		fixture.writeTile(ts, c, 0);
+		Files.createFile(fixture.timeSliceUtil.getFileLocation(ts)
+				.resolve("B20_tile_x4_y3.nc"));
+		assertTrue(manifest.exists(ts, fixture.band, a));
+		assertFalse(manifest.exists(ts, fixture.band, b));
+		assertTrue(manifest.exists(ts, fixture.band, c));
+		assertFalse(Files.exists(manifest.getPath(ts, fixture.band)));
+
+		// Adding to a missing manifest keeps the tiles that were listed.
+		manifest.add(ts, fixture.band, Arrays.asList(b));
+		TileManifest other = createManifest();
+		assertTrue(other.exists(ts, fixture.band, a));
+		assertTrue(other.exists(ts, fixture.band, b));
+		assertTrue(other.exists(ts, fixture.band, c));
+	}
+}
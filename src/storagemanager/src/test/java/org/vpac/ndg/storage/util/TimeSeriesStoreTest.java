@@ -0,0 +1,390 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.storage.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vpac.ndg.FileUtils;
+import org.vpac.ndg.geometry.Box;
+import org.vpac.ndg.geometry.NestedGrid;
+import org.vpac.ndg.geometry.Point;
+import org.vpac.ndg.geometry.Tile;
+import org.vpac.ndg.storage.model.Band;
+import org.vpac.ndg.storage.model.Dataset;
+import org.vpac.ndg.storage.model.TimeSlice;
+import org.vpac.ndg.storagemanager.GraphicsFile;
+import org.vpac.ndg.storagemanager.IGraphicsFile;
+
+import ucar.ma2.Array;
+import ucar.ma2.Index;
+import ucar.nc2.Variable;
+import ucar.nc2.dataset.NetcdfDataset;
+
+public class TimeSeriesStoreTest {
+
+	final Tile tile = new Tile(2, 3);
+
+	private Path tempDir;
+	private StorageFixture fixture;
+	private TileManifest manifest;
+	private TimeSeriesStore store;
+	/** Backfills that have been scheduled but not run. */
+	private List<Runnable> queued;
+	/** Runs once, the next time the store checks whether a tile exists. */
+	private Runnable onTileCheck;
+	/** Runs once, the next time the store reads a tile. */
+	private Runnable onRead;
+
+	@Before
+	public void setUp() throws IOException {
+		tempDir = Files.createTempDirectory("timeseriesstore");
+		fixture = new StorageFixture(tempDir);
+		manifest = new TileManifest();
+		manifest.datasetDao = fixture.datasetDao;
+		manifest.datasetUtil = fixture.datasetUtil;
+		manifest.timeSliceUtil = fixture.timeSliceUtil;
+
+		final Path blank = fixture.writeBlankTile(tempDir.resolve("blank.nc"));
+		BandUtil bandUtil = new BandUtil() {
+			@Override
+			public IGraphicsFile getBlankTile(Dataset ds, Band band) {
+				return new GraphicsFile(blank);
+			}
+		};
+
+		queued = new ArrayList<>();
+		store = createStore(bandUtil);
+	}
+
+	TimeSeriesStore createStore(BandUtil bandUtil) {
+		TimeSeriesStore store = new TimeSeriesStore() {
+			@Override
+			boolean hasTile(Dataset ds, Band band, TimeSlice ts, Tile tile) {
+				if (onTileCheck != null) {
+					Runnable hook = onTileCheck;
+					onTileCheck = null;
+					hook.run();
+				}
+				return super.hasTile(ds, band, ts, tile);
+			}
+
+			@Override
+			Array readTile(Path path) throws IOException {
+				if (onRead != null) {
+					Runnable hook = onRead;
+					onRead = null;
+					hook.run();
+				}
+				return super.readTile(path);
+			}
+		};
+		store.datasetDao = fixture.datasetDao;
+		store.datasetUtil = fixture.datasetUtil;
+		store.timeSliceUtil = fixture.timeSliceUtil;
+		store.bandUtil = bandUtil;
+		store.tileManager = fixture.tileManager;
+		store.ndgConfigManager = fixture.ndgConfigManager;
+		store.tileManifest = manifest;
+		store.setBackfillExecutor(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				queued.add(command);
+			}
+		});
+		return store;
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.removeDirectory(tempDir);
+	}
+
+	void runBackfills() {
+		while (!queued.isEmpty())
+			queued.remove(0).run();
+	}
+
+	/**
+	 * Write a tile to a new time slice, as the Committer does.
+	 */
+	TimeSlice commit(int t) throws IOException {
+		TimeSlice ts = fixture.addTimeSlice(tile);
+		fixture.writeTile(ts, tile, t);
+		manifest.add(ts, fixture.band, Arrays.asList(tile));
+		store.update(fixture.dataset, fixture.band, ts, Arrays.asList(tile));
+		return ts;
+	}
+
+	List<String> storedIds() throws IOException {
+		TimeSeriesFile file = store.getFile(fixture.dataset, fixture.band,
+				tile);
+		file.load();
+		return file.getTimeSliceIds();
+	}
+
+	Path marker() {
+		return store.getMarker(fixture.dataset, fixture.band, tile);
+	}
+
+	/**
+	 * @return The bounds of a window of the tile, in pixels from its top left.
+	 */
+	Box window(int x, int y, int w, int h) {
+		NestedGrid nng = fixture.tileManager.getNngGrid();
+		Point<Integer> origin = nng.tileToCell(tile.getIndex(),
+				StorageFixture.RESOLUTION);
+		Point<Double> ul = nng.cellToMap(new Point<Integer>(
+				origin.getX() + x, origin.getY() + y),
+				StorageFixture.RESOLUTION);
+		double res = StorageFixture.RESOLUTION.toDouble();
+		return new Box(ul.getX(), ul.getY() - h * res, ul.getX() + w * res,
+				ul.getY());
+	}
+
+	NetcdfDataset open(Box bounds) throws IOException {
+		return store.open(fixture.dataset, fixture.timeSlices,
+				Arrays.asList(fixture.band), bounds);
+	}
+
+	@Test
+	public void test_backfillIsDeferred() throws Exception {
+		// Committed before the store was enabled.
+		TimeSlice ts0 = fixture.addTimeSlice(tile);
+		fixture.writeTile(ts0, tile, 0);
+		manifest.add(ts0, fixture.band, Arrays.asList(tile));
+
+		commit(1);
+		assertFalse(store.getFile(fixture.dataset, fixture.band, tile)
+				.exists());
+		assertTrue(Files.exists(marker()));
+		assertEquals(1, queued.size());
+		assertNull(open(window(0, 0, 1, 1)));
+
+		// Committing again while the store is pending doesn't start another
+		// backfill.
+		commit(2);
+		assertEquals(1, queued.size());
+
+		runBackfills();
+		assertEquals(Arrays.asList("ts0", "ts1", "ts2"), storedIds());
+		assertFalse(Files.exists(marker()));
+
+		// Now that the store exists, new time slices are written directly.
+		commit(3);
+		assertTrue(queued.isEmpty());
+		assertEquals(Arrays.asList("ts0", "ts1", "ts2", "ts3"), storedIds());
+	}
+
+	@Test
+	public void test_commitDuringBackfill() throws Exception {
+		commit(0);
+		// Commit another time slice after the backfill has started reading.
+		onTileCheck = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					commit(1);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		runBackfills();
+		assertEquals(Arrays.asList("ts0", "ts1"), storedIds());
+		assertFalse(Files.exists(marker()));
+	}
+
+	@Test
+	public void test_open() throws Exception {
+		commit(0);
+		// A time slice without this tile.
+		fixture.addTimeSlice(new Tile(0, 0));
+		commit(2);
+		runBackfills();
+
+		NetcdfDataset ds = open(window(3, 2, 2, 2));
+		assertNotNull(ds);
+		try {
+			assertEquals(2, ds.findDimension("time").getLength());
+			Variable var = ds.findVariable(fixture.band.getName());
+			assertEquals("[2, 2, 2]", Arrays.toString(var.getShape()));
+			Array data = var.read();
+			Index ima = data.getIndex();
+			int[] ts = {0, 2};
+			for (int t = 0; t < 2; t++) {
+				// Rows increase going north, unlike the tile.
+				for (int i = 0; i < 2; i++) {
+					for (int j = 0; j < 2; j++) {
+						ima.set(t, i, j);
+						assertEquals(StorageFixture.value(ts[t], 3 - i, 3 + j),
+								data.getShort(ima));
+					}
+				}
+			}
+		} finally {
+			ds.close();
+		}
+
+		// Too large to be worth reading from the store.
+		assertNull(open(window(0, 0, TimeSeriesStore.MAX_WINDOW + 1, 1)));
+	}
+
+	@Test
+	public void test_openStale() throws Exception {
+		commit(0);
+		runBackfills();
+		assertNotNull(open(window(0, 0, 1, 1)));
+
+		// A tile that was committed without updating the store.
+		TimeSlice ts1 = fixture.addTimeSlice(tile);
+		fixture.writeTile(ts1, tile, 1);
+		manifest.add(ts1, fixture.band, Arrays.asList(tile));
+		assertNull(open(window(0, 0, 1, 1)));
+	}
+
+	@Test
+	public void test_invalidateDuringBackfill() throws Exception {
+		commit(0);
+		store.invalidate(fixture.dataset, fixture.band, Arrays.asList(tile));
+		runBackfills();
+		assertFalse(store.getFile(fixture.dataset, fixture.band, tile)
+				.exists());
+		assertFalse(Files.exists(marker()));
+
+		// The next commit starts again.
+		commit(1);
+		assertEquals(1, queued.size());
+		runBackfills();
+		assertEquals(Arrays.asList("ts0", "ts1"), storedIds());
+	}
+
+	@Test
+	public void test_resumeIncomplete() throws Exception {
+		commit(0);
+		runBackfills();
+
+		// As if the process stopped before the store was finished.
+		TimeSlice ts1 = fixture.addTimeSlice(tile);
+		fixture.writeTile(ts1, tile, 1);
+		manifest.add(ts1, fixture.band, Arrays.asList(tile));
+		Files.createFile(marker());
+		store = createStore(store.bandUtil);
+
+		commit(2);
+		assertEquals(1, queued.size());
+		runBackfills();
+		assertEquals(Arrays.asList("ts0", "ts1", "ts2"), storedIds());
+		assertFalse(Files.exists(marker()));
+	}
+
+	@Test
+	public void test_updateDuringInvalidate() throws Exception {
+		commit(0);
+		runBackfills();
+
+		// The store is deleted after the commit has checked it, but before
+		// it writes. It must not be recreated with only the new time slice.
+		onRead = new Runnable() {
+			@Override
+			public void run() {
+				store.invalidate(fixture.dataset, fixture.band,
+						Arrays.asList(tile));
+			}
+		};
+		commit(1);
+		assertFalse(store.getFile(fixture.dataset, fixture.band, tile)
+				.exists());
+		assertTrue(Files.exists(marker()));
+		assertEquals(1, queued.size());
+		runBackfills();
+		assertEquals(Arrays.asList("ts0", "ts1"), storedIds());
+	}
+
+	@Test
+	public void test_concurrentWriters() throws Exception {
+		commit(0);
+		runBackfills();
+
+		// Two stores in the same process, e.g. two committers, write to the
+		// same tile at once.
+		final int n = 20;
+		final List<TimeSlice> tss = new ArrayList<>();
+		for (int t = 1; t <= 2 * n; t++) {
+			TimeSlice ts = fixture.addTimeSlice(tile);
+			fixture.writeTile(ts, tile, t);
+			manifest.add(ts, fixture.band, Arrays.asList(tile));
+			tss.add(ts);
+		}
+		final TimeSeriesStore other = createStore(store.bandUtil);
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		List<Future<Void>> results = new ArrayList<>();
+		try {
+			for (int i = 0; i < 2; i++) {
+				final TimeSeriesStore writer = i == 0 ? store : other;
+				final int first = i;
+				results.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						barrier.await(10, TimeUnit.SECONDS);
+						for (int t = first; t < tss.size(); t += 2) {
+							writer.update(fixture.dataset, fixture.band,
+									tss.get(t), Arrays.asList(tile));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results)
+				result.get();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertTrue(queued.isEmpty());
+		List<String> ids = storedIds();
+		assertEquals(2 * n + 1, ids.size());
+		for (TimeSlice ts : tss)
+			assertTrue(ids.contains(ts.getId()));
+		NetcdfDataset ds = open(window(0, 0, 1, 1));
+		assertNotNull(ds);
+		ds.close();
+	}
+}
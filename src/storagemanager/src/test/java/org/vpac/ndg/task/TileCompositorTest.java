@@ -0,0 +1,219 @@
+/*
+ * This file is part of the Raster Storage Archive (RSA).
+ *
+ * The RSA is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * The RSA is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * the RSA.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2016 VPAC Innovations - http://vpac-innovations.com.au
+ */
+
+package org.vpac.ndg.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.osr.SpatialReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.vpac.ndg.FileUtils;
+import org.vpac.ndg.rasterdetails.RasterDetails;
+import org.vpac.ndg.rasterservices.Warper;
+import org.vpac.ndg.storagemanager.GraphicsFile;
+
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFile;
+
+/**
+ * Checks that compositing tiles in-process gives the same result as
+ * mosaicking them with gdalwarp, which is what {@link TileUpdater} does when
+ * inProcessComposite is off.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration({"/spring/config/TestBeanLocations.xml"})
+public class TileCompositorTest extends AbstractJUnit4SpringContextTests {
+
+	private static final int SIZE = 16;
+	private static final double RES = 100.0;
+
+	private Path tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		gdal.AllRegister();
+		tempDir = FileUtils.createTmpLocation();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.removeDirectory(tempDir);
+	}
+
+	@Test
+	public void testByte() throws Exception {
+		compare(RasterDetails.BYTE, 0);
+	}
+
+	@Test
+	public void testInt16() throws Exception {
+		compare(RasterDetails.INT16, -999);
+	}
+
+	@Test
+	public void testInt32() throws Exception {
+		compare(RasterDetails.INT32, -999);
+	}
+
+	@Test
+	public void testFloat32() throws Exception {
+		compare(RasterDetails.FLOAT32, -999);
+	}
+
+	@Test
+	public void testFloat64() throws Exception {
+		compare(RasterDetails.FLOAT64, -999);
+	}
+
+	/**
+	 * Overlay a partial tile on an existing one with both methods, and check
+	 * that the outputs match.
+	 */
+	private void compare(RasterDetails type, double nodata) throws Exception {
+		boolean floating = type == RasterDetails.FLOAT32
+				|| type == RasterDetails.FLOAT64;
+
+		// The existing tile is full, apart from a few rows at the top.
+		double[] old = new double[SIZE * SIZE];
+		for (int y = 0; y < SIZE; y++) {
+			for (int x = 0; x < SIZE; x++) {
+				if (y < 4)
+					old[y * SIZE + x] = nodata;
+				else
+					old[y * SIZE + x] = 1 + (y * SIZE + x) % 100;
+			}
+		}
+
+		// The new tile only covers the right half, and it has no data for
+		// some of the rows that the existing tile is missing too.
+		double[] update = new double[SIZE * SIZE];
+		for (int y = 0; y < SIZE; y++) {
+			for (int x = 0; x < SIZE; x++) {
+				double value;
+				if (x < SIZE / 2 || y < 2)
+					value = nodata;
+				else if (floating && x == y)
+					value = Double.NaN;
+				else if (floating)
+					value = 100.25 + x * 0.5;
+				else
+					value = 120 + x;
+				update[y * SIZE + x] = value;
+			}
+		}
+
+		String nd = Double.toString(nodata);
+		List<GraphicsFile> source = new ArrayList<GraphicsFile>();
+		source.add(new GraphicsFile(writeTile("old.nc", type, nodata, old)));
+		source.add(new GraphicsFile(writeTile("new.nc", type, nodata, update)));
+
+		GraphicsFile expected = new GraphicsFile(tempDir.resolve(
+				"gdalwarp.nc"));
+		Transformer transformer = new Transformer();
+		transformer.setSource(source);
+		transformer.setTarget(expected);
+		transformer.setSrcnodata(nd);
+		transformer.setDstnodata(nd);
+		transformer.setDatatype(type);
+		transformer.initialise();
+		transformer.execute(new ArrayList<String>(), null);
+
+		GraphicsFile actual = new GraphicsFile(tempDir.resolve(
+				"composite.nc"));
+		TileCompositor compositor = new TileCompositor();
+		compositor.setSource(source);
+		compositor.setTarget(actual);
+		compositor.setSrcnodata(nd);
+		compositor.setDstnodata(nd);
+		compositor.setDatatype(type);
+		compositor.initialise();
+		compositor.execute(new ArrayList<String>(), null);
+
+		Array a = readBand(expected.getFileLocation());
+		Array b = readBand(actual.getFileLocation());
+		assertTrue(Arrays.equals(a.getShape(), b.getShape()));
+		int nNodata = 0;
+		for (int i = 0; i < a.getSize(); i++) {
+			double va = a.getDouble(i);
+			double vb = b.getDouble(i);
+			if (Double.isNaN(va)) {
+				assertTrue(String.format("Cell %d of %s", i, type),
+						Double.isNaN(vb));
+				continue;
+			}
+			assertEquals(String.format("Cell %d of %s", i, type), va, vb, 0.0);
+			if (va == nodata)
+				nNodata++;
+		}
+		// Rows 0 and 1 of the right half, and rows 0-3 of the left half.
+		assertEquals(2 * SIZE / 2 + 4 * SIZE / 2, nNodata);
+	}
+
+	/**
+	 * Write a tile with GDAL's netCDF driver, as gdalwarp would.
+	 */
+	private Path writeTile(String name, RasterDetails type, double nodata,
+			double[] values) throws IOException {
+		Path path = tempDir.resolve(name);
+		Dataset mem = gdal.GetDriverByName("MEM").Create("", SIZE, SIZE, 1,
+				type.toInt());
+		try {
+			mem.SetGeoTransform(new double[] {
+					1000000.0, RES, 0.0, -2000000.0, 0.0, -RES});
+			SpatialReference srs = new SpatialReference();
+			srs.ImportFromEPSG(3577);
+			mem.SetProjection(srs.ExportToWkt());
+			Band band = mem.GetRasterBand(1);
+			band.SetNoDataValue(nodata);
+			band.WriteRaster(0, 0, SIZE, SIZE, values);
+			Dataset nc = gdal.GetDriverByName("netCDF").CreateCopy(
+					path.toString(), mem);
+			if (nc == null)
+				throw new IOException("Could not write " + path);
+			nc.delete();
+		} finally {
+			mem.delete();
+		}
+		return path;
+	}
+
+	private Array readBand(Path file) throws IOException {
+		NetcdfFile nc = NetcdfFile.open(file.toString());
+		try {
+			return nc.findVariable(Warper.BAND_NAME).read();
+		} finally {
+			nc.close();
+		}
+	}
+}
@@ -46,9 +46,15 @@ import org.vpac.ndg.application.Constant;
 import org.vpac.ndg.common.datamodel.CellSize;
 import org.vpac.ndg.exceptions.TaskException;
 import org.vpac.ndg.exceptions.TaskInitialisationException;
+import org.vpac.ndg.geometry.Box;
+import org.vpac.ndg.geometry.Projection;
 import org.vpac.ndg.rasterservices.FileInformation;
+import org.vpac.ndg.rasterservices.Warper;
 import org.vpac.ndg.storagemanager.GraphicsFile;
 
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFile;
+
 /**
  * This is the test class for Transformer class.
  * It check whether: 
@@ -173,4 +179,79 @@ public class TransformerTest extends AbstractJUnit4SpringContextTests {
 			log.error("Could not delete temporary directory. {}", e);	
 		}
 	}	
+
+	/**
+	 * Check that the in-process warper gives the same result as gdalwarp.
+	 */
+	@Test
+	public void testInProcessTransformation() throws Exception {
+		Path originalImage = Paths.get("../../data/small_landsat/LS7_ETM_095_082_20100116_B30.nc");
+		assertTrue(Files.exists(originalImage));
+		Path tempDir = FileUtils.createTmpLocation();
+
+		try {
+			GraphicsFile sourceImage = new GraphicsFile(originalImage);
+			List<GraphicsFile> source = new ArrayList<GraphicsFile>();
+			source.add(sourceImage);
+
+			// Align the bounds to the grid, as tiles are.
+			double res = CellSize.m100.toDouble();
+			Box bounds = Projection.transform(sourceImage.getBounds(),
+					CellSize.m100, sourceImage.getEpsgId(), 3112);
+			bounds = new Box(
+					Math.floor(bounds.getXMin() / res) * res,
+					Math.floor(bounds.getYMin() / res) * res,
+					Math.ceil(bounds.getXMax() / res) * res,
+					Math.ceil(bounds.getYMax() / res) * res);
+
+			List<Path> outputs = new ArrayList<Path>();
+			for (boolean inProcess : new boolean[] {false, true}) {
+				GraphicsFile target = new GraphicsFile(tempDir.resolve(
+						String.format("reprojected_%s.nc", inProcess)));
+				target.setEpsgId(3112);
+				target.setResolution(CellSize.m100);
+				target.setBounds(bounds);
+
+				Transformer transformer = new Transformer();
+				transformer.setSource(source);
+				transformer.setTarget(target);
+				transformer.setSrcnodata("-999.0");
+				transformer.setDstnodata("-999.0");
+				transformer.setUseBilinearInterpolation(true);
+				transformer.setUseInProcessWarp(inProcess);
+				transformer.initialise();
+				transformer.execute(new ArrayList<String>(), null);
+				outputs.add(target.getFileLocation());
+			}
+
+			FileInformation fi = FileInformation.read(outputs.get(1));
+			assertEquals(3112, fi.getEpsgId());
+			assertEquals(res, fi.getPixelSizeX(), 0.0);
+			assertEquals("-999.0", fi.getNoData());
+
+			Array expected = readBand(outputs.get(0));
+			Array actual = readBand(outputs.get(1));
+			assertEquals(expected.getSize(), actual.getSize());
+			// Allow for cells at the edge of the data and rounding of the
+			// approximate transformation.
+			int mismatched = 0;
+			for (int i = 0; i < expected.getSize(); i++) {
+				if (Math.abs(expected.getDouble(i) - actual.getDouble(i)) > 1.0)
+					mismatched++;
+			}
+			log.info("{} of {} cells differ", mismatched, expected.getSize());
+			assertTrue(mismatched < expected.getSize() / 100);
+		} finally {
+			FileUtils.removeDirectory(tempDir);
+		}
+	}
+
+	private Array readBand(Path file) throws IOException {
+		NetcdfFile nc = NetcdfFile.open(file.toString());
+		try {
+			return nc.findVariable(Warper.BAND_NAME).read();
+		} finally {
+			nc.close();
+		}
+	}
 }